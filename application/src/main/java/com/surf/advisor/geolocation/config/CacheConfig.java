@@ -0,0 +1,48 @@
+package com.surf.advisor.geolocation.config;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.amazonaws.geo.Geo;
+import com.amazonaws.geo.GeoIndexRouter;
+import com.amazonaws.geo.s2.internal.GeoQueryClient;
+import com.surf.advisor.geolocation.query.cache.PointCache;
+import com.surf.advisor.geolocation.query.cache.TileCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class CacheConfig {
+
+  @Value("${geo.cache.point.maximum-size:0}")
+  private long pointCacheMaximumSize;
+
+  @Value("${geo.cache.point.ttl-seconds:60}")
+  private long pointCacheTtlSeconds;
+
+  @Value("${geo.cache.point.negative-ttl-seconds:0}")
+  private long pointCacheNegativeTtlSeconds;
+
+  @Value("${geo.cache.tile.maximum-megabytes:0}")
+  private long tileCacheMaximumMegabytes;
+
+  @Value("${geo.cache.tile.ttl-seconds:60}")
+  private long tileCacheTtlSeconds;
+
+  @Value("${geo.cache.tile.min-level:6}")
+  private int tileCacheMinLevel;
+
+  @Value("${geo.cache.tile.max-level:14}")
+  private int tileCacheMaxLevel;
+
+  @Bean
+  public PointCache pointCache() {
+    return new PointCache(pointCacheMaximumSize, pointCacheTtlSeconds, pointCacheNegativeTtlSeconds, SECONDS);
+  }
+
+  @Bean
+  public TileCache tileCache(Geo geo, GeoIndexRouter geoIndexRouter, GeoQueryClient geoQueryClient, String tableName) {
+    return new TileCache(geo, geoIndexRouter, geoQueryClient, tableName,
+      tileCacheMaximumMegabytes << 20, tileCacheTtlSeconds, SECONDS, tileCacheMinLevel, tileCacheMaxLevel);
+  }
+}
@@ -0,0 +1,43 @@
+package com.surf.advisor.geolocation.config;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBStreams;
+import com.surf.advisor.geolocation.query.feed.ChangeFeed;
+import com.surf.advisor.geolocation.query.feed.DynamoDbStreamsChangeFeed;
+import com.surf.advisor.geolocation.query.feed.StaleChangeFilter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+
+@Configuration
+@ConditionalOnProperty("geo.change-feed.enabled")
+public class ChangeFeedConfig {
+
+  @Value("${geo.change-feed.poll-millis:1000}")
+  private long changeFeedPollMillis;
+
+  /**
+   * The changes are published as application events, to the same listeners as the writes of this node, unless they
+   * were written before a write of this node whose record the feed did not deliver yet
+   */
+  @Bean
+  public StaleChangeFilter staleChangeFilter(ApplicationEventPublisher eventPublisher) {
+    return new StaleChangeFilter(eventPublisher::publishEvent);
+  }
+
+  @Bean(destroyMethod = "stop")
+  public ChangeFeed changeFeed(AmazonDynamoDB amazonDynamoDB, AmazonDynamoDBStreams amazonDynamoDBStreams,
+                               String tableName, StaleChangeFilter staleChangeFilter) {
+    return new DynamoDbStreamsChangeFeed(amazonDynamoDB, amazonDynamoDBStreams, tableName, staleChangeFilter,
+      changeFeedPollMillis);
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void startChangeFeed(ApplicationReadyEvent event) {
+    event.getApplicationContext().getBean(ChangeFeed.class).start();
+  }
+}
@@ -1,20 +1,41 @@
 package com.surf.advisor.geolocation.config;
 
-import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
+import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.geo.Geo;
 import com.amazonaws.geo.GeoConfig;
+import com.amazonaws.geo.GeoIndexRouter;
+import com.amazonaws.geo.GeoQueryHelper;
+import com.amazonaws.geo.s2.internal.AdaptiveConcurrencyLimiter;
 import com.amazonaws.geo.s2.internal.GeoQueryClient;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsyncClientBuilder;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBStreams;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBStreamsClientBuilder;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.dashlabs.dash.geo.cache.CoveringCache;
+import com.dashlabs.dash.geo.model.QueryCostModel;
+import com.dashlabs.dash.geo.s2.internal.S2Manager;
+import com.google.common.base.Optional;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.stream.IntStream;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 
 @Configuration
 public class DynamoDbConfig {
@@ -31,9 +52,99 @@ public class DynamoDbConfig {
   @Value("${amazon.end-point.url}")
   private String awsDynamoDBEndPoint;
 
+  @Value("${amazon.streams.end-point.url:streams.dynamodb.${amazon.region}.amazonaws.com}")
+  private String awsDynamoDBStreamsEndPoint;
+
   @Value("${amazon.tableName:GEOLOCATION}")
   private String tableName;
 
+  @Value("${geo.covering.min-level:0}")
+  private int coveringMinLevel;
+
+  @Value("${geo.covering.max-level:30}")
+  private int coveringMaxLevel;
+
+  @Value("${geo.covering.max-cells:0}")
+  private int coveringMaxCells;
+
+  @Value("${geo.covering.compare:false}")
+  private boolean coveringComparison;
+
+  @Value("${geo.covering.cache.enabled:false}")
+  private boolean coveringCacheEnabled;
+
+  @Value("${geo.covering.cache.maximum-size:1000}")
+  private long coveringCacheMaximumSize;
+
+  @Value("${geo.covering.cache.ttl-seconds:3600}")
+  private long coveringCacheTtlSeconds;
+
+  @Value("${geo.covering.cache.quantum-degrees:0.01}")
+  private double coveringCacheQuantumDegrees;
+
+  @Value("${geo.covering.cache.preload.tile-degrees:0}")
+  private double preloadTileDegrees;
+
+  @Value("${geo.covering.cache.preload.min-latitude:-90}")
+  private double preloadMinLatitude;
+
+  @Value("${geo.covering.cache.preload.min-longitude:-180}")
+  private double preloadMinLongitude;
+
+  @Value("${geo.covering.cache.preload.max-latitude:90}")
+  private double preloadMaxLatitude;
+
+  @Value("${geo.covering.cache.preload.max-longitude:180}")
+  private double preloadMaxLongitude;
+
+  @Value("${geo.planner.enabled:false}")
+  private boolean plannerEnabled;
+
+  @Value("${geo.planner.round-trip-cost:1.0}")
+  private double plannerRoundTripCost;
+
+  @Value("${geo.planner.item-cost:0.01}")
+  private double plannerItemCost;
+
+  @Value("${geo.planner.expected-item-count:1000000000}")
+  private double plannerExpectedItemCount;
+
+  @Value("${geo.filter-pushdown.enabled:false}")
+  private boolean filterPushdown;
+
+  @Value("${geo.index.additional-key-lengths:}")
+  private int[] additionalKeyLengths;
+
+  @Value("${geo.index.query-ready-key-lengths:}")
+  private int[] queryReadyKeyLengths;
+
+  @Value("${geo.query.async.max-connections:50}")
+  private int asyncMaxConnections;
+
+  @Value("${geo.query.timeout-millis:0}")
+  private long queryTimeoutMillis;
+
+  @Value("${geo.query.hedge.budget-percent:0}")
+  private double hedgeBudgetPercent;
+
+  @Value("${geo.query.limiter.initial-limit:8}")
+  private int limiterInitialLimit;
+
+  @Value("${geo.query.limiter.min-limit:2}")
+  private int limiterMinLimit;
+
+  @Value("${geo.query.limiter.max-limit:50}")
+  private int limiterMaxLimit;
+
+  @Value("${geo.query.limiter.max-queued:500}")
+  private int limiterMaxQueued;
+
+  @Value("${geo.query.limiter.latency-tolerance:2.0}")
+  private double limiterLatencyTolerance;
+
+  @Value("${geo.virtual-threads.enabled:false}")
+  private boolean virtualThreads;
+
   @Bean
   public String tableName() {
     return tableName;
@@ -45,14 +156,85 @@ public class DynamoDbConfig {
   }
 
   @Bean
-  public GeoQueryClient geoQueryClient() {
+  public GeoQueryClient geoQueryClient(ObjectProvider<AmazonDynamoDBAsync> amazonDynamoDBAsync) {
+    var limiter = new AdaptiveConcurrencyLimiter(limiterInitialLimit, limiterMinLimit, limiterMaxLimit,
+      limiterMaxQueued, limiterLatencyTolerance);
+
+    // blocking pages on a virtual thread each, bounded by the limiter only, instead of the async client
     return new GeoQueryClient(
       amazonDynamoDBConfig(),
-      new ThreadPoolExecutor(4, 8, 0L, MILLISECONDS, new LinkedBlockingQueue<>())
+      geoQueryExecutor(),
+      amazonDynamoDBAsync.getIfAvailable(),
+      queryTimeoutMillis,
+      hedgeBudgetPercent,
+      limiter
     );
   }
 
+  /**
+   * Runs the blocking page requests of the geo query client
+   */
+  @Bean(destroyMethod = "shutdown")
+  public ExecutorService geoQueryExecutor() {
+    if (virtualThreads) {
+      return VirtualThreads.newVirtualThreadPerTaskExecutor();
+    }
+    // the limiter bounds the tasks, so the queue only holds tasks submitted while a thread finishes its last one
+    var executor = new ThreadPoolExecutor(limiterMaxLimit, limiterMaxLimit, 60L, SECONDS, new LinkedBlockingQueue<>());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  @Bean
+  public S2Manager s2Manager() {
+    return new S2Manager();
+  }
+
   @Bean
+  public GeoQueryHelper geoQueryHelper() {
+    var coveringCache = coveringCacheEnabled
+      ? new CoveringCache(coveringCacheMaximumSize, coveringCacheTtlSeconds, SECONDS, coveringCacheQuantumDegrees)
+      : null;
+
+    var geoQueryHelper = new GeoQueryHelper(s2Manager(), coveringCache);
+
+    if (coveringCache != null && preloadTileDegrees > 0) {
+      geoQueryHelper.preloadCoverings(preloadMinLatitude, preloadMinLongitude,
+        preloadMaxLatitude, preloadMaxLongitude, preloadTileDegrees, geoConfig());
+    }
+    return geoQueryHelper;
+  }
+
+  @Bean
+  public Geo geo() {
+    return new Geo(s2Manager(), geoQueryHelper());
+  }
+
+  @Bean
+  public GeoIndexRouter geoIndexRouter() {
+    var configs = new ArrayList<GeoConfig>();
+    var queryConfigs = new ArrayList<GeoConfig>();
+    configs.add(geoConfig());
+    queryConfigs.add(geoConfig());
+    for (int keyLength : additionalKeyLengths) {
+      var config = geoConfigOf("geoHashKey" + keyLength, "geoHashKey" + keyLength + "-geoHash-index", keyLength);
+      configs.add(config);
+      if (IntStream.of(queryReadyKeyLengths).anyMatch(queryReady -> queryReady == keyLength)) {
+        queryConfigs.add(config);
+      }
+    }
+    for (int keyLength : queryReadyKeyLengths) {
+      if (IntStream.of(additionalKeyLengths).noneMatch(additional -> additional == keyLength)) {
+        throw new IllegalStateException("geo.index.query-ready-key-lengths has to be a subset of "
+          + "geo.index.additional-key-lengths, " + keyLength + " is not written");
+      }
+    }
+    return new GeoIndexRouter(s2Manager(), geoQueryHelper(), configs, queryConfigs,
+      new QueryCostModel(plannerRoundTripCost, plannerItemCost, plannerExpectedItemCount));
+  }
+
+  @Bean
+  @Primary
   public AmazonDynamoDB amazonDynamoDBConfig() {
     return AmazonDynamoDBClientBuilder.standard()
       .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(awsDynamoDBEndPoint, awsRegion))
@@ -60,13 +242,50 @@ public class DynamoDbConfig {
       .build();
   }
 
+  @Bean
+  @ConditionalOnProperty("geo.change-feed.enabled")
+  public AmazonDynamoDBStreams amazonDynamoDBStreams() {
+    return AmazonDynamoDBStreamsClientBuilder.standard()
+      .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(awsDynamoDBStreamsEndPoint, awsRegion))
+      .withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials(awsAccessKey, awsSecretKey)))
+      .build();
+  }
+
+  /**
+   * Pages are requested from completion callbacks, so no thread waits between pages. The SDK v1 client still runs
+   * every request on a thread of its pool though, so the pool is sized like the connections. Shutting the client
+   * down shuts the pool down.
+   */
+  @Bean(destroyMethod = "shutdown")
+  @ConditionalOnExpression("${geo.query.async.enabled:false} && !${geo.virtual-threads.enabled:false}")
+  public AmazonDynamoDBAsync amazonDynamoDBAsync() {
+    return AmazonDynamoDBAsyncClientBuilder.standard()
+      .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(awsDynamoDBEndPoint, awsRegion))
+      .withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials(awsAccessKey, awsSecretKey)))
+      .withClientConfiguration(new ClientConfiguration().withMaxConnections(asyncMaxConnections))
+      .withExecutorFactory(() -> Executors.newFixedThreadPool(asyncMaxConnections))
+      .build();
+  }
+
   @Bean
   public GeoConfig geoConfig() {
+    return geoConfigOf("geoHashKey", "geoHashKey-geoHash-index", 3);
+  }
+
+  private GeoConfig geoConfigOf(String geoHashKeyColumn, String geoIndexName, int geoHashKeyLength) {
     return new GeoConfig.Builder()
       .geoHashColumn("geoHash")
-      .geoHashKeyColumn("geoHashKey")
-      .geoIndexName("geoHashKey-geoHash-index")
-      .geoHashKeyLength(3)
+      .geoHashKeyColumn(geoHashKeyColumn)
+      .geoIndexName(geoIndexName)
+      .geoHashKeyLength(geoHashKeyLength)
+      .coveringMinLevel(coveringMinLevel)
+      .coveringMaxLevel(coveringMaxLevel)
+      .coveringMaxCells(coveringMaxCells)
+      .coveringComparison(coveringComparison)
+      .queryCostModel(plannerEnabled
+        ? Optional.of(new QueryCostModel(plannerRoundTripCost, plannerItemCost, plannerExpectedItemCount))
+        : Optional.absent())
+      .filterPushdown(filterPushdown)
       .build();
   }
 
@@ -0,0 +1,90 @@
+package com.surf.advisor.geolocation.config;
+
+import static com.surf.advisor.geolocation.config.VirtualThreads.newVirtualThreadPerTaskExecutor;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.surf.advisor.geolocation.command.impl.ReindexJob;
+import com.surf.advisor.geolocation.command.impl.WriteExecutor;
+import com.surf.advisor.geolocation.query.impl.BatchLookup;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.coyote.AbstractProtocol;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Slf4j
+@Configuration
+public class ExecutionConfig {
+
+  @Value("${geo.virtual-threads.enabled:false}")
+  private boolean virtualThreads;
+
+  @Value("${geo.command.max-concurrent-writes:8}")
+  private int maxConcurrentWrites;
+
+  @Value("${geo.query.batch-get.max-concurrent-requests:8}")
+  private int maxConcurrentBatchGets;
+
+  /**
+   * Tomcat does not shut down an executor it did not create itself
+   */
+  @Bean(destroyMethod = "shutdown")
+  @ConditionalOnProperty("geo.virtual-threads.enabled")
+  public ExecutorService requestExecutor() {
+    return newVirtualThreadPerTaskExecutor();
+  }
+
+  @Bean
+  @ConditionalOnProperty("geo.virtual-threads.enabled")
+  public WebServerFactoryCustomizer<TomcatServletWebServerFactory> virtualThreadRequestHandling(
+    @Qualifier("requestExecutor") ExecutorService requestExecutor) {
+
+    return factory -> factory.addConnectorCustomizers(connector -> {
+      if (connector.getProtocolHandler() instanceof AbstractProtocol) {
+        ((AbstractProtocol<?>) connector.getProtocolHandler()).setExecutor(requestExecutor);
+        log.info("Handling requests on virtual threads");
+      }
+    });
+  }
+
+  @Bean(destroyMethod = "shutdown")
+  @ConditionalOnProperty("geo.virtual-threads.enabled")
+  public ExecutorService commandWriteExecutor() {
+    return newVirtualThreadPerTaskExecutor();
+  }
+
+  @Bean
+  public WriteExecutor writeExecutor(
+    @Qualifier("commandWriteExecutor") ObjectProvider<ExecutorService> commandWriteExecutor) {
+    // without virtual threads the writes of a command stay sequential on the request thread, as before, bounded by
+    // the request threads and not by permits
+    var executor = commandWriteExecutor.getIfAvailable();
+    return executor != null
+      ? new WriteExecutor(executor, maxConcurrentWrites)
+      : new WriteExecutor(MoreExecutors.newDirectExecutorService(), 0);
+  }
+
+  @Bean(destroyMethod = "shutdown")
+  public ReindexJob reindexJob() {
+    return new ReindexJob(Executors.newSingleThreadExecutor());
+  }
+
+  @Bean(destroyMethod = "shutdown")
+  public ExecutorService batchGetExecutor() {
+    return virtualThreads ? newVirtualThreadPerTaskExecutor() : Executors.newFixedThreadPool(maxConcurrentBatchGets);
+  }
+
+  @Bean
+  public BatchLookup batchLookup(AmazonDynamoDB amazonDynamoDB,
+                                 @Qualifier("batchGetExecutor") ExecutorService batchGetExecutor) {
+    return new BatchLookup(amazonDynamoDB, batchGetExecutor);
+  }
+}
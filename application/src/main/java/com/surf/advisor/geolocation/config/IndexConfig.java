@@ -0,0 +1,189 @@
+package com.surf.advisor.geolocation.config;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.function.Function.identity;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.dashlabs.dash.geo.s2.internal.S2Manager;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.surf.advisor.geolocation.query.index.ClusterPyramid;
+import com.surf.advisor.geolocation.query.index.PointIndex;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+
+@Slf4j
+@Configuration
+public class IndexConfig {
+
+  @Value("${geo.point-index.enabled:false}")
+  private boolean pointIndexEnabled;
+
+  @Value("${geo.point-index.scan-segments:8}")
+  private int pointIndexScanSegments;
+
+  @Value("${geo.point-index.compaction-threshold:4096}")
+  private int pointIndexCompactionThreshold;
+
+  @Value("${geo.point-index.catch-up.index-name:updatedHourShard-updatedAt-index}")
+  private String catchUpIndexName;
+
+  @Value("${geo.point-index.catch-up.interval-seconds:0}")
+  private long catchUpIntervalSeconds;
+
+  @Value("${geo.point-index.snapshot.path:}")
+  private String snapshotPath;
+
+  @Value("${geo.point-index.snapshot.max-age-hours:24}")
+  private long snapshotMaxAgeHours;
+
+  @Value("${geo.change-feed.enabled:false}")
+  private boolean changeFeedEnabled;
+
+  @Value("${geo.cluster-pyramid.enabled:false}")
+  private boolean clusterPyramidEnabled;
+
+  @Value("${geo.cluster-pyramid.scan-segments:8}")
+  private int clusterPyramidScanSegments;
+
+  @Value("${geo.cluster-pyramid.min-level:2}")
+  private int clusterPyramidMinLevel;
+
+  @Value("${geo.cluster-pyramid.max-level:16}")
+  private int clusterPyramidMaxLevel;
+
+  /**
+   * Runs the scan segments and compactions of an enabled point index
+   */
+  @Bean(destroyMethod = "shutdown")
+  @ConditionalOnProperty("geo.point-index.enabled")
+  public ExecutorService pointIndexExecutor() {
+    return Executors.newFixedThreadPool(pointIndexScanSegments);
+  }
+
+  @Bean(destroyMethod = "shutdown")
+  @ConditionalOnExpression("${geo.point-index.enabled:false} && ${geo.point-index.catch-up.interval-seconds:0} > 0")
+  public ScheduledExecutorService pointIndexCatchUpExecutor() {
+    return Executors.newSingleThreadScheduledExecutor();
+  }
+
+  @Bean(destroyMethod = "shutdown")
+  @ConditionalOnProperty("geo.cluster-pyramid.enabled")
+  public ExecutorService clusterPyramidExecutor() {
+    return Executors.newFixedThreadPool(clusterPyramidScanSegments);
+  }
+
+  /**
+   * An enabled point index needs a way to see the writes of other nodes, without one it would serve their
+   * geolocations as of its load forever. A disabled one is never loaded, it runs nothing.
+   */
+  @Bean
+  public PointIndex pointIndex(S2Manager s2Manager,
+                               @Qualifier("pointIndexExecutor") ObjectProvider<ExecutorService> pointIndexExecutor) {
+    if (pointIndexEnabled && !changeFeedEnabled && catchUpIntervalSeconds <= 0) {
+      throw new IllegalStateException("geo.point-index.enabled needs geo.change-feed.enabled or "
+        + "geo.point-index.catch-up.interval-seconds > 0, the index would never see the writes of other nodes");
+    }
+    return new PointIndex(s2Manager, pointIndexExecutor.getIfAvailable(MoreExecutors::newDirectExecutorService),
+      pointIndexCompactionThreshold);
+  }
+
+  /**
+   * A disabled cluster pyramid is never built, it runs nothing
+   */
+  @Bean
+  public ClusterPyramid clusterPyramid(
+    @Qualifier("clusterPyramidExecutor") ObjectProvider<ExecutorService> clusterPyramidExecutor) {
+    return new ClusterPyramid(clusterPyramidExecutor.getIfAvailable(MoreExecutors::newDirectExecutorService),
+      clusterPyramidMinLevel, clusterPyramidMaxLevel);
+  }
+
+  /**
+   * Builds the cluster pyramid once the application serves requests, which are clustered from their geolocations
+   * meanwhile.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void loadClusterPyramid(ApplicationReadyEvent event) {
+    if (!clusterPyramidEnabled) {
+      return;
+    }
+    var context = event.getApplicationContext();
+    log.info("Loading cluster pyramid in {} segments", clusterPyramidScanSegments);
+    context.getBean(ClusterPyramid.class).load(context.getBean(AmazonDynamoDB.class),
+      context.getBean("tableName", String.class), clusterPyramidScanSegments);
+  }
+
+  /**
+   * Loads the point index once the application serves requests, which are answered from DynamoDB meanwhile. Starts
+   * from the snapshot if there is a recent one, scanning the table otherwise, writes a new snapshot and keeps
+   * catching up.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void loadPointIndex(ApplicationReadyEvent event) {
+    if (!pointIndexEnabled) {
+      return;
+    }
+    var context = event.getApplicationContext();
+    var pointIndex = context.getBean(PointIndex.class);
+    var ddb = context.getBean(AmazonDynamoDB.class);
+    var tableName = context.getBean("tableName", String.class);
+    var snapshot = snapshotPath.isEmpty() ? null : Paths.get(snapshotPath);
+
+    CompletableFuture<Void> loaded;
+    if (snapshot != null && pointIndex.restore(snapshot, HOURS.toMillis(snapshotMaxAgeHours))) {
+      loaded = pointIndex.catchUp(ddb, tableName, catchUpIndexName).handle((done, failure) -> {
+        if (failure == null) {
+          return completedFuture(done);
+        }
+        log.warn("Point index could not catch up from {}, scanning: {}", catchUpIndexName, failure.getMessage());
+        return pointIndex.load(ddb, tableName, pointIndexScanSegments);
+      }).thenCompose(identity());
+    } else {
+      log.info("Loading point index in {} segments", pointIndexScanSegments);
+      loaded = pointIndex.load(ddb, tableName, pointIndexScanSegments);
+    }
+
+    loaded.thenRun(() -> {
+      writeSnapshot(pointIndex, snapshot);
+      if (catchUpIntervalSeconds > 0) {
+        context.getBean("pointIndexCatchUpExecutor", ScheduledExecutorService.class).scheduleWithFixedDelay(() -> {
+          try {
+            pointIndex.catchUp(ddb, tableName, catchUpIndexName).join();
+            writeSnapshot(pointIndex, snapshot);
+          } catch (CompletionException e) {
+            // a task that throws is not scheduled again
+            log.warn("Point index could not catch up: {}", e.getMessage());
+          }
+        }, catchUpIntervalSeconds, catchUpIntervalSeconds, SECONDS);
+      }
+    });
+  }
+
+  private static void writeSnapshot(PointIndex pointIndex, Path snapshot) {
+    if (snapshot == null) {
+      return;
+    }
+    try {
+      pointIndex.writeSnapshot(snapshot);
+    } catch (IOException e) {
+      log.error("Point index snapshot could not be written to {}: {}", snapshot, e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,23 @@
+package com.surf.advisor.geolocation.config;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Virtual threads on a Java 21+ runtime, while the build still targets Java 11.
+ */
+final class VirtualThreads {
+
+  private VirtualThreads() {
+  }
+
+  static ExecutorService newVirtualThreadPerTaskExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (NoSuchMethodException e) {
+      throw new IllegalStateException("virtual threads need a Java 21 runtime, running on " + Runtime.version(), e);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("virtual threads are not available", e);
+    }
+  }
+}
@@ -6,9 +6,11 @@ import com.dashlabs.dash.geo.model.filters.GeoFilter;
 import com.dashlabs.dash.geo.s2.internal.S2Manager;
 import com.amazonaws.services.dynamodbv2.model.*;
 import com.google.common.base.Optional;
+import com.google.common.geometry.S2CellUnion;
 import com.google.common.geometry.S2LatLng;
 import com.google.common.geometry.S2LatLngRect;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -20,6 +22,8 @@ import static com.google.common.base.Preconditions.checkArgument;
  */
 public class Geo {
 
+    private static final GeoFilter<Map<String, AttributeValue>> ACCEPT_ALL = items -> new ArrayList<Map<String, AttributeValue>>(items);
+
     private final S2Manager s2Manager;
 
     private final GeoQueryHelper geoQueryHelper;
@@ -61,12 +65,39 @@ public class Geo {
         if (configs == null) {
             throw new IllegalArgumentException("Geo configs should not be null");
         }
+        long geohash = s2Manager.generateGeohash(latitude, longitude);
+        decorateAttributeValues(attributeValueMap, geohash, configs);
+    }
+
+    /**
+     * Decorates every item of <code>attributeValueMaps</code> with the attributes required for geo spatial querying,
+     * encoding all coordinates in one batch.
+     *
+     * @param attributeValueMaps the items that need to be decorated with geo attributes
+     * @param latitudes          the latitude of every item, in the same order
+     * @param longitudes         the longitude of every item, in the same order
+     * @param configs            the collection of configurations to be used for decorating the items with geo attributes
+     */
+    public void updateAttributeValues(List<Map<String, AttributeValue>> attributeValueMaps, double[] latitudes,
+                                      double[] longitudes, List<GeoConfig> configs) {
+        if (configs == null) {
+            throw new IllegalArgumentException("Geo configs should not be null");
+        }
+        checkArgument(attributeValueMaps.size() == latitudes.length && latitudes.length == longitudes.length,
+                "items, latitudes and longitudes have to be of the same size: %s", attributeValueMaps.size());
+        long[] geohashes = new long[latitudes.length];
+        s2Manager.generateGeohashes(latitudes, longitudes, geohashes, null, 0);
+        for (int i = 0; i < geohashes.length; i++) {
+            decorateAttributeValues(attributeValueMaps.get(i), geohashes[i], configs);
+        }
+    }
+
+    private void decorateAttributeValues(Map<String, AttributeValue> attributeValueMap, long geohash, List<GeoConfig> configs) {
         for (GeoConfig config : configs) {
             //Fail-fast if any of the preconditions fail
             checkConfigParams(config.getGeoIndexName(), config.getGeoHashKeyColumn(), config.getGeoHashColumn(),
                     config.getGeoHashKeyLength());
 
-            long geohash = s2Manager.generateGeohash(latitude, longitude);
             long geoHashKey = s2Manager.generateHashKey(geohash, config.getGeoHashKeyLength());
 
             //Decorate the request with the geohash
@@ -182,6 +213,34 @@ public class Geo {
         //Bounding box is needed to generate queries for each cell that intersects with the bounding box
         S2LatLngRect boundingBox = s2Manager.getBoundingBoxForRadiusQuery(latitude, longitude, radius);
         List<QueryRequest> geoQueries = geoQueryHelper.generateGeoQueries(queryRequest, boundingBox, config, compositeKeyValue);
+        if (config.isFilterPushdown()) {
+            geoQueryHelper.pushDownBoundingBoxFilter(geoQueries, boundingBox);
+        }
+        return new GeoQueryRequest(geoQueries, filter);
+    }
+
+    /**
+     * Creates a wrapper that contains a collection of all queries of a radius query, generated from the ranges the
+     * {@link GeoIndexRouter} planned for the radius' rectangle box, and the radius filter.
+     *
+     * @param queryRequest the request that needs to be decorated with geo attributes
+     * @param latitude     the latitude of the center point for the radius query
+     * @param longitude    the longitude of the center point for the radius query
+     * @param radius       the radius (in metres)
+     * @param plan         the plan of {@link GeoIndexRouter#planRadiusQuery(double, double, double)} for the same radius
+     * @param compositeKeyValue the value of the column that is used in the construction of the composite hash key
+     * @return the wrapper containing the generated queries and the geo filter
+     */
+    public GeoQueryRequest radiusQuery(QueryRequest queryRequest, double latitude, double longitude, double radius, GeoQueryPlan plan,
+                                       Optional<String> compositeKeyValue) {
+        checkArgument(radius >= 0.0d, "radius has to be a positive value: %s", radius);
+        GeoConfig config = plan.getConfig();
+        checkConfigParams(config.getGeoIndexName(), config.getGeoHashKeyColumn(), config.getGeoHashColumn(), config.getGeoHashKeyLength());
+        GeoFilter<Map<String, AttributeValue>> filter = GeoFilters.newRadiusFilter(S2LatLng.fromDegrees(latitude, longitude), radius);
+        List<QueryRequest> geoQueries = geoQueryHelper.generateGeoQueries(queryRequest, plan, compositeKeyValue);
+        if (config.isFilterPushdown()) {
+            geoQueryHelper.pushDownBoundingBoxFilter(geoQueries, plan.getBoundingBox());
+        }
         return new GeoQueryRequest(geoQueries, filter);
     }
 
@@ -237,6 +296,29 @@ public class Geo {
         S2LatLngRect boundingBox = s2Manager.getBoundingBoxForRectangleQuery(minLatitude, minLongitude, maxLatitude, maxLongitude);
         GeoFilter<Map<String, AttributeValue>> filter = GeoFilters.newRectangleFilter(boundingBox);
         List<QueryRequest> geoQueries = geoQueryHelper.generateGeoQueries(queryRequest, boundingBox, config, compositeKeyValue);
+        if (config.isFilterPushdown()) {
+            geoQueryHelper.pushDownBoundingBoxFilter(geoQueries, boundingBox);
+        }
+        return new GeoQueryRequest(geoQueries, filter);
+    }
+
+    /**
+     * Creates a wrapper that contains a collection of all queries of a rectangle query, generated from the ranges the
+     * {@link GeoIndexRouter} planned for the rectangle's bounding box, and the rectangle filter.
+     *
+     * @param queryRequest the request that needs to be decorated with geo attributes
+     * @param plan         the plan of {@link GeoIndexRouter#planRectangleQuery(double, double, double, double)}
+     * @param compositeKeyValue the value of the column that is used in the construction of the composite hash key
+     * @return the wrapper containing the generated queries and the geo filter
+     */
+    public GeoQueryRequest rectangleQuery(QueryRequest queryRequest, GeoQueryPlan plan, Optional<String> compositeKeyValue) {
+        GeoConfig config = plan.getConfig();
+        checkConfigParams(config.getGeoIndexName(), config.getGeoHashKeyColumn(), config.getGeoHashColumn(), config.getGeoHashKeyLength());
+        GeoFilter<Map<String, AttributeValue>> filter = GeoFilters.newRectangleFilter(plan.getBoundingBox());
+        List<QueryRequest> geoQueries = geoQueryHelper.generateGeoQueries(queryRequest, plan, compositeKeyValue);
+        if (config.isFilterPushdown()) {
+            geoQueryHelper.pushDownBoundingBoxFilter(geoQueries, plan.getBoundingBox());
+        }
         return new GeoQueryRequest(geoQueries, filter);
     }
 
@@ -268,6 +350,41 @@ public class Geo {
         return rectangleQuery(queryRequest, minLatitude, minLongitude, maxLatitude, maxLongitude, config, compositeKeyValue);
     }
 
+    /**
+     * Creates a wrapper that contains a collection of all queries that read the items of the given cells. Unlike the
+     * coverings of the radius and rectangle queries the ranges are exactly the cells, so the filter lets every
+     * item pass.
+     *
+     * @param queryRequest the request that needs to be decorated with geo attributes
+     * @param cells        the cells to query, e.g. a ring of neighbouring cells
+     * @param config       the configuration to be used for decorating the request with geo attributes
+     * @param compositeKeyValue the value of the column that is used in the construction of the composite hash key(geoHashKey + someOtherColumnValue).
+     *                          This is needed when constructing queries that need a composite hash key.
+     * @return the wrapper containing the generated queries and the geo filter
+     */
+    public GeoQueryRequest cellQuery(QueryRequest queryRequest, S2CellUnion cells, GeoConfig config, Optional<String> compositeKeyValue) {
+        checkConfigParams(config.getGeoIndexName(), config.getGeoHashKeyColumn(), config.getGeoHashColumn(), config.getGeoHashKeyLength());
+        List<QueryRequest> geoQueries = geoQueryHelper.generateGeoQueries(queryRequest, cells, config, compositeKeyValue);
+        return new GeoQueryRequest(geoQueries, ACCEPT_ALL);
+    }
+
+    /**
+     * Creates a wrapper that contains a collection of all queries that read the items of the cells the
+     * {@link GeoIndexRouter#plan(S2CellUnion)} was given, and a filter that lets every item pass.
+     *
+     * @param queryRequest the request that needs to be decorated with geo attributes
+     * @param plan         the plan of the cells to query
+     * @param compositeKeyValue the value of the column that is used in the construction of the composite hash key
+     * @return the wrapper containing the generated queries and the geo filter
+     */
+    public GeoQueryRequest cellQuery(QueryRequest queryRequest, GeoQueryPlan plan, Optional<String> compositeKeyValue) {
+        GeoConfig config = plan.getConfig();
+        checkConfigParams(config.getGeoIndexName(), config.getGeoHashKeyColumn(), config.getGeoHashColumn(), config.getGeoHashKeyLength());
+        List<QueryRequest> geoQueries = geoQueryHelper.generateGeoQueries(queryRequest, plan.getGeohashRanges(), config,
+                compositeKeyValue);
+        return new GeoQueryRequest(geoQueries, ACCEPT_ALL);
+    }
+
     /**
      * Checks the values of the geo config
      *
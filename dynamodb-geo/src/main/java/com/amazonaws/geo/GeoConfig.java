@@ -1,5 +1,6 @@
 package com.amazonaws.geo;
 
+import com.dashlabs.dash.geo.model.QueryCostModel;
 import com.google.common.base.Optional;
 
 /**
@@ -7,6 +8,16 @@ import com.google.common.base.Optional;
  */
 public class GeoConfig {
 
+    /**
+     * Covering defaults. A <code>coveringMaxCells</code> of 0 keeps the original face-down traversal of
+     * {@link com.dashlabs.dash.geo.s2.internal.S2Manager#findCellIds(com.google.common.geometry.S2LatLngRect)}.
+     */
+    public static final int DEFAULT_COVERING_MIN_LEVEL = 0;
+
+    public static final int DEFAULT_COVERING_MAX_LEVEL = 30;
+
+    public static final int DEFAULT_COVERING_MAX_CELLS = 0;
+
     /**
      * The index name of the global secondary index that exists on a table for GeoSpatial querying.
      * It comprises of the geoHashKeyColumn(hashKey) and geoHashColumn(range key).
@@ -40,13 +51,73 @@ public class GeoConfig {
      */
     private final Optional<String> compositeHashKeyColumn;
 
+    /**
+     * The coarsest S2 level a covering cell may have.
+     */
+    private final int coveringMinLevel;
+
+    /**
+     * The finest S2 level a covering cell may have.
+     */
+    private final int coveringMaxLevel;
+
+    /**
+     * The budget of cells for a covering. Fewer cells mean fewer DynamoDB queries at the price of reading
+     * items outside of the queried area, which are then dropped by the geo filter.
+     * A value of 0 selects the original (unbounded) covering.
+     */
+    private final int coveringMaxCells;
+
+    /**
+     * When set, every generated covering is also computed with the original algorithm and both are reported.
+     */
+    private final boolean coveringComparison;
+
+    /**
+     * An optional cost model, when present ranges of the same hash key are coalesced into fewer queries
+     * wherever over-reading the gap between them is cheaper than another round trip.
+     */
+    private final Optional<QueryCostModel> queryCostModel;
+
+    /**
+     * When set, every generated query carries a <code>FilterExpression</code> of the query's bounding box, so that
+     * DynamoDB does not return the items of the covering that lie outside of it.
+     */
+    private final boolean filterPushdown;
+
     public GeoConfig(String geoIndexName, String geoHashKeyColumn, String geoHashColumn, int geoHashKeyLength, Optional<HashKeyDecorator> hashKeyDecorator, Optional<String> compositeHashKeyColumn) {
+        this(geoIndexName, geoHashKeyColumn, geoHashColumn, geoHashKeyLength, hashKeyDecorator, compositeHashKeyColumn,
+                DEFAULT_COVERING_MIN_LEVEL, DEFAULT_COVERING_MAX_LEVEL, DEFAULT_COVERING_MAX_CELLS, false);
+    }
+
+    public GeoConfig(String geoIndexName, String geoHashKeyColumn, String geoHashColumn, int geoHashKeyLength, Optional<HashKeyDecorator> hashKeyDecorator, Optional<String> compositeHashKeyColumn,
+                     int coveringMinLevel, int coveringMaxLevel, int coveringMaxCells, boolean coveringComparison) {
+        this(geoIndexName, geoHashKeyColumn, geoHashColumn, geoHashKeyLength, hashKeyDecorator, compositeHashKeyColumn,
+                coveringMinLevel, coveringMaxLevel, coveringMaxCells, coveringComparison, Optional.<QueryCostModel>absent());
+    }
+
+    public GeoConfig(String geoIndexName, String geoHashKeyColumn, String geoHashColumn, int geoHashKeyLength, Optional<HashKeyDecorator> hashKeyDecorator, Optional<String> compositeHashKeyColumn,
+                     int coveringMinLevel, int coveringMaxLevel, int coveringMaxCells, boolean coveringComparison,
+                     Optional<QueryCostModel> queryCostModel) {
+        this(geoIndexName, geoHashKeyColumn, geoHashColumn, geoHashKeyLength, hashKeyDecorator, compositeHashKeyColumn,
+                coveringMinLevel, coveringMaxLevel, coveringMaxCells, coveringComparison, queryCostModel, false);
+    }
+
+    public GeoConfig(String geoIndexName, String geoHashKeyColumn, String geoHashColumn, int geoHashKeyLength, Optional<HashKeyDecorator> hashKeyDecorator, Optional<String> compositeHashKeyColumn,
+                     int coveringMinLevel, int coveringMaxLevel, int coveringMaxCells, boolean coveringComparison,
+                     Optional<QueryCostModel> queryCostModel, boolean filterPushdown) {
         this.geoIndexName = geoIndexName;
         this.geoHashKeyColumn = geoHashKeyColumn;
         this.geoHashColumn = geoHashColumn;
         this.geoHashKeyLength = geoHashKeyLength;
         this.hashKeyDecorator = hashKeyDecorator == null ? Optional.<HashKeyDecorator>absent() : hashKeyDecorator;
         this.compositeHashKeyColumn = compositeHashKeyColumn == null ? Optional.<String>absent() : compositeHashKeyColumn;
+        this.coveringMinLevel = coveringMinLevel;
+        this.coveringMaxLevel = coveringMaxLevel;
+        this.coveringMaxCells = coveringMaxCells;
+        this.coveringComparison = coveringComparison;
+        this.queryCostModel = queryCostModel == null ? Optional.<QueryCostModel>absent() : queryCostModel;
+        this.filterPushdown = filterPushdown;
     }
 
     public String getGeoIndexName() {
@@ -73,6 +144,30 @@ public class GeoConfig {
         return compositeHashKeyColumn;
     }
 
+    public int getCoveringMinLevel() {
+        return coveringMinLevel;
+    }
+
+    public int getCoveringMaxLevel() {
+        return coveringMaxLevel;
+    }
+
+    public int getCoveringMaxCells() {
+        return coveringMaxCells;
+    }
+
+    public boolean isCoveringComparison() {
+        return coveringComparison;
+    }
+
+    public Optional<QueryCostModel> getQueryCostModel() {
+        return queryCostModel;
+    }
+
+    public boolean isFilterPushdown() {
+        return filterPushdown;
+    }
+
     /**
      * Builder to help with the construction of a <code>GeoConfig</code>
      */
@@ -83,6 +178,12 @@ public class GeoConfig {
         private int geoHashKeyLength;
         private Optional<HashKeyDecorator> hashKeyDecorator;
         private Optional<String> compositeHashKeyColumn;
+        private int coveringMinLevel = DEFAULT_COVERING_MIN_LEVEL;
+        private int coveringMaxLevel = DEFAULT_COVERING_MAX_LEVEL;
+        private int coveringMaxCells = DEFAULT_COVERING_MAX_CELLS;
+        private boolean coveringComparison;
+        private Optional<QueryCostModel> queryCostModel;
+        private boolean filterPushdown;
 
         public Builder() {
 
@@ -118,8 +219,40 @@ public class GeoConfig {
             return this;
         }
 
+        public Builder coveringMinLevel(int coveringMinLevel) {
+            this.coveringMinLevel = coveringMinLevel;
+            return this;
+        }
+
+        public Builder coveringMaxLevel(int coveringMaxLevel) {
+            this.coveringMaxLevel = coveringMaxLevel;
+            return this;
+        }
+
+        public Builder coveringMaxCells(int coveringMaxCells) {
+            this.coveringMaxCells = coveringMaxCells;
+            return this;
+        }
+
+        public Builder coveringComparison(boolean coveringComparison) {
+            this.coveringComparison = coveringComparison;
+            return this;
+        }
+
+        public Builder queryCostModel(Optional<QueryCostModel> value) {
+            this.queryCostModel = value;
+            return this;
+        }
+
+        public Builder filterPushdown(boolean filterPushdown) {
+            this.filterPushdown = filterPushdown;
+            return this;
+        }
+
         public GeoConfig build() {
-            return new GeoConfig(this.geoIndexName, this.geoHashKeyColumn, this.geoHashColumn, this.geoHashKeyLength, this.hashKeyDecorator, this.compositeHashKeyColumn);
+            return new GeoConfig(this.geoIndexName, this.geoHashKeyColumn, this.geoHashColumn, this.geoHashKeyLength, this.hashKeyDecorator, this.compositeHashKeyColumn,
+                    this.coveringMinLevel, this.coveringMaxLevel, this.coveringMaxCells, this.coveringComparison,
+                    this.queryCostModel, this.filterPushdown);
         }
 
     }
@@ -150,6 +283,16 @@ public class GeoConfig {
         if (compositeHashKeyColumn != null ? !compositeHashKeyColumn.equals(geoConfig.compositeHashKeyColumn) : geoConfig.compositeHashKeyColumn != null) {
             return false;
         }
+        if (coveringMinLevel != geoConfig.coveringMinLevel || coveringMaxLevel != geoConfig.coveringMaxLevel
+                || coveringMaxCells != geoConfig.coveringMaxCells) {
+            return false;
+        }
+        if (!queryCostModel.equals(geoConfig.queryCostModel)) {
+            return false;
+        }
+        if (filterPushdown != geoConfig.filterPushdown) {
+            return false;
+        }
 
         return true;
     }
@@ -161,6 +304,11 @@ public class GeoConfig {
         result = 31 * result + (geoHashColumn != null ? geoHashColumn.hashCode() : 0);
         result = 31 * result + geoHashKeyLength;
         result = 31 * result + (compositeHashKeyColumn != null ? compositeHashKeyColumn.hashCode() : 0);
+        result = 31 * result + coveringMinLevel;
+        result = 31 * result + coveringMaxLevel;
+        result = 31 * result + coveringMaxCells;
+        result = 31 * result + queryCostModel.hashCode();
+        result = 31 * result + (filterPushdown ? 1 : 0);
         return result;
     }
 }
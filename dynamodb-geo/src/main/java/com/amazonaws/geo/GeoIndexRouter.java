@@ -0,0 +1,191 @@
+package com.amazonaws.geo;
+
+import com.amazonaws.geo.model.GeoQueryPlan;
+import com.dashlabs.dash.geo.model.GeohashRangeList;
+import com.dashlabs.dash.geo.model.QueryCostModel;
+import com.dashlabs.dash.geo.s2.internal.S2Manager;
+import com.google.common.collect.ImmutableList;
+import com.google.common.geometry.S2CellUnion;
+import com.google.common.geometry.S2LatLngRect;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Routes geo queries across several geo indexes of one table that differ by hash key length.
+ * <p>
+ * Short hash keys cover large areas with few queries but put whole regions into one partition, long hash keys
+ * spread small areas over several partitions but make large areas fan out into many queries. For every bounding box
+ * the index with the lowest estimated cost is selected, where the cost of an index is
+ * <code>queries * roundTripCost + itemCost * expectedItems / queries</code>: the round trips spent on fan-out plus
+ * the reads of the largest query, which queries run in parallel wait for. Ties go to the longer hash key, which
+ * spreads load over more partitions.
+ * <p>
+ * Every config is planned once per bounding box. {@link #plan(S2LatLngRect)} keeps the ranges of the selected config,
+ * which {@link Geo} generates the queries from without planning them again.
+ * <p>
+ * Items have to be written with all configs, see {@link Geo#updateAttributeValues(java.util.Map, double, double, List)}.
+ * Queries are routed to the query configs only: the index of a config added to a table with items lacks those items
+ * until its column was backfilled, so it is written first and queried once the backfill completed.
+ */
+public class GeoIndexRouter {
+
+    private final S2Manager s2Manager;
+
+    private final GeoQueryHelper geoQueryHelper;
+
+    private final List<GeoConfig> configs;
+
+    private final List<GeoConfig> queryConfigs;
+
+    private final QueryCostModel costModel;
+
+    /**
+     * @param s2Manager      the S2 manager
+     * @param geoQueryHelper the helper that plans the queries of a config
+     * @param configs        the geo indexes, the first one being the default, all of them queried
+     * @param costModel      the cost model to compare indexes with
+     */
+    public GeoIndexRouter(S2Manager s2Manager, GeoQueryHelper geoQueryHelper, List<GeoConfig> configs, QueryCostModel costModel) {
+        this(s2Manager, geoQueryHelper, configs, configs, costModel);
+    }
+
+    /**
+     * @param s2Manager      the S2 manager
+     * @param geoQueryHelper the helper that plans the queries of a config
+     * @param configs        the geo indexes items are written with, the first one being the default
+     * @param queryConfigs   the geo indexes queries are routed to, some or all of <code>configs</code>
+     * @param costModel      the cost model to compare indexes with
+     */
+    public GeoIndexRouter(S2Manager s2Manager, GeoQueryHelper geoQueryHelper, List<GeoConfig> configs,
+                          List<GeoConfig> queryConfigs, QueryCostModel costModel) {
+        checkArgument(configs != null && !configs.isEmpty(), "at least one geo config is required");
+        checkArgument(queryConfigs != null && !queryConfigs.isEmpty(), "at least one geo config has to be queried");
+        checkArgument(configs.containsAll(queryConfigs), "queried geo configs have to be written: %s", queryConfigs);
+        this.s2Manager = s2Manager;
+        this.geoQueryHelper = geoQueryHelper;
+        this.configs = ImmutableList.copyOf(configs);
+        this.queryConfigs = ImmutableList.copyOf(queryConfigs);
+        this.costModel = costModel;
+    }
+
+    /**
+     * @return the config of the index with the lowest estimated cost for a rectangle query
+     */
+    public GeoConfig routeRectangleQuery(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+        return route(s2Manager.getBoundingBoxForRectangleQuery(minLatitude, minLongitude, maxLatitude, maxLongitude));
+    }
+
+    /**
+     * @return the config of the index with the lowest estimated cost for a radius query
+     */
+    public GeoConfig routeRadiusQuery(double latitude, double longitude, double radius) {
+        return route(s2Manager.getBoundingBoxForRadiusQuery(latitude, longitude, radius));
+    }
+
+    /**
+     * @return the plan of the index with the lowest estimated cost for a rectangle query
+     */
+    public GeoQueryPlan planRectangleQuery(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+        return plan(s2Manager.getBoundingBoxForRectangleQuery(minLatitude, minLongitude, maxLatitude, maxLongitude));
+    }
+
+    /**
+     * @return the plan of the index with the lowest estimated cost for a radius query
+     */
+    public GeoQueryPlan planRadiusQuery(double latitude, double longitude, double radius) {
+        return plan(s2Manager.getBoundingBoxForRadiusQuery(latitude, longitude, radius));
+    }
+
+    /**
+     * @param boundingBox the bounding box of a query
+     * @return the config of the index with the lowest estimated cost for the bounding box
+     */
+    public GeoConfig route(S2LatLngRect boundingBox) {
+        if (queryConfigs.size() == 1) {
+            return queryConfigs.get(0);
+        }
+        return plan(boundingBox).getConfig();
+    }
+
+    /**
+     * @param boundingBox the bounding box of a query
+     * @return the key ranges of the index with the lowest estimated cost for the bounding box
+     */
+    public GeoQueryPlan plan(S2LatLngRect boundingBox) {
+        return plan(boundingBox, config -> geoQueryHelper.planGeoHashRanges(boundingBox, config));
+    }
+
+    /**
+     * Routes a query of exactly the given cells. The cells are planned as they are, without covering their bounds.
+     *
+     * @param cells the cells to query, e.g. a ring of neighbouring cells
+     * @return the key ranges of the index with the lowest estimated cost for the cells
+     */
+    public GeoQueryPlan plan(S2CellUnion cells) {
+        return plan(cells.getRectBound(), config -> geoQueryHelper.planGeoHashRanges(cells, config));
+    }
+
+    private GeoQueryPlan plan(S2LatLngRect boundingBox, Planner planner) {
+        if (queryConfigs.size() == 1) {
+            GeoConfig config = queryConfigs.get(0);
+            return new GeoQueryPlan(boundingBox, config, planner.plan(config));
+        }
+        double expectedItems = costModel.expectedItems(boundingBox);
+        GeoConfig best = null;
+        GeohashRangeList bestRanges = null;
+        double bestCost = Double.MAX_VALUE;
+        for (GeoConfig config : queryConfigs) {
+            GeohashRangeList ranges = planner.plan(config);
+            double cost = cost(ranges, expectedItems);
+            if (best == null || cost < bestCost
+                    || (cost == bestCost && config.getGeoHashKeyLength() > best.getGeoHashKeyLength())) {
+                best = config;
+                bestRanges = ranges;
+                bestCost = cost;
+            }
+        }
+        return new GeoQueryPlan(boundingBox, best, bestRanges);
+    }
+
+    /**
+     * @param boundingBox the bounding box of a query
+     * @param config      one of the configs
+     * @return the estimated cost of querying the bounding box with the config
+     */
+    public double estimateCost(S2LatLngRect boundingBox, GeoConfig config) {
+        return cost(geoQueryHelper.planGeoHashRanges(boundingBox, config), costModel.expectedItems(boundingBox));
+    }
+
+    private double cost(GeohashRangeList ranges, double expectedItems) {
+        int queries = Math.max(1, ranges.size());
+        return queries * costModel.getRoundTripCost() + costModel.getItemCost() * expectedItems / queries;
+    }
+
+    /**
+     * @return all configs, which items have to be written with
+     */
+    public List<GeoConfig> getConfigs() {
+        return configs;
+    }
+
+    /**
+     * @return the configs queries are routed to
+     */
+    public List<GeoConfig> getQueryConfigs() {
+        return queryConfigs;
+    }
+
+    public GeoConfig getDefaultConfig() {
+        return configs.get(0);
+    }
+
+    /**
+     * Plans the key ranges of a query for one config
+     */
+    private interface Planner {
+
+        GeohashRangeList plan(GeoConfig config);
+    }
+}
@@ -1,16 +1,20 @@
 package com.amazonaws.geo;
 
+import com.amazonaws.geo.model.GeoQueryPlan;
 import com.dashlabs.dash.geo.AbstractGeoQueryHelper;
-import com.dashlabs.dash.geo.model.GeohashRange;
+import com.dashlabs.dash.geo.cache.CoveringCache;
+import com.dashlabs.dash.geo.model.GeohashRangeList;
 import com.dashlabs.dash.geo.s2.internal.S2Manager;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
-import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
-import com.amazonaws.services.dynamodbv2.model.Condition;
 import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.dashlabs.dash.geo.model.filters.GeoFilter;
+import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.geometry.S2CellUnion;
 import com.google.common.geometry.S2LatLngRect;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -24,10 +28,30 @@ import java.util.Map;
  */
 public class GeoQueryHelper extends AbstractGeoQueryHelper {
 
+    /**
+     * About a centimeter, see {@link #pushDownBoundingBoxFilter(List, S2LatLngRect)}
+     */
+    static final double PUSHDOWN_MARGIN_DEGREES = 1e-7;
+
+    /**
+     * The placeholders of the key condition of every generated query, not to be used by callers
+     */
+    static final String HASH_KEY_NAME = "#geoHashKey";
+    static final String RANGE_KEY_NAME = "#geoHash";
+    static final String HASH_KEY_VALUE = ":geoHashKey";
+    static final String RANGE_MIN_VALUE = ":geoHashMin";
+    static final String RANGE_MAX_VALUE = ":geoHashMax";
+    static final String KEY_CONDITION_EXPRESSION = HASH_KEY_NAME + " = " + HASH_KEY_VALUE + " AND " + RANGE_KEY_NAME
+            + " BETWEEN " + RANGE_MIN_VALUE + " AND " + RANGE_MAX_VALUE;
+
     public GeoQueryHelper(S2Manager s2Manager) {
         super(s2Manager);
     }
 
+    public GeoQueryHelper(S2Manager s2Manager, CoveringCache coveringCache) {
+        super(s2Manager, coveringCache);
+    }
+
     /**
      * For the given <code>QueryRequest</code> query and the boundingBox, this method creates a collection of queries
      * that are decorated with geo attributes to enable geo-spatial querying.
@@ -41,47 +65,188 @@ public class GeoQueryHelper extends AbstractGeoQueryHelper {
      * @return queryRequests an immutable collection of <code>QueryRequest</code> that are now "geo enabled"
      */
     public List<QueryRequest> generateGeoQueries(QueryRequest query, S2LatLngRect boundingBox, GeoConfig config, Optional<String> compositeKeyValue) {
-        List<GeohashRange> outerRanges = getGeoHashRanges(boundingBox);
-        List<QueryRequest> queryRequests = new ArrayList<QueryRequest>(outerRanges.size());
+        return generateGeoQueries(query, new GeoQueryPlan(boundingBox, config, planGeoHashRanges(boundingBox, config)),
+                compositeKeyValue);
+    }
+
+    /**
+     * For the given <code>QueryRequest</code> query and a plan of the router, this method creates a collection of
+     * queries that are decorated with geo attributes to enable geo-spatial querying, one per planned range.
+     *
+     * @param query       the original query request
+     * @param plan        the ranges planned for the bounding box of the geo query
+     * @param compositeKeyValue the value of the column that is used in the construction of the composite hash key
+     * @return queryRequests an immutable collection of <code>QueryRequest</code> that are now "geo enabled"
+     */
+    public List<QueryRequest> generateGeoQueries(QueryRequest query, GeoQueryPlan plan, Optional<String> compositeKeyValue) {
+        GeoConfig config = plan.getConfig();
+        if (config.isCoveringComparison()) {
+            logCoveringComparison(plan.getBoundingBox(), config.getGeoHashKeyLength(), config.getCoveringMinLevel(),
+                    config.getCoveringMaxLevel(), config.getCoveringMaxCells());
+        }
+        return generateGeoQueries(query, plan.getGeohashRanges(), config, compositeKeyValue);
+    }
+
+    /**
+     * For the given <code>QueryRequest</code> query and cells, this method creates a collection of queries that read
+     * exactly the items of the cells.
+     *
+     * @param query       the original query request
+     * @param cells       the cells to query
+     * @param config      the config containing caller's geo config, example index name, etc.
+     * @param compositeKeyValue the value of the column that is used in the construction of the composite hash key
+     * @return queryRequests an immutable collection of <code>QueryRequest</code> that are now "geo enabled"
+     */
+    public List<QueryRequest> generateGeoQueries(QueryRequest query, S2CellUnion cells, GeoConfig config, Optional<String> compositeKeyValue) {
+        return generateGeoQueries(query, planGeoHashRanges(cells, config), config, compositeKeyValue);
+    }
+
+    /**
+     * The key conditions are a <code>KeyConditionExpression</code> with placeholders of their own, merged into copies
+     * of the caller's expression attribute maps: DynamoDB rejects requests mixing legacy <code>KeyConditions</code>
+     * with a projection or filter expression.
+     */
+    List<QueryRequest> generateGeoQueries(QueryRequest query, GeohashRangeList geohashRanges, GeoConfig config,
+                                          Optional<String> compositeKeyValue) {
+        List<QueryRequest> queryRequests = new ArrayList<QueryRequest>(geohashRanges.size());
         //Create multiple queries based on the geo ranges derived from the bounding box
-        for (GeohashRange outerRange : outerRanges) {
-            List<GeohashRange> geohashRanges = outerRange.trySplit(config.getGeoHashKeyLength(), s2Manager);
-            for (GeohashRange range : geohashRanges) {
-                //Make a copy of the query request to retain original query attributes like table name, etc.
-                QueryRequest queryRequest = copyQueryRequest(query);
-
-                //generate the hash key for the global secondary index
-                long geohashKey = s2Manager.generateHashKey(range.getRangeMin(), config.getGeoHashKeyLength());
-                Map<String, Condition> keyConditions = new HashMap<String, Condition>(2, 1.0f);
-
-                //Construct the hashKey condition
-                Condition geoHashKeyCondition;
-                if (config.getHashKeyDecorator().isPresent() && compositeKeyValue.isPresent()) {
-                    String compositeHashKey = config.getHashKeyDecorator().get().decorate(compositeKeyValue.get(), geohashKey);
-                    geoHashKeyCondition = new Condition().withComparisonOperator(ComparisonOperator.EQ)
-                            .withAttributeValueList(new AttributeValue().withS(compositeHashKey));
-                } else {
-                    geoHashKeyCondition = new Condition().withComparisonOperator(ComparisonOperator.EQ)
-                            .withAttributeValueList(new AttributeValue().withN(String.valueOf(geohashKey)));
-                }
-                keyConditions.put(config.getGeoHashKeyColumn(), geoHashKeyCondition);
-
-                //generate the geo hash range
-                AttributeValue minRange = new AttributeValue().withN(Long.toString(range.getRangeMin()));
-                AttributeValue maxRange = new AttributeValue().withN(Long.toString(range.getRangeMax()));
-
-                Condition geoHashCondition = new Condition().withComparisonOperator(ComparisonOperator.BETWEEN)
-                        .withAttributeValueList(minRange, maxRange);
-                keyConditions.put(config.getGeoHashColumn(), geoHashCondition);
-
-                queryRequest.withKeyConditions(keyConditions)
-                        .withIndexName(config.getGeoIndexName());
-                queryRequests.add(queryRequest);
+        for (int r = 0; r < geohashRanges.size(); r++) {
+            //Make a copy of the query request to retain original query attributes like table name, etc.
+            QueryRequest queryRequest = copyQueryRequest(query);
+
+            //generate the hash key for the global secondary index
+            long geohashKey = geohashRanges.getHashKey(r);
+
+            //Construct the hashKey value
+            AttributeValue geoHashKeyValue;
+            if (config.getHashKeyDecorator().isPresent() && compositeKeyValue.isPresent()) {
+                String compositeHashKey = config.getHashKeyDecorator().get().decorate(compositeKeyValue.get(), geohashKey);
+                geoHashKeyValue = new AttributeValue().withS(compositeHashKey);
+            } else {
+                geoHashKeyValue = new AttributeValue().withN(String.valueOf(geohashKey));
+            }
+
+            Map<String, String> names = new HashMap<String, String>();
+            if (query.getExpressionAttributeNames() != null) {
+                names.putAll(query.getExpressionAttributeNames());
+            }
+            names.put(HASH_KEY_NAME, config.getGeoHashKeyColumn());
+            names.put(RANGE_KEY_NAME, config.getGeoHashColumn());
+
+            //generate the geo hash range
+            Map<String, AttributeValue> values = new HashMap<String, AttributeValue>();
+            if (query.getExpressionAttributeValues() != null) {
+                values.putAll(query.getExpressionAttributeValues());
             }
+            values.put(HASH_KEY_VALUE, geoHashKeyValue);
+            values.put(RANGE_MIN_VALUE, new AttributeValue().withN(Long.toString(geohashRanges.getRangeMin(r))));
+            values.put(RANGE_MAX_VALUE, new AttributeValue().withN(Long.toString(geohashRanges.getRangeMax(r))));
+
+            queryRequest.withKeyConditionExpression(KEY_CONDITION_EXPRESSION)
+                    .withExpressionAttributeNames(names)
+                    .withExpressionAttributeValues(values)
+                    .withIndexName(config.getGeoIndexName());
+            queryRequests.add(queryRequest);
         }
         return ImmutableList.copyOf(queryRequests);
     }
 
+    /**
+     * Preloads the {@link CoveringCache} with the coverings of a grid of tiles over the given region, using the
+     * hash key length and covering settings of <code>config</code>.
+     *
+     * @return the number of tiles that were preloaded
+     * @see AbstractGeoQueryHelper#preloadCoverings(double, double, double, double, double, int, int, int, int)
+     */
+    public int preloadCoverings(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude,
+                                double tileDegrees, GeoConfig config) {
+        return preloadCoverings(minLatitude, minLongitude, maxLatitude, maxLongitude, tileDegrees,
+                config.getGeoHashKeyLength(), config.getCoveringMinLevel(), config.getCoveringMaxLevel(),
+                config.getCoveringMaxCells());
+    }
+
+    /**
+     * Plans the key ranges to query for the given boundingBox with the given config: one per range of the result.
+     *
+     * @param boundingBox the bounding lat long rectangle of the geo query
+     * @param config      the config containing caller's geo config
+     * @return the ranges to query, with the hash key of every range
+     */
+    public GeohashRangeList planGeoHashRanges(S2LatLngRect boundingBox, GeoConfig config) {
+        GeohashRangeList geohashRanges = getSplitGeoHashRanges(boundingBox, config.getGeoHashKeyLength(),
+                config.getCoveringMinLevel(), config.getCoveringMaxLevel(), config.getCoveringMaxCells());
+        if (config.getQueryCostModel().isPresent()) {
+            geohashRanges = coalesceGeoHashRanges(geohashRanges, config.getQueryCostModel().get());
+        }
+        return geohashRanges;
+    }
+
+    /**
+     * Plans the key ranges that read exactly the items of the given cells with the given config.
+     *
+     * @param cells  the cells to query
+     * @param config the config containing caller's geo config
+     * @return the ranges to query, with the hash key of every range
+     */
+    public GeohashRangeList planGeoHashRanges(S2CellUnion cells, GeoConfig config) {
+        // no coalescing, items of the gaps would be read again once their cells are queried
+        return mergeCellRanges(cells).split(config.getGeoHashKeyLength(), s2Manager);
+    }
+
+    /**
+     * Adds a <code>FilterExpression</code> to every query that keeps DynamoDB from returning items outside of the
+     * boundingBox, ANDed with the expression of the caller, if any. The bounds are widened by
+     * {@link #PUSHDOWN_MARGIN_DEGREES} against rounding, the geo filter still has to be applied to the results.
+     * Filtered items are still read from the index, so this saves network and unmarshalling, not read capacity.
+     *
+     * @param queryRequests the geo queries generated for the boundingBox, which are modified
+     * @param boundingBox   the bounding lat long rectangle of the geo query
+     */
+    public void pushDownBoundingBoxFilter(List<QueryRequest> queryRequests, S2LatLngRect boundingBox) {
+        List<String> conditions = new ArrayList<String>(2);
+        Map<String, String> names = new HashMap<String, String>();
+        Map<String, AttributeValue> values = new HashMap<String, AttributeValue>();
+
+        names.put("#geoLatitude", GeoFilter.LATITUDE_FIELD);
+        values.put(":geoMinLatitude", number(boundingBox.latLo().degrees() - PUSHDOWN_MARGIN_DEGREES));
+        values.put(":geoMaxLatitude", number(boundingBox.latHi().degrees() + PUSHDOWN_MARGIN_DEGREES));
+        conditions.add("#geoLatitude BETWEEN :geoMinLatitude AND :geoMaxLatitude");
+
+        if (!boundingBox.lng().isFull()) {
+            names.put("#geoLongitude", GeoFilter.LONGITUDE_FIELD);
+            values.put(":geoMinLongitude", number(boundingBox.lngLo().degrees() - PUSHDOWN_MARGIN_DEGREES));
+            values.put(":geoMaxLongitude", number(boundingBox.lngHi().degrees() + PUSHDOWN_MARGIN_DEGREES));
+            // an inverted interval crosses the antimeridian
+            conditions.add(boundingBox.lng().isInverted()
+                    ? "(#geoLongitude >= :geoMinLongitude OR #geoLongitude <= :geoMaxLongitude)"
+                    : "#geoLongitude BETWEEN :geoMinLongitude AND :geoMaxLongitude");
+        }
+        String boundingBoxExpression = Joiner.on(" AND ").join(conditions);
+
+        for (QueryRequest queryRequest : queryRequests) {
+            // the copies share the caller's maps, so every query gets maps of its own
+            Map<String, String> mergedNames = new HashMap<String, String>(names);
+            if (queryRequest.getExpressionAttributeNames() != null) {
+                mergedNames.putAll(queryRequest.getExpressionAttributeNames());
+            }
+            Map<String, AttributeValue> mergedValues = new HashMap<String, AttributeValue>(values);
+            if (queryRequest.getExpressionAttributeValues() != null) {
+                mergedValues.putAll(queryRequest.getExpressionAttributeValues());
+            }
+            String filterExpression = queryRequest.getFilterExpression();
+            queryRequest.withFilterExpression(filterExpression == null || filterExpression.isEmpty()
+                    ? boundingBoxExpression
+                    : "(" + filterExpression + ") AND " + boundingBoxExpression)
+                    .withExpressionAttributeNames(mergedNames)
+                    .withExpressionAttributeValues(mergedValues);
+        }
+    }
+
+    private static AttributeValue number(double value) {
+        // plain notation, not the scientific one of Double.toString
+        return new AttributeValue().withN(BigDecimal.valueOf(value).toPlainString());
+    }
+
     /**
      * Creates a copy of the provided <code>QueryRequest</code> queryRequest
      *
@@ -93,12 +258,13 @@ public class GeoQueryHelper extends AbstractGeoQueryHelper {
                 .withConsistentRead(queryRequest.getConsistentRead())
                 .withExclusiveStartKey(queryRequest.getExclusiveStartKey())
                 .withIndexName(queryRequest.getIndexName())
-                .withKeyConditions(queryRequest.getKeyConditions())
+                .withKeyConditionExpression(queryRequest.getKeyConditionExpression())
                 .withLimit(queryRequest.getLimit())
                 .withReturnConsumedCapacity(queryRequest.getReturnConsumedCapacity())
                 .withScanIndexForward(queryRequest.getScanIndexForward())
                 .withSelect(queryRequest.getSelect())
                 .withAttributesToGet(queryRequest.getAttributesToGet())
+                .withProjectionExpression(queryRequest.getProjectionExpression())
                 .withTableName(queryRequest.getTableName())
                 .withFilterExpression(queryRequest.getFilterExpression())
                 .withExpressionAttributeNames(queryRequest.getExpressionAttributeNames())
@@ -0,0 +1,164 @@
+package com.amazonaws.geo.metrics;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A lock-free latency histogram over a rolling time window.
+ * <p>
+ * Latencies are counted in exponential buckets growing by a factor of <code>2^(1/4)</code> from 0.1 ms up to about
+ * a minute, so percentiles are accurate to within 19%. The window is divided into slices that are recycled in turn,
+ * so old samples drop out slice by slice.
+ */
+public class LatencyHistogram {
+
+    private static final long MIN_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private static final double GROWTH = Math.pow(2, 0.25);
+
+    private static final int BUCKETS = 78;
+
+    /**
+     * Upper bound, inclusive, of every bucket
+     */
+    private static final long[] BOUNDS = new long[BUCKETS];
+
+    static {
+        for (int b = 0; b < BUCKETS; b++) {
+            BOUNDS[b] = (long) Math.ceil(MIN_NANOS * Math.pow(GROWTH, b));
+        }
+    }
+
+    private final long sliceNanos;
+
+    private final AtomicLongArray[] slices;
+
+    /**
+     * The number of the time slice each slice currently counts
+     */
+    private final AtomicLongArray sliceEpochs;
+
+    /**
+     * @param window       the time window to report percentiles of
+     * @param windowUnit   the unit of <code>window</code>
+     * @param windowSlices the number of slices the window is divided into
+     */
+    public LatencyHistogram(long window, TimeUnit windowUnit, int windowSlices) {
+        checkArgument(window > 0 && windowSlices > 0, "window and windowSlices have to be positive values");
+        this.sliceNanos = Math.max(1, windowUnit.toNanos(window) / windowSlices);
+        this.slices = new AtomicLongArray[windowSlices];
+        for (int s = 0; s < windowSlices; s++) {
+            slices[s] = new AtomicLongArray(BUCKETS);
+        }
+        this.sliceEpochs = new AtomicLongArray(windowSlices);
+    }
+
+    /**
+     * @param nanos a latency, in nanoseconds
+     */
+    public void record(long nanos) {
+        currentSlice(System.nanoTime()).incrementAndGet(bucketOf(nanos));
+    }
+
+    /**
+     * @return the number of latencies recorded within the window
+     */
+    public long count() {
+        long[] counts = counts();
+        long count = 0;
+        for (long c : counts) {
+            count += c;
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile the percentile, within [0, 100]
+     * @return the upper bound of the bucket of the percentile within the window, in nanoseconds, or 0 without samples
+     */
+    public long percentile(double percentile) {
+        return percentile(counts(), percentile);
+    }
+
+    /**
+     * @return the sample count and the 50th, 95th, 99th and 99.9th percentiles in milliseconds
+     */
+    public Map<String, Object> snapshot() {
+        long[] counts = counts();
+        long count = 0;
+        for (long c : counts) {
+            count += c;
+        }
+        Map<String, Object> snapshot = new LinkedHashMap<String, Object>();
+        snapshot.put("count", count);
+        snapshot.put("p50Millis", millis(percentile(counts, 50)));
+        snapshot.put("p95Millis", millis(percentile(counts, 95)));
+        snapshot.put("p99Millis", millis(percentile(counts, 99)));
+        snapshot.put("p999Millis", millis(percentile(counts, 99.9)));
+        return snapshot;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0d;
+    }
+
+    private static long percentile(long[] counts, double percentile) {
+        long count = 0;
+        for (long c : counts) {
+            count += c;
+        }
+        if (count == 0) {
+            return 0L;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100.0d);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += counts[b];
+            if (seen >= rank) {
+                return BOUNDS[b];
+            }
+        }
+        return BOUNDS[BUCKETS - 1];
+    }
+
+    private long[] counts() {
+        long now = System.nanoTime();
+        long epoch = now / sliceNanos;
+        long[] counts = new long[BUCKETS];
+        for (int s = 0; s < slices.length; s++) {
+            // only slices of the current window
+            if (epoch - sliceEpochs.get(s) < slices.length) {
+                for (int b = 0; b < BUCKETS; b++) {
+                    counts[b] += slices[s].get(b);
+                }
+            }
+        }
+        return counts;
+    }
+
+    private AtomicLongArray currentSlice(long now) {
+        long epoch = now / sliceNanos;
+        int s = (int) Math.floorMod(epoch, (long) slices.length);
+        long sliceEpoch = sliceEpochs.get(s);
+        if (sliceEpoch != epoch && sliceEpochs.compareAndSet(s, sliceEpoch, epoch)) {
+            // recycle the slice, samples recorded concurrently may be lost
+            for (int b = 0; b < BUCKETS; b++) {
+                slices[s].set(b, 0L);
+            }
+        }
+        return slices[s];
+    }
+
+    static int bucketOf(long nanos) {
+        int bucket = Arrays.binarySearch(BOUNDS, nanos);
+        if (bucket < 0) {
+            bucket = -bucket - 1;
+        }
+        return Math.min(bucket, BUCKETS - 1);
+    }
+}
@@ -0,0 +1,40 @@
+package com.amazonaws.geo.model;
+
+import com.amazonaws.geo.GeoConfig;
+import com.dashlabs.dash.geo.model.GeohashRangeList;
+import com.google.common.geometry.S2LatLngRect;
+
+/**
+ * The key ranges planned for the bounding box of a query on one geo index, see
+ * {@link com.amazonaws.geo.GeoIndexRouter#plan(S2LatLngRect)}. Keeping the plan of the selected index lets the
+ * queries be generated without covering the bounding box again.
+ */
+public class GeoQueryPlan {
+
+    private final S2LatLngRect boundingBox;
+
+    private final GeoConfig config;
+
+    private final GeohashRangeList geohashRanges;
+
+    public GeoQueryPlan(S2LatLngRect boundingBox, GeoConfig config, GeohashRangeList geohashRanges) {
+        this.boundingBox = boundingBox;
+        this.config = config;
+        this.geohashRanges = geohashRanges;
+    }
+
+    public S2LatLngRect getBoundingBox() {
+        return boundingBox;
+    }
+
+    public GeoConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return the ranges to query, one query per range
+     */
+    public GeohashRangeList getGeohashRanges() {
+        return geohashRanges;
+    }
+}
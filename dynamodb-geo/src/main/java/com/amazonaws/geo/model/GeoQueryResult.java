@@ -0,0 +1,57 @@
+package com.amazonaws.geo.model;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The filtered items of a geo query that was executed with limits, and whether the limits cut it short.
+ * A counting execution only returns the number of filtered items.
+ */
+public class GeoQueryResult {
+
+    private final List<Map<String, AttributeValue>> items;
+
+    private final long count;
+
+    private final boolean truncated;
+
+    private final long scannedCount;
+
+    public GeoQueryResult(List<Map<String, AttributeValue>> items, boolean truncated, long scannedCount) {
+        this(items, items.size(), truncated, scannedCount);
+    }
+
+    public GeoQueryResult(List<Map<String, AttributeValue>> items, long count, boolean truncated, long scannedCount) {
+        this.items = items;
+        this.count = count;
+        this.truncated = truncated;
+        this.scannedCount = scannedCount;
+    }
+
+    public List<Map<String, AttributeValue>> getItems() {
+        return items;
+    }
+
+    /**
+     * @return the number of filtered items, which were left out of {@link #getItems()} by a counting execution
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return whether items may have been left out because a limit was reached
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * @return the number of items DynamoDB evaluated, before the geo filter
+     */
+    public long getScannedCount() {
+        return scannedCount;
+    }
+}
@@ -1,6 +1,7 @@
 package com.amazonaws.geo.model.filters;
 
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.dashlabs.dash.geo.model.filters.ColumnarGeoFilter;
 import com.dashlabs.dash.geo.model.filters.GeoDataExtractor;
 import com.dashlabs.dash.geo.model.filters.GeoFilter;
 import com.dashlabs.dash.geo.model.filters.RadiusGeoFilter;
@@ -31,6 +32,18 @@ public class GeoFilters {
             }
             return Optional.empty();
         }
+
+        @Override public double latitudeOf(Map<String, AttributeValue> item) {
+            return numberOf(item.get(GeoFilter.LATITUDE_FIELD));
+        }
+
+        @Override public double longitudeOf(Map<String, AttributeValue> item) {
+            return numberOf(item.get(GeoFilter.LONGITUDE_FIELD));
+        }
+
+        private double numberOf(AttributeValue value) {
+            return value != null && value.getN() != null ? Double.parseDouble(value.getN()) : Double.NaN;
+        }
     };
 
     /**
@@ -54,4 +67,25 @@ public class GeoFilters {
         return com.dashlabs.dash.geo.model.filters.GeoFilters.newRectangleFilter(EXTRACTOR, latLngRect);
     }
 
+    /**
+     * Factory method to create a radius filter over coordinate columns, e.g. of points held in memory.
+     *
+     * @param centerLatLng      the lat/long of the center of the filter's radius
+     * @param radiusInMeter     the radius of the filter in metres
+     * @return a new instance of the {@link RadiusGeoFilter}
+     */
+    public static ColumnarGeoFilter newColumnarRadiusFilter(S2LatLng centerLatLng, double radiusInMeter) {
+        return new RadiusGeoFilter<Map<String, AttributeValue>>(EXTRACTOR, centerLatLng, radiusInMeter);
+    }
+
+    /**
+     * Factory method to create a rectangle filter over coordinate columns, e.g. of points held in memory.
+     *
+     * @param latLngRect the bounding box for the filter
+     * @return a new instance of the {@link RectangleGeoFilter}
+     */
+    public static ColumnarGeoFilter newColumnarRectangleFilter(S2LatLngRect latLngRect) {
+        return new RectangleGeoFilter<Map<String, AttributeValue>>(EXTRACTOR, latLngRect);
+    }
+
 }
@@ -0,0 +1,366 @@
+package com.amazonaws.geo.s2.internal;
+
+import com.amazonaws.SdkBaseException;
+import com.amazonaws.geo.metrics.LatencyHistogram;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Limits the number of DynamoDB queries in flight, adjusting the limit by additive increase, multiplicative decrease.
+ * <p>
+ * Every response that took no longer than <code>latencyTolerance</code> times the smoothed latency raises the limit
+ * by <code>1 / limit</code>, i.e. by one per round trip, as long as the limit is actually used. A throttled request or
+ * a slower response cuts the limit by a quarter, at most once per smoothed latency, so one congestion event is only
+ * counted once.
+ * <p>
+ * Requests over the limit are queued per flow, e.g. per geo query execution, and dispatched round robin, preferring
+ * flows below their fair share of the limit, so one large query cannot starve the others. Once
+ * <code>maxQueued</code> requests are waiting, further requests are rejected right away with a
+ * {@link RejectedExecutionException} instead of queueing up.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final double BACKOFF_RATIO = 0.75d;
+
+    /**
+     * Weight of a new sample in the smoothed latency
+     */
+    private static final double SMOOTHING = 0.05d;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final int maxQueued;
+
+    private final double latencyTolerance;
+
+    /**
+     * All the following state is guarded by <code>this</code>
+     */
+    private double limit;
+
+    private int inFlight;
+
+    private int queued;
+
+    private int activeFlows;
+
+    private double smoothedLatencyNanos;
+
+    private long lastDecreaseNanos;
+
+    /**
+     * Flows with queued requests, in dispatch order
+     */
+    private final Queue<Flow> waitingFlows = new ArrayDeque<Flow>();
+
+    private final LatencyHistogram queueWait = new LatencyHistogram(1, TimeUnit.MINUTES, 6);
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong throttled = new AtomicLong();
+
+    /**
+     * @param initialLimit     the limit to start with
+     * @param minLimit         the lowest limit, at least 1
+     * @param maxLimit         the highest limit, e.g. the number of connections or threads available
+     * @param maxQueued        the number of requests that may wait for a permit before requests get rejected
+     * @param latencyTolerance the factor of the smoothed latency a response may take before the limit is cut
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int maxQueued, double latencyTolerance) {
+        checkArgument(0 < minLimit && minLimit <= initialLimit && initialLimit <= maxLimit,
+                "limits must satisfy 0 < minLimit <= initialLimit <= maxLimit");
+        checkArgument(maxQueued >= 0, "maxQueued must not be negative");
+        checkArgument(latencyTolerance > 1.0d, "latencyTolerance must be greater than 1");
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueued = maxQueued;
+        this.latencyTolerance = latencyTolerance;
+        // System.nanoTime() may be negative, 0 is not a time long ago
+        this.lastDecreaseNanos = System.nanoTime();
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * @return the current limit, the queries in flight and queued, the time spent queueing within the last minute,
+     * and the number of rejected and throttled requests since start
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<String, Object>();
+        synchronized (this) {
+            snapshot.put("limit", (int) limit);
+            snapshot.put("inFlight", inFlight);
+            snapshot.put("queued", queued);
+            snapshot.put("activeFlows", activeFlows);
+            snapshot.put("smoothedLatencyMillis", smoothedLatencyNanos / 1_000_000.0d);
+        }
+        snapshot.put("rejected", rejected.get());
+        snapshot.put("throttled", throttled.get());
+        snapshot.put("queueWait", queueWait.snapshot());
+        return snapshot;
+    }
+
+    /**
+     * @param delegate the fetcher sending the requests
+     * @return a fetcher of a new flow, whose requests share the limit fairly with the requests of all other flows
+     */
+    PageFetcher newFlow(PageFetcher delegate) {
+        return new Flow(delegate);
+    }
+
+    private void dispatch() {
+        List<Permit> dispatched = new ArrayList<Permit>();
+        synchronized (this) {
+            while (inFlight < (int) limit && !waitingFlows.isEmpty()) {
+                Flow flow = nextFlow();
+                Permit permit = flow.queue.poll();
+                if (!flow.queue.isEmpty()) {
+                    waitingFlows.add(flow);
+                }
+                queued--;
+                inFlight++;
+                flow.inFlight++;
+                dispatched.add(permit);
+            }
+        }
+        // fetching only hands the request over, but it is not done while holding the lock
+        for (Permit permit : dispatched) {
+            permit.start();
+        }
+    }
+
+    /**
+     * @return the first waiting flow below its fair share, or the first waiting one if all are at their share
+     */
+    private Flow nextFlow() {
+        int fairShare = Math.max(1, (int) limit / Math.max(1, activeFlows));
+        for (Iterator<Flow> flows = waitingFlows.iterator(); flows.hasNext(); ) {
+            Flow flow = flows.next();
+            if (flow.inFlight < fairShare) {
+                flows.remove();
+                return flow;
+            }
+        }
+        return waitingFlows.poll();
+    }
+
+    private void release(Flow flow, long latencyNanos, Throwable failure) {
+        boolean throttle = isThrottle(failure);
+        if (throttle) {
+            throttled.incrementAndGet();
+        }
+        synchronized (this) {
+            int used = inFlight;
+            inFlight--;
+            flow.inFlight--;
+            flow.deactivateIfIdle();
+            if (latencyNanos >= 0) {
+                adjustLimit(latencyNanos, throttle, used);
+            }
+        }
+        dispatch();
+    }
+
+    /**
+     * Guarded by <code>this</code>
+     */
+    private void adjustLimit(long latencyNanos, boolean throttle, int used) {
+        long now = System.nanoTime();
+        boolean congested = throttle
+                || (smoothedLatencyNanos > 0 && latencyNanos > latencyTolerance * smoothedLatencyNanos);
+        if (congested) {
+            if (now - lastDecreaseNanos > smoothedLatencyNanos) {
+                limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+                lastDecreaseNanos = now;
+            }
+        } else if (used >= limit / 2) {
+            // an idle limit says nothing about the capacity, so it only grows when it is used
+            limit = Math.min(maxLimit, limit + 1.0d / limit);
+        }
+        if (!throttle) {
+            smoothedLatencyNanos = smoothedLatencyNanos == 0
+                    ? latencyNanos
+                    : (1 - SMOOTHING) * smoothedLatencyNanos + SMOOTHING * latencyNanos;
+        }
+    }
+
+    private static boolean isThrottle(Throwable failure) {
+        return failure instanceof ProvisionedThroughputExceededException
+                || (failure instanceof SdkBaseException && RetryUtils.isThrottlingException((SdkBaseException) failure));
+    }
+
+    /**
+     * The requests of one caller, guarded by the limiter
+     */
+    private final class Flow implements PageFetcher {
+
+        private final PageFetcher delegate;
+
+        private final Queue<Permit> queue = new ArrayDeque<Permit>();
+
+        private int inFlight;
+
+        private boolean active;
+
+        private Flow(PageFetcher delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Future<?> fetch(QueryRequest queryRequest, BiConsumer<QueryResult, Throwable> callback) {
+            Permit permit = new Permit(this, queryRequest, callback);
+            synchronized (AdaptiveConcurrencyLimiter.this) {
+                if (inFlight + queued >= limit + maxQueued) {
+                    rejected.incrementAndGet();
+                    throw new RejectedExecutionException("too many geo queries in flight, limit is " + (int) limit);
+                }
+                if (!active) {
+                    active = true;
+                    activeFlows++;
+                }
+                if (queue.isEmpty()) {
+                    waitingFlows.add(this);
+                }
+                queue.add(permit);
+                queued++;
+            }
+            dispatch();
+            return permit.handle;
+        }
+
+        /**
+         * Guarded by the limiter
+         */
+        private void deactivateIfIdle() {
+            if (active && inFlight == 0 && queue.isEmpty()) {
+                active = false;
+                activeFlows--;
+            }
+        }
+
+        /**
+         * Guarded by the limiter
+         *
+         * @return whether the permit was still queued
+         */
+        private boolean dequeue(Permit permit) {
+            if (!queue.remove(permit)) {
+                return false;
+            }
+            queued--;
+            if (queue.isEmpty()) {
+                waitingFlows.remove(this);
+            }
+            deactivateIfIdle();
+            return true;
+        }
+    }
+
+    /**
+     * One request, queued until dispatched
+     */
+    private final class Permit {
+
+        private final Flow flow;
+
+        private final QueryRequest queryRequest;
+
+        private final BiConsumer<QueryResult, Throwable> callback;
+
+        private final long queuedAt = System.nanoTime();
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        /**
+         * Handed to the caller, cancelling it dequeues or cancels the request
+         */
+        private final CompletableFuture<Void> handle = new CompletableFuture<Void>();
+
+        private volatile Future<?> future;
+
+        private Permit(Flow flow, QueryRequest queryRequest, BiConsumer<QueryResult, Throwable> callback) {
+            this.flow = flow;
+            this.queryRequest = queryRequest;
+            this.callback = callback;
+            handle.whenComplete((done, failure) -> cancel());
+        }
+
+        private void start() {
+            final long start = System.nanoTime();
+            queueWait.record(start - queuedAt);
+            if (handle.isDone()) {
+                // cancelled while being dispatched
+                releaseOnce(-1L, null);
+                return;
+            }
+            try {
+                future = flow.delegate.fetch(queryRequest, (result, failure) -> {
+                    releaseOnce(System.nanoTime() - start, failure);
+                    callback.accept(result, failure);
+                    handle.complete(null);
+                });
+            } catch (RuntimeException e) {
+                releaseOnce(-1L, null);
+                callback.accept(null, e);
+                handle.complete(null);
+                return;
+            }
+            if (handle.isDone()) {
+                // cancelled while the request was handed over, before its future was known
+                cancel();
+            }
+        }
+
+        private void cancel() {
+            synchronized (AdaptiveConcurrencyLimiter.this) {
+                if (flow.dequeue(this)) {
+                    return;
+                }
+            }
+            Future<?> future = this.future;
+            // a request cancelled before its callback ran may never call it back
+            if (future != null && releaseOnce(-1L, null)) {
+                future.cancel(true);
+            }
+        }
+
+        /**
+         * @param latencyNanos the latency to adjust the limit by, negative if the request did not complete
+         */
+        private boolean releaseOnce(long latencyNanos, Throwable failure) {
+            if (!released.compareAndSet(false, true)) {
+                return false;
+            }
+            release(flow, latencyNanos, failure);
+            return true;
+        }
+    }
+}
@@ -1,21 +1,26 @@
 package com.amazonaws.geo.s2.internal;
 
 import com.amazonaws.geo.model.GeoQueryRequest;
+import com.amazonaws.geo.model.GeoQueryResult;
+import com.amazonaws.handlers.AsyncHandler;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.QueryRequest;
 import com.amazonaws.services.dynamodbv2.model.QueryResult;
-import com.dashlabs.dash.geo.model.filters.GeoFilter;
-import com.google.common.collect.ImmutableList;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import lombok.extern.slf4j.Slf4j;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 /**
  * Created by mpuri on 3/28/14
  */
@@ -32,59 +37,221 @@ public class GeoQueryClient {
      */
     private final ExecutorService executorService;
 
+    /**
+     * The async db client to use when executing the queries, may be null
+     */
+    private final AmazonDynamoDBAsync asyncDbClient;
+
+    /**
+     * The default deadline of an execution, 0 for none
+     */
+    private final long timeoutMillis;
+
+    private final HedgeBudget hedgeBudget;
+
+    private final PageFetchMetrics metrics = new PageFetchMetrics();
+
+    /**
+     * Limits the queries in flight across all executions, may be null
+     */
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    /**
+     * Runs the deadline and hedge timers, which only hand work over to the page fetching
+     */
+    private final ScheduledExecutorService scheduler;
+
     public GeoQueryClient(AmazonDynamoDB dbClient, ExecutorService executorService) {
+        this(dbClient, executorService, null);
+    }
+
+    public GeoQueryClient(AmazonDynamoDB dbClient, ExecutorService executorService, AmazonDynamoDBAsync asyncDbClient) {
+        this(dbClient, executorService, asyncDbClient, 0L, 0.0d);
+    }
+
+    /**
+     * @param timeoutMillis      the default deadline of an execution, covering all of its pages, 0 for none
+     * @param hedgeBudgetPercent the share of requests that may be hedged, in percent, 0 to disable hedging
+     */
+    public GeoQueryClient(AmazonDynamoDB dbClient, ExecutorService executorService, AmazonDynamoDBAsync asyncDbClient,
+                          long timeoutMillis, double hedgeBudgetPercent) {
+        this(dbClient, executorService, asyncDbClient, timeoutMillis, hedgeBudgetPercent, null);
+    }
+
+    /**
+     * @param limiter limits the queries in flight, every execution and stream being a flow of its own, may be null;
+     *                once it is saturated executions fail with a {@link java.util.concurrent.RejectedExecutionException}
+     */
+    public GeoQueryClient(AmazonDynamoDB dbClient, ExecutorService executorService, AmazonDynamoDBAsync asyncDbClient,
+                          long timeoutMillis, double hedgeBudgetPercent, AdaptiveConcurrencyLimiter limiter) {
+        checkArgument(timeoutMillis >= 0, "timeoutMillis must not be negative");
         this.dbClient = dbClient;
         this.executorService = executorService;
+        this.asyncDbClient = asyncDbClient;
+        this.timeoutMillis = timeoutMillis;
+        this.hedgeBudget = new HedgeBudget(hedgeBudgetPercent);
+        this.limiter = limiter;
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "geo-query-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // most timers are cancelled, as most pages return in time
+        scheduler.setRemoveOnCancelPolicy(true);
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @return the default deadline of an execution, 0 for none
+     */
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * @return whether the queries are executed with the async db client, i.e. without a thread per query
+     */
+    public boolean isAsync() {
+        return asyncDbClient != null;
     }
 
     /**
      * A convenience method that executes the <code>queryRequests</code> and applies the <code>resultFilter</code> to the query results.
      *
      * @return an immutable collection of filtered items
+     * @throws ExecutionException with a {@link TimeoutException} as its cause if the default deadline passed
      */
     public List<Map<String, AttributeValue>> execute(final GeoQueryRequest geoQueryRequest)
             throws InterruptedException, ExecutionException {
-        final List<Map<String, AttributeValue>> results = new ArrayList<Map<String, AttributeValue>>();
-        List<Future<List<Map<String, AttributeValue>>>> futures;
-        final List<Callable<List<Map<String, AttributeValue>>>> queryCallables =
-                new ArrayList<Callable<List<Map<String, AttributeValue>>>>(geoQueryRequest.getQueryRequests().size());
-        for (final QueryRequest query : geoQueryRequest.getQueryRequests()) {
-            queryCallables.add(new Callable<List<Map<String, AttributeValue>>>() {
-                @Override public List<Map<String, AttributeValue>> call() throws Exception {
-                    return executeQuery(query, geoQueryRequest.getResultFilter());
-                }
-            });
-        }
-        futures = executorService.invokeAll(queryCallables);
-        if (futures != null) {
-            for (Future<List<Map<String, AttributeValue>>> future : futures) {
-                results.addAll(future.get());
-            }
-        }
-        return ImmutableList.copyOf(results);
+        return execute(geoQueryRequest, Integer.MAX_VALUE, Long.MAX_VALUE).getItems();
     }
 
     /**
-     * Executes the  query using the provided db client. The geo filter is applied to the results of the query.
+     * Executes the <code>queryRequests</code> and applies the <code>resultFilter</code> to the query results,
+     * without blocking the calling thread. All queries are started at once and the next page of a query is requested
+     * from the completion callback of the previous one.
      *
-     * @param queryRequest the query to execute
-     * @return a collection of filtered result items
+     * @return a future of an immutable collection of filtered items, in the order the pages arrived in, that fails as
+     * soon as one of the queries fails or the default deadline passed
      */
-    private List<Map<String, AttributeValue>> executeQuery(QueryRequest queryRequest, GeoFilter<Map<String, AttributeValue>> resultFilter) {
-        QueryResult queryResult;
-        List<Map<String, AttributeValue>> resultItems = new ArrayList<Map<String, AttributeValue>>();
-        do {
-            queryResult = dbClient.query(queryRequest);
-            List<Map<String, AttributeValue>> items = queryResult.getItems();
-            // filter the results using the geo filter
+    public CompletableFuture<List<Map<String, AttributeValue>>> executeAsync(GeoQueryRequest geoQueryRequest) {
+        return executeAsync(geoQueryRequest, Integer.MAX_VALUE, Long.MAX_VALUE).thenApply(GeoQueryResult::getItems);
+    }
 
-            log.debug("Executing dynamoDB query: {}\nResult: {}", queryRequest.toString(), items.toString());
+    /**
+     * Streams the filtered pages of the <code>queryRequests</code>, see {@link GeoQueryStream}. Pages are fetched with
+     * the async db client if one is configured, otherwise with the executor service. As the consumer sets the pace,
+     * a stream has no deadline, its first pages are hedged though.
+     *
+     * @param maxPagesInFlight the maximum number of pages requested or buffered at a time
+     * @return the stream, to be closed by the caller if not consumed until the end
+     */
+    public GeoQueryStream stream(GeoQueryRequest geoQueryRequest, int maxPagesInFlight) {
+        return new GeoQueryStream(pageFetcher(Long.MAX_VALUE), metrics, geoQueryRequest, maxPagesInFlight);
+    }
+
+    /**
+     * Executes the <code>queryRequests</code> until all are exhausted or a limit is reached, whichever comes first.
+     * Once a limit is reached no more pages are requested and the requests in flight are cancelled.
+     * Pages are fetched with the async db client if one is configured, otherwise with the executor service;
+     * in both cases the calling thread is not blocked.
+     *
+     * @param limit           the maximum number of filtered items to return, {@link Integer#MAX_VALUE} for no limit
+     * @param maxItemsScanned the maximum number of items DynamoDB may evaluate, {@link Long#MAX_VALUE} for no limit
+     * @return a future of the filtered items, telling whether they were truncated; cancelling it cancels the queries
+     */
+    public CompletableFuture<GeoQueryResult> executeAsync(GeoQueryRequest geoQueryRequest, int limit, long maxItemsScanned) {
+        return executeAsync(geoQueryRequest, limit, maxItemsScanned, timeoutMillis);
+    }
+
+    /**
+     * Variant of {@link #executeAsync(GeoQueryRequest, int, long)} with a deadline of its own.
+     *
+     * @param timeoutMillis the deadline of the execution, covering all of its pages, 0 for none; once it passed the
+     *                      future fails with a {@link TimeoutException} and the requests in flight are cancelled
+     */
+    public CompletableFuture<GeoQueryResult> executeAsync(GeoQueryRequest geoQueryRequest, int limit, long maxItemsScanned,
+                                                          long timeoutMillis) {
+        PageFetcher pageFetcher = pageFetcher(deadlineOf(timeoutMillis));
+        return new LimitedGeoQueryExecution(pageFetcher, metrics, geoQueryRequest, limit, maxItemsScanned, false)
+                .getResult();
+    }
+
+    /**
+     * Counts the filtered items of the <code>queryRequests</code> like {@link #executeAsync(GeoQueryRequest, int, long)}
+     * executes them, without keeping the items. A projection of the attributes the filter needs keeps the pages small.
+     *
+     * @return a future of a result without items, whose count tells the number of filtered items
+     */
+    public CompletableFuture<GeoQueryResult> countAsync(GeoQueryRequest geoQueryRequest, int limit, long maxItemsScanned) {
+        PageFetcher pageFetcher = pageFetcher(deadlineOf(timeoutMillis));
+        return new LimitedGeoQueryExecution(pageFetcher, metrics, geoQueryRequest, limit, maxItemsScanned, true)
+                .getResult();
+    }
+
+    /**
+     * Blocking variant of {@link #executeAsync(GeoQueryRequest, int, long)}.
+     */
+    public GeoQueryResult execute(GeoQueryRequest geoQueryRequest, int limit, long maxItemsScanned)
+            throws InterruptedException, ExecutionException {
+        CompletableFuture<GeoQueryResult> result = executeAsync(geoQueryRequest, limit, maxItemsScanned);
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the latencies of the page requests within the last minute, and counts of pages, hedged requests, hedged
+     * requests that returned first and pages that ran into a deadline since start, the share of items filtered out by
+     * DynamoDB and by the geo filter, and the state of the limiter
+     */
+    public Map<String, Object> metrics() {
+        Map<String, Object> snapshot = metrics.snapshot();
+        if (limiter != null) {
+            snapshot.put("limiter", limiter.snapshot());
+        }
+        return snapshot;
+    }
 
-            List<Map<String, AttributeValue>> filteredItems = resultFilter.filter(items);
-            resultItems.addAll(filteredItems);
-            queryRequest = queryRequest.withExclusiveStartKey(queryResult.getLastEvaluatedKey());
-        } while ((queryResult.getLastEvaluatedKey() != null));
+    private static long deadlineOf(long timeoutMillis) {
+        return timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : Long.MAX_VALUE;
+    }
 
-        return resultItems;
+    private PageFetcher pageFetcher(long deadlineNanos) {
+        // hedges pass the limiter as well, so they cannot push an overloaded table further
+        PageFetcher pageFetcher = limiter != null ? limiter.newFlow(dynamoDbPageFetcher()) : dynamoDbPageFetcher();
+        return new HedgingPageFetcher(pageFetcher, scheduler, hedgeBudget, metrics, deadlineNanos);
+    }
+
+    private PageFetcher dynamoDbPageFetcher() {
+        if (asyncDbClient != null) {
+            return (queryRequest, callback) -> asyncDbClient.queryAsync(queryRequest,
+                    new AsyncHandler<QueryRequest, QueryResult>() {
+                        @Override
+                        public void onError(Exception exception) {
+                            callback.accept(null, exception);
+                        }
+
+                        @Override
+                        public void onSuccess(QueryRequest request, QueryResult queryResult) {
+                            log.debug("Executed async dynamoDB query: {}\nResult: {}", request, queryResult.getItems());
+                            callback.accept(queryResult, null);
+                        }
+                    });
+        }
+        return (queryRequest, callback) -> executorService.submit(() -> {
+            QueryResult queryResult;
+            try {
+                queryResult = dbClient.query(queryRequest);
+            } catch (RuntimeException e) {
+                callback.accept(null, e);
+                return;
+            }
+            log.debug("Executed dynamoDB query: {}\nResult: {}", queryRequest, queryResult.getItems());
+            callback.accept(queryResult, null);
+        });
     }
 }
@@ -0,0 +1,164 @@
+package com.amazonaws.geo.s2.internal;
+
+import com.amazonaws.geo.model.GeoQueryRequest;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.dashlabs.dash.geo.model.filters.GeoFilter;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A pull based stream of the filtered pages of the queries of a {@link GeoQueryRequest}.
+ * <p>
+ * At most <code>maxPagesInFlight</code> pages are requested or buffered at any time: the next page of a query, or the
+ * first page of a query not started yet, is only requested once the consumer took a page. A slow consumer, e.g. one
+ * writing to a congested socket, therefore stops the fetching and memory stays proportional to a few pages.
+ * <p>
+ * Pages are returned in the order they arrive, not in the order of the queries. A stream has a single consumer.
+ */
+public class GeoQueryStream implements Closeable {
+
+    private final PageFetcher pageFetcher;
+
+    private final PageFetchMetrics metrics;
+
+    private final GeoFilter<Map<String, AttributeValue>> resultFilter;
+
+    /**
+     * Queries not started yet, only accessed by the consumer
+     */
+    private final Queue<QueryRequest> pendingQueries;
+
+    /**
+     * Pages that arrived but were not consumed yet
+     */
+    private final BlockingQueue<Page> pages = new LinkedBlockingQueue<Page>();
+
+    /**
+     * Queries that still have pages to consume, only accessed by the consumer
+     */
+    private int unfinishedQueries;
+
+    /**
+     * The number of items evaluated by DynamoDB for the consumed pages, only accessed by the consumer
+     */
+    private long scannedCount;
+
+    private final Queue<Future<?>> inFlight = new ConcurrentLinkedQueue<Future<?>>();
+
+    private volatile boolean closed;
+
+    private static final Page CLOSED = new Page(null, null, null);
+
+    GeoQueryStream(PageFetcher pageFetcher, PageFetchMetrics metrics, GeoQueryRequest geoQueryRequest, int maxPagesInFlight) {
+        this.pageFetcher = pageFetcher;
+        this.metrics = metrics;
+        this.resultFilter = geoQueryRequest.getResultFilter();
+        this.pendingQueries = new ArrayDeque<QueryRequest>(geoQueryRequest.getQueryRequests());
+        this.unfinishedQueries = pendingQueries.size();
+        for (int i = 0; i < Math.max(1, maxPagesInFlight) && !pendingQueries.isEmpty(); i++) {
+            fetch(pendingQueries.poll());
+        }
+    }
+
+    /**
+     * Waits for the next page that has items left after filtering.
+     *
+     * @return the filtered items of the next page, or null when all queries are exhausted
+     * @throws InterruptedException if interrupted while waiting
+     * @throws ExecutionException   if a query failed, the stream is closed then
+     * @throws CancellationException if the stream was closed
+     */
+    public List<Map<String, AttributeValue>> nextPage() throws InterruptedException, ExecutionException {
+        while (unfinishedQueries > 0) {
+            Page page = closed ? CLOSED : pages.take();
+            if (page == CLOSED) {
+                throw new CancellationException("stream is closed");
+            }
+            if (page.failure != null) {
+                close();
+                throw new ExecutionException(page.failure);
+            }
+            if (page.result.getScannedCount() != null) {
+                scannedCount += page.result.getScannedCount();
+            }
+            // request the follow-up right away, so that it is fetched while this page is consumed
+            Map<String, AttributeValue> lastEvaluatedKey = page.result.getLastEvaluatedKey();
+            if (lastEvaluatedKey != null) {
+                fetch(page.request.withExclusiveStartKey(lastEvaluatedKey));
+            } else {
+                unfinishedQueries--;
+                QueryRequest next = pendingQueries.poll();
+                if (next != null) {
+                    fetch(next);
+                }
+            }
+            List<Map<String, AttributeValue>> items = resultFilter.filter(page.result.getItems());
+            metrics.recordFiltering(page.result, items.size());
+            if (!items.isEmpty()) {
+                return items;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of items evaluated by DynamoDB for the pages consumed so far, before the geo filter
+     */
+    public long getScannedCount() {
+        return scannedCount;
+    }
+
+    /**
+     * Stops requesting pages and cancels the requests in flight.
+     * May be called by any thread, a consumer waiting in {@link #nextPage()} gets a {@link CancellationException}.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Future<?> future;
+        while ((future = inFlight.poll()) != null) {
+            future.cancel(true);
+        }
+        pages.clear();
+        pages.add(CLOSED);
+    }
+
+    private void fetch(final QueryRequest queryRequest) {
+        try {
+            Future<?> future = pageFetcher.fetch(queryRequest, (result, failure) -> {
+                if (!closed) {
+                    pages.add(new Page(queryRequest, result, failure));
+                }
+            });
+            inFlight.removeIf(Future::isDone);
+            inFlight.add(future);
+        } catch (RuntimeException e) {
+            pages.add(new Page(queryRequest, null, e));
+        }
+    }
+
+    private static final class Page {
+
+        private final QueryRequest request;
+        private final QueryResult result;
+        private final Throwable failure;
+
+        private Page(QueryRequest request, QueryResult result, Throwable failure) {
+            this.request = request;
+            this.result = result;
+            this.failure = failure;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.amazonaws.geo.s2.internal;
+
+/**
+ * A token bucket that caps hedged requests to a percentage of all requests: every request earns
+ * <code>percent / 100</code> of a token, every hedge spends a whole one. Unused tokens accumulate up to a small
+ * burst, so the budget cannot be saved up during quiet periods and spent in one go.
+ */
+class HedgeBudget {
+
+    private static final double MAX_TOKENS = 10.0d;
+
+    private final double tokensPerRequest;
+
+    private double tokens;
+
+    /**
+     * @param percent the share of requests that may be hedged, in percent
+     */
+    HedgeBudget(double percent) {
+        this.tokensPerRequest = Math.max(0.0d, percent) / 100.0d;
+    }
+
+    boolean isEnabled() {
+        return tokensPerRequest > 0.0d;
+    }
+
+    synchronized void onRequest() {
+        tokens = Math.min(MAX_TOKENS, tokens + tokensPerRequest);
+    }
+
+    synchronized boolean tryAcquire() {
+        if (tokens < 1.0d) {
+            return false;
+        }
+        tokens -= 1.0d;
+        return true;
+    }
+}
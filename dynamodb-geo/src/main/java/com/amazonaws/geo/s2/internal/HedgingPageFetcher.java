@@ -0,0 +1,212 @@
+package com.amazonaws.geo.s2.internal;
+
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Decorates a {@link PageFetcher} with a deadline and with hedging.
+ * <p>
+ * Every page fails with a {@link TimeoutException} once the deadline passed. The first page of a query, which has
+ * to find its partition and is the one most often slowed down by it, is hedged: when it did not return within the
+ * rolling p95 of the requests of first pages, a duplicate is sent, as long as the {@link HedgeBudget} allows.
+ * Whichever request returns first wins, the other one is cancelled.
+ */
+class HedgingPageFetcher implements PageFetcher {
+
+    /**
+     * Without this many recent samples the p95 is not trusted and nothing is hedged
+     */
+    static final long MIN_SAMPLES = 100;
+
+    private static final double HEDGE_PERCENTILE = 95.0d;
+
+    private final PageFetcher delegate;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final HedgeBudget hedgeBudget;
+
+    private final PageFetchMetrics metrics;
+
+    private final long deadlineNanos;
+
+    /**
+     * @param deadlineNanos the deadline, in terms of {@link System#nanoTime()}, {@link Long#MAX_VALUE} for none
+     */
+    HedgingPageFetcher(PageFetcher delegate, ScheduledExecutorService scheduler, HedgeBudget hedgeBudget,
+                       PageFetchMetrics metrics, long deadlineNanos) {
+        this.delegate = delegate;
+        this.scheduler = scheduler;
+        this.hedgeBudget = hedgeBudget;
+        this.metrics = metrics;
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    @Override
+    public Future<?> fetch(QueryRequest queryRequest, BiConsumer<QueryResult, Throwable> callback) {
+        return new Page(queryRequest, callback).start();
+    }
+
+    private final class Page {
+
+        private final QueryRequest queryRequest;
+
+        private final BiConsumer<QueryResult, Throwable> callback;
+
+        private final long start = System.nanoTime();
+
+        private final AtomicBoolean completed = new AtomicBoolean();
+
+        private final AtomicInteger pendingAttempts = new AtomicInteger();
+
+        /**
+         * Cancelled once the page completed
+         */
+        private final Queue<Attempt> attempts = new ConcurrentLinkedQueue<Attempt>();
+
+        private final Queue<Future<?>> timers = new ConcurrentLinkedQueue<Future<?>>();
+
+        /**
+         * Handed to the caller, cancelling it cancels the page
+         */
+        private final CompletableFuture<Void> handle = new CompletableFuture<Void>();
+
+        private Page(QueryRequest queryRequest, BiConsumer<QueryResult, Throwable> callback) {
+            this.queryRequest = queryRequest;
+            this.callback = callback;
+        }
+
+        private Future<?> start() {
+            handle.whenComplete((done, failure) -> cancelAll());
+            metrics.pages.incrementAndGet();
+            hedgeBudget.onRequest();
+
+            long remaining = deadlineNanos == Long.MAX_VALUE ? Long.MAX_VALUE : deadlineNanos - start;
+            if (remaining <= 0) {
+                timeout();
+                return handle;
+            }
+            attempt(queryRequest, false);
+            if (remaining != Long.MAX_VALUE) {
+                timers.add(scheduler.schedule(this::timeout, remaining, TimeUnit.NANOSECONDS));
+            }
+
+            long hedgeDelay = hedgeDelay();
+            if (hedgeDelay > 0 && hedgeDelay < remaining) {
+                timers.add(scheduler.schedule(this::hedge, hedgeDelay, TimeUnit.NANOSECONDS));
+            }
+            return handle;
+        }
+
+        private long hedgeDelay() {
+            if (!hedgeBudget.isEnabled() || !isFirstPage()
+                    || metrics.firstPageAttemptLatency.count() < MIN_SAMPLES) {
+                return 0L;
+            }
+            return metrics.firstPageAttemptLatency.percentile(HEDGE_PERCENTILE);
+        }
+
+        private boolean isFirstPage() {
+            return queryRequest.getExclusiveStartKey() == null;
+        }
+
+        private void hedge() {
+            if (completed.get() || !hedgeBudget.tryAcquire()) {
+                return;
+            }
+            metrics.hedges.incrementAndGet();
+            attempt(queryRequest.clone(), true);
+        }
+
+        private void attempt(QueryRequest request, final boolean hedge) {
+            final long attemptStart = System.nanoTime();
+            final Attempt attempt = new Attempt();
+            attempts.add(attempt);
+            pendingAttempts.incrementAndGet();
+            try {
+                attempt.future = delegate.fetch(request, (result, failure) -> {
+                    // the callback may run on the attempt's own thread, which must not be interrupted by cancelAll
+                    attempt.finished = true;
+                    if (failure == null) {
+                        long latency = System.nanoTime() - attemptStart;
+                        metrics.attemptLatency.record(latency);
+                        if (isFirstPage()) {
+                            metrics.firstPageAttemptLatency.record(latency);
+                        }
+                    }
+                    boolean lastAttempt = pendingAttempts.decrementAndGet() == 0;
+                    // a failed attempt only fails the page if no other attempt may still succeed
+                    if (failure == null || lastAttempt) {
+                        if (complete(result, failure) && hedge && failure == null) {
+                            metrics.hedgeWins.incrementAndGet();
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                attempt.finished = true;
+                if (pendingAttempts.decrementAndGet() == 0) {
+                    complete(null, e);
+                }
+            }
+            if (completed.get()) {
+                cancelAll();
+                // cancelAll may have run while the request was being sent, before its future was known
+                Future<?> future = attempt.future;
+                if (!attempt.finished && future != null) {
+                    future.cancel(true);
+                }
+            }
+        }
+
+        private void timeout() {
+            if (complete(null, new TimeoutException("deadline exceeded"))) {
+                metrics.timeouts.incrementAndGet();
+            }
+        }
+
+        private boolean complete(QueryResult result, Throwable failure) {
+            if (!completed.compareAndSet(false, true)) {
+                return false;
+            }
+            if (failure == null) {
+                metrics.pageLatency.record(System.nanoTime() - start);
+            }
+            callback.accept(result, failure);
+            handle.complete(null);
+            return true;
+        }
+
+        private void cancelAll() {
+            completed.set(true);
+            Future<?> timer;
+            while ((timer = timers.poll()) != null) {
+                timer.cancel(false);
+            }
+            Attempt attempt;
+            while ((attempt = attempts.poll()) != null) {
+                Future<?> future = attempt.future;
+                if (!attempt.finished && future != null) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+
+    private static final class Attempt {
+
+        private volatile Future<?> future;
+
+        private volatile boolean finished;
+    }
+}
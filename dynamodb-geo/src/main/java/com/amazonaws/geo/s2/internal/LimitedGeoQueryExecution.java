@@ -0,0 +1,180 @@
+package com.amazonaws.geo.s2.internal;
+
+import com.amazonaws.geo.model.GeoQueryRequest;
+import com.amazonaws.geo.model.GeoQueryResult;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.dashlabs.dash.geo.model.filters.GeoFilter;
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+
+/**
+ * Executes all queries of a {@link GeoQueryRequest} at once, chaining the pages of every query through callbacks,
+ * until either all queries are exhausted, <code>limit</code> items passed the geo filter or DynamoDB evaluated
+ * <code>maxItemsScanned</code> items. Once a limit is reached no more pages are requested and the requests in flight
+ * are cancelled.
+ * <p>
+ * Which items make it into a truncated result depends on the order pages arrive in. A counting execution keeps no
+ * items, only their number.
+ */
+class LimitedGeoQueryExecution {
+
+    private final PageFetcher pageFetcher;
+
+    private final PageFetchMetrics metrics;
+
+    private final GeoFilter<Map<String, AttributeValue>> resultFilter;
+
+    private final int limit;
+
+    private final long maxItemsScanned;
+
+    private final boolean countOnly;
+
+    private final CompletableFuture<GeoQueryResult> result = new CompletableFuture<GeoQueryResult>();
+
+    /**
+     * Guarded by itself, as are the counts, the unfinished queries and whether the result was taken
+     */
+    private final List<Map<String, AttributeValue>> items = new ArrayList<Map<String, AttributeValue>>();
+
+    private long count;
+
+    private long scannedCount;
+
+    private int unfinishedQueries;
+
+    private boolean finished;
+
+    private final Queue<Future<?>> inFlight = new ConcurrentLinkedQueue<Future<?>>();
+
+    private volatile boolean done;
+
+    /**
+     * @param limit           the maximum number of items to return, {@link Integer#MAX_VALUE} for no limit
+     * @param maxItemsScanned the maximum number of items to read, {@link Long#MAX_VALUE} for no limit
+     * @param countOnly       whether to count the items instead of returning them
+     */
+    LimitedGeoQueryExecution(PageFetcher pageFetcher, PageFetchMetrics metrics, GeoQueryRequest geoQueryRequest,
+                             int limit, long maxItemsScanned, boolean countOnly) {
+        this.pageFetcher = pageFetcher;
+        this.metrics = metrics;
+        this.resultFilter = geoQueryRequest.getResultFilter();
+        this.limit = limit;
+        this.maxItemsScanned = maxItemsScanned;
+        this.countOnly = countOnly;
+        this.unfinishedQueries = geoQueryRequest.getQueryRequests().size();
+        // completed from outside, e.g. cancelled by the caller, stops the execution as well
+        result.whenComplete((geoQueryResult, failure) -> stop());
+        if (geoQueryRequest.getQueryRequests().isEmpty()) {
+            finish(false);
+        }
+        for (QueryRequest queryRequest : geoQueryRequest.getQueryRequests()) {
+            requestPage(queryRequest);
+        }
+    }
+
+    CompletableFuture<GeoQueryResult> getResult() {
+        return result;
+    }
+
+    private void requestPage(final QueryRequest queryRequest) {
+        if (done) {
+            return;
+        }
+        try {
+            Future<?> future = pageFetcher.fetch(queryRequest, (queryResult, failure) -> {
+                if (failure != null) {
+                    result.completeExceptionally(failure);
+                } else {
+                    onPage(queryRequest, queryResult);
+                }
+            });
+            inFlight.removeIf(Future::isDone);
+            inFlight.add(future);
+            if (done) {
+                future.cancel(true);
+            }
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    private void onPage(QueryRequest queryRequest, QueryResult queryResult) {
+        if (done) {
+            return;
+        }
+        List<Map<String, AttributeValue>> filteredItems;
+        try {
+            filteredItems = resultFilter.filter(queryResult.getItems());
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+            return;
+        }
+        metrics.recordFiltering(queryResult, filteredItems.size());
+        Map<String, AttributeValue> lastEvaluatedKey = queryResult.getLastEvaluatedKey();
+
+        // the items of a page are added in the same critical section that counts its query as exhausted, so the
+        // page completing the last query takes the result only after all others added theirs
+        GeoQueryResult geoQueryResult = null;
+        synchronized (items) {
+            if (finished) {
+                return;
+            }
+            int accepted = (int) Math.max(0, Math.min(filteredItems.size(), limit - count));
+            if (!countOnly) {
+                items.addAll(filteredItems.subList(0, accepted));
+            }
+            count += accepted;
+            if (queryResult.getScannedCount() != null) {
+                scannedCount += queryResult.getScannedCount();
+            }
+            if (lastEvaluatedKey == null) {
+                unfinishedQueries--;
+            }
+            boolean allQueriesExhausted = unfinishedQueries == 0;
+            boolean limitReached = count >= limit || scannedCount >= maxItemsScanned;
+            boolean truncated = accepted < filteredItems.size() || (limitReached && !allQueriesExhausted);
+            if (truncated || allQueriesExhausted) {
+                geoQueryResult = takeResult(truncated);
+            }
+        }
+        if (geoQueryResult != null) {
+            result.complete(geoQueryResult);
+        } else if (lastEvaluatedKey != null) {
+            requestPage(queryRequest.withExclusiveStartKey(lastEvaluatedKey));
+        }
+    }
+
+    private void finish(boolean truncated) {
+        GeoQueryResult geoQueryResult;
+        synchronized (items) {
+            geoQueryResult = takeResult(truncated);
+        }
+        result.complete(geoQueryResult);
+    }
+
+    /**
+     * Must hold the lock of the items, no page is added afterwards
+     */
+    private GeoQueryResult takeResult(boolean truncated) {
+        finished = true;
+        return new GeoQueryResult(ImmutableList.copyOf(items), count, truncated, scannedCount);
+    }
+
+    private void stop() {
+        done = true;
+        Future<?> future;
+        while ((future = inFlight.poll()) != null) {
+            future.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.amazonaws.geo.s2.internal;
+
+import com.amazonaws.geo.metrics.LatencyHistogram;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latencies and counters of the page requests of a {@link GeoQueryClient}.
+ */
+class PageFetchMetrics {
+
+    /**
+     * The latency of every single DynamoDB request, primary or hedge
+     */
+    final LatencyHistogram attemptLatency = new LatencyHistogram(1, TimeUnit.MINUTES, 6);
+
+    /**
+     * The latency of the requests of first pages only, the hedging threshold is derived from it: first pages are the
+     * ones hedged and are slower than continuations, which already found their partition
+     */
+    final LatencyHistogram firstPageAttemptLatency = new LatencyHistogram(1, TimeUnit.MINUTES, 6);
+
+    /**
+     * The latency of every page as seen by the caller, i.e. of whichever of its requests returned first
+     */
+    final LatencyHistogram pageLatency = new LatencyHistogram(1, TimeUnit.MINUTES, 6);
+
+    final AtomicLong pages = new AtomicLong();
+
+    final AtomicLong hedges = new AtomicLong();
+
+    final AtomicLong hedgeWins = new AtomicLong();
+
+    final AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * Items evaluated by DynamoDB, returned by it after its <code>FilterExpression</code>, and kept by the geo filter
+     */
+    private final AtomicLong scannedItems = new AtomicLong();
+
+    private final AtomicLong returnedItems = new AtomicLong();
+
+    private final AtomicLong acceptedItems = new AtomicLong();
+
+    /**
+     * @param queryResult   a page as returned by DynamoDB
+     * @param acceptedItems the number of its items the geo filter kept
+     */
+    void recordFiltering(QueryResult queryResult, int acceptedItems) {
+        int returned = queryResult.getItems() != null ? queryResult.getItems().size() : 0;
+        scannedItems.addAndGet(queryResult.getScannedCount() != null ? queryResult.getScannedCount() : returned);
+        returnedItems.addAndGet(returned);
+        this.acceptedItems.addAndGet(acceptedItems);
+    }
+
+    Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<String, Object>();
+        snapshot.put("pages", pages.get());
+        snapshot.put("hedges", hedges.get());
+        snapshot.put("hedgeWins", hedgeWins.get());
+        snapshot.put("timeouts", timeouts.get());
+        snapshot.put("attemptLatency", attemptLatency.snapshot());
+        snapshot.put("firstPageAttemptLatency", firstPageAttemptLatency.snapshot());
+        snapshot.put("pageLatency", pageLatency.snapshot());
+        snapshot.put("filtering", filteringSnapshot());
+        return snapshot;
+    }
+
+    /**
+     * The share of scanned items filtered out by DynamoDB, i.e. by a pushed down bounding box, and the share of
+     * returned items filtered out by the geo filter; pushing the filter down moves items from the latter to the former.
+     */
+    private Map<String, Object> filteringSnapshot() {
+        long scanned = scannedItems.get();
+        long returned = returnedItems.get();
+        long accepted = acceptedItems.get();
+        Map<String, Object> snapshot = new LinkedHashMap<String, Object>();
+        snapshot.put("scannedItems", scanned);
+        snapshot.put("returnedItems", returned);
+        snapshot.put("acceptedItems", accepted);
+        snapshot.put("filteredByDynamoDbRatio", scanned > 0 ? (double) (scanned - returned) / scanned : 0.0d);
+        snapshot.put("filteredByGeoFilterRatio", returned > 0 ? (double) (returned - accepted) / returned : 0.0d);
+        return snapshot;
+    }
+}
@@ -0,0 +1,18 @@
+package com.amazonaws.geo.s2.internal;
+
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+
+/**
+ * Requests a single page of a query and reports its result, or failure, to the callback, possibly on another thread.
+ */
+interface PageFetcher {
+
+    /**
+     * @return a future of the request, cancelled to abandon it
+     */
+    Future<?> fetch(QueryRequest queryRequest, BiConsumer<QueryResult, Throwable> callback);
+}
@@ -1,14 +1,17 @@
 package com.dashlabs.dash.geo;
 
+import com.dashlabs.dash.geo.cache.CoveringCache;
+import com.dashlabs.dash.geo.model.CoveringReport;
 import com.dashlabs.dash.geo.model.GeohashRange;
+import com.dashlabs.dash.geo.model.GeohashRangeList;
+import com.dashlabs.dash.geo.model.QueryCostModel;
 import com.dashlabs.dash.geo.s2.internal.S2Manager;
-import com.google.common.geometry.S2CellId;
 import com.google.common.geometry.S2CellUnion;
+import com.google.common.geometry.S2LatLng;
 import com.google.common.geometry.S2LatLngRect;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -20,10 +23,25 @@ public abstract class AbstractGeoQueryHelper {
 
     private static final Logger LOG = LoggerFactory.getLogger(AbstractGeoQueryHelper.class.getSimpleName());
 
+    /**
+     * The fraction of a tile below which the end of a preloaded region is not covered by a partial tile
+     */
+    private static final double TILE_COUNT_TOLERANCE = 1e-9d;
+
     protected final S2Manager s2Manager;
 
+    /**
+     * An optional cache of split ranges, may be null
+     */
+    protected final CoveringCache coveringCache;
+
     protected AbstractGeoQueryHelper(S2Manager s2Manager) {
+        this(s2Manager, null);
+    }
+
+    protected AbstractGeoQueryHelper(S2Manager s2Manager, CoveringCache coveringCache) {
         this.s2Manager = s2Manager;
+        this.coveringCache = coveringCache;
     }
 
     /**
@@ -38,6 +56,158 @@ public abstract class AbstractGeoQueryHelper {
         return mergeCells(cells);
     }
 
+    /**
+     * Creates a collection of <code>GeohashRange</code> from a covering of the given boundingBox that is bounded
+     * by <code>maxCells</code> cells with levels within [<code>minLevel</code>, <code>maxLevel</code>].
+     *
+     * @param boundingBox the boundingBox {@link com.google.common.geometry.S2LatLngRect} of a given query
+     * @param minLevel    the coarsest level of a covering cell
+     * @param maxLevel    the finest level of a covering cell
+     * @param maxCells    the cell budget; 0 selects the unbounded covering of {@link #getGeoHashRanges(S2LatLngRect)}
+     * @return ranges a list of <code>GeohashRange</code>
+     */
+    protected List<GeohashRange> getGeoHashRanges(S2LatLngRect boundingBox, int minLevel, int maxLevel, int maxCells) {
+        S2CellUnion cells = s2Manager.findCellIds(boundingBox, minLevel, maxLevel, maxCells);
+        return mergeCells(cells);
+    }
+
+    /**
+     * Creates the final ranges, i.e. merged and split by hash key, for the covering of the given boundingBox.
+     * When a {@link CoveringCache} is configured the bounding box is quantized and the ranges are served from the cache.
+     *
+     * @param boundingBox   the boundingBox of a given query
+     * @param hashKeyLength the hash key length to split the ranges by
+     * @param minLevel      the coarsest level of a covering cell
+     * @param maxLevel      the finest level of a covering cell
+     * @param maxCells      the cell budget; 0 selects the unbounded covering
+     * @return ranges a read-only <code>GeohashRangeList</code> with the hash key of every range
+     */
+    protected GeohashRangeList getSplitGeoHashRanges(S2LatLngRect boundingBox, final int hashKeyLength,
+                                                     final int minLevel, final int maxLevel, final int maxCells) {
+        if (coveringCache == null) {
+            return splitGeoHashRanges(boundingBox, hashKeyLength, minLevel, maxLevel, maxCells);
+        }
+        final CoveringCache.Key key = coveringCache.keyOf(boundingBox, hashKeyLength, minLevel, maxLevel, maxCells);
+        return coveringCache.get(key, () -> splitGeoHashRanges(coveringCache.boundingBoxOf(key),
+                hashKeyLength, minLevel, maxLevel, maxCells));
+    }
+
+    private GeohashRangeList splitGeoHashRanges(S2LatLngRect boundingBox, int hashKeyLength,
+                                                int minLevel, int maxLevel, int maxCells) {
+        S2CellUnion cells = s2Manager.findCellIds(boundingBox, minLevel, maxLevel, maxCells);
+        return mergeCellRanges(cells).split(hashKeyLength, s2Manager);
+    }
+
+    /**
+     * Plans the queries of split ranges with the given cost model, coalescing ranges of the same hash key wherever
+     * over-reading the gap between them is expected to be cheaper than a round trip. The items read from a gap
+     * are outside of the covering and dropped by the geo filter.
+     *
+     * @param splitRanges the ranges split by hash key, not modified
+     * @param costModel   the cost model
+     * @return the coalesced ranges, with the hash key of every range
+     */
+    protected GeohashRangeList coalesceGeoHashRanges(GeohashRangeList splitRanges, QueryCostModel costModel) {
+        GeohashRangeList coalesced = splitRanges.coalesce(costModel.maxCoalescibleGap());
+        if (LOG.isDebugEnabled() && coalesced.size() < splitRanges.size()) {
+            LOG.debug("Coalesced [{}] ranges into [{}] queries", splitRanges.size(), coalesced.size());
+        }
+        return coalesced;
+    }
+
+    /**
+     * Fills the {@link CoveringCache} with the coverings of a fixed grid of tiles over the given region, so that
+     * viewports matching a tile skip the covering computation. A no-op when no cache is configured.
+     * <code>tileDegrees</code> should be a multiple of the cache quantum, otherwise tiles will not match any viewport.
+     *
+     * @param minLatitude   the min latitude of the region
+     * @param minLongitude  the min longitude of the region
+     * @param maxLatitude   the max latitude of the region
+     * @param maxLongitude  the max longitude of the region
+     * @param tileDegrees   the size of a tile, in degrees
+     * @param hashKeyLength the hash key length to split the ranges by
+     * @param minLevel      the coarsest level of a covering cell
+     * @param maxLevel      the finest level of a covering cell
+     * @param maxCells      the cell budget
+     * @return the number of tiles that were preloaded
+     */
+    public int preloadCoverings(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude,
+                                double tileDegrees, int hashKeyLength, int minLevel, int maxLevel, int maxCells) {
+        if (coveringCache == null || tileDegrees <= 0.0d) {
+            return 0;
+        }
+        // tile corners are derived from integer indexes, summing up tileDegrees would drift off the quantum grid
+        int rows = tileCount(minLatitude, maxLatitude, tileDegrees);
+        int columns = tileCount(minLongitude, maxLongitude, tileDegrees);
+        int tiles = 0;
+        for (int row = 0; row < rows; row++) {
+            double lat = minLatitude + row * tileDegrees;
+            double nextLat = Math.min(minLatitude + (row + 1) * tileDegrees, maxLatitude);
+            for (int column = 0; column < columns; column++) {
+                double lng = minLongitude + column * tileDegrees;
+                double nextLng = Math.min(minLongitude + (column + 1) * tileDegrees, maxLongitude);
+                S2LatLngRect tile = new S2LatLngRect(S2LatLng.fromDegrees(lat, lng), S2LatLng.fromDegrees(nextLat, nextLng));
+                getSplitGeoHashRanges(tile, hashKeyLength, minLevel, maxLevel, maxCells);
+                tiles++;
+            }
+        }
+        LOG.info("Preloaded coverings of [{}] tiles, cache size [{}]", tiles, coveringCache.size());
+        return tiles;
+    }
+
+    /**
+     * @return the number of tiles of <code>tileDegrees</code> spanning [<code>min</code>, <code>max</code>], a span
+     * that is a multiple of <code>tileDegrees</code> up to rounding errors having no partial tile at its end
+     */
+    static int tileCount(double min, double max, double tileDegrees) {
+        return (int) Math.max(0L, (long) Math.ceil((max - min) / tileDegrees - TILE_COUNT_TOLERANCE));
+    }
+
+    public CoveringCache getCoveringCache() {
+        return coveringCache;
+    }
+
+    /**
+     * Computes the covering of the boundingBox with both the unbounded and the budgeted algorithm and reports
+     * the number of cells, merged ranges and hash key split queries each of them produces.
+     *
+     * @param boundingBox   the boundingBox of a given query
+     * @param hashKeyLength the hash key length used to split ranges into queries
+     * @param minLevel      the coarsest level of a budgeted covering cell
+     * @param maxLevel      the finest level of a budgeted covering cell
+     * @param maxCells      the cell budget of the budgeted covering
+     * @return the comparison report
+     */
+    public CoveringReport compareCoverings(S2LatLngRect boundingBox, int hashKeyLength, int minLevel, int maxLevel, int maxCells) {
+        long start = System.nanoTime();
+        S2CellUnion legacyCells = s2Manager.findCellIds(boundingBox);
+        GeohashRangeList legacyRanges = mergeCellRanges(legacyCells);
+        int legacyQueries = legacyRanges.split(hashKeyLength, s2Manager).size();
+        CoveringReport.Stats legacy = new CoveringReport.Stats(cellCount(legacyCells), legacyRanges.size(),
+                legacyQueries, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        S2CellUnion budgetedCells = s2Manager.findCellIds(boundingBox, minLevel, maxLevel, maxCells);
+        GeohashRangeList budgetedRanges = mergeCellRanges(budgetedCells);
+        int budgetedQueries = budgetedRanges.split(hashKeyLength, s2Manager).size();
+        CoveringReport.Stats budgeted = new CoveringReport.Stats(cellCount(budgetedCells), budgetedRanges.size(),
+                budgetedQueries, System.nanoTime() - start);
+
+        return new CoveringReport(legacy, budgeted);
+    }
+
+    /**
+     * Logs {@link #compareCoverings(S2LatLngRect, int, int, int, int)} for the given boundingBox.
+     */
+    protected void logCoveringComparison(S2LatLngRect boundingBox, int hashKeyLength, int minLevel, int maxLevel, int maxCells) {
+        LOG.info("Covering comparison for {}: {}", boundingBox,
+                compareCoverings(boundingBox, hashKeyLength, minLevel, maxLevel, maxCells));
+    }
+
+    private static int cellCount(S2CellUnion cells) {
+        return cells == null ? 0 : cells.cellIds().size();
+    }
+
     /**
      * Merge continuous cells in cellUnion and return a list of merged GeohashRanges.
      *
@@ -45,25 +215,21 @@ public abstract class AbstractGeoQueryHelper {
      * @return A list of merged GeohashRanges.
      */
     protected List<GeohashRange> mergeCells(S2CellUnion cellUnion) {
-        List<S2CellId> cellIds = cellUnion.cellIds();
-        if (cellIds.size() > 1000) {
-            LOG.warn("Created [{}] cell ids", cellIds.size());
-        }
-        List<GeohashRange> ranges = new ArrayList<>(cellIds.size());
-        for (S2CellId c : cellIds) {
-            GeohashRange range = new GeohashRange(c.rangeMin().id(), c.rangeMax().id());
-            boolean wasMerged = false;
-            for (GeohashRange r : ranges) {
-                if (r.tryMerge(range)) {
-                    wasMerged = true;
-                    break;
-                }
-            }
-            if (!wasMerged) {
-                ranges.add(range);
-            }
+        return mergeCellRanges(cellUnion).toGeohashRanges();
+    }
+
+    /**
+     * Merge continuous cells in cellUnion by sort-and-sweep.
+     *
+     * @param cellUnion Container for multiple cells, may be null.
+     * @return A list of merged ranges.
+     */
+    protected GeohashRangeList mergeCellRanges(S2CellUnion cellUnion) {
+        GeohashRangeList ranges = GeohashRangeList.fromCells(cellUnion);
+        if (ranges.size() > 1000) {
+            LOG.warn("Created [{}] cell ids", ranges.size());
         }
-        return ranges;
+        return ranges.merge();
     }
 
 }
@@ -0,0 +1,214 @@
+package com.dashlabs.dash.geo.cache;
+
+import com.dashlabs.dash.geo.model.GeohashRangeList;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.geometry.S2LatLng;
+import com.google.common.geometry.S2LatLngRect;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A bounded, size and TTL evicting cache of the final (merged and hash key split) geohash ranges of a covering.
+ * <p>
+ * Bounding boxes are quantized outward onto a grid of <code>quantumDegrees</code>, so viewports that differ only
+ * slightly share an entry. The cached covering is computed for the quantized box, which contains the original one;
+ * the extra area is dropped by the geo filter like any other over-fetch.
+ * <p>
+ * Cached {@link GeohashRangeList}s are shared between callers and must not be modified.
+ */
+public class CoveringCache {
+
+    /**
+     * The fraction of a quantum by which a bounding box edge may miss a grid line and still be snapped onto it
+     */
+    private static final double QUANTUM_TOLERANCE = 1e-9d;
+
+    private final double quantumDegrees;
+
+    private final Cache<Key, GeohashRangeList> cache;
+
+    /**
+     * @param maximumSize    the maximum number of cached coverings
+     * @param ttl            how long a covering stays cached after it was computed
+     * @param ttlUnit        the unit of <code>ttl</code>
+     * @param quantumDegrees the size of the grid bounding boxes are snapped to, in degrees
+     */
+    public CoveringCache(long maximumSize, long ttl, TimeUnit ttlUnit, double quantumDegrees) {
+        checkArgument(quantumDegrees > 0.0d, "quantumDegrees has to be a positive value: %s", quantumDegrees);
+        this.quantumDegrees = quantumDegrees;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl, ttlUnit)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Creates the cache key of a covering.
+     *
+     * @param boundingBox   the bounding box to cover, quantized outward by this method
+     * @param hashKeyLength the hash key length the ranges are split by
+     * @param minLevel      the coarsest level of a covering cell
+     * @param maxLevel      the finest level of a covering cell
+     * @param maxCells      the covering cell budget
+     * @return the key
+     */
+    public Key keyOf(S2LatLngRect boundingBox, int hashKeyLength, int minLevel, int maxLevel, int maxCells) {
+        return new Key(
+                quantizeDown(boundingBox.latLo().degrees()),
+                quantizeDown(boundingBox.lngLo().degrees()),
+                quantizeUp(boundingBox.latHi().degrees()),
+                quantizeUp(boundingBox.lngHi().degrees()),
+                hashKeyLength, minLevel, maxLevel, maxCells);
+    }
+
+    /**
+     * Edges within {@link #QUANTUM_TOLERANCE} of a grid line, e.g. after a degrees to radians round trip, snap onto
+     * it instead of to the next grid line outward.
+     */
+    private long quantizeDown(double degrees) {
+        return (long) Math.floor(degrees / quantumDegrees + QUANTUM_TOLERANCE);
+    }
+
+    private long quantizeUp(double degrees) {
+        return (long) Math.ceil(degrees / quantumDegrees - QUANTUM_TOLERANCE);
+    }
+
+    /**
+     * @param key the key of a covering
+     * @return the quantized bounding box the covering of <code>key</code> has to be computed for
+     */
+    public S2LatLngRect boundingBoxOf(Key key) {
+        S2LatLng lo = S2LatLng.fromDegrees(clamp(key.latLo * quantumDegrees, 90.0d), clamp(key.lngLo * quantumDegrees, 180.0d));
+        S2LatLng hi = S2LatLng.fromDegrees(clamp(key.latHi * quantumDegrees, 90.0d), clamp(key.lngHi * quantumDegrees, 180.0d));
+        return new S2LatLngRect(lo, hi);
+    }
+
+    /**
+     * Returns the cached ranges of <code>key</code>, computing them with <code>loader</code> on a miss.
+     *
+     * @param key    the key of the covering
+     * @param loader computes the split ranges for {@link #boundingBoxOf(Key)}
+     * @return the split ranges, which must not be modified
+     */
+    public GeohashRangeList get(Key key, Callable<GeohashRangeList> loader) {
+        try {
+            return cache.get(key, loader);
+        } catch (ExecutionException e) {
+            throw new UncheckedExecutionException(e.getCause());
+        }
+    }
+
+    public boolean contains(Key key) {
+        return cache.getIfPresent(key) != null;
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public long hitCount() {
+        return cache.stats().hitCount();
+    }
+
+    public long missCount() {
+        return cache.stats().missCount();
+    }
+
+    public long evictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public double getQuantumDegrees() {
+        return quantumDegrees;
+    }
+
+    private static double clamp(double value, double bound) {
+        return Math.max(-bound, Math.min(bound, value));
+    }
+
+    /**
+     * A quantized bounding box together with everything else the ranges of its covering depend on.
+     */
+    public static final class Key {
+
+        private final long latLo;
+        private final long lngLo;
+        private final long latHi;
+        private final long lngHi;
+        private final int hashKeyLength;
+        private final int minLevel;
+        private final int maxLevel;
+        private final int maxCells;
+
+        private Key(long latLo, long lngLo, long latHi, long lngHi, int hashKeyLength, int minLevel, int maxLevel, int maxCells) {
+            this.latLo = latLo;
+            this.lngLo = lngLo;
+            this.latHi = latHi;
+            this.lngHi = lngHi;
+            this.hashKeyLength = hashKeyLength;
+            this.minLevel = minLevel;
+            this.maxLevel = maxLevel;
+            this.maxCells = maxCells;
+        }
+
+        public int getHashKeyLength() {
+            return hashKeyLength;
+        }
+
+        public int getMinLevel() {
+            return minLevel;
+        }
+
+        public int getMaxLevel() {
+            return maxLevel;
+        }
+
+        public int getMaxCells() {
+            return maxCells;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return latLo == key.latLo && lngLo == key.lngLo && latHi == key.latHi && lngHi == key.lngHi
+                    && hashKeyLength == key.hashKeyLength && minLevel == key.minLevel
+                    && maxLevel == key.maxLevel && maxCells == key.maxCells;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Long.hashCode(latLo);
+            result = 31 * result + Long.hashCode(lngLo);
+            result = 31 * result + Long.hashCode(latHi);
+            result = 31 * result + Long.hashCode(lngHi);
+            result = 31 * result + hashKeyLength;
+            result = 31 * result + minLevel;
+            result = 31 * result + maxLevel;
+            result = 31 * result + maxCells;
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + latLo + ", " + lngLo + ", " + latHi + ", " + lngHi + "]:" + hashKeyLength;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.dashlabs.dash.geo.model;
+
+/**
+ * Side-by-side statistics of the original (unbounded) covering and the budgeted {@code S2RegionCoverer} covering
+ * of the same bounding box.
+ */
+public class CoveringReport {
+
+    private final Stats legacy;
+
+    private final Stats budgeted;
+
+    public CoveringReport(Stats legacy, Stats budgeted) {
+        this.legacy = legacy;
+        this.budgeted = budgeted;
+    }
+
+    public Stats getLegacy() {
+        return legacy;
+    }
+
+    public Stats getBudgeted() {
+        return budgeted;
+    }
+
+    @Override
+    public String toString() {
+        return "legacy[" + legacy + "] budgeted[" + budgeted + "]";
+    }
+
+    /**
+     * Figures of a single covering: cells produced, ranges after merging continuous cells and queries after splitting
+     * the ranges by hash key.
+     */
+    public static class Stats {
+
+        private final int cells;
+
+        private final int ranges;
+
+        private final int queries;
+
+        private final long nanos;
+
+        public Stats(int cells, int ranges, int queries, long nanos) {
+            this.cells = cells;
+            this.ranges = ranges;
+            this.queries = queries;
+            this.nanos = nanos;
+        }
+
+        public int getCells() {
+            return cells;
+        }
+
+        public int getRanges() {
+            return ranges;
+        }
+
+        public int getQueries() {
+            return queries;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            return "cells=" + cells + ", ranges=" + ranges + ", queries=" + queries + ", micros=" + nanos / 1000;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.dashlabs.dash.geo.model;
 
+import com.dashlabs.dash.geo.s2.internal.DecimalDigits;
 import com.dashlabs.dash.geo.s2.internal.S2Manager;
 
 import java.util.ArrayList;
@@ -90,7 +91,7 @@ public class GeohashRange {
         long minHashKey = s2Manager.generateHashKey(rangeMin, hashKeyLength);
         long maxHashKey = s2Manager.generateHashKey(rangeMax, hashKeyLength);
 
-        long denominator = (long) Math.pow(10, String.valueOf(rangeMin).length() - String.valueOf(minHashKey).length());
+        long denominator = splitDenominator(rangeMin, minHashKey);
 
         if (minHashKey == maxHashKey) {
             result.add(this);
@@ -109,6 +110,14 @@ public class GeohashRange {
         return result;
     }
 
+    /**
+     * The power of ten that separates the hash key of <code>rangeMin</code> from the rest of its digits,
+     * i.e. the width of a single hash key when splitting a range.
+     */
+    static long splitDenominator(long rangeMin, long minHashKey) {
+        return DecimalDigits.powerOfTen(DecimalDigits.stringLength(rangeMin) - DecimalDigits.stringLength(minHashKey));
+    }
+
     public long getRangeMin() {
         return rangeMin;
     }
@@ -0,0 +1,275 @@
+package com.dashlabs.dash.geo.model;
+
+import com.dashlabs.dash.geo.s2.internal.S2Manager;
+import com.google.common.geometry.S2CellId;
+import com.google.common.geometry.S2CellUnion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compact list of geohash ranges backed by parallel <code>long[]</code> arrays of range minimums and maximums,
+ * the primitive counterpart of a <code>List&lt;GeohashRange&gt;</code>.
+ * <p>
+ * Merging continuous ranges is a sort-and-sweep in O(n log n) and splitting by hash key does not allocate
+ * per-range objects. A list that results from {@link #split(int, S2Manager)} or {@link #coalesce(long)} also carries
+ * the hash key of every range.
+ * <p>
+ * A list is not thread-safe while being built, but can be shared freely once it is no longer modified.
+ */
+public final class GeohashRangeList {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] mins;
+
+    private long[] maxs;
+
+    private long[] hashKeys;
+
+    private int size;
+
+    public GeohashRangeList() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public GeohashRangeList(int capacity) {
+        int initialCapacity = Math.max(capacity, 1);
+        this.mins = new long[initialCapacity];
+        this.maxs = new long[initialCapacity];
+    }
+
+    /**
+     * Creates a list holding the leaf cell id range of every cell of the given cell union.
+     *
+     * @param cellUnion the cells, may be null
+     * @return a new, unmerged list
+     */
+    public static GeohashRangeList fromCells(S2CellUnion cellUnion) {
+        if (cellUnion == null) {
+            return new GeohashRangeList();
+        }
+        List<S2CellId> cellIds = cellUnion.cellIds();
+        GeohashRangeList ranges = new GeohashRangeList(cellIds.size());
+        for (S2CellId cellId : cellIds) {
+            long id = cellId.id();
+            // same as S2CellId#rangeMin() and S2CellId#rangeMax(), without creating the cell ids
+            long lsb = id & -id;
+            ranges.add(id - (lsb - 1), id + (lsb - 1));
+        }
+        return ranges;
+    }
+
+    public void add(long range1, long range2) {
+        add(Math.min(range1, range2), Math.max(range1, range2), 0L);
+    }
+
+    private void add(long min, long max, long hashKey) {
+        if (size == mins.length) {
+            int capacity = size + (size >> 1) + 1;
+            mins = Arrays.copyOf(mins, capacity);
+            maxs = Arrays.copyOf(maxs, capacity);
+            if (hashKeys != null) {
+                hashKeys = Arrays.copyOf(hashKeys, capacity);
+            }
+        }
+        mins[size] = min;
+        maxs[size] = max;
+        if (hashKeys != null) {
+            hashKeys[size] = hashKey;
+        }
+        size++;
+    }
+
+    /**
+     * Sorts the ranges and merges, in place, every range that overlaps its predecessor or starts within
+     * {@link GeohashRange#MERGE_THRESHOLD} of its end.
+     *
+     * @return this list
+     */
+    public GeohashRangeList merge() {
+        // merged ranges may span several hash keys
+        hashKeys = null;
+        if (size < 2) {
+            return this;
+        }
+        if (!isSorted()) {
+            sort();
+        }
+        int last = 0;
+        for (int r = 1; r < size; r++) {
+            if (maxs[last] >= Long.MAX_VALUE - GeohashRange.MERGE_THRESHOLD
+                    || mins[r] <= maxs[last] + GeohashRange.MERGE_THRESHOLD) {
+                maxs[last] = Math.max(maxs[last], maxs[r]);
+            } else {
+                last++;
+                mins[last] = mins[r];
+                maxs[last] = maxs[r];
+            }
+        }
+        size = last + 1;
+        return this;
+    }
+
+    /**
+     * Splits every range into ranges that lie within a single hash key, the same way as
+     * {@link GeohashRange#trySplit(int, S2Manager)} does.
+     *
+     * @param hashKeyLength the length of the hash key
+     * @param s2Manager     to derive hash keys
+     * @return a new list, with the hash key of every range
+     */
+    public GeohashRangeList split(int hashKeyLength, S2Manager s2Manager) {
+        GeohashRangeList result = new GeohashRangeList(size);
+        result.hashKeys = new long[result.mins.length];
+        for (int r = 0; r < size; r++) {
+            long rangeMin = mins[r];
+            long rangeMax = maxs[r];
+            long minHashKey = s2Manager.generateHashKey(rangeMin, hashKeyLength);
+            long maxHashKey = s2Manager.generateHashKey(rangeMax, hashKeyLength);
+
+            if (minHashKey == maxHashKey) {
+                result.add(rangeMin, rangeMax, minHashKey);
+                continue;
+            }
+            long denominator = GeohashRange.splitDenominator(rangeMin, minHashKey);
+            for (long l = minHashKey; l <= maxHashKey; l++) {
+                if (l > 0) {
+                    result.add(l == minHashKey ? rangeMin : l * denominator,
+                            l == maxHashKey ? rangeMax : (l + 1) * denominator - 1, l);
+                } else {
+                    result.add(l == minHashKey ? rangeMin : (l - 1) * denominator + 1,
+                            l == maxHashKey ? rangeMax : l * denominator, l);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Coalesces consecutive ranges of the same hash key that are at most <code>maxGap</code> geohash values apart,
+     * trading reads of the items in between for fewer queries. Only available on a split list.
+     *
+     * @param maxGap the widest gap to coalesce, see {@link QueryCostModel#maxCoalescibleGap()}
+     * @return a new list, with the hash key of every range
+     */
+    public GeohashRangeList coalesce(long maxGap) {
+        if (hashKeys == null) {
+            throw new IllegalStateException("only ranges split by hash key can be coalesced");
+        }
+        GeohashRangeList result = new GeohashRangeList(size);
+        result.hashKeys = new long[result.mins.length];
+        for (int r = 0; r < size; r++) {
+            int last = result.size - 1;
+            // ranges of one hash key share the sign, so the gap cannot overflow
+            if (last >= 0 && result.hashKeys[last] == hashKeys[r] && mins[r] - result.maxs[last] - 1 <= maxGap) {
+                result.maxs[last] = Math.max(result.maxs[last], maxs[r]);
+            } else {
+                result.add(mins[r], maxs[r], hashKeys[r]);
+            }
+        }
+        return result;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long getRangeMin(int index) {
+        checkIndex(index);
+        return mins[index];
+    }
+
+    public long getRangeMax(int index) {
+        checkIndex(index);
+        return maxs[index];
+    }
+
+    /**
+     * @return whether the list was produced by {@link #split(int, S2Manager)} and carries hash keys
+     */
+    public boolean hasHashKeys() {
+        return hashKeys != null;
+    }
+
+    /**
+     * @return the hash key of the range at <code>index</code>, only available on a split list
+     */
+    public long getHashKey(int index) {
+        checkIndex(index);
+        if (hashKeys == null) {
+            throw new IllegalStateException("hash keys are only known after a split");
+        }
+        return hashKeys[index];
+    }
+
+    /**
+     * @return the ranges as (new) <code>GeohashRange</code> objects, for callers of the object based API
+     */
+    public List<GeohashRange> toGeohashRanges() {
+        List<GeohashRange> ranges = new ArrayList<>(size);
+        for (int r = 0; r < size; r++) {
+            ranges.add(new GeohashRange(mins[r], maxs[r]));
+        }
+        return ranges;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+    }
+
+    private boolean isSorted() {
+        for (int r = 1; r < size; r++) {
+            if (mins[r] < mins[r - 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Heap sort of the parallel arrays by range minimum, in place.
+     */
+    private void sort() {
+        for (int root = size / 2 - 1; root >= 0; root--) {
+            siftDown(root, size);
+        }
+        for (int end = size - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+    }
+
+    private void siftDown(int root, int end) {
+        while (true) {
+            int child = 2 * root + 1;
+            if (child >= end) {
+                return;
+            }
+            if (child + 1 < end && mins[child + 1] > mins[child]) {
+                child++;
+            }
+            if (mins[root] >= mins[child]) {
+                return;
+            }
+            swap(root, child);
+            root = child;
+        }
+    }
+
+    private void swap(int a, int b) {
+        long min = mins[a];
+        mins[a] = mins[b];
+        mins[b] = min;
+        long max = maxs[a];
+        maxs[a] = maxs[b];
+        maxs[b] = max;
+    }
+}
@@ -0,0 +1,108 @@
+package com.dashlabs.dash.geo.model;
+
+import com.google.common.geometry.S2LatLngRect;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * The cost model of the query planner that coalesces geohash ranges of the same hash key.
+ * <p>
+ * Coalescing two ranges saves one round trip but also reads every item that lies in the gap between them,
+ * which is afterwards dropped by the geo filter. Items are assumed to be spread uniformly over the geohash space,
+ * i.e. the <code>6 * 2^61</code> values spanned by the leaf cell ids of the six cube faces, so the expected number
+ * of extra items is proportional to the width of the gap. Two ranges are coalesced when
+ * <code>gap * density * itemCost &lt;= roundTripCost</code>.
+ * <p>
+ * Data is rarely uniform: <code>expectedItemCount</code> should be the item count the whole earth would hold at the
+ * density of the areas that are actually queried, not the size of the table.
+ */
+public class QueryCostModel {
+
+    /**
+     * The number of geohash values spanned by the leaf cell ids of all six faces.
+     */
+    static final double GEOHASH_SPACE = 6.0d * Math.pow(2, 61);
+
+    private final double roundTripCost;
+
+    private final double itemCost;
+
+    private final double expectedItemCount;
+
+    /**
+     * @param roundTripCost     the cost of issuing one additional query, e.g. in milliseconds
+     * @param itemCost          the cost of reading and filtering one additional item, in the same unit
+     * @param expectedItemCount the expected item count at the queried density, see the class documentation
+     */
+    public QueryCostModel(double roundTripCost, double itemCost, double expectedItemCount) {
+        checkArgument(roundTripCost >= 0.0d, "roundTripCost cannot be negative: %s", roundTripCost);
+        checkArgument(itemCost > 0.0d, "itemCost has to be a positive value: %s", itemCost);
+        checkArgument(expectedItemCount > 0.0d, "expectedItemCount has to be a positive value: %s", expectedItemCount);
+        this.roundTripCost = roundTripCost;
+        this.itemCost = itemCost;
+        this.expectedItemCount = expectedItemCount;
+    }
+
+    /**
+     * @param gap the number of geohash values between two ranges
+     * @return the number of items expected within the gap
+     */
+    public double expectedItems(long gap) {
+        return gap * (expectedItemCount / GEOHASH_SPACE);
+    }
+
+    /**
+     * @param boundingBox a bounding box
+     * @return the number of items expected within the bounding box, by its share of the earth's surface
+     */
+    public double expectedItems(S2LatLngRect boundingBox) {
+        return boundingBox.area() / (4 * Math.PI) * expectedItemCount;
+    }
+
+    /**
+     * @return the widest gap between two ranges of the same hash key that is cheaper to over-read than to query apart
+     */
+    public long maxCoalescibleGap() {
+        double gap = roundTripCost / itemCost * (GEOHASH_SPACE / expectedItemCount);
+        return gap >= Long.MAX_VALUE ? Long.MAX_VALUE : (long) gap;
+    }
+
+    public double getRoundTripCost() {
+        return roundTripCost;
+    }
+
+    public double getItemCost() {
+        return itemCost;
+    }
+
+    public double getExpectedItemCount() {
+        return expectedItemCount;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        QueryCostModel that = (QueryCostModel) o;
+        return Double.compare(that.roundTripCost, roundTripCost) == 0
+                && Double.compare(that.itemCost, itemCost) == 0
+                && Double.compare(that.expectedItemCount, expectedItemCount) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Double.hashCode(roundTripCost);
+        result = 31 * result + Double.hashCode(itemCost);
+        result = 31 * result + Double.hashCode(expectedItemCount);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "roundTripCost=" + roundTripCost + ", itemCost=" + itemCost + ", expectedItemCount=" + expectedItemCount;
+    }
+}
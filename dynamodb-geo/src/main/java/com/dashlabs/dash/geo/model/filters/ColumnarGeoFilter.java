@@ -0,0 +1,18 @@
+package com.dashlabs.dash.geo.model.filters;
+
+/**
+ * A geo filter over coordinate columns: the coordinates of a batch of items are parsed once into primitive arrays and
+ * the filter selects the indexes of the items it keeps, without allocating anything per item.
+ */
+public interface ColumnarGeoFilter {
+
+    /**
+     * @param latitudes  the latitudes of the items in degrees, {@link Double#NaN} for an item without one
+     * @param longitudes the longitudes of the items in degrees, {@link Double#NaN} for an item without one
+     * @param count      the number of items, the arrays may be longer
+     * @param selection  receives the ascending indexes of the items that pass the filter, at least <code>count</code> long
+     * @return the number of indexes written to <code>selection</code>
+     */
+    int select(double[] latitudes, double[] longitudes, int count, int[] selection);
+
+}
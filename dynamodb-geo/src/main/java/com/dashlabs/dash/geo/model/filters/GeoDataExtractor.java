@@ -13,4 +13,20 @@ public interface GeoDataExtractor<T> {
 
     Optional<Double> extractLongitude(T item);
 
+    /**
+     * @return the latitude of the item in degrees, or {@link Double#NaN} if it has none
+     */
+    default double latitudeOf(T item) {
+        Optional<Double> latitude = extractLatitude(item);
+        return latitude.isPresent() ? latitude.get() : Double.NaN;
+    }
+
+    /**
+     * @return the longitude of the item in degrees, or {@link Double#NaN} if it has none
+     */
+    default double longitudeOf(T item) {
+        Optional<Double> longitude = extractLongitude(item);
+        return longitude.isPresent() ? longitude.get() : Double.NaN;
+    }
+
 }
@@ -2,10 +2,8 @@ package com.dashlabs.dash.geo.model.filters;
 
 import com.google.common.geometry.S2LatLng;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Optional;
 
 /**
  *
@@ -17,7 +15,14 @@ import java.util.Optional;
  *
  * Modified to abstract the data type.
  */
-public class RadiusGeoFilter<T> implements GeoFilter<T> {
+public class RadiusGeoFilter<T> implements GeoFilter<T>, ColumnarGeoFilter {
+
+    private static final double RADIANS_PER_DEGREE = Math.PI / 180;
+
+    /**
+     * Relative slack of the quick reject, so that rounding never rejects an item the exact check would keep
+     */
+    private static final double REJECT_SLACK = 1e-9;
 
     private final GeoDataExtractor<T> extractor;
 
@@ -31,6 +36,17 @@ public class RadiusGeoFilter<T> implements GeoFilter<T> {
      */
     private final double radiusInMeter;
 
+    private final double centerLat;
+    private final double centerLng;
+    private final double cosCenterLat;
+
+    /**
+     * The latitude and longitude distances in radians beyond which no point of the cap lies; the longitude
+     * distance is infinite if the cap contains a pole
+     */
+    private final double maxDLat;
+    private final double maxDLng;
+
     public RadiusGeoFilter(GeoDataExtractor<T> extractor, S2LatLng centerLatLng, double radiusInMeter) {
         if ((extractor == null) || (centerLatLng == null) || (radiusInMeter <= 0)) {
             throw new IllegalArgumentException();
@@ -38,6 +54,15 @@ public class RadiusGeoFilter<T> implements GeoFilter<T> {
         this.extractor = extractor;
         this.centerLatLng = centerLatLng;
         this.radiusInMeter = radiusInMeter;
+        this.centerLat = centerLatLng.lat().radians();
+        this.centerLng = centerLatLng.lng().radians();
+        this.cosCenterLat = Math.cos(centerLat);
+
+        double angle = radiusInMeter / S2LatLng.EARTH_RADIUS_METERS;
+        this.maxDLat = angle * (1 + REJECT_SLACK);
+        this.maxDLng = Math.abs(centerLat) + angle < Math.PI / 2
+                ? Math.asin(Math.min(1.0d, Math.sin(angle) / cosCenterLat)) * (1 + REJECT_SLACK)
+                : Double.POSITIVE_INFINITY;
     }
 
     /**
@@ -47,18 +72,44 @@ public class RadiusGeoFilter<T> implements GeoFilter<T> {
      * @return result a collection of items that fall within the radius of this filter.
      */
     public List<T> filter(Collection<T> items) {
-        List<T> result = new ArrayList<>(items.size());
-        for (T item : items) {
-            Optional<Double> latitude = extractor.extractLatitude(item);
-            Optional<Double> longitude = extractor.extractLongitude(item);
-            if (latitude.isPresent() && longitude.isPresent()) {
-                S2LatLng latLng = S2LatLng.fromDegrees(latitude.get(), longitude.get());
-                if (centerLatLng.getEarthDistance(latLng) <= radiusInMeter) {
-                    result.add(item);
-                }
+        return Selections.filter(items, extractor, this);
+    }
+
+    @Override
+    public int select(double[] latitudes, double[] longitudes, int count, int[] selection) {
+        int selected = 0;
+        for (int i = 0; i < count; i++) {
+            double lat = latitudes[i] * RADIANS_PER_DEGREE;
+            double lng = longitudes[i] * RADIANS_PER_DEGREE;
+            if (Double.isNaN(lat) || Double.isNaN(lng)) {
+                continue;
+            }
+            // quick reject by the bounding box of the cap, most items outside of it are
+            if (Math.abs(lat - centerLat) > maxDLat || Math.abs(normalizedDLng(lng - centerLng)) > maxDLng) {
+                continue;
+            }
+            if (earthDistance(lat, lng) <= radiusInMeter) {
+                selection[selected++] = i;
             }
         }
-        return result;
+        return selected;
+    }
+
+    private static double normalizedDLng(double dLng) {
+        if (dLng > Math.PI) {
+            return dLng - 2 * Math.PI;
+        }
+        return dLng < -Math.PI ? dLng + 2 * Math.PI : dLng;
+    }
+
+    /**
+     * The haversine distance of {@link S2LatLng#getEarthDistance(S2LatLng)}, computed the same way without allocating
+     */
+    private double earthDistance(double lat, double lng) {
+        double dlat = Math.sin(0.5 * (lat - centerLat));
+        double dlng = Math.sin(0.5 * (lng - centerLng));
+        double x = dlat * dlat + dlng * dlng * cosCenterLat * Math.cos(lat);
+        return 2 * Math.atan2(Math.sqrt(x), Math.sqrt(Math.max(0.0, 1.0 - x))) * S2LatLng.EARTH_RADIUS_METERS;
     }
 
 }
@@ -3,17 +3,17 @@ package com.dashlabs.dash.geo.model.filters;
 import com.google.common.geometry.S2LatLng;
 import com.google.common.geometry.S2LatLngRect;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Optional;
 
 /**
  * User: blangel
  * Date: 7/19/17
  * Time: 2:22 PM
  */
-public class RectangleGeoFilter<T> implements GeoFilter<T> {
+public class RectangleGeoFilter<T> implements GeoFilter<T>, ColumnarGeoFilter {
+
+    private static final double RADIANS_PER_DEGREE = Math.PI / 180;
 
     private final GeoDataExtractor<T> extractor;
 
@@ -22,12 +22,28 @@ public class RectangleGeoFilter<T> implements GeoFilter<T> {
      */
     private final S2LatLngRect latLngRect;
 
+    /**
+     * The bounds of the box in radians, tested like {@link S2LatLngRect#contains(S2LatLng)} does
+     */
+    private final double latLo;
+    private final double latHi;
+    private final double lngLo;
+    private final double lngHi;
+    private final boolean lngInverted;
+    private final boolean lngEmpty;
+
     public RectangleGeoFilter(GeoDataExtractor<T> extractor, S2LatLngRect latLngRect) {
         if ((extractor == null) || (latLngRect == null)) {
             throw new IllegalArgumentException();
         }
         this.extractor = extractor;
         this.latLngRect = latLngRect;
+        this.latLo = latLngRect.lat().lo();
+        this.latHi = latLngRect.lat().hi();
+        this.lngLo = latLngRect.lng().lo();
+        this.lngHi = latLngRect.lng().hi();
+        this.lngInverted = latLngRect.lng().isInverted();
+        this.lngEmpty = latLngRect.lng().isEmpty();
     }
 
     /**
@@ -37,18 +53,27 @@ public class RectangleGeoFilter<T> implements GeoFilter<T> {
      * @return result a collection of items that fall within the bounding box of this filter.
      */
     public List<T> filter(Collection<T> items) {
-        List<T> result = new ArrayList<>(items.size());
-        for (T item : items) {
-            Optional<Double> latitude = extractor.extractLatitude(item);
-            Optional<Double> longitude = extractor.extractLongitude(item);
-            if (latitude.isPresent() && longitude.isPresent()) {
-                S2LatLng latLng = S2LatLng.fromDegrees(latitude.get(), longitude.get());
-                if (latLngRect.contains(latLng)) {
-                    result.add(item);
-                }
+        return Selections.filter(items, extractor, this);
+    }
 
+    @Override
+    public int select(double[] latitudes, double[] longitudes, int count, int[] selection) {
+        int selected = 0;
+        for (int i = 0; i < count; i++) {
+            // degrees to radians as S1Angle.degrees does, so that the result is the same as with S2LatLng
+            double lat = latitudes[i] * RADIANS_PER_DEGREE;
+            double lng = longitudes[i] * RADIANS_PER_DEGREE;
+            if (lng == -Math.PI) {
+                lng = Math.PI;
+            }
+            // false for NaN, i.e. for items without coordinates
+            boolean inLng = lngInverted
+                    ? (lng >= lngLo || lng <= lngHi) && !lngEmpty
+                    : lng >= lngLo && lng <= lngHi;
+            if (lat >= latLo && lat <= latHi && inLng) {
+                selection[selected++] = i;
             }
         }
-        return result;
+        return selected;
     }
 }
@@ -0,0 +1,65 @@
+package com.dashlabs.dash.geo.model.filters;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Applies a {@link ColumnarGeoFilter} to a collection of items.
+ */
+final class Selections {
+
+    private Selections() {
+    }
+
+    /**
+     * @return a read-only view of the items that pass the filter, backed by the items and an index array
+     */
+    @SuppressWarnings("unchecked")
+    static <T> List<T> filter(Collection<T> items, GeoDataExtractor<T> extractor, ColumnarGeoFilter filter) {
+        List<T> source = items instanceof List && items instanceof RandomAccess
+                ? (List<T>) items
+                : (List<T>) Arrays.asList(items.toArray());
+        int count = source.size();
+        double[] latitudes = new double[count];
+        double[] longitudes = new double[count];
+        for (int i = 0; i < count; i++) {
+            T item = source.get(i);
+            latitudes[i] = extractor.latitudeOf(item);
+            longitudes[i] = extractor.longitudeOf(item);
+        }
+        int[] selection = new int[count];
+        int selected = filter.select(latitudes, longitudes, count, selection);
+        return new SelectedList<T>(source, selection, selected);
+    }
+
+    private static final class SelectedList<T> extends AbstractList<T> implements RandomAccess {
+
+        private final List<T> source;
+
+        private final int[] selection;
+
+        private final int size;
+
+        private SelectedList(List<T> source, int[] selection, int size) {
+            this.source = source;
+            this.selection = selection;
+            this.size = size;
+        }
+
+        @Override
+        public T get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+            }
+            return source.get(selection[index]);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.dashlabs.dash.geo.s2.internal;
+
+/**
+ * Allocation-free decimal arithmetic used to derive hash keys from geohashes.
+ * <p>
+ * Hash keys are defined by the decimal representation of a geohash (a prefix of its digits), originally computed
+ * with <code>String.valueOf</code> and <code>(long) Math.pow(10, n)</code>. The methods below reproduce those results
+ * exactly for every <code>long</code>, including the saturation of <code>(long) Math.pow(10, n)</code> for large and
+ * its truncation to 0 for negative exponents.
+ */
+public final class DecimalDigits {
+
+    private static final long[] POWERS_OF_TEN = new long[19];
+
+    static {
+        long power = 1L;
+        for (int exponent = 0; exponent < POWERS_OF_TEN.length; exponent++) {
+            POWERS_OF_TEN[exponent] = power;
+            power *= 10L;
+        }
+    }
+
+    private DecimalDigits() {
+    }
+
+    /**
+     * @return the number of decimal digits of <code>value</code>, without sign; 1 for 0
+     */
+    public static int digits(long value) {
+        // compared in the negative domain, which unlike the positive one can hold the magnitude of Long.MIN_VALUE
+        long negative = value > 0 ? -value : value;
+        int digits = 1;
+        while (digits < POWERS_OF_TEN.length && negative <= -POWERS_OF_TEN[digits]) {
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * @return the length of <code>String.valueOf(value)</code>
+     */
+    public static int stringLength(long value) {
+        return value < 0 ? digits(value) + 1 : digits(value);
+    }
+
+    /**
+     * @return the value of <code>(long) Math.pow(10, exponent)</code>
+     */
+    public static long powerOfTen(int exponent) {
+        if (exponent < 0) {
+            return 0L;
+        }
+        if (exponent >= POWERS_OF_TEN.length) {
+            return Long.MAX_VALUE;
+        }
+        return POWERS_OF_TEN[exponent];
+    }
+}
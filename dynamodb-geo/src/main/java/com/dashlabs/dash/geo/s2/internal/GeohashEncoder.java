@@ -0,0 +1,214 @@
+package com.dashlabs.dash.geo.s2.internal;
+
+import com.google.common.geometry.S2CellId;
+import com.google.common.geometry.S2LatLng;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Encodes lat/lng pairs into geohashes (leaf {@link S2CellId}s) without the intermediate <code>S2LatLng</code>,
+ * <code>S2Point</code>, <code>R2Vector</code> and <code>S2Cell</code> objects of the S2 library.
+ * <p>
+ * The lat/lng to face/UV/ST/IJ transform is the one of <code>S2CellId.fromPoint</code> with the quadratic projection,
+ * evaluated inline on primitives; only the Hilbert curve position is left to {@link S2CellId#fromFaceIJ(int, int, int)}.
+ * The transform is verified against the library once per class load; should it ever disagree (e.g. a library with a
+ * different projection), all encoding falls back to the library, so stored geohashes never depend on this class.
+ */
+public final class GeohashEncoder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GeohashEncoder.class.getSimpleName());
+
+    /**
+     * Batches larger than this are split across the common fork-join pool.
+     */
+    static final int PARALLEL_THRESHOLD = 8192;
+
+    private static final int MAX_LEVEL = 30;
+
+    private static final int MAX_SIZE = 1 << MAX_LEVEL;
+
+    private static final double DEGREES_TO_RADIANS = Math.PI / 180;
+
+    private static final boolean DIRECT = verifyDirectEncoding();
+
+    private GeohashEncoder() {
+    }
+
+    /**
+     * @return the geohash of the given lat/lng, the same as <code>new S2Cell(S2LatLng.fromDegrees(lat, lng)).id().id()</code>
+     */
+    public static long encode(double latitude, double longitude) {
+        return DIRECT ? encodeDirect(latitude, longitude) : encodeWithLibrary(latitude, longitude);
+    }
+
+    /**
+     * Encodes <code>latitudes[i], longitudes[i]</code> into <code>geohashOut[i]</code> and, when
+     * <code>hashKeyOut</code> is not null, its hash key of <code>hashKeyLength</code> into <code>hashKeyOut[i]</code>.
+     * Large batches are split across cores.
+     */
+    public static void encode(double[] latitudes, double[] longitudes, long[] geohashOut, long[] hashKeyOut, int hashKeyLength) {
+        int length = latitudes.length;
+        if (longitudes.length != length || geohashOut.length < length || (hashKeyOut != null && hashKeyOut.length < length)) {
+            throw new IllegalArgumentException("latitudes, longitudes and outputs have to be of the same length");
+        }
+        if (length > PARALLEL_THRESHOLD) {
+            ForkJoinPool.commonPool().invoke(new EncodeTask(latitudes, longitudes, geohashOut, hashKeyOut, hashKeyLength, 0, length));
+        } else {
+            encodeRange(latitudes, longitudes, geohashOut, hashKeyOut, hashKeyLength, 0, length);
+        }
+    }
+
+    private static void encodeRange(double[] latitudes, double[] longitudes, long[] geohashOut, long[] hashKeyOut,
+                                    int hashKeyLength, int from, int to) {
+        for (int i = from; i < to; i++) {
+            long geohash = encode(latitudes[i], longitudes[i]);
+            geohashOut[i] = geohash;
+            if (hashKeyOut != null) {
+                hashKeyOut[i] = S2Manager.hashKeyOf(geohash, hashKeyLength);
+            }
+        }
+    }
+
+    static long encodeWithLibrary(double latitude, double longitude) {
+        return S2CellId.fromLatLng(S2LatLng.fromDegrees(latitude, longitude)).id();
+    }
+
+    static long encodeDirect(double latitude, double longitude) {
+        // S2LatLng.fromDegrees(..).toPoint()
+        double phi = latitude * DEGREES_TO_RADIANS;
+        double theta = longitude * DEGREES_TO_RADIANS;
+        double cosPhi = Math.cos(phi);
+        double x = Math.cos(theta) * cosPhi;
+        double y = Math.sin(theta) * cosPhi;
+        double z = Math.sin(phi);
+
+        // S2Projections.xyzToFace(..)
+        double absX = Math.abs(x);
+        double absY = Math.abs(y);
+        double absZ = Math.abs(z);
+        int face = absX > absY ? (absX > absZ ? 0 : 2) : (absY > absZ ? 1 : 2);
+        if ((face == 0 ? x : face == 1 ? y : z) < 0) {
+            face += 3;
+        }
+
+        // S2Projections.validFaceXyzToUv(..)
+        double u;
+        double v;
+        switch (face) {
+            case 0:
+                u = y / x;
+                v = z / x;
+                break;
+            case 1:
+                u = -x / y;
+                v = z / y;
+                break;
+            case 2:
+                u = -x / z;
+                v = -y / z;
+                break;
+            case 3:
+                u = z / x;
+                v = y / x;
+                break;
+            case 4:
+                u = z / y;
+                v = -x / y;
+                break;
+            default:
+                u = -y / z;
+                v = -x / z;
+                break;
+        }
+
+        int i = stToIJ(uvToST(u));
+        int j = stToIJ(uvToST(v));
+        return S2CellId.fromFaceIJ(face, i, j).id();
+    }
+
+    /**
+     * S2Projections.uvToST(..) of the quadratic projection
+     */
+    private static double uvToST(double u) {
+        if (u >= 0) {
+            return Math.sqrt(1 + 3 * u) - 1;
+        } else {
+            return 1 - Math.sqrt(1 - 3 * u);
+        }
+    }
+
+    /**
+     * S2CellId.stToIJ(..)
+     */
+    private static int stToIJ(double s) {
+        final int m = MAX_SIZE / 2;
+        return (int) Math.max(0, Math.min(2 * m - 1, Math.round(m * s + (m - 0.5))));
+    }
+
+    private static boolean verifyDirectEncoding() {
+        try {
+            for (double lat = -90.0d; lat <= 90.0d; lat += 2.9d) {
+                for (double lng = -180.0d; lng <= 180.0d; lng += 3.7d) {
+                    if (!sameEncoding(lat, lng)) {
+                        return false;
+                    }
+                }
+            }
+            double[][] edges = {{0, 0}, {0, 45}, {0, -45}, {0, 135}, {0, -135}, {0, 180}, {0, -180}, {90, 0}, {-90, 0},
+                    {35.26438968275466, 45}, {-35.26438968275466, -135}, {45, 90}, {-45, -90}, {52.2297, 21.0122}};
+            for (double[] edge : edges) {
+                if (!sameEncoding(edge[0], edge[1])) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (RuntimeException e) {
+            LOG.warn("Direct geohash encoding unavailable, using the S2 library: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private static boolean sameEncoding(double lat, double lng) {
+        if (encodeDirect(lat, lng) != encodeWithLibrary(lat, lng)) {
+            LOG.warn("Direct geohash encoding differs from the S2 library at [{}, {}], using the S2 library", lat, lng);
+            return false;
+        }
+        return true;
+    }
+
+    private static final class EncodeTask extends RecursiveAction {
+
+        private final double[] latitudes;
+        private final double[] longitudes;
+        private final long[] geohashOut;
+        private final long[] hashKeyOut;
+        private final int hashKeyLength;
+        private final int from;
+        private final int to;
+
+        private EncodeTask(double[] latitudes, double[] longitudes, long[] geohashOut, long[] hashKeyOut,
+                           int hashKeyLength, int from, int to) {
+            this.latitudes = latitudes;
+            this.longitudes = longitudes;
+            this.geohashOut = geohashOut;
+            this.hashKeyOut = hashKeyOut;
+            this.hashKeyLength = hashKeyLength;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                encodeRange(latitudes, longitudes, geohashOut, hashKeyOut, hashKeyLength, from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new EncodeTask(latitudes, longitudes, geohashOut, hashKeyOut, hashKeyLength, from, middle),
+                    new EncodeTask(latitudes, longitudes, geohashOut, hashKeyOut, hashKeyLength, middle, to));
+        }
+    }
+}
@@ -43,6 +43,34 @@ public class S2Manager {
         return null;
     }
 
+    /**
+     * Covers the given rectangle with at most <code>maxCells</code> cells whose levels lie within
+     * [<code>minLevel</code>, <code>maxLevel</code>], using {@link S2RegionCoverer}.
+     * Unlike {@link #findCellIds(S2LatLngRect)} the size of the covering is bounded, the price being
+     * that the covering may reach further outside of the rectangle.
+     *
+     * @param latLngRect the rectangle to cover
+     * @param minLevel   the coarsest level of a covering cell
+     * @param maxLevel   the finest level of a covering cell
+     * @param maxCells   the cell budget; 0 or less falls back to {@link #findCellIds(S2LatLngRect)}
+     * @return the normalized covering or null if nothing intersects the rectangle
+     */
+    public S2CellUnion findCellIds(S2LatLngRect latLngRect, int minLevel, int maxLevel, int maxCells) {
+        if (maxCells <= 0) {
+            return findCellIds(latLngRect);
+        }
+
+        S2RegionCoverer coverer = new S2RegionCoverer();
+        coverer.setMinLevel(minLevel);
+        coverer.setMaxLevel(maxLevel);
+        coverer.setMaxCells(maxCells);
+
+        S2CellUnion covering = new S2CellUnion();
+        coverer.getCovering(latLngRect, covering);
+
+        return covering.cellIds().isEmpty() ? null : covering;
+    }
+
     private boolean containsGeodataToFind(S2CellId c, S2LatLngRect latLngRect) {
         if (latLngRect != null) {
             return latLngRect.intersects(new S2Cell(c));
@@ -101,23 +129,40 @@ public class S2Manager {
     }
 
     public long generateGeohash(double latitude, double longitude) {
-        S2LatLng latLng = S2LatLng.fromDegrees(latitude, longitude);
-        S2Cell cell = new S2Cell(latLng);
-        S2CellId cellId = cell.id();
+        return GeohashEncoder.encode(latitude, longitude);
+    }
 
-        return cellId.id();
+    /**
+     * Bulk counterpart of {@link #generateGeohash(double, double)} and {@link #generateHashKey(long, int)}, encoding
+     * <code>latitudes[i], longitudes[i]</code> into <code>geohashes[i]</code> and <code>hashKeys[i]</code>.
+     *
+     * @param latitudes     the latitudes
+     * @param longitudes    the longitudes, of the same length as the latitudes
+     * @param geohashes     receives the geohashes
+     * @param hashKeys      receives the hash keys, may be null if only geohashes are needed
+     * @param hashKeyLength the number of digits of the hash key
+     */
+    public void generateGeohashes(double[] latitudes, double[] longitudes, long[] geohashes, long[] hashKeys, int hashKeyLength) {
+        GeohashEncoder.encode(latitudes, longitudes, geohashes, hashKeys, hashKeyLength);
     }
 
+    /**
+     * Derives the hash key of a geohash: its first <code>hashKeyLength</code> decimal digits, keeping the sign.
+     * Computed arithmetically, with the same result as the division by <code>(long) Math.pow(10, n)</code> over
+     * the length of <code>String.valueOf(geohash)</code> it replaces, see {@link DecimalDigits}.
+     *
+     * @param geohash       the geohash
+     * @param hashKeyLength the number of digits of the hash key
+     * @return the hash key
+     */
     public long generateHashKey(long geohash, int hashKeyLength) {
-        if (geohash < 0) {
-            // Counteract "-" at beginning of geohash.
-            hashKeyLength++;
-        }
+        return hashKeyOf(geohash, hashKeyLength);
+    }
 
-        String geohashString = String.valueOf(geohash);
-        long denominator = (long) Math.pow(10, geohashString.length() - hashKeyLength);
-        if (denominator ==
-                0) { //  can happen if geohashString.length() < geohash. Querying with a lat/lng of 0.0 can create this situation.
+    static long hashKeyOf(long geohash, int hashKeyLength) {
+        // the digit count ignores the sign, like the original string length did by counteracting "-"
+        long denominator = DecimalDigits.powerOfTen(DecimalDigits.digits(geohash) - hashKeyLength);
+        if (denominator == 0) { //  can happen if the geohash has fewer digits than the hash key. Querying with a lat/lng of 0.0 can create this situation.
             return geohash;
         }
         return geohash / denominator;
@@ -143,10 +188,11 @@ public class S2Manager {
         double latForRadius = radius / centerLatLng.getEarthDistance(latReferenceLatLng);
         double lngForRadius = radius / centerLatLng.getEarthDistance(lngReferenceLatLng);
 
+        // normalized, a box across the antimeridian is an inverted interval of valid longitudes
         S2LatLng minLatLng = S2LatLng.fromDegrees(latitude - latForRadius,
-                longitude - lngForRadius);
+                longitude - lngForRadius).normalized();
         S2LatLng maxLatLng = S2LatLng.fromDegrees(latitude + latForRadius,
-                longitude + lngForRadius);
+                longitude + lngForRadius).normalized();
 
         return new S2LatLngRect(minLatLng, maxLatLng);
     }
@@ -1,7 +1,7 @@
 package com.dashlabs.dash.geo.s3;
 
 import com.dashlabs.dash.geo.AbstractGeoQueryHelper;
-import com.dashlabs.dash.geo.model.GeohashRange;
+import com.dashlabs.dash.geo.model.GeohashRangeList;
 import com.dashlabs.dash.geo.s2.internal.S2Manager;
 import com.dashlabs.dash.geo.s3.model.GeoProperties;
 import com.google.common.base.Optional;
@@ -21,6 +21,13 @@ import java.util.Map;
  */
 public class GeoQueryHelper extends AbstractGeoQueryHelper {
 
+    /**
+     * The unbounded covering, see {@link S2Manager#findCellIds(com.google.common.geometry.S2LatLngRect, int, int, int)}
+     */
+    private static final int DEFAULT_COVERING_MIN_LEVEL = 0;
+    private static final int DEFAULT_COVERING_MAX_LEVEL = 30;
+    private static final int DEFAULT_COVERING_MAX_CELLS = 0;
+
     public GeoQueryHelper(S2Manager s2Manager) {
         super(s2Manager);
     }
@@ -34,15 +41,13 @@ public class GeoQueryHelper extends AbstractGeoQueryHelper {
      * @return an immutable collection of {@linkplain GeoProperties}
      */
     public List<GeoProperties> generateGeoProperties(S2LatLngRect boundingBox, int hashKeyLength) {
-        List<GeohashRange> outerRanges = getGeoHashRanges(boundingBox);
-        List<GeoProperties> queryRequests = new ArrayList<GeoProperties>(outerRanges.size());
+        GeohashRangeList geohashRanges = getSplitGeoHashRanges(boundingBox, hashKeyLength,
+                DEFAULT_COVERING_MIN_LEVEL, DEFAULT_COVERING_MAX_LEVEL, DEFAULT_COVERING_MAX_CELLS);
+        List<GeoProperties> queryRequests = new ArrayList<GeoProperties>(geohashRanges.size());
         //Create multiple queries based on the geo ranges derived from the bounding box
-        for (GeohashRange outerRange : outerRanges) {
-            List<GeohashRange> geohashRanges = outerRange.trySplit(hashKeyLength, s2Manager);
-            for (GeohashRange range : geohashRanges) {
-                long geoHashKey = s2Manager.generateHashKey(range.getRangeMin(), hashKeyLength);
-                queryRequests.add(new GeoProperties(hashKeyLength, geoHashKey, range.getRangeMin(), range.getRangeMax()));
-            }
+        for (int r = 0; r < geohashRanges.size(); r++) {
+            queryRequests.add(new GeoProperties(hashKeyLength, geohashRanges.getHashKey(r),
+                    geohashRanges.getRangeMin(r), geohashRanges.getRangeMax(r)));
         }
         return ImmutableList.copyOf(queryRequests);
     }
@@ -0,0 +1,134 @@
+package com.amazonaws.geo;
+
+import com.amazonaws.geo.model.GeoQueryPlan;
+import com.amazonaws.geo.model.GeoQueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.dashlabs.dash.geo.model.GeohashRangeList;
+import com.dashlabs.dash.geo.model.QueryCostModel;
+import com.dashlabs.dash.geo.s2.internal.S2Manager;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.geometry.S2CellId;
+import com.google.common.geometry.S2CellUnion;
+import com.google.common.geometry.S2LatLng;
+import com.google.common.geometry.S2LatLngRect;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GeoIndexRouterTest {
+
+    private final S2Manager s2Manager = new S2Manager();
+
+    private final CountingGeoQueryHelper geoQueryHelper = new CountingGeoQueryHelper(s2Manager);
+
+    private final List<GeoConfig> configs = ImmutableList.of(config(3), config(2), config(5));
+
+    private final GeoIndexRouter router = new GeoIndexRouter(s2Manager, geoQueryHelper, configs,
+            new QueryCostModel(1.0d, 0.01d, 100_000.0d));
+
+    @Test
+    public void planKeepsTheRangesOfTheRoutedConfig() {
+        for (S2LatLngRect boundingBox : boundingBoxes()) {
+            GeoQueryPlan plan = router.plan(boundingBox);
+
+            assertSame(router.route(boundingBox), plan.getConfig());
+            assertRanges(geoQueryHelper.planGeoHashRanges(boundingBox, plan.getConfig()), plan.getGeohashRanges());
+        }
+    }
+
+    @Test
+    public void everyConfigIsPlannedOncePerQuery() {
+        GeoQueryPlan plan = router.planRectangleQuery(40.0d, -74.5d, 41.0d, -73.5d);
+        assertEquals(configs.size(), geoQueryHelper.plans);
+
+        GeoQueryRequest request = new Geo(s2Manager, geoQueryHelper).rectangleQuery(new QueryRequest("geo"), plan,
+                Optional.<String>absent());
+
+        assertEquals(configs.size(), geoQueryHelper.plans);
+        assertEquals(plan.getGeohashRanges().size(), request.getQueryRequests().size());
+    }
+
+    @Test
+    public void cellsArePlannedWithoutCoveringTheirBounds() {
+        S2CellUnion cells = new S2CellUnion();
+        cells.initFromCellIds(new ArrayList<S2CellId>(ImmutableList.of(
+                S2CellId.fromLatLng(S2LatLng.fromDegrees(40.7d, -74.0d)).parent(12))));
+
+        GeoQueryPlan plan = router.plan(cells);
+
+        assertEquals(0, geoQueryHelper.plans);
+        assertRanges(geoQueryHelper.planGeoHashRanges(cells, plan.getConfig()), plan.getGeohashRanges());
+    }
+
+    @Test
+    public void configsNotReadyForQueriesAreWrittenOnly() {
+        // the index of length 5 is still being backfilled
+        GeoIndexRouter backfilling = new GeoIndexRouter(s2Manager, geoQueryHelper, configs,
+                ImmutableList.of(configs.get(0), configs.get(1)), new QueryCostModel(1.0d, 0.01d, 100_000.0d));
+        S2LatLngRect small = rect(40.7d, -74.01d, 40.71d, -74.0d);
+        assertEquals(5, router.route(small).getGeoHashKeyLength());
+
+        geoQueryHelper.plans = 0;
+        GeoQueryPlan plan = backfilling.plan(small);
+
+        assertEquals(2, geoQueryHelper.plans);
+        assertTrue(backfilling.getQueryConfigs().contains(plan.getConfig()));
+        assertEquals(configs, backfilling.getConfigs());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void queryConfigsHaveToBeWritten() {
+        new GeoIndexRouter(s2Manager, geoQueryHelper, ImmutableList.of(config(3)), ImmutableList.of(config(4)),
+                new QueryCostModel(1.0d, 0.01d, 100_000.0d));
+    }
+
+    private static void assertRanges(GeohashRangeList expected, GeohashRangeList actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getHashKey(i), actual.getHashKey(i));
+            assertEquals(expected.getRangeMin(i), actual.getRangeMin(i));
+            assertEquals(expected.getRangeMax(i), actual.getRangeMax(i));
+        }
+    }
+
+    private static List<S2LatLngRect> boundingBoxes() {
+        return ImmutableList.of(
+                rect(40.7d, -74.01d, 40.71d, -74.0d),
+                rect(40.0d, -75.0d, 41.0d, -74.0d),
+                rect(30.0d, -100.0d, 45.0d, -70.0d));
+    }
+
+    private static S2LatLngRect rect(double minLat, double minLng, double maxLat, double maxLng) {
+        return new S2LatLngRect(S2LatLng.fromDegrees(minLat, minLng), S2LatLng.fromDegrees(maxLat, maxLng));
+    }
+
+    private static GeoConfig config(int hashKeyLength) {
+        return new GeoConfig.Builder().geoIndexName("geoHashKey" + hashKeyLength + "-geoHash-index")
+                .geoHashKeyColumn("geoHashKey" + hashKeyLength).geoHashColumn("geoHash")
+                .geoHashKeyLength(hashKeyLength).coveringMinLevel(4).coveringMaxLevel(16).coveringMaxCells(16).build();
+    }
+
+    /**
+     * Counts the coverings planned for bounding boxes
+     */
+    private static class CountingGeoQueryHelper extends GeoQueryHelper {
+
+        private int plans;
+
+        CountingGeoQueryHelper(S2Manager s2Manager) {
+            super(s2Manager);
+        }
+
+        @Override
+        public GeohashRangeList planGeoHashRanges(S2LatLngRect boundingBox, GeoConfig config) {
+            plans++;
+            return super.planGeoHashRanges(boundingBox, config);
+        }
+    }
+}
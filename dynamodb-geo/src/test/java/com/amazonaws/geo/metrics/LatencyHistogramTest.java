@@ -0,0 +1,66 @@
+package com.amazonaws.geo.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the percentiles of the histogram against the exact ones, and that samples drop out of the rolling window.
+ */
+public class LatencyHistogramTest {
+
+    /**
+     * A bucket is at most this much wider than the one below it
+     */
+    private static final double BUCKET_ERROR = 1.19d;
+
+    @Test
+    public void percentilesAreTheBoundOfTheirBucket() {
+        LatencyHistogram histogram = new LatencyHistogram(1, TimeUnit.MINUTES, 6);
+        // 1 to 1000 milliseconds
+        for (int millis = 1; millis <= 1_000; millis++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+
+        assertEquals(1_000, histogram.count());
+        for (double percentile : new double[]{50.0d, 95.0d, 99.0d, 99.9d}) {
+            // the sample of the percentile's rank
+            long exact = TimeUnit.MILLISECONDS.toNanos((long) Math.ceil(1_000 * percentile / 100.0d));
+            long reported = histogram.percentile(percentile);
+            assertTrue(percentile + ": " + reported, reported >= exact && reported <= exact * BUCKET_ERROR);
+        }
+    }
+
+    @Test
+    public void anEmptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram(1, TimeUnit.MINUTES, 6);
+
+        assertEquals(0, histogram.count());
+        assertEquals(0L, histogram.percentile(95.0d));
+    }
+
+    @Test
+    public void latenciesOutsideOfTheBucketsAreClamped() {
+        assertEquals(0, LatencyHistogram.bucketOf(0L));
+        assertEquals(0, LatencyHistogram.bucketOf(TimeUnit.MICROSECONDS.toNanos(100)));
+        assertEquals(1, LatencyHistogram.bucketOf(TimeUnit.MICROSECONDS.toNanos(100) + 1));
+        assertEquals(LatencyHistogram.bucketOf(TimeUnit.MINUTES.toNanos(10)), LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void samplesDropOutOfTheWindow() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram(100, TimeUnit.MILLISECONDS, 2);
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(5));
+        assertEquals(1, histogram.count());
+
+        Thread.sleep(250);
+        assertEquals(0, histogram.count());
+
+        // a recycled slice starts from zero
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(5));
+        assertEquals(1, histogram.count());
+    }
+}
@@ -0,0 +1,284 @@
+package com.amazonaws.geo.s2.internal;
+
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Sends the requests of one or more flows through the limiter to a stub {@link PageFetcher} whose requests are
+ * answered, failed or cancelled by the tests, and checks that no permit is lost on the way.
+ */
+public class AdaptiveConcurrencyLimiterTest {
+
+    private static final QueryRequest FLOW_A = new QueryRequest("geolocation").withIndexName("a");
+    private static final QueryRequest FLOW_B = new QueryRequest("geolocation").withIndexName("b");
+
+    /**
+     * The requests that reached the stub, in order
+     */
+    private final BlockingQueue<Request> requests = new LinkedBlockingQueue<Request>();
+
+    private final PageFetcher stub = (queryRequest, callback) -> {
+        Request request = new Request(queryRequest, callback);
+        requests.add(request);
+        return request.future;
+    };
+
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4);
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void aCancelledQueuedRequestIsNeverSent() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 10, 2.0d);
+        PageFetcher flow = limiter.newFlow(stub);
+        flow.fetch(FLOW_A, (result, failure) -> { });
+        Future<?> queued = flow.fetch(FLOW_A, (result, failure) -> { });
+        assertEquals(1, snapshot(limiter, "queued"));
+
+        queued.cancel(true);
+
+        assertEquals(0, snapshot(limiter, "queued"));
+        requests.take().answer();
+        assertEquals(0, snapshot(limiter, "inFlight"));
+        assertTrue(requests.isEmpty());
+        assertIdle(limiter);
+    }
+
+    @Test
+    public void aCancelledRequestInFlightReleasesItsPermit() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 10, 2.0d);
+        PageFetcher flow = limiter.newFlow(stub);
+        Future<?> inFlight = flow.fetch(FLOW_A, (result, failure) -> { });
+        flow.fetch(FLOW_A, (result, failure) -> { });
+        Request first = requests.take();
+
+        inFlight.cancel(true);
+
+        assertTrue(first.future.isCancelled());
+        // the queued request takes the permit
+        Request second = requests.poll(1, TimeUnit.SECONDS);
+        assertEquals(1, snapshot(limiter, "inFlight"));
+
+        // a late answer of the cancelled request does not release the permit twice
+        first.answer();
+        assertEquals(1, snapshot(limiter, "inFlight"));
+        second.answer();
+        assertIdle(limiter);
+    }
+
+    @Test
+    public void requestsCancelledAtAnyTimeReleaseTheirPermits() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 8, 10_000, 2.0d);
+        // answers after a few hundred microseconds, unless cancelled before
+        PageFetcher slowStub = (queryRequest, callback) -> scheduler.schedule(
+                () -> callback.accept(new QueryResult(), null),
+                ThreadLocalRandom.current().nextLong(500_000L), TimeUnit.NANOSECONDS);
+        ExecutorService callers = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> flows = new ArrayList<Future<?>>();
+            for (int f = 0; f < 8; f++) {
+                flows.add(callers.submit(() -> {
+                    PageFetcher flow = limiter.newFlow(slowStub);
+                    List<Future<?>> handles = new ArrayList<Future<?>>();
+                    for (int r = 0; r < 500; r++) {
+                        handles.add(flow.fetch(FLOW_A, (result, failure) -> { }));
+                        // cancel a random earlier request, queued, dispatched, in flight or done
+                        handles.get(ThreadLocalRandom.current().nextInt(handles.size())).cancel(true);
+                    }
+                    for (Future<?> handle : handles) {
+                        handle.cancel(true);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> flow : flows) {
+                flow.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+
+        // requests cancelled within their fetch are cancelled right after it, the others were cancelled before
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (snapshot(limiter, "inFlight") > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertIdle(limiter);
+    }
+
+    @Test
+    public void flowsShareTheLimitRoundRobin() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 2, 2, 100, 2.0d);
+        PageFetcher a = limiter.newFlow(stub);
+        PageFetcher b = limiter.newFlow(stub);
+        // the first flow takes the whole limit and queues more before the second one comes
+        for (int r = 0; r < 10; r++) {
+            a.fetch(FLOW_A, (result, failure) -> { });
+        }
+        for (int r = 0; r < 10; r++) {
+            b.fetch(FLOW_B, (result, failure) -> { });
+        }
+
+        StringBuilder order = new StringBuilder();
+        for (int r = 0; r < 20; r++) {
+            Request request = requests.poll(1, TimeUnit.SECONDS);
+            order.append(request.queryRequest.getIndexName());
+            request.answer();
+        }
+
+        // the second flow gets every other permit, and the rest once the first one is done
+        assertEquals("aabababababababababb", order.toString());
+        assertIdle(limiter);
+    }
+
+    @Test
+    public void throttlesCutTheLimitOncePerSmoothedLatency() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(40, 1, 100, 100, 2.0d);
+        PageFetcher flow = limiter.newFlow(stub);
+        // a smoothed latency of about 200 milliseconds
+        flow.fetch(FLOW_A, (result, failure) -> { });
+        Request first = requests.take();
+        Thread.sleep(200);
+        first.answer();
+        assertEquals(40, limiter.getLimit());
+
+        // one congestion event throttles many requests at once
+        for (int r = 0; r < 10; r++) {
+            flow.fetch(FLOW_A, (result, failure) -> { });
+        }
+        for (int r = 0; r < 10; r++) {
+            requests.take().fail(new ProvisionedThroughputExceededException("throttled"));
+        }
+        assertEquals(30, limiter.getLimit());
+        assertEquals(10L, snapshot(limiter, "throttled"));
+
+        // a later one is a new event
+        Thread.sleep(250);
+        flow.fetch(FLOW_A, (result, failure) -> { });
+        requests.take().fail(new ProvisionedThroughputExceededException("throttled"));
+        assertEquals(22, limiter.getLimit());
+        assertIdle(limiter);
+    }
+
+    @Test
+    public void slowResponsesCutTheLimitOncePerSmoothedLatency() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(40, 1, 100, 100, 2.0d);
+        PageFetcher flow = limiter.newFlow(stub);
+        flow.fetch(FLOW_A, (result, failure) -> { });
+        Request first = requests.take();
+        Thread.sleep(50);
+        first.answer();
+
+        // four times the smoothed latency
+        List<Request> slow = new ArrayList<Request>();
+        for (int r = 0; r < 5; r++) {
+            flow.fetch(FLOW_A, (result, failure) -> { });
+            slow.add(requests.take());
+        }
+        Thread.sleep(200);
+        for (Request request : slow) {
+            request.answer();
+        }
+
+        assertEquals(30, limiter.getLimit());
+        assertIdle(limiter);
+    }
+
+    @Test
+    public void requestsBeyondTheQueueAreRejected() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 2, 2.0d);
+        PageFetcher flow = limiter.newFlow(stub);
+        AtomicInteger callbacks = new AtomicInteger();
+        for (int r = 0; r < 3; r++) {
+            flow.fetch(FLOW_A, (result, failure) -> callbacks.incrementAndGet());
+        }
+
+        try {
+            flow.fetch(FLOW_A, (result, failure) -> callbacks.incrementAndGet());
+            fail("not rejected");
+        } catch (RejectedExecutionException e) {
+            assertEquals(1L, snapshot(limiter, "rejected"));
+        }
+        assertEquals(2, snapshot(limiter, "queued"));
+        assertEquals(0, callbacks.get());
+    }
+
+    @Test
+    public void aFailingFetchReleasesItsPermit() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 10, 2.0d);
+        PageFetcher flow = limiter.newFlow((queryRequest, callback) -> {
+            throw new IllegalStateException("no connection");
+        });
+        CountDownLatch failed = new CountDownLatch(2);
+
+        flow.fetch(FLOW_A, (result, failure) -> failed.countDown());
+        flow.fetch(FLOW_A, (result, failure) -> failed.countDown());
+
+        assertTrue(failed.await(1, TimeUnit.SECONDS));
+        assertIdle(limiter);
+    }
+
+    private static void assertIdle(AdaptiveConcurrencyLimiter limiter) {
+        Map<String, Object> snapshot = limiter.snapshot();
+        assertEquals(snapshot.toString(), 0, snapshot.get("inFlight"));
+        assertEquals(snapshot.toString(), 0, snapshot.get("queued"));
+        assertEquals(snapshot.toString(), 0, snapshot.get("activeFlows"));
+    }
+
+    private static long snapshot(AdaptiveConcurrencyLimiter limiter, String key) {
+        return ((Number) limiter.snapshot().get(key)).longValue();
+    }
+
+    private static final class Request {
+
+        private final QueryRequest queryRequest;
+
+        private final BiConsumer<QueryResult, Throwable> callback;
+
+        private final CompletableFuture<Void> future = new CompletableFuture<Void>();
+
+        private Request(QueryRequest queryRequest, BiConsumer<QueryResult, Throwable> callback) {
+            this.queryRequest = queryRequest;
+            this.callback = callback;
+        }
+
+        private void answer() {
+            assertFalse(future.isDone() && !future.isCancelled());
+            future.complete(null);
+            callback.accept(new QueryResult(), null);
+        }
+
+        private void fail(Throwable failure) {
+            future.complete(null);
+            callback.accept(null, failure);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.amazonaws.geo.s2.internal;
+
+import com.amazonaws.geo.Geo;
+import com.amazonaws.geo.GeoConfig;
+import com.amazonaws.geo.model.GeoQueryRequest;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.geometry.S2LatLng;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs geo queries with the bounding box pushed down as filter expression, ANDed with a filter of the caller, against
+ * the local stand-in of DynamoDB, see {@link InMemoryDynamoDb}, around the antimeridian where the longitudes of the
+ * box are an inverted interval.
+ */
+public class FilterPushdownTest {
+
+    private static final String TABLE_NAME = "geolocation";
+    private static final int ITEMS = 600;
+    private static final int PAGE_SIZE = 9;
+
+    private static final GeoConfig CONFIG = new GeoConfig.Builder().geoIndexName("geoHashKey-geoHash-index")
+            .geoHashKeyColumn("geoHashKey").geoHashColumn("geoHash").geoHashKeyLength(6)
+            .coveringMinLevel(4).coveringMaxLevel(16).coveringMaxCells(16).filterPushdown(true).build();
+
+    private static final double MIN_LATITUDE = -0.2d;
+    private static final double MIN_LONGITUDE = 179.8d;
+    private static final double MAX_LATITUDE = 0.2d;
+    private static final double MAX_LONGITUDE = -179.8d;
+
+    private static final String SPOT = "spot";
+
+    private final Geo geo = new Geo();
+
+    private final Map<String, double[]> locations = new HashMap<String, double[]>();
+    private final Set<String> spots = new HashSet<String>();
+
+    private ExecutorService executorService;
+    private InMemoryDynamoDb dynamoDb;
+
+    @Before
+    public void setUp() {
+        executorService = Executors.newFixedThreadPool(4);
+        dynamoDb = new InMemoryDynamoDb("objectId", executorService);
+
+        // random points of a region around the antimeridian, spots and shops
+        Random random = new Random(20191214L);
+        for (int i = 0; i < ITEMS; i++) {
+            double latitude = -0.5d + random.nextDouble();
+            double longitude = 179.5d + random.nextDouble();
+            if (longitude > 180.0d) {
+                longitude -= 360.0d;
+            }
+            String objectId = "item-" + i;
+            String objectType = i % 3 == 0 ? "shop" : SPOT;
+
+            Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
+            item.put("objectId", new AttributeValue(objectId));
+            item.put("objectType", new AttributeValue(objectType));
+            item.put("latitude", new AttributeValue().withN(Double.toString(latitude)));
+            item.put("longitude", new AttributeValue().withN(Double.toString(longitude)));
+            dynamoDb.putItem(geo.putItemRequest(new PutItemRequest(TABLE_NAME, item), latitude, longitude,
+                    ImmutableList.of(CONFIG)));
+            locations.put(objectId, new double[]{latitude, longitude});
+            if (SPOT.equals(objectType)) {
+                spots.add(objectId);
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void rectangleAcrossTheAntimeridianKeepsTheFilterOfTheCaller() throws Exception {
+        GeoQueryRequest request = geo.rectangleQuery(spotsQueryRequest(), MIN_LATITUDE, MIN_LONGITUDE,
+                MAX_LATITUDE, MAX_LONGITUDE, CONFIG, Optional.<String>absent());
+
+        Set<String> expected = new HashSet<String>();
+        for (Map.Entry<String, double[]> location : locations.entrySet()) {
+            double latitude = location.getValue()[0];
+            double longitude = location.getValue()[1];
+            if (spots.contains(location.getKey()) && latitude >= MIN_LATITUDE && latitude <= MAX_LATITUDE
+                    && (longitude >= MIN_LONGITUDE || longitude <= MAX_LONGITUDE)) {
+                expected.add(location.getKey());
+            }
+        }
+        assertFalse(expected.isEmpty());
+
+        GeoQueryClient client = new GeoQueryClient(dynamoDb, executorService, dynamoDb);
+        assertEquals(expected, idsOf(client.executeAsync(request).get()));
+
+        // DynamoDB itself returns no shops and nothing outside of the box
+        for (Map<String, AttributeValue> item : readAll(request)) {
+            assertTrue(item.toString(), spots.contains(item.get("objectId").getS()));
+            double longitude = Double.parseDouble(item.get("longitude").getN());
+            assertTrue(item.toString(), longitude >= MIN_LONGITUDE - 1e-6d || longitude <= MAX_LONGITUDE + 1e-6d);
+        }
+    }
+
+    @Test
+    public void radiusAcrossTheAntimeridianKeepsTheFilterOfTheCaller() throws Exception {
+        S2LatLng center = S2LatLng.fromDegrees(0.0d, 180.0d);
+        double radiusInMeter = 15_000.0d;
+        GeoQueryRequest request = geo.radiusQuery(spotsQueryRequest(), 0.0d, 180.0d, radiusInMeter, CONFIG,
+                Optional.<String>absent());
+
+        Set<String> expected = new HashSet<String>();
+        for (Map.Entry<String, double[]> location : locations.entrySet()) {
+            S2LatLng latLng = S2LatLng.fromDegrees(location.getValue()[0], location.getValue()[1]);
+            if (spots.contains(location.getKey()) && center.getEarthDistance(latLng) <= radiusInMeter) {
+                expected.add(location.getKey());
+            }
+        }
+        assertFalse(expected.isEmpty());
+
+        GeoQueryClient client = new GeoQueryClient(dynamoDb, executorService);
+        assertEquals(expected, idsOf(client.execute(request)));
+        for (Map<String, AttributeValue> item : readAll(request)) {
+            assertTrue(item.toString(), spots.contains(item.get("objectId").getS()));
+        }
+    }
+
+    /**
+     * A query of the spots, projected to the attributes the geo filters need and the id, the way the service asks
+     */
+    private static QueryRequest spotsQueryRequest() {
+        Map<String, String> names = new HashMap<String, String>();
+        names.put("#p0", "objectId");
+        names.put("#p1", "latitude");
+        names.put("#p2", "longitude");
+        names.put("#objectType", "objectType");
+        Map<String, AttributeValue> values = new HashMap<String, AttributeValue>();
+        values.put(":objectType", new AttributeValue(SPOT));
+        return new QueryRequest(TABLE_NAME).withLimit(PAGE_SIZE).withProjectionExpression("#p0, #p1, #p2")
+                .withFilterExpression("#objectType = :objectType")
+                .withExpressionAttributeNames(names).withExpressionAttributeValues(values);
+    }
+
+    /**
+     * The items DynamoDB returns for the generated queries, before the geo filter
+     */
+    private List<Map<String, AttributeValue>> readAll(GeoQueryRequest request) {
+        List<Map<String, AttributeValue>> items = new ArrayList<Map<String, AttributeValue>>();
+        for (QueryRequest queryRequest : request.getQueryRequests()) {
+            QueryResult result;
+            Map<String, AttributeValue> startKey = null;
+            do {
+                result = dynamoDb.query(queryRequest.clone().withExclusiveStartKey(startKey));
+                items.addAll(result.getItems());
+                startKey = result.getLastEvaluatedKey();
+            } while (startKey != null);
+        }
+        return items;
+    }
+
+    private static Set<String> idsOf(List<Map<String, AttributeValue>> items) {
+        Set<String> ids = new HashSet<String>();
+        for (Map<String, AttributeValue> item : items) {
+            ids.add(item.get("objectId").getS());
+        }
+        return ids;
+    }
+}
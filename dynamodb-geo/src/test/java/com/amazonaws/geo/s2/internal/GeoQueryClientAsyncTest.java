@@ -0,0 +1,223 @@
+package com.amazonaws.geo.s2.internal;
+
+import com.amazonaws.geo.Geo;
+import com.amazonaws.geo.GeoConfig;
+import com.amazonaws.geo.model.GeoQueryRequest;
+import com.amazonaws.geo.model.GeoQueryResult;
+import com.amazonaws.services.dynamodbv2.model.AmazonDynamoDBException;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
+import com.amazonaws.services.dynamodbv2.model.Condition;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.geometry.S2LatLng;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the geo queries against a local stand-in of DynamoDB, see {@link InMemoryDynamoDb}, with pages small enough
+ * that every query needs several.
+ */
+public class GeoQueryClientAsyncTest {
+
+    private static final String TABLE_NAME = "geolocation";
+    private static final int ITEMS = 500;
+    private static final int PAGE_SIZE = 7;
+
+    private static final GeoConfig CONFIG = new GeoConfig.Builder().geoIndexName("geoHashKey-geoHash-index")
+            .geoHashKeyColumn("geoHashKey").geoHashColumn("geoHash").geoHashKeyLength(6)
+            .coveringMinLevel(4).coveringMaxLevel(16).coveringMaxCells(16).build();
+
+    private static final double MIN_LATITUDE = 40.70d;
+    private static final double MIN_LONGITUDE = -74.02d;
+    private static final double MAX_LATITUDE = 40.74d;
+    private static final double MAX_LONGITUDE = -73.98d;
+
+    private final Geo geo = new Geo();
+
+    private final Map<String, double[]> locations = new HashMap<String, double[]>();
+
+    private ExecutorService sdkPool;
+    private ExecutorService executorService;
+    private InMemoryDynamoDb dynamoDb;
+
+    @Before
+    public void setUp() {
+        sdkPool = Executors.newFixedThreadPool(4);
+        executorService = Executors.newFixedThreadPool(4);
+        dynamoDb = new InMemoryDynamoDb("objectId", sdkPool);
+
+        // random points of a region twice as large as the rectangle, around it
+        Random random = new Random(20191211L);
+        for (int i = 0; i < ITEMS; i++) {
+            double latitude = MIN_LATITUDE - 0.02d + random.nextDouble() * 0.08d;
+            double longitude = MIN_LONGITUDE - 0.02d + random.nextDouble() * 0.08d;
+            String objectId = "spot-" + i;
+
+            Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
+            item.put("objectId", new AttributeValue(objectId));
+            item.put("objectType", new AttributeValue(i % 4 == 0 ? "shop" : "spot"));
+            item.put("latitude", new AttributeValue().withN(Double.toString(latitude)));
+            item.put("longitude", new AttributeValue().withN(Double.toString(longitude)));
+            dynamoDb.putItem(geo.putItemRequest(new PutItemRequest(TABLE_NAME, item), latitude, longitude,
+                    ImmutableList.of(CONFIG)));
+            locations.put(objectId, new double[]{latitude, longitude});
+        }
+    }
+
+    @After
+    public void tearDown() {
+        sdkPool.shutdownNow();
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void asyncClientReturnsTheItemsOfTheRectangle() throws Exception {
+        GeoQueryClient client = new GeoQueryClient(dynamoDb, executorService, dynamoDb);
+        assertTrue(client.isAsync());
+
+        GeoQueryRequest request = rectangleQuery();
+        GeoQueryResult result = client.executeAsync(request, Integer.MAX_VALUE, Long.MAX_VALUE).get(30, TimeUnit.SECONDS);
+
+        assertFalse(result.isTruncated());
+        assertEquals(idsInRectangle(), idsOf(result.getItems()));
+        // the pages of every query were followed
+        assertTrue(dynamoDb.getQueries() > request.getQueryRequests().size());
+    }
+
+    @Test
+    public void asyncClientAndExecutorReturnTheSameItems() throws Exception {
+        GeoQueryClient asyncClient = new GeoQueryClient(dynamoDb, executorService, dynamoDb);
+        GeoQueryClient blockingClient = new GeoQueryClient(dynamoDb, executorService);
+
+        List<Map<String, AttributeValue>> async = asyncClient.executeAsync(rectangleQuery()).get(30, TimeUnit.SECONDS);
+        List<Map<String, AttributeValue>> blocking = blockingClient.execute(rectangleQuery());
+
+        assertEquals(idsOf(blocking), idsOf(async));
+    }
+
+    @Test
+    public void asyncClientStopsAtTheLimit() throws Exception {
+        GeoQueryClient client = new GeoQueryClient(dynamoDb, executorService, dynamoDb);
+
+        GeoQueryResult result = client.executeAsync(rectangleQuery(), 10, Long.MAX_VALUE).get(30, TimeUnit.SECONDS);
+
+        assertTrue(result.isTruncated());
+        assertEquals(10, result.getItems().size());
+        assertTrue(idsInRectangle().containsAll(idsOf(result.getItems())));
+    }
+
+    @Test
+    public void itemsAreProjectedToTheRequestedAttributes() throws Exception {
+        GeoQueryClient client = new GeoQueryClient(dynamoDb, executorService, dynamoDb);
+
+        List<Map<String, AttributeValue>> items = client.executeAsync(rectangleQuery()).get(30, TimeUnit.SECONDS);
+
+        assertFalse(items.isEmpty());
+        for (Map<String, AttributeValue> item : items) {
+            assertEquals(new HashSet<String>(Arrays.asList("objectId", "latitude", "longitude")), item.keySet());
+        }
+    }
+
+    @Test
+    public void legacyKeyConditionsWithAProjectionAreRejected() {
+        QueryRequest legacy = new QueryRequest(TABLE_NAME).withIndexName(CONFIG.getGeoIndexName())
+                .withKeyConditions(Collections.singletonMap(CONFIG.getGeoHashKeyColumn(), new Condition()
+                        .withComparisonOperator(ComparisonOperator.EQ)
+                        .withAttributeValueList(new AttributeValue().withN("406999"))))
+                .withProjectionExpression("#p0")
+                .withExpressionAttributeNames(Collections.singletonMap("#p0", "objectId"));
+        try {
+            dynamoDb.query(legacy);
+            fail();
+        } catch (AmazonDynamoDBException e) {
+            assertEquals("ValidationException", e.getErrorCode());
+        }
+    }
+
+    @Test
+    public void radiusQueryKeepsTheObjectTypeFilter() throws Exception {
+        GeoQueryClient client = new GeoQueryClient(dynamoDb, executorService, dynamoDb);
+        S2LatLng center = S2LatLng.fromDegrees(40.72d, -74.0d);
+        double radiusInMeter = 1_500.0d;
+
+        // the request of the service for a radius of one type: projected, with the type as filter expression
+        Map<String, String> names = new HashMap<String, String>();
+        names.put("#p0", "objectId");
+        names.put("#p1", "latitude");
+        names.put("#p2", "longitude");
+        names.put("#objectType", "objectType");
+        QueryRequest queryRequest = new QueryRequest(TABLE_NAME).withLimit(PAGE_SIZE)
+                .withProjectionExpression("#p0, #p1, #p2").withExpressionAttributeNames(names)
+                .withFilterExpression("#objectType = :objectType")
+                .withExpressionAttributeValues(Collections.singletonMap(":objectType", new AttributeValue("shop")));
+        GeoQueryRequest request = geo.radiusQuery(queryRequest, center.latDegrees(), center.lngDegrees(),
+                radiusInMeter, CONFIG, Optional.<String>absent());
+
+        Set<String> expected = new HashSet<String>();
+        for (Map.Entry<String, double[]> location : locations.entrySet()) {
+            S2LatLng latLng = S2LatLng.fromDegrees(location.getValue()[0], location.getValue()[1]);
+            if (Integer.parseInt(location.getKey().substring("spot-".length())) % 4 == 0
+                    && center.getEarthDistance(latLng) <= radiusInMeter) {
+                expected.add(location.getKey());
+            }
+        }
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, idsOf(client.executeAsync(request).get(30, TimeUnit.SECONDS)));
+    }
+
+    /**
+     * A rectangle query projected to the attributes the filter needs and the id, the way the service projects them
+     */
+    private GeoQueryRequest rectangleQuery() {
+        Map<String, String> names = new HashMap<String, String>();
+        names.put("#p0", "objectId");
+        names.put("#p1", "latitude");
+        names.put("#p2", "longitude");
+        QueryRequest queryRequest = new QueryRequest(TABLE_NAME).withLimit(PAGE_SIZE)
+                .withProjectionExpression("#p0, #p1, #p2").withExpressionAttributeNames(names);
+        return geo.rectangleQuery(queryRequest,
+                MIN_LATITUDE, MIN_LONGITUDE, MAX_LATITUDE, MAX_LONGITUDE, CONFIG, Optional.<String>absent());
+    }
+
+    private Set<String> idsInRectangle() {
+        Set<String> ids = new HashSet<String>();
+        for (Map.Entry<String, double[]> location : locations.entrySet()) {
+            double latitude = location.getValue()[0];
+            double longitude = location.getValue()[1];
+            if (latitude >= MIN_LATITUDE && latitude <= MAX_LATITUDE
+                    && longitude >= MIN_LONGITUDE && longitude <= MAX_LONGITUDE) {
+                ids.add(location.getKey());
+            }
+        }
+        return ids;
+    }
+
+    private static Set<String> idsOf(List<Map<String, AttributeValue>> items) {
+        Set<String> ids = new HashSet<String>();
+        for (Map<String, AttributeValue> item : items) {
+            assertTrue("duplicate " + item, ids.add(item.get("objectId").getS()));
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,264 @@
+package com.amazonaws.geo.s2.internal;
+
+import com.amazonaws.geo.model.GeoQueryRequest;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Consumes streams over a stub {@link PageFetcher} whose requests are answered, failed or left waiting by the tests,
+ * and checks how many pages are requested ahead of the consumer and that nothing is requested once it stopped.
+ */
+public class GeoQueryStreamTest {
+
+    private static final int PAGE_SIZE = 10;
+
+    /**
+     * The requests sent to the stub and not answered yet, in order
+     */
+    private final BlockingQueue<Request> requests = new LinkedBlockingQueue<Request>();
+
+    private final PageFetcher stub = (queryRequest, callback) -> {
+        Request request = new Request(queryRequest, callback);
+        requests.add(request);
+        return request.future;
+    };
+
+    private final PageFetchMetrics metrics = new PageFetchMetrics();
+
+    private final ExecutorService consumer = Executors.newSingleThreadExecutor();
+
+    @After
+    public void tearDown() {
+        consumer.shutdownNow();
+    }
+
+    @Test
+    public void noMorePagesThanMaxPagesInFlightAreRequestedAhead() throws Exception {
+        // 6 queries of 3 pages each
+        GeoQueryStream stream = new GeoQueryStream(stub, metrics, geoQueryRequest(6), 2);
+
+        Set<String> consumed = new HashSet<String>();
+        int answeredPages = 0;
+        int consumedPages = 0;
+        List<Map<String, AttributeValue>> page;
+        do {
+            // a consumer that does not take pages stops the fetching, however fast they are answered
+            List<Request> unanswered = new ArrayList<Request>();
+            requests.drainTo(unanswered);
+            for (Request request : unanswered) {
+                request.answer(3);
+                answeredPages++;
+            }
+            assertTrue(requests.isEmpty());
+            assertTrue((answeredPages - consumedPages) + " pages ahead", answeredPages - consumedPages <= 2);
+
+            page = stream.nextPage();
+            if (page != null) {
+                consumedPages++;
+                assertEquals(PAGE_SIZE, page.size());
+                for (Map<String, AttributeValue> item : page) {
+                    assertTrue("consumed twice " + item, consumed.add(item.get("objectId").getS()));
+                }
+            }
+        } while (page != null);
+
+        assertEquals(6 * 3, consumedPages);
+        assertEquals(6 * 3 * PAGE_SIZE, consumed.size());
+        assertEquals(6 * 3 * PAGE_SIZE, stream.getScannedCount());
+        assertTrue(requests.isEmpty());
+    }
+
+    @Test
+    public void pagesFilteredToNothingAreSkipped() throws Exception {
+        GeoQueryRequest geoQueryRequest = new GeoQueryRequest(queryRequests(2), items -> {
+            List<Map<String, AttributeValue>> accepted = new ArrayList<Map<String, AttributeValue>>();
+            for (Map<String, AttributeValue> item : items) {
+                if (item.get("objectId").getS().startsWith("query-1/")) {
+                    accepted.add(item);
+                }
+            }
+            return accepted;
+        });
+        GeoQueryStream stream = new GeoQueryStream(stub, metrics, geoQueryRequest, 1);
+        Future<List<Map<String, AttributeValue>>> first = consumer.submit(stream::nextPage);
+
+        // the first query is consumed without returning
+        nextRequest().answer(1);
+        Request second = nextRequest();
+        assertEquals("query-1", second.queryRequest.getIndexName());
+        second.answer(1);
+
+        assertEquals(PAGE_SIZE, first.get(1, TimeUnit.SECONDS).size());
+        assertNull(stream.nextPage());
+        assertEquals(2 * PAGE_SIZE, stream.getScannedCount());
+    }
+
+    @Test
+    public void closingWakesUpAWaitingConsumer() throws Exception {
+        GeoQueryStream stream = new GeoQueryStream(stub, metrics, geoQueryRequest(4), 2);
+        Future<List<Map<String, AttributeValue>>> waiting = consumer.submit(stream::nextPage);
+        Request first = nextRequest();
+        Request second = nextRequest();
+        try {
+            waiting.get(50, TimeUnit.MILLISECONDS);
+            fail("no page was answered");
+        } catch (TimeoutException e) {
+            // the consumer waits
+        }
+
+        stream.close();
+
+        try {
+            waiting.get(1, TimeUnit.SECONDS);
+            fail("not woken up");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CancellationException);
+        }
+        assertTrue(first.future.isCancelled());
+        assertTrue(second.future.isCancelled());
+
+        // late answers neither reach the consumer nor request follow-ups
+        first.answer(3);
+        second.answer(3);
+        try {
+            stream.nextPage();
+            fail("a closed stream returned a page");
+        } catch (CancellationException e) {
+            // closed
+        }
+        assertTrue(requests.isEmpty());
+    }
+
+    @Test
+    public void aFailedPageFailsTheStreamAndCancelsTheOthers() throws Exception {
+        GeoQueryStream stream = new GeoQueryStream(stub, metrics, geoQueryRequest(4), 3);
+        Request first = nextRequest();
+        Request second = nextRequest();
+        Request third = nextRequest();
+        first.answer(3);
+        assertEquals(PAGE_SIZE, stream.nextPage().size());
+        Request followUp = nextRequest();
+
+        IllegalStateException failure = new IllegalStateException("throttled");
+        second.fail(failure);
+
+        try {
+            stream.nextPage();
+            fail("the failure was not passed on");
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+        assertTrue(third.future.isCancelled());
+        assertTrue(followUp.future.isCancelled());
+        try {
+            stream.nextPage();
+            fail("a failed stream returned a page");
+        } catch (CancellationException e) {
+            // closed by the failure
+        }
+        assertTrue(requests.isEmpty());
+    }
+
+    @Test
+    public void aFetchThatThrowsFailsTheStream() throws Exception {
+        IllegalStateException failure = new IllegalStateException("no connection");
+        GeoQueryStream stream = new GeoQueryStream((queryRequest, callback) -> {
+            throw failure;
+        }, metrics, geoQueryRequest(2), 2);
+
+        try {
+            stream.nextPage();
+            fail("the failure was not passed on");
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+    }
+
+    private Request nextRequest() throws InterruptedException {
+        Request request = requests.poll(1, TimeUnit.SECONDS);
+        assertTrue("no request", request != null);
+        return request;
+    }
+
+    private static GeoQueryRequest geoQueryRequest(int queries) {
+        return new GeoQueryRequest(queryRequests(queries), items -> new ArrayList<Map<String, AttributeValue>>(items));
+    }
+
+    /**
+     * Queries told apart by their index name
+     */
+    private static List<QueryRequest> queryRequests(int queries) {
+        List<QueryRequest> queryRequests = new ArrayList<QueryRequest>();
+        for (int q = 0; q < queries; q++) {
+            queryRequests.add(new QueryRequest("geolocation").withIndexName("query-" + q));
+        }
+        return queryRequests;
+    }
+
+    private static final class Request {
+
+        private final QueryRequest queryRequest;
+
+        private final BiConsumer<QueryResult, Throwable> callback;
+
+        private final CompletableFuture<Void> future = new CompletableFuture<Void>();
+
+        private Request(QueryRequest queryRequest, BiConsumer<QueryResult, Throwable> callback) {
+            // the stream sets the start key of a follow-up on the request of its page
+            this.queryRequest = queryRequest.clone();
+            this.callback = callback;
+        }
+
+        /**
+         * Answers a page of its query, the last one of <code>pages</code>
+         */
+        private void answer(int pages) {
+            Map<String, AttributeValue> startKey = queryRequest.getExclusiveStartKey();
+            int page = startKey == null ? 0 : Integer.parseInt(startKey.get("page").getN()) + 1;
+            List<Map<String, AttributeValue>> items = new ArrayList<Map<String, AttributeValue>>();
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                items.add(Collections.singletonMap("objectId",
+                        new AttributeValue(queryRequest.getIndexName() + "/" + page + "/" + i)));
+            }
+            QueryResult result = new QueryResult().withItems(items).withScannedCount(PAGE_SIZE);
+            if (page < pages - 1) {
+                result.setLastEvaluatedKey(Collections.singletonMap("page", new AttributeValue().withN(
+                        String.valueOf(page))));
+            }
+            future.complete(null);
+            callback.accept(result, null);
+        }
+
+        private void fail(Throwable failure) {
+            future.complete(null);
+            callback.accept(null, failure);
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.amazonaws.geo.s2.internal;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Hedges and times out pages of a stub {@link PageFetcher} whose requests are answered by the tests, after a history
+ * of first page latencies that puts the p95 at a known delay.
+ */
+public class HedgingPageFetcherTest {
+
+    private static final long FIRST_PAGE_LATENCY = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final long CONTINUATION_LATENCY = TimeUnit.SECONDS.toNanos(2);
+
+    /**
+     * A single thread, hedges and timeouts are done once a task submitted after them ran
+     */
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    private final PageFetchMetrics metrics = new PageFetchMetrics();
+
+    /**
+     * The requests sent to the stub, in order
+     */
+    private final BlockingQueue<Attempt> attempts = new LinkedBlockingQueue<Attempt>();
+
+    private final PageFetcher stub = (queryRequest, callback) -> {
+        Attempt attempt = new Attempt(queryRequest, callback);
+        attempts.add(attempt);
+        return attempt.future;
+    };
+
+    private final QueryRequest queryRequest = new QueryRequest("geolocation").withIndexName("geoHashKey-geoHash-index");
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void firstPagesAreHedgedAfterTheirP95() throws Exception {
+        recordLatencies(1_000);
+        long p95 = metrics.firstPageAttemptLatency.percentile(95.0d);
+        assertTrue(p95 >= FIRST_PAGE_LATENCY && p95 < CONTINUATION_LATENCY);
+
+        long start = System.nanoTime();
+        fetcher(100.0d, Long.MAX_VALUE).fetch(queryRequest, new Outcome());
+
+        Attempt primary = attempts.poll(1, TimeUnit.SECONDS);
+        assertSame(queryRequest, primary.queryRequest);
+        Attempt hedge = attempts.poll(1, TimeUnit.SECONDS);
+        assertNotNull("no hedge", hedge);
+        assertTrue(hedge.sentAt - start >= p95);
+        // a copy of the request, not the request itself
+        assertNotSame(queryRequest, hedge.queryRequest);
+        assertEquals(queryRequest, hedge.queryRequest);
+        assertEquals(1, metrics.hedges.get());
+    }
+
+    @Test
+    public void continuationPagesAreNotHedged() throws Exception {
+        recordLatencies(1_000);
+        QueryRequest continuation = queryRequest.clone()
+                .withExclusiveStartKey(Collections.singletonMap("objectId", new AttributeValue("item-0")));
+
+        fetcher(100.0d, Long.MAX_VALUE).fetch(continuation, new Outcome());
+
+        assertNotNull(attempts.poll(1, TimeUnit.SECONDS));
+        assertNull(attempts.poll(10 * FIRST_PAGE_LATENCY, TimeUnit.NANOSECONDS));
+        assertEquals(0, metrics.hedges.get());
+    }
+
+    @Test
+    public void aWinningHedgeCancelsThePrimary() throws Exception {
+        recordLatencies(1_000);
+        Outcome outcome = new Outcome();
+        fetcher(100.0d, Long.MAX_VALUE).fetch(queryRequest, outcome);
+        Attempt primary = attempts.poll(1, TimeUnit.SECONDS);
+        Attempt hedge = attempts.poll(1, TimeUnit.SECONDS);
+
+        QueryResult hedgeResult = new QueryResult().withCount(1);
+        hedge.callback.accept(hedgeResult, null);
+
+        outcome.await();
+        assertSame(hedgeResult, outcome.results.get(0));
+        assertTrue(primary.future.isCancelled());
+        assertFalse(hedge.future.isCancelled());
+        assertEquals(1, metrics.hedgeWins.get());
+
+        // the late primary is not passed on
+        primary.callback.accept(new QueryResult().withCount(2), null);
+        assertEquals(1, outcome.calls());
+    }
+
+    @Test
+    public void aWinningPrimaryCancelsTheHedge() throws Exception {
+        recordLatencies(1_000);
+        Outcome outcome = new Outcome();
+        fetcher(100.0d, Long.MAX_VALUE).fetch(queryRequest, outcome);
+        Attempt primary = attempts.poll(1, TimeUnit.SECONDS);
+        Attempt hedge = attempts.poll(1, TimeUnit.SECONDS);
+
+        QueryResult primaryResult = new QueryResult().withCount(1);
+        primary.callback.accept(primaryResult, null);
+
+        outcome.await();
+        // the page may complete while the hedge is still being sent
+        awaitScheduledTasks();
+        assertSame(primaryResult, outcome.results.get(0));
+        assertTrue(hedge.future.isCancelled());
+        assertEquals(0, metrics.hedgeWins.get());
+
+        hedge.callback.accept(new QueryResult().withCount(2), null);
+        assertEquals(1, outcome.calls());
+    }
+
+    @Test
+    public void aFailedAttemptLeavesThePageToTheOther() throws Exception {
+        recordLatencies(1_000);
+        Outcome outcome = new Outcome();
+        fetcher(100.0d, Long.MAX_VALUE).fetch(queryRequest, outcome);
+        Attempt primary = attempts.poll(1, TimeUnit.SECONDS);
+        Attempt hedge = attempts.poll(1, TimeUnit.SECONDS);
+
+        primary.callback.accept(null, new IllegalStateException("throttled"));
+        assertEquals(0, outcome.calls());
+
+        QueryResult hedgeResult = new QueryResult().withCount(1);
+        hedge.callback.accept(hedgeResult, null);
+        outcome.await();
+        assertSame(hedgeResult, outcome.results.get(0));
+        assertEquals(1, outcome.calls());
+    }
+
+    @Test
+    public void theBudgetCapsHedgesAtItsPercentage() throws Exception {
+        // a p95 of a millisecond, every page answered after 5 milliseconds would be hedged
+        for (int i = 0; i < 10_000; i++) {
+            metrics.firstPageAttemptLatency.record(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        PageFetcher slowStub = (request, callback) -> scheduler.schedule(
+                () -> callback.accept(new QueryResult().withCount(0), null), 5, TimeUnit.MILLISECONDS);
+        HedgingPageFetcher fetcher = new HedgingPageFetcher(slowStub, scheduler, new HedgeBudget(10.0d), metrics,
+                Long.MAX_VALUE);
+
+        int pages = 200;
+        for (int page = 0; page < pages; page++) {
+            Outcome outcome = new Outcome();
+            fetcher.fetch(queryRequest, outcome);
+            outcome.await();
+            assertNull(outcome.failure);
+        }
+
+        assertEquals(pages, metrics.pages.get());
+        assertTrue(metrics.hedges.get() > 0);
+        assertTrue(metrics.hedges.get() + " hedges", metrics.hedges.get() <= pages / 10);
+    }
+
+    @Test
+    public void unusedBudgetOnlyAccumulatesToASmallBurst() {
+        HedgeBudget budget = new HedgeBudget(50.0d);
+        for (int i = 0; i < 1_000; i++) {
+            budget.onRequest();
+        }
+
+        int hedges = 0;
+        while (budget.tryAcquire()) {
+            hedges++;
+        }
+        assertEquals(10, hedges);
+        assertFalse(new HedgeBudget(0.0d).isEnabled());
+    }
+
+    @Test
+    public void theDeadlineFailsThePageExactlyOnce() throws Exception {
+        recordLatencies(1_000);
+        Outcome outcome = new Outcome();
+        fetcher(100.0d, System.nanoTime() + 5 * FIRST_PAGE_LATENCY).fetch(queryRequest, outcome);
+        Attempt primary = attempts.poll(1, TimeUnit.SECONDS);
+        Attempt hedge = attempts.poll(1, TimeUnit.SECONDS);
+
+        outcome.await();
+        awaitScheduledTasks();
+        assertTrue(outcome.failure instanceof TimeoutException);
+        assertEquals(1, metrics.timeouts.get());
+        assertTrue(primary.future.isCancelled());
+        assertTrue(hedge.future.isCancelled());
+
+        // neither late answers nor late failures complete the page again
+        primary.callback.accept(new QueryResult().withCount(1), null);
+        hedge.callback.accept(null, new IllegalStateException("cancelled"));
+        assertEquals(1, outcome.calls());
+        assertEquals(1, metrics.timeouts.get());
+    }
+
+    @Test
+    public void aPassedDeadlineFailsThePageWithoutARequest() throws Exception {
+        Outcome outcome = new Outcome();
+
+        fetcher(0.0d, System.nanoTime() - 1).fetch(queryRequest, outcome);
+
+        outcome.await();
+        assertTrue(outcome.failure instanceof TimeoutException);
+        assertTrue(attempts.isEmpty());
+    }
+
+    private void awaitScheduledTasks() throws Exception {
+        scheduler.submit(() -> { }).get(1, TimeUnit.SECONDS);
+    }
+
+    private HedgingPageFetcher fetcher(double hedgeBudgetPercent, long deadlineNanos) {
+        return new HedgingPageFetcher(stub, scheduler, new HedgeBudget(hedgeBudgetPercent), metrics, deadlineNanos);
+    }
+
+    /**
+     * Fast first pages and slow continuations, only the former may set the hedging delay
+     */
+    private void recordLatencies(int samples) {
+        for (int i = 0; i < samples; i++) {
+            metrics.firstPageAttemptLatency.record(FIRST_PAGE_LATENCY);
+            metrics.attemptLatency.record(FIRST_PAGE_LATENCY);
+            metrics.attemptLatency.record(CONTINUATION_LATENCY);
+        }
+    }
+
+    private static final class Attempt {
+
+        private final QueryRequest queryRequest;
+
+        private final BiConsumer<QueryResult, Throwable> callback;
+
+        private final CompletableFuture<Void> future = new CompletableFuture<Void>();
+
+        private final long sentAt = System.nanoTime();
+
+        private Attempt(QueryRequest queryRequest, BiConsumer<QueryResult, Throwable> callback) {
+            this.queryRequest = queryRequest;
+            this.callback = callback;
+        }
+    }
+
+    private static final class Outcome implements BiConsumer<QueryResult, Throwable> {
+
+        private final List<QueryResult> results = new CopyOnWriteArrayList<QueryResult>();
+
+        private final CountDownLatch completed = new CountDownLatch(1);
+
+        private volatile Throwable failure;
+
+        private volatile int failures;
+
+        @Override
+        public void accept(QueryResult result, Throwable failure) {
+            if (failure == null) {
+                results.add(result);
+            } else {
+                this.failure = failure;
+                failures++;
+            }
+            completed.countDown();
+        }
+
+        private void await() throws InterruptedException {
+            assertTrue("page not completed", completed.await(5, TimeUnit.SECONDS));
+        }
+
+        private int calls() {
+            return results.size() + failures;
+        }
+    }
+}
@@ -0,0 +1,509 @@
+package com.amazonaws.geo.s2.internal;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.dynamodbv2.AbstractAmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.model.AmazonDynamoDBException;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
+import com.amazonaws.services.dynamodbv2.model.Condition;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A local stand-in of a DynamoDB table for tests, answering the <code>Query</code>s of the geo indexes like DynamoDB:
+ * the items of a hash key within a range of the range key, in order, in pages of <code>Limit</code> evaluated items
+ * with a <code>LastEvaluatedKey</code> to continue from. Key conditions are taken either as legacy
+ * <code>KeyConditions</code> or as a <code>KeyConditionExpression</code>; filter and projection expressions are
+ * applied to the evaluated items. Like DynamoDB it rejects requests mixing legacy and expression parameters, and
+ * expression attribute names or values that are undefined or unused. Async queries complete on the given executor,
+ * like the SDK's do on its pool.
+ */
+class InMemoryDynamoDb extends AbstractAmazonDynamoDBAsync {
+
+    private final String primaryKey;
+
+    private final Executor executor;
+
+    private final Map<String, Map<String, AttributeValue>> items = new ConcurrentHashMap<>();
+
+    private final AtomicInteger queries = new AtomicInteger();
+
+    /**
+     * @param primaryKey the string attribute identifying an item
+     * @param executor   completes the async queries
+     */
+    InMemoryDynamoDb(String primaryKey, Executor executor) {
+        this.primaryKey = primaryKey;
+        this.executor = executor;
+    }
+
+    /**
+     * @return the number of queries answered, pages included
+     */
+    int getQueries() {
+        return queries.get();
+    }
+
+    @Override
+    public PutItemResult putItem(PutItemRequest request) {
+        items.put(request.getItem().get(primaryKey).getS(), new HashMap<>(request.getItem()));
+        return new PutItemResult();
+    }
+
+    @Override
+    public QueryResult query(QueryRequest request) {
+        queries.incrementAndGet();
+        validate(request);
+        Map<String, String> names = request.getExpressionAttributeNames() == null
+                ? Collections.<String, String>emptyMap() : request.getExpressionAttributeNames();
+        Map<String, AttributeValue> values = request.getExpressionAttributeValues() == null
+                ? Collections.<String, AttributeValue>emptyMap() : request.getExpressionAttributeValues();
+
+        List<KeyCondition> keyConditions = request.getKeyConditionExpression() != null
+                ? new Parser(request.getKeyConditionExpression(), names, values).keyConditions()
+                : legacyKeyConditions(request.getKeyConditions());
+        if (keyConditions.isEmpty() || !ComparisonOperator.EQ.toString().equals(keyConditions.get(0).operator)) {
+            throw validation("Query condition missed key schema element");
+        }
+        String hashKeyColumn = keyConditions.get(0).column;
+        String rangeColumn = keyConditions.size() > 1 ? keyConditions.get(1).column : primaryKey;
+        Expression filter = request.getFilterExpression() == null
+                ? null : new Parser(request.getFilterExpression(), names, values).expression();
+
+        List<Map<String, AttributeValue>> matches = new ArrayList<>();
+        for (Map<String, AttributeValue> item : items.values()) {
+            boolean matching = item.containsKey(hashKeyColumn) && item.containsKey(rangeColumn);
+            for (KeyCondition keyCondition : keyConditions) {
+                matching = matching && keyCondition.matches(item);
+            }
+            if (matching) {
+                matches.add(item);
+            }
+        }
+        Comparator<Map<String, AttributeValue>> order = Comparator
+                .<Map<String, AttributeValue>, Comparable<Object>>comparing(item -> comparable(item.get(rangeColumn)))
+                .thenComparing(item -> item.get(primaryKey).getS());
+        matches.sort(order);
+
+        int from = 0;
+        if (request.getExclusiveStartKey() != null) {
+            while (from < matches.size() && order.compare(matches.get(from), request.getExclusiveStartKey()) <= 0) {
+                from++;
+            }
+        }
+        int limit = request.getLimit() == null ? Integer.MAX_VALUE : request.getLimit();
+        int to = (int) Math.min(matches.size(), (long) from + limit);
+        List<Map<String, AttributeValue>> evaluated = matches.subList(from, to);
+
+        List<Map<String, AttributeValue>> page = new ArrayList<>(evaluated.size());
+        for (Map<String, AttributeValue> item : evaluated) {
+            if (filter == null || filter.test(item)) {
+                page.add(project(item, request.getProjectionExpression(), names));
+            }
+        }
+
+        QueryResult result = new QueryResult().withItems(page).withCount(page.size())
+                .withScannedCount(evaluated.size());
+        if (to < matches.size()) {
+            Map<String, AttributeValue> last = evaluated.get(evaluated.size() - 1);
+            Map<String, AttributeValue> lastEvaluatedKey = new HashMap<>();
+            lastEvaluatedKey.put(primaryKey, last.get(primaryKey));
+            lastEvaluatedKey.put(hashKeyColumn, last.get(hashKeyColumn));
+            lastEvaluatedKey.put(rangeColumn, last.get(rangeColumn));
+            result.setLastEvaluatedKey(lastEvaluatedKey);
+        }
+        return result;
+    }
+
+    @Override
+    public Future<QueryResult> queryAsync(QueryRequest request, AsyncHandler<QueryRequest, QueryResult> asyncHandler) {
+        return CompletableFuture.supplyAsync(() -> {
+            QueryResult result;
+            try {
+                result = query(request);
+            } catch (RuntimeException e) {
+                asyncHandler.onError(e);
+                throw e;
+            }
+            asyncHandler.onSuccess(request, result);
+            return result;
+        }, executor);
+    }
+
+    /**
+     * The checks of DynamoDB's request validation the geo queries could fail
+     */
+    private static void validate(QueryRequest request) {
+        Set<String> legacy = new TreeSet<>();
+        if (request.getKeyConditions() != null) {
+            legacy.add("KeyConditions");
+        }
+        if (request.getQueryFilter() != null) {
+            legacy.add("QueryFilter");
+        }
+        if (request.getAttributesToGet() != null) {
+            legacy.add("AttributesToGet");
+        }
+        if (request.getConditionalOperator() != null) {
+            legacy.add("ConditionalOperator");
+        }
+        Set<String> expressions = new TreeSet<>();
+        StringBuilder text = new StringBuilder();
+        if (request.getKeyConditionExpression() != null) {
+            expressions.add("KeyConditionExpression");
+            text.append(request.getKeyConditionExpression()).append(' ');
+        }
+        if (request.getFilterExpression() != null) {
+            expressions.add("FilterExpression");
+            text.append(request.getFilterExpression()).append(' ');
+        }
+        if (request.getProjectionExpression() != null) {
+            expressions.add("ProjectionExpression");
+            text.append(request.getProjectionExpression()).append(' ');
+        }
+        if (!legacy.isEmpty() && !expressions.isEmpty()) {
+            throw validation("Can not use both expression and non-expression parameters in the same request: "
+                    + "Non-expression parameters: " + legacy + " Expression parameters: " + expressions);
+        }
+
+        Set<String> used = new HashSet<>();
+        Matcher placeholder = Pattern.compile("[#:][A-Za-z0-9_]+").matcher(text);
+        while (placeholder.find()) {
+            used.add(placeholder.group());
+        }
+        Set<String> defined = new HashSet<>();
+        if (request.getExpressionAttributeNames() != null) {
+            defined.addAll(request.getExpressionAttributeNames().keySet());
+        }
+        if (request.getExpressionAttributeValues() != null) {
+            defined.addAll(request.getExpressionAttributeValues().keySet());
+        }
+        for (String name : defined) {
+            if (!used.contains(name)) {
+                throw validation("Value provided in ExpressionAttributeNames or ExpressionAttributeValues unused in "
+                        + "expressions: " + name);
+            }
+        }
+        for (String name : used) {
+            if (!defined.contains(name)) {
+                throw validation("An expression attribute name or value used in expression is not defined: " + name);
+            }
+        }
+    }
+
+    private static AmazonDynamoDBException validation(String message) {
+        AmazonDynamoDBException exception = new AmazonDynamoDBException(message);
+        exception.setErrorCode("ValidationException");
+        exception.setErrorType(AmazonServiceException.ErrorType.Client);
+        exception.setStatusCode(400);
+        return exception;
+    }
+
+    private static List<KeyCondition> legacyKeyConditions(Map<String, Condition> conditions) {
+        if (conditions == null) {
+            throw validation("Either the KeyConditions or KeyConditionExpression parameter must be specified");
+        }
+        List<KeyCondition> keyConditions = new ArrayList<>();
+        for (Map.Entry<String, Condition> condition : conditions.entrySet()) {
+            KeyCondition keyCondition = new KeyCondition(condition.getKey(),
+                    condition.getValue().getComparisonOperator(), condition.getValue().getAttributeValueList());
+            // the hash key first
+            if (ComparisonOperator.EQ.toString().equals(keyCondition.operator)) {
+                keyConditions.add(0, keyCondition);
+            } else {
+                keyConditions.add(keyCondition);
+            }
+        }
+        return keyConditions;
+    }
+
+    private static Map<String, AttributeValue> project(Map<String, AttributeValue> item, String projectionExpression,
+                                                       Map<String, String> names) {
+        if (projectionExpression == null) {
+            return item;
+        }
+        Map<String, AttributeValue> projected = new HashMap<>();
+        for (String path : projectionExpression.split(",")) {
+            String name = resolve(path.trim(), names);
+            if (item.containsKey(name)) {
+                projected.put(name, item.get(name));
+            }
+        }
+        return projected;
+    }
+
+    private static String resolve(String path, Map<String, String> names) {
+        return path.startsWith("#") ? names.get(path) : path;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Comparable<Object> comparable(AttributeValue value) {
+        Comparable<?> comparable = value.getN() != null ? new BigDecimal(value.getN()) : value.getS();
+        return (Comparable<Object>) comparable;
+    }
+
+    /**
+     * @return the order of two values of the same type, null if they cannot be compared
+     */
+    private static Integer compare(AttributeValue left, AttributeValue right) {
+        if (left.getN() != null && right.getN() != null) {
+            return new BigDecimal(left.getN()).compareTo(new BigDecimal(right.getN()));
+        }
+        if (left.getS() != null && right.getS() != null) {
+            return left.getS().compareTo(right.getS());
+        }
+        return null;
+    }
+
+    /**
+     * A condition on a key attribute
+     */
+    private static final class KeyCondition {
+
+        private final String column;
+        private final String operator;
+        private final List<AttributeValue> values;
+
+        private KeyCondition(String column, String operator, List<AttributeValue> values) {
+            this.column = column;
+            this.operator = operator;
+            this.values = values;
+        }
+
+        private boolean matches(Map<String, AttributeValue> item) {
+            AttributeValue value = item.get(column);
+            if (value == null) {
+                return false;
+            }
+            if (ComparisonOperator.EQ.toString().equals(operator)) {
+                return Integer.valueOf(0).equals(compare(value, values.get(0)));
+            }
+            if (ComparisonOperator.BETWEEN.toString().equals(operator)) {
+                Integer fromMin = compare(value, values.get(0));
+                Integer toMax = compare(value, values.get(1));
+                return fromMin != null && toMax != null && fromMin >= 0 && toMax <= 0;
+            }
+            throw new UnsupportedOperationException(operator);
+        }
+    }
+
+    private interface Expression {
+
+        boolean test(Map<String, AttributeValue> item);
+    }
+
+    /**
+     * The operand of a comparison, an attribute of the item or a value
+     */
+    private interface Operand {
+
+        AttributeValue of(Map<String, AttributeValue> item);
+    }
+
+    /**
+     * Recursive descent over the expressions the geo queries use: OR, AND, NOT, parentheses, the comparators,
+     * <code>BETWEEN</code> and <code>attribute_exists</code>, of attribute names and values.
+     */
+    private static final class Parser {
+
+        private static final Pattern TOKEN = Pattern.compile("\\s*(<=|>=|<>|[()=<>,]|[#:]?[A-Za-z0-9_.]+)");
+
+        private final List<String> tokens = new ArrayList<>();
+        private final Map<String, String> names;
+        private final Map<String, AttributeValue> values;
+        private int position;
+
+        private Parser(String expression, Map<String, String> names, Map<String, AttributeValue> values) {
+            this.names = names;
+            this.values = values;
+            Matcher matcher = TOKEN.matcher(expression);
+            int end = 0;
+            while (matcher.find() && matcher.start() == end) {
+                tokens.add(matcher.group(1));
+                end = matcher.end();
+            }
+            if (!expression.substring(end).trim().isEmpty()) {
+                throw validation("Invalid expression: syntax error near " + expression.substring(end));
+            }
+        }
+
+        /**
+         * @return the conditions ANDed in a key condition expression, the one on the hash key first
+         */
+        private List<KeyCondition> keyConditions() {
+            List<KeyCondition> keyConditions = new ArrayList<>();
+            do {
+                String column = resolve(next(), names);
+                String operator = next();
+                if ("=".equals(operator)) {
+                    keyConditions.add(new KeyCondition(column, ComparisonOperator.EQ.toString(),
+                            Collections.singletonList(value(next()))));
+                } else if ("BETWEEN".equalsIgnoreCase(operator)) {
+                    AttributeValue min = value(next());
+                    expect("AND");
+                    keyConditions.add(new KeyCondition(column, ComparisonOperator.BETWEEN.toString(),
+                            List.of(min, value(next()))));
+                } else {
+                    throw new UnsupportedOperationException(operator);
+                }
+            } while (accept("AND"));
+            end();
+            return keyConditions;
+        }
+
+        private Expression expression() {
+            Expression expression = or();
+            end();
+            return expression;
+        }
+
+        private Expression or() {
+            Expression left = and();
+            while (accept("OR")) {
+                Expression first = left;
+                Expression second = and();
+                left = item -> first.test(item) || second.test(item);
+            }
+            return left;
+        }
+
+        private Expression and() {
+            Expression left = not();
+            while (accept("AND")) {
+                Expression first = left;
+                Expression second = not();
+                left = item -> first.test(item) && second.test(item);
+            }
+            return left;
+        }
+
+        private Expression not() {
+            if (accept("NOT")) {
+                Expression negated = not();
+                return item -> !negated.test(item);
+            }
+            return primary();
+        }
+
+        private Expression primary() {
+            if (accept("(")) {
+                Expression expression = or();
+                expect(")");
+                return expression;
+            }
+            if (accept("attribute_exists") || accept("attribute_not_exists")) {
+                boolean exists = "attribute_exists".equals(tokens.get(position - 1));
+                expect("(");
+                String name = resolve(next(), names);
+                expect(")");
+                return item -> item.containsKey(name) == exists;
+            }
+            Operand left = operand(next());
+            String operator = next();
+            if ("BETWEEN".equalsIgnoreCase(operator)) {
+                Operand min = operand(next());
+                expect("AND");
+                Operand max = operand(next());
+                return item -> {
+                    Integer fromMin = compare(left, min, item);
+                    Integer toMax = compare(left, max, item);
+                    return fromMin != null && toMax != null && fromMin >= 0 && toMax <= 0;
+                };
+            }
+            Operand right = operand(next());
+            switch (operator) {
+                case "=":
+                    return item -> Integer.valueOf(0).equals(compare(left, right, item));
+                case "<>":
+                    return item -> {
+                        Integer order = compare(left, right, item);
+                        return order != null && order != 0;
+                    };
+                case "<":
+                    return item -> lessThan(compare(left, right, item), false);
+                case "<=":
+                    return item -> lessThan(compare(left, right, item), true);
+                case ">":
+                    return item -> lessThan(compare(right, left, item), false);
+                case ">=":
+                    return item -> lessThan(compare(right, left, item), true);
+                default:
+                    throw validation("Invalid expression: unexpected " + operator);
+            }
+        }
+
+        private static boolean lessThan(Integer order, boolean orEqual) {
+            return order != null && (order < 0 || orEqual && order == 0);
+        }
+
+        private static Integer compare(Operand left, Operand right, Map<String, AttributeValue> item) {
+            AttributeValue leftValue = left.of(item);
+            AttributeValue rightValue = right.of(item);
+            return leftValue == null || rightValue == null ? null : InMemoryDynamoDb.compare(leftValue, rightValue);
+        }
+
+        private Operand operand(String token) {
+            if (token.startsWith(":")) {
+                AttributeValue value = value(token);
+                return item -> value;
+            }
+            String name = resolve(token, names);
+            return item -> item.get(name);
+        }
+
+        private AttributeValue value(String token) {
+            if (!token.startsWith(":")) {
+                throw validation("Invalid expression: expected a value, not " + token);
+            }
+            return values.get(token);
+        }
+
+        private String next() {
+            if (position == tokens.size()) {
+                throw validation("Invalid expression: unexpected end");
+            }
+            return tokens.get(position++);
+        }
+
+        private boolean accept(String token) {
+            if (position < tokens.size() && tokens.get(position).equalsIgnoreCase(token)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String token) {
+            if (!accept(token)) {
+                throw validation("Invalid expression: expected " + token);
+            }
+        }
+
+        private void end() {
+            if (position != tokens.size()) {
+                throw validation("Invalid expression: unexpected " + tokens.get(position));
+            }
+        }
+    }
+}
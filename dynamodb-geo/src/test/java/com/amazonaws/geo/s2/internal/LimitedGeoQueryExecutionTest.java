@@ -0,0 +1,135 @@
+package com.amazonaws.geo.s2.internal;
+
+import com.amazonaws.geo.model.GeoQueryRequest;
+import com.amazonaws.geo.model.GeoQueryResult;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Completes the pages of many queries on several threads at once, so that the last pages of different queries race.
+ */
+public class LimitedGeoQueryExecutionTest {
+
+    private static final int EXECUTIONS = 2000;
+    private static final int QUERIES = 16;
+    private static final int PAGES = 3;
+    private static final int PAGE_SIZE = 5;
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(8);
+
+    private final PageFetcher pageFetcher = (queryRequest, callback) -> pool.submit(() -> {
+        // a few microseconds, so that the pages of different queries overlap
+        LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(20_000L));
+        callback.accept(page(queryRequest), null);
+    });
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void concurrentLastPagesKeepAllItems() throws Exception {
+        for (int execution = 0; execution < EXECUTIONS; execution++) {
+            GeoQueryResult result = execute(Integer.MAX_VALUE, Long.MAX_VALUE, false);
+
+            assertFalse(result.isTruncated());
+            assertEquals(QUERIES * PAGES * PAGE_SIZE, result.getCount());
+            assertEquals(QUERIES * PAGES * PAGE_SIZE, result.getScannedCount());
+            assertEquals(allIds(), idsOf(result.getItems()));
+        }
+    }
+
+    @Test
+    public void concurrentLastPagesAreCounted() throws Exception {
+        for (int execution = 0; execution < EXECUTIONS; execution++) {
+            GeoQueryResult result = execute(Integer.MAX_VALUE, Long.MAX_VALUE, true);
+
+            assertFalse(result.isTruncated());
+            assertEquals(QUERIES * PAGES * PAGE_SIZE, result.getCount());
+            assertTrue(result.getItems().isEmpty());
+        }
+    }
+
+    @Test
+    public void concurrentPagesStopAtTheLimit() throws Exception {
+        for (int execution = 0; execution < EXECUTIONS; execution++) {
+            GeoQueryResult result = execute(42, Long.MAX_VALUE, false);
+
+            assertTrue(result.isTruncated());
+            assertEquals(42, result.getCount());
+            assertEquals(42, idsOf(result.getItems()).size());
+        }
+    }
+
+    private GeoQueryResult execute(int limit, long maxItemsScanned, boolean countOnly) throws Exception {
+        List<QueryRequest> queryRequests = new ArrayList<QueryRequest>();
+        for (int query = 0; query < QUERIES; query++) {
+            queryRequests.add(new QueryRequest("geolocation").withIndexName(String.valueOf(query)));
+        }
+        GeoQueryRequest geoQueryRequest = new GeoQueryRequest(queryRequests, items -> new ArrayList<>(items));
+        return new LimitedGeoQueryExecution(pageFetcher, new PageFetchMetrics(), geoQueryRequest, limit,
+                maxItemsScanned, countOnly).getResult().get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * The page after the exclusive start key of the request, the query being told by the index name
+     */
+    private static QueryResult page(QueryRequest queryRequest) {
+        int page = queryRequest.getExclusiveStartKey() == null
+                ? 0
+                : Integer.parseInt(queryRequest.getExclusiveStartKey().get("page").getN()) + 1;
+        List<Map<String, AttributeValue>> items = new ArrayList<Map<String, AttributeValue>>();
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            items.add(Collections.singletonMap("objectId",
+                    new AttributeValue(queryRequest.getIndexName() + "/" + page + "/" + i)));
+        }
+        QueryResult queryResult = new QueryResult().withItems(items).withCount(PAGE_SIZE).withScannedCount(PAGE_SIZE);
+        if (page < PAGES - 1) {
+            Map<String, AttributeValue> lastEvaluatedKey = new HashMap<String, AttributeValue>();
+            lastEvaluatedKey.put("page", new AttributeValue().withN(String.valueOf(page)));
+            queryResult.setLastEvaluatedKey(lastEvaluatedKey);
+        }
+        return queryResult;
+    }
+
+    private static Set<String> allIds() {
+        Set<String> ids = new HashSet<String>();
+        for (int query = 0; query < QUERIES; query++) {
+            for (int page = 0; page < PAGES; page++) {
+                for (int i = 0; i < PAGE_SIZE; i++) {
+                    ids.add(query + "/" + page + "/" + i);
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static Set<String> idsOf(List<Map<String, AttributeValue>> items) {
+        Set<String> ids = new HashSet<String>();
+        for (Map<String, AttributeValue> item : items) {
+            assertTrue("duplicate " + item, ids.add(item.get("objectId").getS()));
+        }
+        return ids;
+    }
+}
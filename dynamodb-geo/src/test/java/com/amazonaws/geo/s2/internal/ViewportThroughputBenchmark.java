@@ -0,0 +1,136 @@
+package com.amazonaws.geo.s2.internal;
+
+import com.amazonaws.geo.Geo;
+import com.amazonaws.geo.GeoConfig;
+import com.amazonaws.geo.model.GeoQueryRequest;
+import com.amazonaws.geo.model.GeoQueryResult;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1000 concurrent viewport requests, each fanning out to the queries of its covering, against a table whose pages take
+ * a few milliseconds like DynamoDB's do. The queries block on their pages either on the bounded
+ * <code>ThreadPoolExecutor</code> of the default mode or on a virtual thread each. The score is the time to answer
+ * all 1000, so the throughput is 1000 divided by it.
+ * <p>
+ * The virtual mode needs a Java 21 runtime, its setup fails on older ones.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ViewportThroughputBenchmark {
+
+    private static final int VIEWPORT_REQUESTS = 1000;
+    private static final int ITEMS = 2_000;
+    private static final int POOL_SIZE = 50;
+    private static final long PAGE_LATENCY_MILLIS = 5L;
+
+    private static final GeoConfig CONFIG = new GeoConfig.Builder().geoIndexName("geoHashKey-geoHash-index")
+            .geoHashKeyColumn("geoHashKey").geoHashColumn("geoHash").geoHashKeyLength(6)
+            .coveringMinLevel(4).coveringMaxLevel(16).coveringMaxCells(8).build();
+
+    @Param({"platform", "virtual"})
+    public String executor;
+
+    private ExecutorService executorService;
+    private ExecutorService sdkPool;
+    private GeoQueryClient client;
+    private List<GeoQueryRequest> viewports;
+
+    @Setup
+    public void setUp() throws Exception {
+        executorService = "virtual".equals(executor)
+                ? (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null)
+                : new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        sdkPool = Executors.newSingleThreadExecutor();
+        InMemoryDynamoDb dynamoDb = new InMemoryDynamoDb("objectId", sdkPool) {
+            @Override
+            public QueryResult query(QueryRequest request) {
+                try {
+                    Thread.sleep(PAGE_LATENCY_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.query(request);
+            }
+        };
+        client = new GeoQueryClient(dynamoDb, executorService);
+
+        Geo geo = new Geo();
+        Random random = new Random(42L);
+        for (int i = 0; i < ITEMS; i++) {
+            double latitude = 40.5d + random.nextDouble() * 0.5d;
+            double longitude = -74.3d + random.nextDouble() * 0.5d;
+            Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
+            item.put("objectId", new AttributeValue("spot-" + i));
+            item.put("latitude", new AttributeValue().withN(Double.toString(latitude)));
+            item.put("longitude", new AttributeValue().withN(Double.toString(longitude)));
+            dynamoDb.putItem(geo.putItemRequest(new PutItemRequest("geolocation", item), latitude, longitude,
+                    ImmutableList.of(CONFIG)));
+        }
+        viewports = new ArrayList<GeoQueryRequest>(VIEWPORT_REQUESTS);
+        for (int i = 0; i < VIEWPORT_REQUESTS; i++) {
+            double minLatitude = 40.5d + random.nextDouble() * 0.45d;
+            double minLongitude = -74.3d + random.nextDouble() * 0.45d;
+            viewports.add(geo.rectangleQuery(new QueryRequest("geolocation"), minLatitude, minLongitude,
+                    minLatitude + 0.05d, minLongitude + 0.05d, CONFIG, Optional.<String>absent()));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        executorService.shutdownNow();
+        sdkPool.shutdownNow();
+    }
+
+    @Benchmark
+    public int concurrentViewports() {
+        List<CompletableFuture<GeoQueryResult>> results = new ArrayList<CompletableFuture<GeoQueryResult>>(VIEWPORT_REQUESTS);
+        for (GeoQueryRequest viewport : viewports) {
+            results.add(client.executeAsync(viewport, Integer.MAX_VALUE, Long.MAX_VALUE));
+        }
+        int items = 0;
+        for (CompletableFuture<GeoQueryResult> result : results) {
+            items += result.join().getItems().size();
+        }
+        return items;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ViewportThroughputBenchmark.class.getSimpleName()).build()).run();
+    }
+}
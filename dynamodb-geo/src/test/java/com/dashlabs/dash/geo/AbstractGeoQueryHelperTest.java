@@ -0,0 +1,53 @@
+package com.dashlabs.dash.geo;
+
+import com.amazonaws.geo.GeoQueryHelper;
+import com.dashlabs.dash.geo.cache.CoveringCache;
+import com.dashlabs.dash.geo.s2.internal.S2Manager;
+import com.google.common.geometry.S2LatLng;
+import com.google.common.geometry.S2LatLngRect;
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AbstractGeoQueryHelperTest {
+
+    private static final int HASH_KEY_LENGTH = 3;
+    private static final int MIN_LEVEL = 4;
+    private static final int MAX_LEVEL = 16;
+    private static final int MAX_CELLS = 16;
+
+    @Test
+    public void tileCountIgnoresRoundingErrorsAtTheEndOfTheRegion() {
+        assertEquals(10, AbstractGeoQueryHelper.tileCount(0.0d, 1.0d, 0.1d));
+        assertEquals(10, AbstractGeoQueryHelper.tileCount(-0.7d, 0.3d, 0.1d));
+        assertEquals(11, AbstractGeoQueryHelper.tileCount(0.0d, 1.05d, 0.1d));
+        assertEquals(0, AbstractGeoQueryHelper.tileCount(1.0d, 0.0d, 0.1d));
+    }
+
+    @Test
+    public void preloadedTilesServeTheViewportsOnTheirGrid() {
+        CoveringCache cache = new CoveringCache(10_000, 1, TimeUnit.HOURS, 0.1d);
+        GeoQueryHelper helper = new GeoQueryHelper(new S2Manager(), cache);
+
+        int tiles = helper.preloadCoverings(-0.7d, 10.0d, 0.3d, 11.0d, 0.1d, HASH_KEY_LENGTH, MIN_LEVEL, MAX_LEVEL,
+                MAX_CELLS);
+
+        assertEquals(100, tiles);
+        assertEquals(100, cache.size());
+        for (int row = 0; row < 10; row++) {
+            for (int column = 0; column < 10; column++) {
+                // the viewport a client sends, the decimal literals of the tile's corners
+                double lat = Double.parseDouble(String.format(Locale.ROOT, "%.1f", -0.7d + row / 10.0d));
+                double lng = Double.parseDouble(String.format(Locale.ROOT, "%.1f", 10.0d + column / 10.0d));
+                S2LatLngRect viewport = new S2LatLngRect(S2LatLng.fromDegrees(lat, lng),
+                        S2LatLng.fromDegrees(lat + 0.1d, lng + 0.1d));
+                assertTrue("viewport " + viewport, cache.contains(
+                        cache.keyOf(viewport, HASH_KEY_LENGTH, MIN_LEVEL, MAX_LEVEL, MAX_CELLS)));
+            }
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.dashlabs.dash.geo.model;
+
+import com.dashlabs.dash.geo.s2.internal.S2Manager;
+import com.google.common.geometry.S2CellId;
+import com.google.common.geometry.S2CellUnion;
+import com.google.common.geometry.S2LatLng;
+import com.google.common.geometry.S2LatLngRect;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Proves that merging and splitting a {@link GeohashRangeList} yields the ranges of the <code>mergeCells</code> loop
+ * and {@link GeohashRange#trySplit(int, S2Manager)} it replaced, on all six faces, i.e. for cell ids on both sides of
+ * zero, and that coalescing split ranges keeps hash keys and wide gaps apart.
+ */
+public class GeohashRangeListTest {
+
+    private static final int RANDOM_UNIONS = 2_000;
+    private static final int RANDOM_RECTANGLES = 500;
+    private static final int MAX_HASH_KEY_LENGTH = 7;
+
+    private final S2Manager s2Manager = new S2Manager();
+
+    @Test
+    public void randomCellUnionsMergeAndSplitLikeTheLegacyRanges() {
+        Random random = new Random(20191217L);
+        int negativeRanges = 0;
+        for (int i = 0; i < RANDOM_UNIONS; i++) {
+            S2CellUnion cellUnion = randomCellUnion(random);
+            negativeRanges += assertEquivalent(cellUnion, 1 + random.nextInt(MAX_HASH_KEY_LENGTH));
+        }
+        // faces 4 and 5 were covered
+        assertTrue(negativeRanges > 0);
+    }
+
+    @Test
+    public void randomCoveringsMergeAndSplitLikeTheLegacyRanges() {
+        Random random = new Random(20191218L);
+        int negativeRanges = 0;
+        for (int i = 0; i < RANDOM_RECTANGLES; i++) {
+            double latitude = random.nextDouble() * 170.0d - 85.0d;
+            double longitude = random.nextDouble() * 360.0d - 180.0d;
+            double size = random.nextDouble() * 0.5d;
+            S2LatLngRect rect = new S2LatLngRect(S2LatLng.fromDegrees(latitude, longitude),
+                    S2LatLng.fromDegrees(latitude + size, longitude + size));
+
+            int hashKeyLength = 1 + random.nextInt(MAX_HASH_KEY_LENGTH);
+            int minLevel = 4 + random.nextInt(6);
+            negativeRanges += assertEquivalent(s2Manager.findCellIds(rect, minLevel, minLevel + random.nextInt(12),
+                    1 + random.nextInt(64)), hashKeyLength);
+            if (size < 0.05d) {
+                negativeRanges += assertEquivalent(s2Manager.findCellIds(rect), hashKeyLength);
+            }
+        }
+        assertTrue(negativeRanges > 0);
+    }
+
+    @Test
+    public void cellsOnBothSidesOfTheSignChangeAreNotMerged() {
+        // the last cell of face 3 and the first of face 4 are neighbours on the Hilbert curve, the leaf ids of the first
+        // are the largest positive longs and those of the second the smallest negative ones
+        S2CellId lastOfFace3 = S2CellId.fromFacePosLevel(4, 0L, 10).prev();
+        S2CellId firstOfFace4 = S2CellId.fromFacePosLevel(4, 0L, 10);
+        S2CellUnion cellUnion = new S2CellUnion();
+        cellUnion.initFromCellIds(new ArrayList<S2CellId>(Arrays.asList(lastOfFace3, firstOfFace4)));
+
+        // the difference of the two overflows to 2, the legacy loop merged them into a range ending before it starts
+        List<GeohashRange> legacyRanges = legacyMergeCells(cellUnion);
+        assertEquals(1, legacyRanges.size());
+        assertTrue(legacyRanges.get(0).getRangeMin() > legacyRanges.get(0).getRangeMax());
+
+        GeohashRangeList ranges = GeohashRangeList.fromCells(cellUnion).merge();
+
+        assertEquals(2, ranges.size());
+        assertEquals(firstOfFace4.rangeMin().id(), ranges.getRangeMin(0));
+        assertEquals(firstOfFace4.rangeMax().id(), ranges.getRangeMax(0));
+        assertEquals(lastOfFace3.rangeMin().id(), ranges.getRangeMin(1));
+        assertEquals(lastOfFace3.rangeMax().id(), ranges.getRangeMax(1));
+    }
+
+    @Test
+    public void rangesOfDifferentHashKeysAreNeverCoalesced() {
+        GeohashRangeList ranges = new GeohashRangeList();
+        // each split into two touching ranges of neighbouring hash keys
+        ranges.add(-1_240_000_000_000_000_999L, -1_239_999_999_999_999_000L);
+        ranges.add(1_239_999_999_999_999_000L, 1_240_000_000_000_000_999L);
+        GeohashRangeList split = ranges.merge().split(3, s2Manager);
+        assertEquals(4, split.size());
+
+        GeohashRangeList coalesced = split.coalesce(Long.MAX_VALUE);
+
+        assertEquals(4, coalesced.size());
+        for (int r = 0; r < split.size(); r++) {
+            assertEquals(split.getRangeMin(r), coalesced.getRangeMin(r));
+            assertEquals(split.getRangeMax(r), coalesced.getRangeMax(r));
+            assertEquals(split.getHashKey(r), coalesced.getHashKey(r));
+        }
+    }
+
+    @Test
+    public void gapsWiderThanTheMaximumAreNotCoalesced() {
+        GeohashRangeList ranges = new GeohashRangeList();
+        // gaps of 100, 101 and 100 values within hash key 123
+        ranges.add(1_230_000_000_000_000_000L, 1_230_000_000_000_000_099L);
+        ranges.add(1_230_000_000_000_000_200L, 1_230_000_000_000_000_299L);
+        ranges.add(1_230_000_000_000_000_401L, 1_230_000_000_000_000_499L);
+        ranges.add(1_230_000_000_000_000_600L, 1_230_000_000_000_000_699L);
+        GeohashRangeList split = ranges.split(3, s2Manager);
+
+        GeohashRangeList coalesced = split.coalesce(100L);
+
+        assertEquals(2, coalesced.size());
+        assertEquals(1_230_000_000_000_000_000L, coalesced.getRangeMin(0));
+        assertEquals(1_230_000_000_000_000_299L, coalesced.getRangeMax(0));
+        assertEquals(1_230_000_000_000_000_401L, coalesced.getRangeMin(1));
+        assertEquals(1_230_000_000_000_000_699L, coalesced.getRangeMax(1));
+        assertEquals(123L, coalesced.getHashKey(1));
+
+        assertEquals(4, split.coalesce(99L).size());
+        assertEquals(1, split.coalesce(101L).size());
+    }
+
+    @Test
+    public void coalescedCoveringsKeepEveryRangeAndTheHashKeys() {
+        Random random = new Random(20191219L);
+        for (int i = 0; i < RANDOM_RECTANGLES; i++) {
+            double latitude = random.nextDouble() * 170.0d - 85.0d;
+            double longitude = random.nextDouble() * 360.0d - 180.0d;
+            double size = random.nextDouble() * 0.5d;
+            S2LatLngRect rect = new S2LatLngRect(S2LatLng.fromDegrees(latitude, longitude),
+                    S2LatLng.fromDegrees(latitude + size, longitude + size));
+            int hashKeyLength = 1 + random.nextInt(MAX_HASH_KEY_LENGTH);
+            GeohashRangeList split = GeohashRangeList.fromCells(s2Manager.findCellIds(rect, 4, 16, 16)).merge()
+                    .split(hashKeyLength, s2Manager);
+            long maxGap = random.nextLong() >>> random.nextInt(64);
+
+            GeohashRangeList coalesced = split.coalesce(maxGap);
+
+            int c = 0;
+            for (int r = 0; r < split.size(); r++) {
+                while (coalesced.getRangeMax(c) < split.getRangeMin(r)) {
+                    c++;
+                }
+                assertTrue(coalesced.getRangeMin(c) <= split.getRangeMin(r));
+                assertTrue(split.getRangeMax(r) <= coalesced.getRangeMax(c));
+                assertEquals(split.getHashKey(r), coalesced.getHashKey(c));
+            }
+            for (c = 1; c < coalesced.size(); c++) {
+                assertEquals(s2Manager.generateHashKey(coalesced.getRangeMax(c), hashKeyLength),
+                        coalesced.getHashKey(c));
+                assertTrue(coalesced.getHashKey(c) != coalesced.getHashKey(c - 1)
+                        || coalesced.getRangeMin(c) - coalesced.getRangeMax(c - 1) - 1 > maxGap);
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void onlySplitRangesCanBeCoalesced() {
+        GeohashRangeList ranges = new GeohashRangeList();
+        ranges.add(1L, 3L);
+
+        ranges.merge().coalesce(0L);
+    }
+
+    /**
+     * @return the number of merged ranges with negative cell ids
+     */
+    private int assertEquivalent(S2CellUnion cellUnion, int hashKeyLength) {
+        String message = (cellUnion == null ? null : cellUnion.cellIds()) + " / " + hashKeyLength;
+        List<GeohashRange> legacyMerged = legacyMergeCells(cellUnion);
+        GeohashRangeList merged = GeohashRangeList.fromCells(cellUnion).merge();
+        assertRanges(message, legacyMerged, merged);
+
+        List<GeohashRange> legacySplit = new ArrayList<GeohashRange>();
+        for (GeohashRange range : legacyMerged) {
+            legacySplit.addAll(range.trySplit(hashKeyLength, s2Manager));
+        }
+        GeohashRangeList split = merged.split(hashKeyLength, s2Manager);
+        assertRanges(message, legacySplit, split);
+        for (int r = 0; r < split.size(); r++) {
+            assertEquals(message, s2Manager.generateHashKey(split.getRangeMin(r), hashKeyLength), split.getHashKey(r));
+            assertEquals(message, s2Manager.generateHashKey(split.getRangeMax(r), hashKeyLength), split.getHashKey(r));
+        }
+
+        int negativeRanges = 0;
+        for (int r = 0; r < merged.size(); r++) {
+            if (merged.getRangeMax(r) < 0) {
+                negativeRanges++;
+            }
+        }
+        return negativeRanges;
+    }
+
+    /**
+     * The legacy loop yields the ranges in the unsigned order of the cell ids, the list in their signed order
+     */
+    private static void assertRanges(String message, List<GeohashRange> expected, GeohashRangeList actual) {
+        List<GeohashRange> sorted = new ArrayList<GeohashRange>(expected);
+        Collections.sort(sorted, new Comparator<GeohashRange>() {
+            @Override
+            public int compare(GeohashRange a, GeohashRange b) {
+                return Long.compare(a.getRangeMin(), b.getRangeMin());
+            }
+        });
+        assertEquals(message, sorted.size(), actual.size());
+        for (int r = 0; r < sorted.size(); r++) {
+            assertEquals(message, sorted.get(r).getRangeMin(), actual.getRangeMin(r));
+            assertEquals(message, sorted.get(r).getRangeMax(), actual.getRangeMax(r));
+        }
+    }
+
+    /**
+     * Runs of neighbouring cells of random levels anywhere on the six faces, which do not cross from face 3 to face 4,
+     * see {@link #cellsOnBothSidesOfTheSignChangeAreNotMerged()}
+     */
+    private static S2CellUnion randomCellUnion(Random random) {
+        List<S2CellId> cellIds = new ArrayList<S2CellId>();
+        int face = random.nextInt(S2CellId.NUM_FACES);
+        int runs = 1 + random.nextInt(8);
+        for (int run = 0; run < runs; run++) {
+            int level = 8 + random.nextInt(17);
+            S2CellId cellId = S2CellId.fromFacePosLevel(face, random.nextLong() >>> 3, level);
+            int length = 1 + random.nextInt(6);
+            for (int c = 0; c < length && cellId.face() == face; c++) {
+                cellIds.add(cellId);
+                cellId = cellId.next();
+            }
+            // the next run on the same face or the one next to it
+            face = Math.min(face + random.nextInt(2), S2CellId.NUM_FACES - 1);
+        }
+        S2CellUnion cellUnion = new S2CellUnion();
+        cellUnion.initFromCellIds(new ArrayList<S2CellId>(cellIds));
+        return cellUnion;
+    }
+
+    /**
+     * The merge of <code>AbstractGeoQueryHelper.mergeCells</code> the range lists replaced
+     */
+    private static List<GeohashRange> legacyMergeCells(S2CellUnion cellUnion) {
+        if (cellUnion == null) {
+            return new ArrayList<GeohashRange>();
+        }
+        List<S2CellId> cellIds = cellUnion.cellIds();
+        List<GeohashRange> ranges = new ArrayList<GeohashRange>(cellIds.size());
+        for (S2CellId c : cellIds) {
+            GeohashRange range = new GeohashRange(c.rangeMin().id(), c.rangeMax().id());
+            boolean wasMerged = false;
+            for (GeohashRange r : ranges) {
+                if (r.tryMerge(range)) {
+                    wasMerged = true;
+                    break;
+                }
+            }
+            if (!wasMerged) {
+                ranges.add(range);
+            }
+        }
+        return ranges;
+    }
+}
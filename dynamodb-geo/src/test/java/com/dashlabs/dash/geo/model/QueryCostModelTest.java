@@ -0,0 +1,58 @@
+package com.dashlabs.dash.geo.model;
+
+import com.google.common.geometry.S2LatLng;
+import com.google.common.geometry.S2LatLngRect;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the break-even of the query planner's cost model: a gap is coalesced while the items expected within it are
+ * cheaper to read than a round trip.
+ */
+public class QueryCostModelTest {
+
+    private static final QueryCostModel MODEL = new QueryCostModel(1.0d, 0.01d, 100_000.0d);
+
+    @Test
+    public void theWidestCoalescibleGapCostsOneRoundTrip() {
+        long maxGap = MODEL.maxCoalescibleGap();
+
+        // 100 items, as many as one round trip costs
+        assertEquals(100.0d, MODEL.expectedItems(maxGap), 1e-6d);
+        // the values of one more item
+        long itemWidth = (long) (QueryCostModel.GEOHASH_SPACE / MODEL.getExpectedItemCount());
+        assertTrue(MODEL.expectedItems(maxGap + itemWidth) * MODEL.getItemCost() > MODEL.getRoundTripCost());
+    }
+
+    @Test
+    public void expectedItemsGrowWithTheGapAndTheArea() {
+        assertEquals(0.0d, MODEL.expectedItems(0L), 0.0d);
+        // half of the six faces, half of the earth
+        assertEquals(50_000.0d, MODEL.expectedItems((long) (QueryCostModel.GEOHASH_SPACE / 2)), 1e-6d);
+        assertEquals(100_000.0d, MODEL.expectedItems(S2LatLngRect.full()), 1e-6d);
+        assertEquals(50_000.0d, MODEL.expectedItems(new S2LatLngRect(S2LatLng.fromDegrees(0.0d, -180.0d),
+                S2LatLng.fromDegrees(90.0d, 180.0d))), 1e-6d);
+    }
+
+    @Test
+    public void freeRoundTripsCoalesceOnlyTouchingRanges() {
+        assertEquals(0L, new QueryCostModel(0.0d, 0.01d, 100_000.0d).maxCoalescibleGap());
+    }
+
+    @Test
+    public void expensiveRoundTripsOnSparseDataCoalesceAnyGap() {
+        assertEquals(Long.MAX_VALUE, new QueryCostModel(1_000.0d, 1e-6d, 1.0d).maxCoalescibleGap());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void itemsCannotBeFree() {
+        new QueryCostModel(1.0d, 0.0d, 100_000.0d);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void roundTripsCannotPayBack() {
+        new QueryCostModel(-1.0d, 0.01d, 100_000.0d);
+    }
+}
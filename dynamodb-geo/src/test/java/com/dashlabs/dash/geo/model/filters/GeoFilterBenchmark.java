@@ -0,0 +1,111 @@
+package com.dashlabs.dash.geo.model.filters;
+
+import com.amazonaws.geo.model.filters.GeoFilters;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.google.common.geometry.S2LatLng;
+import com.google.common.geometry.S2LatLngRect;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The columnar radius and rectangle filters against the {@link S2LatLng} based ones they replaced, over a page of
+ * DynamoDB items of which about half pass.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeoFilterBenchmark {
+
+    private static final int ITEMS = 1000;
+
+    private static final S2LatLng CENTER = S2LatLng.fromDegrees(40.7d, -74.0d);
+    private static final double RADIUS_IN_METER = 5_000.0d;
+    private static final S2LatLngRect RECTANGLE = new S2LatLngRect(S2LatLng.fromDegrees(40.65d, -74.05d),
+            S2LatLng.fromDegrees(40.75d, -73.95d));
+
+    private final GeoFilter<Map<String, AttributeValue>> radiusFilter = GeoFilters.newRadiusFilter(CENTER,
+            RADIUS_IN_METER);
+    private final GeoFilter<Map<String, AttributeValue>> rectangleFilter = GeoFilters.newRectangleFilter(RECTANGLE);
+
+    private List<Map<String, AttributeValue>> items;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42L);
+        items = new ArrayList<Map<String, AttributeValue>>(ITEMS);
+        for (int i = 0; i < ITEMS; i++) {
+            Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
+            item.put(GeoFilter.LATITUDE_FIELD, new AttributeValue().withN(
+                    Double.toString(40.6d + random.nextDouble() * 0.2d)));
+            item.put(GeoFilter.LONGITUDE_FIELD, new AttributeValue().withN(
+                    Double.toString(-74.1d + random.nextDouble() * 0.2d)));
+            items.add(item);
+        }
+    }
+
+    @Benchmark
+    public int radiusColumnar() {
+        return radiusFilter.filter(items).size();
+    }
+
+    @Benchmark
+    public int radiusS2LatLng() {
+        int kept = 0;
+        for (Map<String, AttributeValue> item : items) {
+            if (CENTER.getEarthDistance(latLngOf(item)) <= RADIUS_IN_METER) {
+                kept++;
+            }
+        }
+        return kept;
+    }
+
+    @Benchmark
+    public int rectangleColumnar() {
+        return rectangleFilter.filter(items).size();
+    }
+
+    @Benchmark
+    public int rectangleS2LatLng() {
+        int kept = 0;
+        for (Map<String, AttributeValue> item : items) {
+            if (RECTANGLE.contains(latLngOf(item))) {
+                kept++;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * The coordinates of an item as the old filters read them, boxed through <code>Double.valueOf</code>
+     */
+    private static S2LatLng latLngOf(Map<String, AttributeValue> item) {
+        Double latitude = Double.valueOf(item.get(GeoFilter.LATITUDE_FIELD).getN());
+        Double longitude = Double.valueOf(item.get(GeoFilter.LONGITUDE_FIELD).getN());
+        return S2LatLng.fromDegrees(latitude, longitude);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(GeoFilterBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,161 @@
+package com.dashlabs.dash.geo.model.filters;
+
+import com.google.common.geometry.S2LatLng;
+import com.google.common.geometry.S2LatLngRect;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Proves that the columnar filters keep exactly the items the {@link S2LatLng} based filters they replaced kept,
+ * including boxes across the antimeridian, caps around the poles, <code>lng == -180</code> and items without
+ * coordinates.
+ */
+public class GeoFilterCompatibilityTest {
+
+    private static final int FILTERS = 2_000;
+    private static final int POINTS = 500;
+
+    private static final GeoDataExtractor<double[]> EXTRACTOR = new GeoDataExtractor<double[]>() {
+        @Override
+        public Optional<Double> extractLatitude(double[] item) {
+            return Double.isNaN(item[0]) ? Optional.empty() : Optional.of(item[0]);
+        }
+
+        @Override
+        public Optional<Double> extractLongitude(double[] item) {
+            return Double.isNaN(item[1]) ? Optional.empty() : Optional.of(item[1]);
+        }
+    };
+
+    @Test
+    public void rectanglesSelectWhatS2LatLngRectContains() {
+        Random random = new Random(20191212L);
+        for (int i = 0; i < FILTERS; i++) {
+            double minLat = random.nextDouble() * 180.0d - 90.0d;
+            double maxLat = Math.min(90.0d, minLat + random.nextDouble() * 20.0d);
+            double minLng = randomLongitude(random);
+            // a west edge east of the east edge makes an inverted interval across the antimeridian
+            double maxLng = random.nextBoolean() ? randomLongitude(random) : wrap(minLng + random.nextDouble() * 20.0d);
+            S2LatLngRect rect = new S2LatLngRect(S2LatLng.fromDegrees(minLat, minLng),
+                    S2LatLng.fromDegrees(maxLat, maxLng));
+
+            double[][] points = points(random, (minLat + maxLat) / 2, minLng, Math.max(maxLat - minLat, 1.0d) * 2);
+            // the corners and edges themselves
+            points[0] = new double[]{minLat, minLng};
+            points[1] = new double[]{maxLat, maxLng};
+            points[2] = new double[]{minLat, -180.0d};
+            points[3] = new double[]{maxLat, 180.0d};
+            assertSameSelection(rect.toString(), new RectangleGeoFilter<double[]>(EXTRACTOR, rect), points,
+                    point -> rect.contains(S2LatLng.fromDegrees(point[0], point[1])));
+        }
+    }
+
+    @Test
+    public void rectanglesAcrossTheAntimeridianContainMinus180() {
+        S2LatLngRect rect = new S2LatLngRect(S2LatLng.fromDegrees(-10.0d, 170.0d), S2LatLng.fromDegrees(10.0d, -170.0d));
+        double[][] points = {{0.0d, -180.0d}, {0.0d, 180.0d}, {0.0d, 175.0d}, {0.0d, -175.0d}, {0.0d, 0.0d},
+                {0.0d, 169.9d}, {0.0d, -169.9d}, {Double.NaN, -180.0d}, {0.0d, Double.NaN}};
+
+        assertSameSelection(rect.toString(), new RectangleGeoFilter<double[]>(EXTRACTOR, rect), points,
+                point -> rect.contains(S2LatLng.fromDegrees(point[0], point[1])));
+        assertEquals(4, new RectangleGeoFilter<double[]>(EXTRACTOR, rect).filter(asList(points)).size());
+    }
+
+    @Test
+    public void radiusesSelectWhatGetEarthDistanceKeeps() {
+        Random random = new Random(20191213L);
+        for (int i = 0; i < FILTERS; i++) {
+            // a tenth of the centers on the poles' side of 80 degrees
+            double centerLat = i % 10 == 0
+                    ? (random.nextBoolean() ? 1 : -1) * (80.0d + random.nextDouble() * 10.0d)
+                    : random.nextDouble() * 180.0d - 90.0d;
+            double centerLng = i % 7 == 0 ? (random.nextBoolean() ? 180.0d : -180.0d) : randomLongitude(random);
+            double radiusInMeter = Math.pow(10, 1 + random.nextDouble() * 5.5d);
+            S2LatLng center = S2LatLng.fromDegrees(centerLat, centerLng);
+
+            double spread = Math.toDegrees(radiusInMeter / S2LatLng.EARTH_RADIUS_METERS) * 3;
+            double[][] points = points(random, centerLat, centerLng, spread);
+            points[0] = new double[]{centerLat, -180.0d};
+            points[1] = new double[]{centerLat, 180.0d};
+            assertSameSelection(center + " " + radiusInMeter, new RadiusGeoFilter<double[]>(EXTRACTOR, center,
+                    radiusInMeter), points, point -> center.getEarthDistance(
+                            S2LatLng.fromDegrees(point[0], point[1])) <= radiusInMeter);
+        }
+    }
+
+    /**
+     * Random points around a center, a few of them without a latitude or a longitude
+     */
+    private static double[][] points(Random random, double centerLat, double centerLng, double spread) {
+        double[][] points = new double[POINTS][];
+        for (int i = 0; i < POINTS; i++) {
+            double lat = Math.max(-90.0d, Math.min(90.0d, centerLat + (random.nextDouble() - 0.5d) * spread));
+            double lng = wrap(centerLng + (random.nextDouble() - 0.5d) * spread);
+            if (i % 50 == 1) {
+                lat = Double.NaN;
+            } else if (i % 50 == 2) {
+                lng = Double.NaN;
+            }
+            points[i] = new double[]{lat, lng};
+        }
+        return points;
+    }
+
+    private static void assertSameSelection(String filter, ColumnarGeoFilter columnarFilter, double[][] points,
+                                            Legacy legacy) {
+        double[] latitudes = new double[points.length];
+        double[] longitudes = new double[points.length];
+        for (int i = 0; i < points.length; i++) {
+            latitudes[i] = points[i][0];
+            longitudes[i] = points[i][1];
+        }
+        int[] selection = new int[points.length];
+        int selected = columnarFilter.select(latitudes, longitudes, points.length, selection);
+
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < points.length; i++) {
+            // the old filters skipped items without coordinates
+            if (!Double.isNaN(points[i][0]) && !Double.isNaN(points[i][1]) && legacy.keeps(points[i])) {
+                expected.add(i);
+            }
+        }
+        List<Integer> actual = new ArrayList<Integer>();
+        for (int i = 0; i < selected; i++) {
+            actual.add(selection[i]);
+        }
+        assertEquals(filter, expected, actual);
+    }
+
+    private static List<double[]> asList(double[][] points) {
+        List<double[]> items = new ArrayList<double[]>();
+        for (double[] point : points) {
+            items.add(point);
+        }
+        return items;
+    }
+
+    private static double randomLongitude(Random random) {
+        return random.nextDouble() * 360.0d - 180.0d;
+    }
+
+    private static double wrap(double lng) {
+        if (lng > 180.0d) {
+            return lng - 360.0d;
+        }
+        return lng < -180.0d ? lng + 360.0d : lng;
+    }
+
+    /**
+     * The test of the filter a point went through before, on an {@link S2LatLng}
+     */
+    private interface Legacy {
+
+        boolean keeps(double[] point);
+    }
+}
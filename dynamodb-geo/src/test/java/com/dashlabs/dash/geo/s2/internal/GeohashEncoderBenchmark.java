@@ -0,0 +1,76 @@
+package com.dashlabs.dash.geo.s2.internal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding a batch of points into geohashes and hash keys, point by point through the S2 library as
+ * <code>Geo.updateAttributeValues</code> did, against the bulk encoding of {@link GeohashEncoder}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeohashEncoderBenchmark {
+
+    private static final int HASH_KEY_LENGTH = 3;
+
+    @Param({"25", "1000", "100000"})
+    public int points;
+
+    private final S2Manager s2Manager = new S2Manager();
+
+    private double[] latitudes;
+    private double[] longitudes;
+    private long[] geohashes;
+    private long[] hashKeys;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42L);
+        latitudes = new double[points];
+        longitudes = new double[points];
+        for (int i = 0; i < points; i++) {
+            latitudes[i] = random.nextDouble() * 180.0d - 90.0d;
+            longitudes[i] = random.nextDouble() * 360.0d - 180.0d;
+        }
+        geohashes = new long[points];
+        hashKeys = new long[points];
+    }
+
+    @Benchmark
+    public long[] library() {
+        for (int i = 0; i < points; i++) {
+            geohashes[i] = GeohashEncoder.encodeWithLibrary(latitudes[i], longitudes[i]);
+            hashKeys[i] = HashKeyCompatibilityTest.stringHashKey(geohashes[i], HASH_KEY_LENGTH);
+        }
+        return hashKeys;
+    }
+
+    @Benchmark
+    public long[] bulk() {
+        s2Manager.generateGeohashes(latitudes, longitudes, geohashes, hashKeys, HASH_KEY_LENGTH);
+        return hashKeys;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(GeohashEncoderBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,63 @@
+package com.dashlabs.dash.geo.s2.internal;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class GeohashEncoderTest {
+
+    private static final int POINTS = 1_000_000;
+
+    @Test
+    public void directEncodingMatchesTheLibraryOnRandomPoints() {
+        Random random = new Random(20191211L);
+        for (int i = 0; i < POINTS; i++) {
+            assertSameEncoding(random.nextDouble() * 180.0d - 90.0d, random.nextDouble() * 360.0d - 180.0d);
+        }
+    }
+
+    @Test
+    public void directEncodingMatchesTheLibraryOnEdges() {
+        double[] latitudes = {-90.0d, -45.0d, -35.26438968275466d, 0.0d, 35.26438968275466d, 45.0d, 90.0d};
+        double[] longitudes = {-180.0d, -135.0d, -90.0d, -45.0d, 0.0d, 45.0d, 90.0d, 135.0d, 180.0d};
+        for (double latitude : latitudes) {
+            for (double longitude : longitudes) {
+                assertSameEncoding(latitude, longitude);
+                assertSameEncoding(Math.nextUp(latitude), Math.nextDown(longitude));
+                assertSameEncoding(Math.nextDown(latitude), Math.nextUp(longitude));
+            }
+        }
+    }
+
+    @Test
+    public void bulkEncodingMatchesSinglePoints() {
+        // large enough to be split across the fork-join pool
+        int size = 4 * GeohashEncoder.PARALLEL_THRESHOLD + 17;
+        Random random = new Random(20191212L);
+        double[] latitudes = new double[size];
+        double[] longitudes = new double[size];
+        long[] expectedGeohashes = new long[size];
+        long[] expectedHashKeys = new long[size];
+        for (int i = 0; i < size; i++) {
+            latitudes[i] = random.nextDouble() * 180.0d - 90.0d;
+            longitudes[i] = random.nextDouble() * 360.0d - 180.0d;
+            expectedGeohashes[i] = GeohashEncoder.encodeWithLibrary(latitudes[i], longitudes[i]);
+            expectedHashKeys[i] = new S2Manager().generateHashKey(expectedGeohashes[i], 3);
+        }
+
+        long[] geohashes = new long[size];
+        long[] hashKeys = new long[size];
+        GeohashEncoder.encode(latitudes, longitudes, geohashes, hashKeys, 3);
+
+        assertArrayEquals(expectedGeohashes, geohashes);
+        assertArrayEquals(expectedHashKeys, hashKeys);
+    }
+
+    private static void assertSameEncoding(double latitude, double longitude) {
+        assertEquals(latitude + ", " + longitude, GeohashEncoder.encodeWithLibrary(latitude, longitude),
+                GeohashEncoder.encodeDirect(latitude, longitude));
+    }
+}
@@ -0,0 +1,70 @@
+package com.dashlabs.dash.geo.s2.internal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The hash key derivation of {@link S2Manager#generateHashKey(long, int)} against the string based one it replaced,
+ * over the geohashes of random points.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashKeyBenchmark {
+
+    private static final int GEOHASHES = 1024;
+
+    @Param({"3", "6"})
+    public int hashKeyLength;
+
+    private final S2Manager s2Manager = new S2Manager();
+
+    private long[] geohashes;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42L);
+        geohashes = new long[GEOHASHES];
+        for (int i = 0; i < GEOHASHES; i++) {
+            geohashes[i] = s2Manager.generateGeohash(random.nextDouble() * 180.0d - 90.0d,
+                    random.nextDouble() * 360.0d - 180.0d);
+        }
+    }
+
+    @Benchmark
+    public void arithmetic(Blackhole blackhole) {
+        for (long geohash : geohashes) {
+            blackhole.consume(s2Manager.generateHashKey(geohash, hashKeyLength));
+        }
+    }
+
+    @Benchmark
+    public void string(Blackhole blackhole) {
+        for (long geohash : geohashes) {
+            blackhole.consume(HashKeyCompatibilityTest.stringHashKey(geohash, hashKeyLength));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(HashKeyBenchmark.class.getSimpleName()).build()).run();
+    }
+}
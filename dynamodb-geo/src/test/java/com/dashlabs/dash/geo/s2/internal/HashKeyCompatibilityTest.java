@@ -0,0 +1,89 @@
+package com.dashlabs.dash.geo.s2.internal;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Proves that the arithmetic hash key derivation yields the stored <code>geoHashKey</code>s of the string based
+ * implementation it replaced, over the whole signed 64-bit range.
+ */
+public class HashKeyCompatibilityTest {
+
+    private static final int MIN_HASH_KEY_LENGTH = -2;
+    private static final int MAX_HASH_KEY_LENGTH = 22;
+    private static final int RANDOM_VALUES = 2_000_000;
+
+    private final S2Manager s2Manager = new S2Manager();
+
+    @Test
+    public void hashKeysOfEdgeValuesMatchTheStringImplementation() {
+        for (long value : new long[]{0L, 1L, -1L, Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE - 1, Long.MIN_VALUE + 1}) {
+            assertCompatible(value);
+        }
+        // every change of the number of digits, on both sides of zero
+        for (long power = 1L; power <= Long.MAX_VALUE / 10L; power *= 10L) {
+            for (long value : new long[]{power - 1, power, power + 1, 10L * power - 1, 10L * power}) {
+                assertCompatible(value);
+                assertCompatible(-value);
+            }
+        }
+    }
+
+    @Test
+    public void hashKeysOfRandomValuesMatchTheStringImplementation() {
+        Random random = new Random(20191208L);
+        for (int i = 0; i < RANDOM_VALUES; i++) {
+            // uniformly random longs have 19 digits almost always, shifting spreads them over all digit counts
+            assertCompatible(random.nextLong() >> random.nextInt(64));
+        }
+    }
+
+    @Test
+    public void hashKeysOfGeohashesMatchTheStringImplementation() {
+        Random random = new Random(20191209L);
+        for (int i = 0; i < RANDOM_VALUES / 10; i++) {
+            assertCompatible(s2Manager.generateGeohash(random.nextDouble() * 180.0d - 90.0d,
+                    random.nextDouble() * 360.0d - 180.0d));
+        }
+    }
+
+    @Test
+    public void splitDenominatorsMatchTheStringImplementation() {
+        Random random = new Random(20191210L);
+        for (int i = 0; i < RANDOM_VALUES; i++) {
+            long rangeMin = random.nextLong() >> random.nextInt(64);
+            long minHashKey = random.nextLong() >> random.nextInt(64);
+            assertEquals(rangeMin + " / " + minHashKey,
+                    (long) Math.pow(10, String.valueOf(rangeMin).length() - String.valueOf(minHashKey).length()),
+                    DecimalDigits.powerOfTen(DecimalDigits.stringLength(rangeMin) - DecimalDigits.stringLength(minHashKey)));
+        }
+    }
+
+    private void assertCompatible(long geohash) {
+        assertEquals(String.valueOf(geohash).length(), DecimalDigits.stringLength(geohash));
+        for (int hashKeyLength = MIN_HASH_KEY_LENGTH; hashKeyLength <= MAX_HASH_KEY_LENGTH; hashKeyLength++) {
+            assertEquals(geohash + " / " + hashKeyLength, stringHashKey(geohash, hashKeyLength),
+                    s2Manager.generateHashKey(geohash, hashKeyLength));
+        }
+    }
+
+    /**
+     * The implementation of <code>S2Manager.generateHashKey</code> the stored hash keys were written with
+     */
+    static long stringHashKey(long geohash, int hashKeyLength) {
+        if (geohash < 0) {
+            // Counteract "-" at beginning of geohash.
+            hashKeyLength++;
+        }
+
+        String geohashString = String.valueOf(geohash);
+        long denominator = (long) Math.pow(10, geohashString.length() - hashKeyLength);
+        if (denominator == 0) {
+            return geohash;
+        }
+        return geohash / denominator;
+    }
+}
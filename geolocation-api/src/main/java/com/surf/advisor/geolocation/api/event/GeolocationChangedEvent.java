@@ -0,0 +1,65 @@
+package com.surf.advisor.geolocation.api.event;
+
+import com.surf.advisor.geolocation.api.model.Geolocation;
+import com.surf.advisor.geolocation.api.model.LocationId;
+import java.io.Serializable;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+/**
+ * Published once a geolocation was written or removed, on the writing node, so that node-local caches serve the
+ * node's own writes right away, or on every node by the change feed.
+ */
+@Getter
+@ToString
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public class GeolocationChangedEvent implements Serializable {
+
+  /**
+   * The geolocation before the write, null if it did not exist or is not known
+   */
+  private final Geolocation previous;
+
+  /**
+   * Whether the write told the previous geolocation, batch writes do not
+   */
+  private final boolean previousKnown;
+
+  /**
+   * The geolocation after the write, null if it was removed
+   */
+  private final Geolocation current;
+
+  /**
+   * The epoch millis of the write as recorded in the item's <code>updatedAt</code>, 0 if not known, e.g. for
+   * removals and items written before it was recorded
+   */
+  private final long updatedAt;
+
+  /**
+   * @param previous  the geolocation before the write, null if it did not exist
+   * @param updatedAt the epoch millis of the write, 0 if not known
+   */
+  public static GeolocationChangedEvent of(Geolocation previous, Geolocation current, long updatedAt) {
+    return new GeolocationChangedEvent(previous, true, current, updatedAt);
+  }
+
+  public static GeolocationChangedEvent withUnknownPrevious(Geolocation current, long updatedAt) {
+    return new GeolocationChangedEvent(null, false, current, updatedAt);
+  }
+
+  public static GeolocationChangedEvent removed(Geolocation previous) {
+    return new GeolocationChangedEvent(previous, true, null, 0L);
+  }
+
+  public boolean isRemoval() {
+    return current == null;
+  }
+
+  public LocationId getLocationId() {
+    var geolocation = current != null ? current : previous;
+    return LocationId.of(geolocation.getObjectType(), geolocation.getObjectId());
+  }
+}
@@ -0,0 +1,9 @@
+package com.surf.advisor.geolocation.api.exception;
+
+public class GeoCommandTechnicalException extends RuntimeException {
+
+  public GeoCommandTechnicalException(String message) {
+    super(message);
+  }
+
+}
@@ -9,11 +9,16 @@ import lombok.*;
 @Getter
 @ToString
 @AllArgsConstructor
-@EqualsAndHashCode(of = "objectIds")
+@EqualsAndHashCode(of = {"objectIds", "latitude", "longitude", "count"})
 public class GeoCluster implements Serializable {
 
   private Set<LocationId> objectIds;
   private Double latitude;
   private Double longitude;
 
+  /**
+   * The number of geolocations of the cluster, whose object ids are not all listed for large precomputed clusters.
+   */
+  private Integer count;
+
 }
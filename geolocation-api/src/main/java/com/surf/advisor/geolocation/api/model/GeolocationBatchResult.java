@@ -0,0 +1,29 @@
+package com.surf.advisor.geolocation.api.model;
+
+import java.io.Serializable;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+@Getter
+@Setter
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+public class GeolocationBatchResult implements Serializable {
+
+  /**
+   * The number of distinct geolocations written.
+   */
+  private int written;
+
+  /**
+   * The ids of the geolocations that may not have been written, the others were. Puts are idempotent, retrying
+   * them is safe.
+   */
+  private List<LocationId> failed;
+
+}
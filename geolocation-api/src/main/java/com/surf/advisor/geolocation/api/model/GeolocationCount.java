@@ -0,0 +1,24 @@
+package com.surf.advisor.geolocation.api.model;
+
+import java.io.Serializable;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+@Getter
+@Setter
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+public class GeolocationCount implements Serializable {
+
+  private long count;
+
+  /**
+   * Whether the count stopped at the request's limit or maxItemsScanned.
+   */
+  private boolean truncated;
+
+}
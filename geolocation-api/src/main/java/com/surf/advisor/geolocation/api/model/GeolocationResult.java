@@ -0,0 +1,25 @@
+package com.surf.advisor.geolocation.api.model;
+
+import java.io.Serializable;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+@Getter
+@Setter
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+public class GeolocationResult implements Serializable {
+
+  private List<Geolocation> geolocations;
+
+  /**
+   * Whether geolocations were left out because the request's limit or maxItemsScanned was reached.
+   */
+  private boolean truncated;
+
+}
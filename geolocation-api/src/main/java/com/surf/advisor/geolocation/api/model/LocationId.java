@@ -1,5 +1,10 @@
 package com.surf.advisor.geolocation.api.model;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+
 import lombok.*;
 
 import java.io.Serializable;
@@ -7,12 +12,23 @@ import java.io.Serializable;
 @Getter
 @Setter
 @EqualsAndHashCode
-@RequiredArgsConstructor(staticName = "of")
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
 public class LocationId implements Serializable {
 
+  @NotNull
+  @NotEmpty
   private final String objectType;
+
+  @NotNull
+  @NotEmpty
   private final String objectId;
 
+  @JsonCreator
+  public static LocationId of(@JsonProperty("objectType") String objectType,
+                              @JsonProperty("objectId") String objectId) {
+    return new LocationId(objectType, objectId);
+  }
+
   @Override
   public String toString() {
     return objectType + "#" + objectId;
@@ -0,0 +1,59 @@
+package com.surf.advisor.geolocation.api.model;
+
+import java.io.Serializable;
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Positive;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+@Getter
+@Setter
+@ToString
+@EqualsAndHashCode
+@NoArgsConstructor
+@AllArgsConstructor
+public class NearestGeolocationRequest implements Serializable {
+
+  @NotNull
+  @DecimalMin("-90")
+  @DecimalMax("90")
+  private Double latitude;
+
+  @NotNull
+  @DecimalMin("-180")
+  @DecimalMax("180")
+  private Double longitude;
+
+  /**
+   * The number of nearest geolocations to return.
+   */
+  @NotNull
+  @Positive
+  @Max(1000)
+  private Integer k;
+
+  /**
+   * Optional type of the geolocations to return.
+   */
+  private String objectType;
+
+  /**
+   * Optional distance from the point in metres, no farther geolocations are returned.
+   */
+  @Positive
+  private Double maxRadius;
+
+  /**
+   * Optional maximum number of items to read from DynamoDB over all rings.
+   */
+  @Positive
+  private Integer maxItemsScanned;
+
+}
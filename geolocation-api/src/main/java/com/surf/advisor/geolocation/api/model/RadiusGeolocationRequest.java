@@ -0,0 +1,62 @@
+package com.surf.advisor.geolocation.api.model;
+
+import java.io.Serializable;
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Positive;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+@Getter
+@Setter
+@ToString
+@EqualsAndHashCode
+@NoArgsConstructor
+@AllArgsConstructor
+public class RadiusGeolocationRequest implements Serializable {
+
+  @NotNull
+  @DecimalMin("-90")
+  @DecimalMax("90")
+  private Double latitude;
+
+  @NotNull
+  @DecimalMin("-180")
+  @DecimalMax("180")
+  private Double longitude;
+
+  /**
+   * The radius around the centre, in metres.
+   */
+  @NotNull
+  @Positive
+  private Double radius;
+
+  /**
+   * Optional type of the geolocations to return.
+   */
+  private String objectType;
+
+  /**
+   * Optional maximum number of geolocations to return, the nearest ones if sorted by distance.
+   */
+  @Positive
+  private Integer limit;
+
+  /**
+   * Optional maximum number of items to read from DynamoDB before the geo filter.
+   */
+  @Positive
+  private Integer maxItemsScanned;
+
+  /**
+   * Whether to return the geolocations nearest first.
+   */
+  private boolean sortByDistance;
+
+}
@@ -2,6 +2,7 @@ package com.surf.advisor.geolocation.api.model;
 
 import java.io.Serializable;
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Positive;
 import lombok.AllArgsConstructor;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
@@ -29,4 +30,16 @@ public class RectangleGeolocationRequest implements Serializable {
   @NotNull
   private Double maxLongitude;
 
+  /**
+   * Optional maximum number of geolocations to return, not applied to clustering.
+   */
+  @Positive
+  private Integer limit;
+
+  /**
+   * Optional maximum number of items to read from DynamoDB before the geo filter, not applied to clustering.
+   */
+  @Positive
+  private Integer maxItemsScanned;
+
 }
@@ -0,0 +1,48 @@
+package com.surf.advisor.geolocation.api.model;
+
+import java.io.Serializable;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+@Getter
+@Setter
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReindexStatus implements Serializable {
+
+  public enum State {
+    IDLE, RUNNING, COMPLETED, FAILED
+  }
+
+  private State state;
+
+  /**
+   * The number of geolocations scanned so far.
+   */
+  private long scanned;
+
+  /**
+   * The number of geolocations whose geo columns were written so far, those moved in the meantime are skipped.
+   */
+  private long reindexed;
+
+  /**
+   * Epoch millis, null while idle.
+   */
+  private Long startedAt;
+
+  /**
+   * Epoch millis, null until completed or failed.
+   */
+  private Long finishedAt;
+
+  /**
+   * The failure, if failed.
+   */
+  private String error;
+
+}
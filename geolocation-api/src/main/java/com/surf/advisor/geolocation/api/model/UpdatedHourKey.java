@@ -0,0 +1,36 @@
+package com.surf.advisor.geolocation.api.model;
+
+/**
+ * The hash key of the index over the write times of the geolocations, which point indexes catch up from: the hour of
+ * the write and one of {@value #SHARDS} shards by the geolocation, e.g. <code>438721#5</code>. The writes of an hour
+ * spread over as many partitions instead of all going to one, readers query every shard of an hour.
+ * <p>
+ * Items and readers have to agree on the shards, changing their number needs the items written since the oldest
+ * watermark to be written again.
+ */
+public final class UpdatedHourKey {
+
+  public static final String ATTRIBUTE = "updatedHourShard";
+
+  public static final int SHARDS = 16;
+
+  private static final long HOUR_MILLIS = 3_600_000L;
+
+  private UpdatedHourKey() {
+  }
+
+  /**
+   * @param updatedAt the epoch millis of the write
+   */
+  public static String of(LocationId locationId, long updatedAt) {
+    return of(hourOf(updatedAt), Math.floorMod(locationId.toString().hashCode(), SHARDS));
+  }
+
+  public static String of(long hour, int shard) {
+    return hour + "#" + shard;
+  }
+
+  public static long hourOf(long epochMillis) {
+    return epochMillis / HOUR_MILLIS;
+  }
+}
@@ -1,11 +1,25 @@
 package com.surf.advisor.geolocation.command;
 
+import static org.springframework.http.HttpStatus.ACCEPTED;
+import static org.springframework.http.HttpStatus.OK;
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
+
+import com.surf.advisor.geolocation.api.exception.GeoCommandTechnicalException;
 import com.surf.advisor.geolocation.api.model.Geolocation;
+import com.surf.advisor.geolocation.api.model.GeolocationBatchResult;
+import com.surf.advisor.geolocation.api.model.ReindexStatus;
 import com.surf.advisor.geolocation.command.service.IGeolocationCommandService;
+import java.io.IOException;
+import java.util.List;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
@@ -15,6 +29,8 @@ import org.springframework.web.bind.annotation.RestController;
 @RequiredArgsConstructor
 public class CommandGeolocationController {
 
+  private static final int MAX_BATCH_PUT_SIZE = 1000;
+
   private final IGeolocationCommandService commandService;
 
   @PutMapping("/geolocations")
@@ -22,4 +38,34 @@ public class CommandGeolocationController {
     commandService.putGeolocation(request);
   }
 
+  /**
+   * Writes the geolocations in batches, not atomically: if some of them could not be written, even after retries,
+   * the others are stored nevertheless and the response is a 503 listing the failed ids.
+   */
+  @PutMapping("/geolocations/batch")
+  public ResponseEntity<GeolocationBatchResult> putGeolocations(
+    @Valid @NotNull @Size(max = MAX_BATCH_PUT_SIZE) @RequestBody List<@Valid @NotNull Geolocation> requests) {
+
+    var result = commandService.putGeolocations(requests);
+    return ResponseEntity.status(result.getFailed().isEmpty() ? OK : SERVICE_UNAVAILABLE).body(result);
+  }
+
+  /**
+   * Starts a reindex in the background, its progress is reported by the GET of the same path.
+   */
+  @PutMapping("/geolocations/reindex")
+  public ResponseEntity<ReindexStatus> reindexGeolocations() {
+    return ResponseEntity.status(ACCEPTED).body(commandService.reindexGeolocations());
+  }
+
+  @GetMapping("/geolocations/reindex")
+  public ReindexStatus getReindexStatus() {
+    return commandService.getReindexStatus();
+  }
+
+  @ExceptionHandler(GeoCommandTechnicalException.class)
+  public void onTechnicalFailure(GeoCommandTechnicalException e, HttpServletResponse response) throws IOException {
+    response.sendError(SERVICE_UNAVAILABLE.value(), e.getMessage());
+  }
+
 }
@@ -1,44 +1,264 @@
 package com.surf.advisor.geolocation.command.impl;
 
 import com.amazonaws.geo.Geo;
-import com.amazonaws.geo.GeoConfig;
+import com.amazonaws.geo.GeoIndexRouter;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
 import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
+import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import com.surf.advisor.geolocation.api.event.GeolocationChangedEvent;
+import com.surf.advisor.geolocation.api.exception.GeoCommandTechnicalException;
 import com.surf.advisor.geolocation.api.model.Geolocation;
+import com.surf.advisor.geolocation.api.model.GeolocationBatchResult;
+import com.surf.advisor.geolocation.api.model.LocationId;
+import com.surf.advisor.geolocation.api.model.ReindexStatus;
+import com.surf.advisor.geolocation.api.model.UpdatedHourKey;
 import com.surf.advisor.geolocation.command.service.IGeolocationCommandService;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.validation.annotation.Validated;
 
+@Slf4j
 @Service
 @Validated
 @RequiredArgsConstructor
 public class GeolocationCommandService implements IGeolocationCommandService {
 
+  private static final int BATCH_WRITE_LIMIT = 25;
+  private static final int MAX_BATCH_WRITE_ATTEMPTS = 8;
+  private static final long BASE_BACKOFF_MILLIS = 50L;
+  private static final long MAX_BACKOFF_MILLIS = 2000L;
+
   private final AmazonDynamoDB ddb;
-  private final GeoConfig geoConfig;
+  private final Geo geo;
+  private final GeoIndexRouter geoIndexRouter;
+  private final WriteExecutor writeExecutor;
+  private final ReindexJob reindexJob;
+  private final ApplicationEventPublisher eventPublisher;
 
   private final String tableName;
 
   @Override
   public void putGeolocation(Geolocation request) {
 
+    long updatedAt = System.currentTimeMillis();
+    var ddbRequest = new PutItemRequest(tableName, toItem(request, updatedAt))
+      .withReturnValues(ReturnValue.ALL_OLD);
+
+    ddbRequest = geo.putItemRequest(ddbRequest,
+      request.getLatitude(), request.getLongitude(), geoIndexRouter.getConfigs());
+
+    var previous = ddb.putItem(ddbRequest).getAttributes();
+
+    publish(GeolocationChangedEvent.of(geolocationOf(previous), request, updatedAt));
+  }
+
+  @Override
+  public GeolocationBatchResult putGeolocations(List<Geolocation> requests) {
+
+    // a batch must not contain the same key twice, the last write wins like with sequential puts
+    var unique = new LinkedHashMap<List<String>, Geolocation>();
+    requests.forEach(request -> unique.put(List.of(request.getObjectType(), request.getObjectId()), request));
+
+    var geolocations = new ArrayList<>(unique.values());
+    var latitudes = new double[geolocations.size()];
+    var longitudes = new double[geolocations.size()];
+    var items = new ArrayList<Map<String, AttributeValue>>(geolocations.size());
+    long updatedAt = System.currentTimeMillis();
+
+    for (int i = 0; i < geolocations.size(); i++) {
+      var geolocation = geolocations.get(i);
+      latitudes[i] = geolocation.getLatitude();
+      longitudes[i] = geolocation.getLongitude();
+      items.add(toItem(geolocation, updatedAt));
+    }
+
+    geo.updateAttributeValues(items, latitudes, longitudes, geoIndexRouter.getConfigs());
+
+    // a failed batch does not stop the others, its geolocations are reported instead
+    Set<LocationId> failed = ConcurrentHashMap.newKeySet();
+    var batches = new ArrayList<Runnable>();
+    for (int from = 0; from < items.size(); from += BATCH_WRITE_LIMIT) {
+      var batch = items.subList(from, Math.min(from + BATCH_WRITE_LIMIT, items.size()));
+      var writeRequests = new ArrayList<WriteRequest>(BATCH_WRITE_LIMIT);
+      batch.forEach(item -> writeRequests.add(new WriteRequest(new PutRequest(item))));
+      batches.add(() -> {
+        try {
+          batchWrite(Map.of(tableName, writeRequests))
+            .forEach(unprocessed -> failed.add(locationIdOf(unprocessed.getPutRequest().getItem())));
+        } catch (RuntimeException e) {
+          log.warn("Batch write of {} geolocations failed: {}", batch.size(), e.getMessage());
+          batch.forEach(item -> failed.add(locationIdOf(item)));
+        }
+      });
+    }
+    writeExecutor.runAll(batches);
+
+    // a batch write does not return the old items
+    geolocations.stream()
+      .filter(geolocation -> !failed.contains(LocationId.of(geolocation.getObjectType(), geolocation.getObjectId())))
+      .forEach(geolocation -> publish(GeolocationChangedEvent.withUnknownPrevious(geolocation, updatedAt)));
+
+    return new GeolocationBatchResult(geolocations.size() - failed.size(), new ArrayList<>(failed));
+  }
+
+  @Override
+  public ReindexStatus reindexGeolocations() {
+    return reindexJob.start(this::reindexAll);
+  }
+
+  @Override
+  public ReindexStatus getReindexStatus() {
+    return reindexJob.status();
+  }
+
+  private void reindexAll(ReindexJob.Progress progress) {
+
+    var scan = new ScanRequest(tableName)
+      .withProjectionExpression("objectType, objectId, latitude, longitude");
+
+    do {
+      if (Thread.currentThread().isInterrupted()) {
+        throw new IllegalStateException("reindex interrupted");
+      }
+      var result = ddb.scan(scan);
+      progress.scanned(result.getItems().size());
+      var updates = new ArrayList<Runnable>(result.getItems().size());
+      for (var item : result.getItems()) {
+        if (item.containsKey("latitude") && item.containsKey("longitude")) {
+          updates.add(() -> {
+            if (reindex(item)) {
+              progress.reindexed();
+            }
+          });
+        }
+      }
+      writeExecutor.runAll(updates);
+      scan.setExclusiveStartKey(result.getLastEvaluatedKey());
+    } while (scan.getExclusiveStartKey() != null);
+  }
+
+  /**
+   * Sets the geo columns of all indexes on a scanned item, unless it was moved in the meantime.
+   */
+  private boolean reindex(Map<String, AttributeValue> item) {
+    var latitude = item.get("latitude");
+    var longitude = item.get("longitude");
+
+    var geoAttributes = new HashMap<String, AttributeValue>();
+    geo.updateAttributeValues(geoAttributes, Double.parseDouble(latitude.getN()),
+      Double.parseDouble(longitude.getN()), geoIndexRouter.getConfigs());
+
+    var names = new HashMap<String, String>();
+    var values = new HashMap<String, AttributeValue>();
+    var assignments = new ArrayList<String>();
+    geoAttributes.forEach((column, value) -> {
+      var index = names.size();
+      names.put("#c" + index, column);
+      values.put(":v" + index, value);
+      assignments.add("#c" + index + " = :v" + index);
+    });
+    names.put("#latitude", "latitude");
+    names.put("#longitude", "longitude");
+    values.put(":latitude", latitude);
+    values.put(":longitude", longitude);
+
+    var update = new UpdateItemRequest()
+      .withTableName(tableName)
+      .withKey(Map.of("objectType", item.get("objectType"), "objectId", item.get("objectId")))
+      .withUpdateExpression("SET " + String.join(", ", assignments))
+      .withConditionExpression("#latitude = :latitude and #longitude = :longitude")
+      .withExpressionAttributeNames(names)
+      .withExpressionAttributeValues(values);
+
+    try {
+      ddb.updateItem(update);
+      return true;
+    } catch (ConditionalCheckFailedException e) {
+      // moved or deleted since the scan, a newer put has written all geo columns already
+      return false;
+    }
+  }
+
+  /**
+   * @return the write requests still unprocessed after the last attempt
+   */
+  private List<WriteRequest> batchWrite(Map<String, List<WriteRequest>> requestItems) {
+    var pending = requestItems;
+    for (int attempt = 1; ; attempt++) {
+      pending = ddb.batchWriteItem(new BatchWriteItemRequest(pending)).getUnprocessedItems();
+      if (pending == null || pending.isEmpty()) {
+        return List.of();
+      }
+      var unprocessed = pending.getOrDefault(tableName, List.of());
+      log.debug("{} unprocessed items after batch write attempt {}", unprocessed.size(), attempt);
+      if (attempt == MAX_BATCH_WRITE_ATTEMPTS) {
+        return unprocessed;
+      }
+      backoff(attempt);
+    }
+  }
+
+  private static void backoff(int attempt) {
+    var ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << (attempt - 1));
+    try {
+      // full jitter, so that throttled writers do not retry in lockstep
+      Thread.sleep((long) (Math.random() * ceiling));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new GeoCommandTechnicalException("interrupted while writing geolocations");
+    }
+  }
+
+  /**
+   * The caches of this node see its writes right away, also with the change feed, which discards its records of
+   * them or of older writes by their <code>updatedAt</code>
+   */
+  private void publish(GeolocationChangedEvent event) {
+    eventPublisher.publishEvent(event);
+  }
+
+  private static LocationId locationIdOf(Map<String, AttributeValue> item) {
+    return LocationId.of(item.get("objectType").getS(), item.get("objectId").getS());
+  }
+
+  private static Geolocation geolocationOf(Map<String, AttributeValue> item) {
+    if (item == null || item.isEmpty()) {
+      return null;
+    }
+    return new Geolocation(item.get("objectId").getS(), item.get("objectType").getS(),
+      Double.valueOf(item.get("latitude").getN()), Double.valueOf(item.get("longitude").getN()));
+  }
+
+  /**
+   * The item with its write time, and its write hour and shard as the hash key of the index that instances restored
+   * from a point index snapshot catch up from, see {@link UpdatedHourKey}.
+   */
+  private Map<String, AttributeValue> toItem(Geolocation request, long updatedAt) {
     var item = Map.of(
       "objectId", new AttributeValue(request.getObjectId()),
       "objectType", new AttributeValue(request.getObjectType()),
       "latitude", new AttributeValue().withN(request.getLatitude().toString()),
-      "longitude", new AttributeValue().withN(request.getLongitude().toString())
+      "longitude", new AttributeValue().withN(request.getLongitude().toString()),
+      "updatedAt", new AttributeValue().withN(Long.toString(updatedAt)),
+      UpdatedHourKey.ATTRIBUTE, new AttributeValue(UpdatedHourKey.of(
+        LocationId.of(request.getObjectType(), request.getObjectId()), updatedAt))
     );
-
-    var ddbRequest = new PutItemRequest(tableName, new HashMap<>(item));
-
-    ddbRequest = new Geo().putItemRequest(ddbRequest,
-      request.getLatitude(), request.getLongitude(), List.of(geoConfig));
-
-    ddb.putItem(ddbRequest);
+    return new HashMap<>(item);
   }
 }
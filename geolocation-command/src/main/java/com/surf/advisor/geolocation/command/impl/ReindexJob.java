@@ -0,0 +1,107 @@
+package com.surf.advisor.geolocation.command.impl;
+
+import static com.surf.advisor.geolocation.api.model.ReindexStatus.State.COMPLETED;
+import static com.surf.advisor.geolocation.api.model.ReindexStatus.State.FAILED;
+import static com.surf.advisor.geolocation.api.model.ReindexStatus.State.IDLE;
+import static com.surf.advisor.geolocation.api.model.ReindexStatus.State.RUNNING;
+
+import com.surf.advisor.geolocation.api.model.ReindexStatus;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs a reindex of the table in the background, one at a time, and keeps the progress of the last one. A full scan
+ * takes far longer than an HTTP request may, so the request only starts it.
+ */
+@Slf4j
+public class ReindexJob {
+
+  /**
+   * Counts the work of a running reindex.
+   */
+  public interface Progress {
+
+    void scanned(int items);
+
+    void reindexed();
+  }
+
+  private final ExecutorService executor;
+
+  private Run last;
+
+  /**
+   * @param executor runs the reindex, a single thread is enough
+   */
+  public ReindexJob(ExecutorService executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Starts the reindex unless one is running already.
+   *
+   * @return the status of the started or the running reindex
+   */
+  public synchronized ReindexStatus start(Consumer<Progress> reindex) {
+    if (last != null && last.state == RUNNING) {
+      return last.status();
+    }
+    var run = new Run();
+    executor.execute(() -> {
+      try {
+        reindex.accept(run);
+        run.finish(COMPLETED, null);
+        log.info("Reindex completed: {}", run.status());
+      } catch (RuntimeException e) {
+        run.finish(FAILED, e.toString());
+        log.error("Reindex failed: {}", run.status(), e);
+      }
+    });
+    last = run;
+    return run.status();
+  }
+
+  public synchronized ReindexStatus status() {
+    return last == null ? new ReindexStatus(IDLE, 0, 0, null, null, null) : last.status();
+  }
+
+  /**
+   * Interrupts a running reindex.
+   */
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  private static class Run implements Progress {
+
+    private final long startedAt = System.currentTimeMillis();
+    private final AtomicLong scanned = new AtomicLong();
+    private final AtomicLong reindexed = new AtomicLong();
+
+    private volatile ReindexStatus.State state = RUNNING;
+    private volatile Long finishedAt;
+    private volatile String error;
+
+    @Override
+    public void scanned(int items) {
+      scanned.addAndGet(items);
+    }
+
+    @Override
+    public void reindexed() {
+      reindexed.incrementAndGet();
+    }
+
+    void finish(ReindexStatus.State state, String error) {
+      this.error = error;
+      this.finishedAt = System.currentTimeMillis();
+      this.state = state;
+    }
+
+    ReindexStatus status() {
+      return new ReindexStatus(state, scanned.get(), reindexed.get(), startedAt, finishedAt, error);
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package com.surf.advisor.geolocation.command.impl;
+
+import static java.util.concurrent.CompletableFuture.runAsync;
+
+import com.surf.advisor.geolocation.api.exception.GeoCommandTechnicalException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs the DynamoDB writes of a command. With a thread per write, e.g. a virtual one, the writes in flight are bounded
+ * by permits shared across all commands rather than by a pool size. A direct executor needs no permits, its writes are
+ * bounded by the request threads already.
+ */
+public class WriteExecutor {
+
+  private final ExecutorService executor;
+  /**
+   * May be null
+   */
+  private final Semaphore permits;
+
+  /**
+   * @param executor            runs the writes, a direct executor writes one after the other on the calling thread
+   * @param maxConcurrentWrites the writes in flight across all commands, 0 for no bound
+   */
+  public WriteExecutor(ExecutorService executor, int maxConcurrentWrites) {
+    this.executor = executor;
+    this.permits = maxConcurrentWrites > 0 ? new Semaphore(maxConcurrentWrites, true) : null;
+  }
+
+  /**
+   * Runs all writes and waits for them. No more writes are started once one failed.
+   *
+   * @throws RuntimeException the failure of the first failed write
+   */
+  public void runAll(List<Runnable> writes) {
+    var futures = new ArrayList<CompletableFuture<Void>>(writes.size());
+
+    try {
+      for (var write : writes) {
+        if (futures.stream().anyMatch(CompletableFuture::isCompletedExceptionally)) {
+          break;
+        }
+        acquire();
+        try {
+          futures.add(runAsync(() -> {
+            try {
+              write.run();
+            } finally {
+              release();
+            }
+          }, executor));
+        } catch (RuntimeException e) {
+          // rejected by the executor
+          release();
+          throw e;
+        }
+      }
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+    } catch (InterruptedException e) {
+      futures.forEach(future -> future.cancel(true));
+      Thread.currentThread().interrupt();
+      throw new GeoCommandTechnicalException("interrupted while writing geolocations");
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  private void acquire() throws InterruptedException {
+    if (permits != null) {
+      permits.acquire();
+    }
+  }
+
+  private void release() {
+    if (permits != null) {
+      permits.release();
+    }
+  }
+}
@@ -1,9 +1,31 @@
 package com.surf.advisor.geolocation.command.service;
 
 import com.surf.advisor.geolocation.api.model.Geolocation;
+import com.surf.advisor.geolocation.api.model.GeolocationBatchResult;
+import com.surf.advisor.geolocation.api.model.ReindexStatus;
+import java.util.List;
 
 public interface IGeolocationCommandService {
 
   void putGeolocation(Geolocation request);
 
+  /**
+   * Writes the geolocations in batches, the last one of the same id wins. Not atomic, the geolocations of a batch
+   * that could not be written are reported as failed while the others stay written.
+   */
+  GeolocationBatchResult putGeolocations(List<Geolocation> requests);
+
+  /**
+   * Starts writing the geo columns of all indexes on every geolocation in the background, unless a reindex is
+   * running already.
+   *
+   * @return the status of the started or the running reindex
+   */
+  ReindexStatus reindexGeolocations();
+
+  /**
+   * @return the progress of the running or the last reindex
+   */
+  ReindexStatus getReindexStatus();
+
 }
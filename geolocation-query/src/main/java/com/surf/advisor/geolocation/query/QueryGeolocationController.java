@@ -2,32 +2,94 @@ package com.surf.advisor.geolocation.query;
 
 import com.surf.advisor.geolocation.api.model.GeoCluster;
 import com.surf.advisor.geolocation.api.model.Geolocation;
+import com.surf.advisor.geolocation.api.model.GeolocationCount;
+import com.surf.advisor.geolocation.api.model.LocationId;
+import com.surf.advisor.geolocation.api.model.NearestGeolocationRequest;
+import com.surf.advisor.geolocation.api.model.RadiusGeolocationRequest;
 import com.surf.advisor.geolocation.api.model.RectangleGeolocationRequest;
 import com.surf.advisor.geolocation.query.service.IGeolocationQueryService;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import javax.validation.Valid;
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @Validated
 @RestController
 @RequiredArgsConstructor
 public class QueryGeolocationController {
 
+  private static final String NDJSON = "application/x-ndjson";
+  private static final String TRUNCATED_HEADER = "X-Result-Truncated";
+  private static final int MAX_BATCH_LOOKUP_SIZE = 1000;
+
   private final IGeolocationQueryService queryService;
 
   @GetMapping("/geolocations")
-  public List<Geolocation> getGeolocations(
+  public CompletableFuture<ResponseEntity<List<Geolocation>>> getGeolocations(
+    @Valid @NotNull @RequestBody RectangleGeolocationRequest request) {
+
+    return queryService.getGeolocations(request).thenApply(result -> ResponseEntity.ok()
+      .header(TRUNCATED_HEADER, String.valueOf(result.isTruncated()))
+      .body(result.getGeolocations()));
+  }
+
+  @GetMapping("/geolocations/radius")
+  public CompletableFuture<ResponseEntity<List<Geolocation>>> getGeolocationsInRadius(
+    @Valid @NotNull @RequestBody RadiusGeolocationRequest request) {
+
+    return queryService.getGeolocationsInRadius(request).thenApply(result -> ResponseEntity.ok()
+      .header(TRUNCATED_HEADER, String.valueOf(result.isTruncated()))
+      .body(result.getGeolocations()));
+  }
+
+  @GetMapping("/geolocations/nearest")
+  public CompletableFuture<ResponseEntity<List<Geolocation>>> getNearestGeolocations(
+    @Valid @NotNull @RequestBody NearestGeolocationRequest request) {
+
+    return queryService.getNearestGeolocations(request).thenApply(result -> ResponseEntity.ok()
+      .header(TRUNCATED_HEADER, String.valueOf(result.isTruncated()))
+      .body(result.getGeolocations()));
+  }
+
+  @GetMapping(value = "/geolocations/stream", produces = NDJSON)
+  public ResponseEntity<StreamingResponseBody> streamGeolocations(
+    @Valid @NotNull @RequestBody RectangleGeolocationRequest request) {
+
+    return ResponseEntity.ok()
+      .contentType(MediaType.parseMediaType(NDJSON))
+      .body(out -> queryService.streamGeolocations(request, out));
+  }
+
+  @GetMapping("/geolocations/count")
+  public CompletableFuture<GeolocationCount> countGeolocations(
     @Valid @NotNull @RequestBody RectangleGeolocationRequest request) {
 
-    return queryService.getGeolocations(request);
+    return queryService.countGeolocations(request);
+  }
+
+  @GetMapping("/geolocations/metrics")
+  public Map<String, Object> getQueryMetrics() {
+    return queryService.getQueryMetrics();
+  }
+
+  @GetMapping("/geolocations/batch")
+  public CompletableFuture<List<Geolocation>> getGeolocationsById(
+    @Valid @NotNull @Size(max = MAX_BATCH_LOOKUP_SIZE) @RequestBody List<@Valid @NotNull LocationId> locationIds) {
+
+    return queryService.getGeolocationsById(locationIds);
   }
 
   @GetMapping("/geolocations/{objectType}/{objectId}")
@@ -37,7 +99,7 @@ public class QueryGeolocationController {
   }
 
   @GetMapping("/geolocations/clustered")
-  public Collection<GeoCluster> getGeoClusters(
+  public CompletableFuture<Collection<GeoCluster>> getGeoClusters(
     @Valid @NotNull @RequestBody RectangleGeolocationRequest request) {
 
     return queryService.getGeoClusters(request);
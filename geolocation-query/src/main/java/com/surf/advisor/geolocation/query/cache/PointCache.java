@@ -0,0 +1,107 @@
+package com.surf.advisor.geolocation.query.cache;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.surf.advisor.geolocation.api.event.GeolocationChangedEvent;
+import com.surf.advisor.geolocation.api.model.Geolocation;
+import com.surf.advisor.geolocation.api.model.LocationId;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.springframework.context.event.EventListener;
+
+/**
+ * A bounded read-through cache of single geolocations by id, evicting by W-TinyLFU, so that a few popular spots
+ * stay cached while one-off lookups pass through.
+ * <p>
+ * Ids that do not exist are cached as absent for a shorter time, if at all. Writes refresh their entry through
+ * {@link GeolocationChangedEvent}s, those of this node or, with the change feed, those of all nodes. Without the
+ * change feed writes of other nodes are seen once the entry expired.
+ */
+public class PointCache {
+
+  private final Cache<LocationId, Optional<Geolocation>> cache;
+
+  /**
+   * @param maximumSize the maximum number of cached ids, 0 disables the cache
+   * @param ttl         how long a geolocation stays cached after it was read or written
+   * @param negativeTtl how long an absent id stays cached, 0 does not cache absent ids
+   * @param ttlUnit     the unit of <code>ttl</code> and <code>negativeTtl</code>
+   */
+  public PointCache(long maximumSize, long ttl, long negativeTtl, TimeUnit ttlUnit) {
+    checkArgument(maximumSize >= 0 && ttl >= 0 && negativeTtl >= 0, "size and ttls must not be negative");
+    this.cache = maximumSize == 0 ? null : Caffeine.newBuilder()
+      .maximumSize(maximumSize)
+      .expireAfter(new PresenceExpiry(ttlUnit.toNanos(ttl), ttlUnit.toNanos(negativeTtl)))
+      .recordStats()
+      .build();
+  }
+
+  /**
+   * Returns the cached geolocation of the id, reading it with the loader on a miss. Concurrent misses of one id
+   * wait for a single read.
+   *
+   * @param loader reads the geolocation, empty if it does not exist
+   */
+  public Optional<Geolocation> get(LocationId locationId, Function<LocationId, Optional<Geolocation>> loader) {
+    return cache == null ? loader.apply(locationId) : cache.get(locationId, loader);
+  }
+
+  @EventListener
+  public void onGeolocationChanged(GeolocationChangedEvent event) {
+    if (cache != null) {
+      // a read of the id still in progress completes first and is overwritten
+      cache.put(event.getLocationId(), Optional.ofNullable(event.getCurrent()));
+    }
+  }
+
+  /**
+   * @return the estimated size, the hit rate and the hits, misses and evictions since start
+   */
+  public Map<String, Object> snapshot() {
+    var snapshot = new LinkedHashMap<String, Object>();
+    snapshot.put("enabled", cache != null);
+    if (cache != null) {
+      var stats = cache.stats();
+      snapshot.put("size", cache.estimatedSize());
+      snapshot.put("hitRate", stats.hitRate());
+      snapshot.put("hits", stats.hitCount());
+      snapshot.put("misses", stats.missCount());
+      snapshot.put("evictions", stats.evictionCount());
+    }
+    return snapshot;
+  }
+
+  private static final class PresenceExpiry implements Expiry<LocationId, Optional<Geolocation>> {
+
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+
+    private PresenceExpiry(long ttlNanos, long negativeTtlNanos) {
+      this.ttlNanos = ttlNanos;
+      this.negativeTtlNanos = negativeTtlNanos;
+    }
+
+    @Override
+    public long expireAfterCreate(LocationId key, Optional<Geolocation> value, long currentTime) {
+      return value.isPresent() ? ttlNanos : negativeTtlNanos;
+    }
+
+    @Override
+    public long expireAfterUpdate(LocationId key, Optional<Geolocation> value, long currentTime,
+                                  long currentDuration) {
+      return expireAfterCreate(key, value, currentTime);
+    }
+
+    @Override
+    public long expireAfterRead(LocationId key, Optional<Geolocation> value, long currentTime,
+                                long currentDuration) {
+      return currentDuration;
+    }
+  }
+}
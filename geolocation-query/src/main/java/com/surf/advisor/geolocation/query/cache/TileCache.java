@@ -0,0 +1,210 @@
+package com.surf.advisor.geolocation.query.cache;
+
+import static com.google.common.base.Optional.absent;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.surf.advisor.geolocation.query.util.ProjectionProfile.CLUSTER;
+
+import com.amazonaws.geo.Geo;
+import com.amazonaws.geo.GeoIndexRouter;
+import com.amazonaws.geo.model.GeoQueryRequest;
+import com.amazonaws.geo.model.filters.GeoFilters;
+import com.amazonaws.geo.s2.internal.GeoQueryClient;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.geometry.S2CellId;
+import com.google.common.geometry.S2CellUnion;
+import com.google.common.geometry.S2LatLng;
+import com.google.common.geometry.S2LatLngRect;
+import com.google.common.geometry.S2Projections;
+import com.google.common.geometry.S2RegionCoverer;
+import com.surf.advisor.geolocation.api.event.GeolocationChangedEvent;
+import com.surf.advisor.geolocation.api.model.Geolocation;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.springframework.context.event.EventListener;
+
+/**
+ * A read-through cache of the items of S2 cells, the tiles, that rectangle queries are assembled from.
+ * <p>
+ * A viewport is snapped onto the tiles of the level whose cells are about half its size, a handful of tiles, so
+ * viewports panned or zoomed slightly, by any user, share most of their tiles. Every tile is read with the exact
+ * ranges of its cell and cached with the attributes of the <code>CLUSTER</code> projection profile, which serves
+ * both geolocations and clusters. The assembled items are clipped to the viewport with the rectangle filter.
+ * <p>
+ * The cache is bounded by the estimated bytes of the cached items, see {@link #estimatedBytes(List)}. Writes
+ * invalidate the tiles of the written geolocation, and of its previous location when known, on all levels. Without
+ * the change feed these are the writes of this node only, other writes are seen once a tile expired.
+ */
+public class TileCache {
+
+  /**
+   * Viewports needing more tiles, i.e. larger than the coarsest tile level allows, are not served from the cache
+   */
+  private static final int MAX_TILES = 32;
+
+  /**
+   * Rough sizes of the objects of an item on a 64-bit JVM with compressed references and compact strings
+   */
+  private static final int MAP_BYTES = 64;
+  private static final int ENTRY_BYTES = 40;
+  private static final int STRING_BYTES = 40;
+  private static final int ATTRIBUTE_VALUE_BYTES = 56;
+
+  private final Geo geo;
+  private final GeoIndexRouter geoIndexRouter;
+  private final String tableName;
+  private final int minLevel;
+  private final int maxLevel;
+
+  private final AsyncLoadingCache<S2CellId, List<Map<String, AttributeValue>>> cache;
+
+  /**
+   * @param maximumBytes the maximum estimated bytes of the items of all cached tiles, 0 disables the cache
+   * @param ttl          how long a tile stays cached after it was read
+   * @param minLevel     the coarsest tile level
+   * @param maxLevel     the finest tile level
+   */
+  public TileCache(Geo geo, GeoIndexRouter geoIndexRouter, GeoQueryClient geoQueryClient, String tableName,
+                   long maximumBytes, long ttl, TimeUnit ttlUnit, int minLevel, int maxLevel) {
+    checkArgument(0 <= minLevel && minLevel <= maxLevel && maxLevel <= S2CellId.MAX_LEVEL,
+      "tile levels must satisfy 0 <= minLevel <= maxLevel <= 30");
+    checkArgument(maximumBytes >= 0, "maximumBytes must not be negative");
+    this.geo = geo;
+    this.geoIndexRouter = geoIndexRouter;
+    this.tableName = tableName;
+    this.minLevel = minLevel;
+    this.maxLevel = maxLevel;
+    this.cache = maximumBytes == 0 ? null : Caffeine.newBuilder()
+      .maximumWeight(maximumBytes)
+      .<S2CellId, List<Map<String, AttributeValue>>>weigher((tile, items) -> estimatedBytes(items))
+      .expireAfterWrite(ttl, ttlUnit)
+      .recordStats()
+      .buildAsync((tile, executor) -> geoQueryClient.executeAsync(tileQuery(tile)));
+  }
+
+  /**
+   * @return the items within the viewport, or empty if the viewport spans too many tiles to be served from the cache
+   */
+  public Optional<CompletableFuture<List<Map<String, AttributeValue>>>> query(
+    double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+
+    if (cache == null) {
+      return Optional.empty();
+    }
+    var viewport = new S2LatLngRect(S2LatLng.fromDegrees(minLatitude, minLongitude),
+      S2LatLng.fromDegrees(maxLatitude, maxLongitude));
+    var tiles = tilesOf(viewport);
+    if (tiles.isEmpty()) {
+      return Optional.empty();
+    }
+
+    var futures = new ArrayList<CompletableFuture<List<Map<String, AttributeValue>>>>(tiles.size());
+    tiles.forEach(tile -> futures.add(cache.get(tile)));
+
+    return Optional.of(CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(done -> {
+      var items = new ArrayList<Map<String, AttributeValue>>();
+      futures.forEach(future -> items.addAll(future.join()));
+      return GeoFilters.newRectangleFilter(viewport).filter(items);
+    }));
+  }
+
+  @EventListener
+  public void onGeolocationChanged(GeolocationChangedEvent event) {
+    if (cache == null) {
+      return;
+    }
+    if (event.getCurrent() != null) {
+      invalidate(event.getCurrent());
+    }
+    if (event.getPrevious() != null) {
+      invalidate(event.getPrevious());
+    }
+  }
+
+  /**
+   * @return the estimated number of tiles and their estimated bytes, the hit rate and the hits, misses, failed loads
+   * and evictions since start
+   */
+  public Map<String, Object> snapshot() {
+    var snapshot = new LinkedHashMap<String, Object>();
+    snapshot.put("enabled", cache != null);
+    if (cache == null) {
+      return snapshot;
+    }
+    var stats = cache.synchronous().stats();
+    snapshot.put("tiles", cache.synchronous().estimatedSize());
+    cache.synchronous().policy().eviction().ifPresent(eviction -> snapshot.put("bytes", eviction.weightedSize()
+      .orElse(0L)));
+    snapshot.put("hitRate", stats.hitRate());
+    snapshot.put("hits", stats.hitCount());
+    snapshot.put("misses", stats.missCount());
+    snapshot.put("loadFailures", stats.loadFailureCount());
+    snapshot.put("evictions", stats.evictionCount());
+    return snapshot;
+  }
+
+  /**
+   * @return the estimated heap size of the items of a tile, at least 1 so that empty tiles count as well
+   */
+  private static int estimatedBytes(List<Map<String, AttributeValue>> items) {
+    long bytes = 1;
+    for (var item : items) {
+      bytes += MAP_BYTES;
+      for (var attribute : item.entrySet()) {
+        bytes += ENTRY_BYTES + STRING_BYTES + attribute.getKey().length() + ATTRIBUTE_VALUE_BYTES;
+        var value = attribute.getValue();
+        var text = value.getS() != null ? value.getS() : value.getN();
+        if (text != null) {
+          bytes += STRING_BYTES + text.length();
+        }
+      }
+    }
+    return (int) Math.min(Integer.MAX_VALUE, bytes);
+  }
+
+  private void invalidate(Geolocation geolocation) {
+    var leaf = S2CellId.fromLatLng(S2LatLng.fromDegrees(geolocation.getLatitude(), geolocation.getLongitude()));
+    for (int level = minLevel; level <= maxLevel; level++) {
+      cache.synchronous().invalidate(leaf.parent(level));
+    }
+  }
+
+  /**
+   * @return the tiles covering the viewport, none if there would be more than {@link #MAX_TILES}
+   */
+  private List<S2CellId> tilesOf(S2LatLngRect viewport) {
+    var height = viewport.lat().getLength();
+    var width = viewport.lng().getLength() * Math.cos(viewport.getCenter().latRadians());
+    int level = S2Projections.AVG_EDGE.getClosestLevel(Math.max(height, width) / 2);
+    level = Math.max(minLevel, Math.min(maxLevel, level));
+
+    // estimated before covering, a viewport clamped to the coarsest level could need any number of tiles
+    var edge = S2Projections.AVG_EDGE.getValue(level);
+    if ((height / edge + 1) * (width / edge + 1) > MAX_TILES) {
+      return List.of();
+    }
+
+    var coverer = new S2RegionCoverer();
+    coverer.setMinLevel(level);
+    coverer.setMaxLevel(level);
+    coverer.setMaxCells(MAX_TILES);
+
+    // the denormalized covering, all cells on the tile level
+    var tiles = new ArrayList<S2CellId>();
+    coverer.getCovering(viewport, tiles);
+    return tiles.size() > MAX_TILES ? List.of() : tiles;
+  }
+
+  private GeoQueryRequest tileQuery(S2CellId tile) {
+    var cells = new S2CellUnion();
+    cells.initFromCellIds(new ArrayList<>(List.of(tile)));
+
+    return geo.cellQuery(CLUSTER.queryRequest(tableName), geoIndexRouter.plan(cells), absent());
+  }
+}
@@ -73,7 +73,7 @@ public abstract class ClusteringStrategy<G extends Geolocation> {
     avgLat /= points.size();
     avgLon /= points.size();
 
-    return new GeoCluster(ids, avgLat, avgLon);
+    return new GeoCluster(ids, avgLat, avgLon, ids.size());
   }
 
 }
@@ -0,0 +1,32 @@
+package com.surf.advisor.geolocation.query.feed;
+
+import com.surf.advisor.geolocation.api.event.GeolocationChangedEvent;
+import java.util.Map;
+
+/**
+ * The writes of all nodes, delivered to the node-local caches and indexes as {@link GeolocationChangedEvent}s:
+ * inserts, moves and removals, those of one geolocation in the order they were written. Every delivered change is
+ * checkpointed in memory, a feed stopped and started again continues after its checkpoints. The checkpoints do not
+ * survive a restart of the node, the feed of a new node starts with the changes from then on.
+ * <p>
+ * The writing node publishes its own writes right away as well, the feed delivers them again later; consumers see
+ * the changes through a {@link StaleChangeFilter}, which discards those delivered before the node's own write.
+ */
+public interface ChangeFeed {
+
+  /**
+   * Starts delivering changes, after the checkpoints of an earlier start if there are any, the ones from now on
+   * otherwise
+   */
+  void start();
+
+  /**
+   * Stops delivering changes, the checkpoints are kept until the node stops
+   */
+  void stop();
+
+  /**
+   * @return the delivered changes, the lag behind the writes and the checkpoints
+   */
+  Map<String, Object> snapshot();
+}
@@ -0,0 +1,276 @@
+package com.surf.advisor.geolocation.query.feed;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBStreams;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.DescribeStreamRequest;
+import com.amazonaws.services.dynamodbv2.model.ExpiredIteratorException;
+import com.amazonaws.services.dynamodbv2.model.GetRecordsRequest;
+import com.amazonaws.services.dynamodbv2.model.GetShardIteratorRequest;
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.Shard;
+import com.amazonaws.services.dynamodbv2.model.ShardIteratorType;
+import com.amazonaws.services.dynamodbv2.model.StreamViewType;
+import com.amazonaws.services.dynamodbv2.model.TrimmedDataAccessException;
+import com.surf.advisor.geolocation.api.event.GeolocationChangedEvent;
+import com.surf.advisor.geolocation.api.model.Geolocation;
+import com.surf.advisor.geolocation.query.util.GeolocationMappingUtils;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The change feed of the table's DynamoDB stream, which has to be enabled with new and old images.
+ * <p>
+ * One thread polls all shards of the stream. A shard is read only once its parent shard is read to its end, so the
+ * changes of every item are delivered in the order they were written, also across shard splits. The sequence number
+ * of the last delivered record of every shard is its checkpoint: an expired shard iterator, or the feed after a stop,
+ * continues right after it. The checkpoints are held in memory only, a restarted node starts over from the latest
+ * records, its node-local consumers are empty then and load their state themselves. Shards found at the first start
+ * are read from their latest records, shards opened later from their first one.
+ * <p>
+ * Modifications that do not change the geolocation, e.g. by a reindex, are not delivered.
+ */
+@Slf4j
+public class DynamoDbStreamsChangeFeed implements ChangeFeed {
+
+  private static final int GET_RECORDS_LIMIT = 1000;
+
+  /**
+   * Batches read from a shard in one poll before the next shard gets its turn
+   */
+  private static final int MAX_BATCHES_PER_POLL = 10;
+
+  private final AmazonDynamoDB ddb;
+  private final AmazonDynamoDBStreams streams;
+  private final String tableName;
+  private final Consumer<GeolocationChangedEvent> consumer;
+  private final long pollMillis;
+
+  /**
+   * The shards of the stream and the closed shards read to their end, both touched by the polling thread only
+   */
+  private final Map<String, ShardState> shards = new LinkedHashMap<>();
+  private final Set<String> finishedShards = new HashSet<>();
+
+  private final Map<String, String> checkpoints = new ConcurrentHashMap<>();
+  private final AtomicLong delivered = new AtomicLong();
+  private volatile long lastChangeMillis;
+  private volatile String streamArn;
+  private ScheduledExecutorService poller;
+  private boolean discovered;
+
+  /**
+   * @param consumer   receives the changes on the polling thread, one after the other
+   * @param pollMillis the delay between two polls of all shards
+   */
+  public DynamoDbStreamsChangeFeed(AmazonDynamoDB ddb, AmazonDynamoDBStreams streams, String tableName,
+                                   Consumer<GeolocationChangedEvent> consumer, long pollMillis) {
+    this.ddb = ddb;
+    this.streams = streams;
+    this.tableName = tableName;
+    this.consumer = consumer;
+    this.pollMillis = pollMillis;
+  }
+
+  @Override
+  public synchronized void start() {
+    if (poller != null) {
+      return;
+    }
+    streamArn = ddb.describeTable(tableName).getTable().getLatestStreamArn();
+    if (streamArn == null) {
+      throw new IllegalStateException("no stream enabled on table " + tableName);
+    }
+    poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      var thread = new Thread(runnable, "change-feed");
+      thread.setDaemon(true);
+      return thread;
+    });
+    poller.scheduleWithFixedDelay(this::poll, 0, pollMillis, MILLISECONDS);
+    log.info("Change feed started on {}", streamArn);
+  }
+
+  @Override
+  public synchronized void stop() {
+    if (poller != null) {
+      poller.shutdownNow();
+      poller = null;
+    }
+  }
+
+  @Override
+  public Map<String, Object> snapshot() {
+    var snapshot = new LinkedHashMap<String, Object>();
+    snapshot.put("streamArn", streamArn);
+    snapshot.put("delivered", delivered.get());
+    snapshot.put("lagMillis", lastChangeMillis == 0 ? null : System.currentTimeMillis() - lastChangeMillis);
+    snapshot.put("checkpoints", Map.copyOf(checkpoints));
+    return snapshot;
+  }
+
+  private void poll() {
+    try {
+      discoverShards();
+      for (var shard : shards.values()) {
+        if (!finishedShards.contains(shard.shardId) && isReadable(shard)) {
+          readShard(shard);
+        }
+      }
+      // a finished shard stays known as finished, its children may not be listed yet
+      shards.keySet().removeIf(finishedShards::contains);
+    } catch (RuntimeException e) {
+      // a task that throws is not scheduled again
+      log.warn("Change feed poll failed: {}", e.getMessage());
+    }
+  }
+
+  private void discoverShards() {
+    var request = new DescribeStreamRequest().withStreamArn(streamArn);
+    String lastShardId;
+    do {
+      var description = streams.describeStream(request).getStreamDescription();
+      if (!StreamViewType.NEW_AND_OLD_IMAGES.toString().equals(description.getStreamViewType())) {
+        throw new IllegalStateException("the stream has to hold new and old images, not "
+          + description.getStreamViewType());
+      }
+      for (Shard shard : description.getShards()) {
+        if (!finishedShards.contains(shard.getShardId())) {
+          shards.computeIfAbsent(shard.getShardId(), id -> new ShardState(shard, !discovered));
+        }
+      }
+      lastShardId = description.getLastEvaluatedShardId();
+      request.setExclusiveStartShardId(lastShardId);
+    } while (lastShardId != null);
+    discovered = true;
+  }
+
+  /**
+   * @return whether the parent shard is read to its end or not in the stream anymore
+   */
+  private boolean isReadable(ShardState shard) {
+    return shard.parentShardId == null || finishedShards.contains(shard.parentShardId)
+      || !shards.containsKey(shard.parentShardId);
+  }
+
+  private void readShard(ShardState shard) {
+    try {
+      if (shard.iterator == null) {
+        shard.iterator = iteratorOf(shard);
+      }
+      for (int batch = 0; batch < MAX_BATCHES_PER_POLL && shard.iterator != null; batch++) {
+        var result = streams.getRecords(new GetRecordsRequest()
+          .withShardIterator(shard.iterator)
+          .withLimit(GET_RECORDS_LIMIT));
+
+        for (var record : result.getRecords()) {
+          deliver(record);
+          checkpoints.put(shard.shardId, record.getDynamodb().getSequenceNumber());
+        }
+        shard.iterator = result.getNextShardIterator();
+        if (result.getRecords().isEmpty()) {
+          break;
+        }
+      }
+      if (shard.iterator == null) {
+        // a closed shard read to its end, its children are next
+        finishedShards.add(shard.shardId);
+        checkpoints.remove(shard.shardId);
+      }
+    } catch (ExpiredIteratorException e) {
+      log.debug("Shard iterator of {} expired, continuing after the checkpoint", shard.shardId);
+      shard.iterator = null;
+    } catch (TrimmedDataAccessException e) {
+      log.warn("Changes of shard {} after its checkpoint were trimmed, caches may be stale until they expire",
+        shard.shardId);
+      checkpoints.remove(shard.shardId);
+      shard.latest = false;
+      shard.iterator = null;
+    }
+  }
+
+  private String iteratorOf(ShardState shard) {
+    var request = new GetShardIteratorRequest().withStreamArn(streamArn).withShardId(shard.shardId);
+    var checkpoint = checkpoints.get(shard.shardId);
+    if (checkpoint != null) {
+      request.withShardIteratorType(ShardIteratorType.AFTER_SEQUENCE_NUMBER).withSequenceNumber(checkpoint);
+    } else {
+      request.withShardIteratorType(shard.latest ? ShardIteratorType.LATEST : ShardIteratorType.TRIM_HORIZON);
+    }
+    return streams.getShardIterator(request).getShardIterator();
+  }
+
+  private void deliver(Record record) {
+    var change = record.getDynamodb();
+    var previous = geolocationOf(change.getOldImage());
+    var current = geolocationOf(change.getNewImage());
+    long updatedAt = updatedAtOf(change.getNewImage());
+
+    GeolocationChangedEvent event;
+    switch (OperationType.fromValue(record.getEventName())) {
+      case INSERT:
+        event = GeolocationChangedEvent.of(null, current, updatedAt);
+        break;
+      case MODIFY:
+        if (isSameGeolocation(previous, current)) {
+          return;
+        }
+        event = GeolocationChangedEvent.of(previous, current, updatedAt);
+        break;
+      case REMOVE:
+        event = GeolocationChangedEvent.removed(previous);
+        break;
+      default:
+        return;
+    }
+
+    consumer.accept(event);
+    delivered.incrementAndGet();
+    if (change.getApproximateCreationDateTime() != null) {
+      lastChangeMillis = change.getApproximateCreationDateTime().getTime();
+    }
+  }
+
+  private static boolean isSameGeolocation(Geolocation previous, Geolocation current) {
+    return previous != null && Objects.equals(previous.getLatitude(), current.getLatitude())
+      && Objects.equals(previous.getLongitude(), current.getLongitude());
+  }
+
+  private static long updatedAtOf(Map<String, AttributeValue> image) {
+    var updatedAt = image == null ? null : image.get("updatedAt");
+    return updatedAt == null || updatedAt.getN() == null ? 0L : Long.parseLong(updatedAt.getN());
+  }
+
+  private static Geolocation geolocationOf(Map<String, AttributeValue> image) {
+    return image == null || image.isEmpty() ? null : GeolocationMappingUtils.geolocationOf(image);
+  }
+
+  private static final class ShardState {
+
+    private final String shardId;
+    private final String parentShardId;
+
+    /**
+     * Whether the shard is read from its latest records, as it was open before the first start
+     */
+    private boolean latest;
+    private String iterator;
+
+    private ShardState(Shard shard, boolean latest) {
+      this.shardId = shard.getShardId();
+      this.parentShardId = shard.getParentShardId();
+      this.latest = latest;
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package com.surf.advisor.geolocation.query.feed;
+
+import com.surf.advisor.geolocation.api.event.GeolocationChangedEvent;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A change feed of the changes appended to it, in the order they were appended, e.g. to drive the consumers of the
+ * feed in tests. Changes are delivered on the appending thread while the feed is started, changes appended while it
+ * is stopped are delivered by the next start.
+ */
+public class InMemoryChangeFeed implements ChangeFeed {
+
+  private final Consumer<GeolocationChangedEvent> consumer;
+
+  private final List<GeolocationChangedEvent> changes = new ArrayList<>();
+
+  /**
+   * The number of changes delivered, the position of the next one to deliver
+   */
+  private int checkpoint;
+  private boolean started;
+
+  public InMemoryChangeFeed(Consumer<GeolocationChangedEvent> consumer) {
+    this.consumer = consumer;
+  }
+
+  /**
+   * @return the sequence number of the change
+   */
+  public synchronized long append(GeolocationChangedEvent change) {
+    changes.add(change);
+    deliver();
+    return changes.size() - 1;
+  }
+
+  @Override
+  public synchronized void start() {
+    started = true;
+    deliver();
+  }
+
+  @Override
+  public synchronized void stop() {
+    started = false;
+  }
+
+  @Override
+  public synchronized Map<String, Object> snapshot() {
+    var snapshot = new LinkedHashMap<String, Object>();
+    snapshot.put("started", started);
+    snapshot.put("delivered", checkpoint);
+    snapshot.put("pending", changes.size() - checkpoint);
+    return snapshot;
+  }
+
+  private void deliver() {
+    while (started && checkpoint < changes.size()) {
+      // checkpointed after the consumer saw the change, a failing change is delivered again
+      consumer.accept(changes.get(checkpoint));
+      checkpoint++;
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package com.surf.advisor.geolocation.query.feed;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.surf.advisor.geolocation.api.event.GeolocationChangedEvent;
+import com.surf.advisor.geolocation.api.model.LocationId;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+
+/**
+ * Passes the changes of a {@link ChangeFeed} on to the consumers, except those of a geolocation delivered before the
+ * record of a write this node published itself. The writing node publishes its writes right away, the feed delivers
+ * the writes before them seconds later, which would move the geolocation back for a while.
+ * <p>
+ * The feed delivers the changes of a geolocation in the order they were written, so every record before the one of
+ * the node's own write is older than that write and every record after it is newer. The record is told by the exact
+ * <code>updatedAt</code> the node published; the timestamps are never compared, writers' clocks may be skewed.
+ * <p>
+ * A write is waited for {@value #RETENTION_MINUTES} minutes at most, far longer than the feed lags behind, in case
+ * its record is never seen, e.g. when the feed was restarted behind it. A record delivered before the node published
+ * its write, the feed being faster than the publishing, is remembered so that the write is not waited for.
+ */
+@Slf4j
+public class StaleChangeFilter implements Consumer<GeolocationChangedEvent> {
+
+  private static final long RETENTION_MINUTES = 10;
+  private static final long MAXIMUM_SIZE = 100_000;
+
+  private final Consumer<GeolocationChangedEvent> consumer;
+
+  /**
+   * The <code>updatedAt</code> of the latest write published by this node whose record was not delivered yet
+   */
+  private final Cache<LocationId, Long> pendingWrites = newCache();
+
+  /**
+   * The <code>updatedAt</code> of the latest record delivered by the feed
+   */
+  private final Cache<LocationId, Long> deliveredWrites = newCache();
+
+  /**
+   * The change being passed on, which the consumers may publish to {@link #onGeolocationChanged} again
+   */
+  private final ThreadLocal<GeolocationChangedEvent> forwarding = new ThreadLocal<>();
+
+  /**
+   * @param consumer receives the changes that are not stale
+   */
+  public StaleChangeFilter(Consumer<GeolocationChangedEvent> consumer) {
+    this.consumer = consumer;
+  }
+
+  /**
+   * Passes a change of the feed on unless a write of this node to its geolocation is still to be delivered
+   */
+  @Override
+  public void accept(GeolocationChangedEvent change) {
+    var locationId = change.getLocationId();
+    if (change.getUpdatedAt() > 0) {
+      deliveredWrites.put(locationId, change.getUpdatedAt());
+    }
+    var pendingWrite = pendingWrites.getIfPresent(locationId);
+    if (pendingWrite != null) {
+      if (change.getUpdatedAt() != pendingWrite) {
+        log.debug("Discarding change of {} at {}, written before the write at {}", locationId, change.getUpdatedAt(),
+          pendingWrite);
+        return;
+      }
+      pendingWrites.asMap().remove(locationId, pendingWrite);
+    }
+    forwarding.set(change);
+    try {
+      consumer.accept(change);
+    } finally {
+      forwarding.remove();
+    }
+  }
+
+  /**
+   * Records the writes published by this node itself
+   */
+  @EventListener
+  public void onGeolocationChanged(GeolocationChangedEvent change) {
+    if (change == forwarding.get() || change.getUpdatedAt() <= 0) {
+      return;
+    }
+    var locationId = change.getLocationId();
+    if (!Long.valueOf(change.getUpdatedAt()).equals(deliveredWrites.getIfPresent(locationId))) {
+      pendingWrites.put(locationId, change.getUpdatedAt());
+    }
+  }
+
+  private static Cache<LocationId, Long> newCache() {
+    return Caffeine.newBuilder()
+      .expireAfterWrite(RETENTION_MINUTES, TimeUnit.MINUTES)
+      .maximumSize(MAXIMUM_SIZE)
+      .build();
+  }
+}
@@ -0,0 +1,88 @@
+package com.surf.advisor.geolocation.query.impl;
+
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Looks up items by their primary key with <code>BatchGetItem</code>, in chunks of at most 100 keys, the most one
+ * request may hold, which are run in parallel. Unprocessed keys are retried with exponential backoff.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class BatchLookup {
+
+  private static final int BATCH_GET_LIMIT = 100;
+  private static final int MAX_BATCH_GET_ATTEMPTS = 8;
+  private static final long BASE_BACKOFF_MILLIS = 50L;
+  private static final long MAX_BACKOFF_MILLIS = 2000L;
+
+  private final AmazonDynamoDB ddb;
+  private final Executor executor;
+
+  /**
+   * @param tableName  the table to read
+   * @param projection the projection of every chunk, without keys
+   * @param keys       the keys to look up, without duplicates
+   * @return the items found, in no particular order
+   */
+  public CompletableFuture<List<Map<String, AttributeValue>>> getAll(String tableName, KeysAndAttributes projection,
+                                                                    List<Map<String, AttributeValue>> keys) {
+    var chunks = new ArrayList<CompletableFuture<List<Map<String, AttributeValue>>>>();
+    for (int from = 0; from < keys.size(); from += BATCH_GET_LIMIT) {
+      var chunk = keys.subList(from, Math.min(from + BATCH_GET_LIMIT, keys.size()));
+      var keysAndAttributes = projection.clone().withKeys(chunk);
+      chunks.add(supplyAsync(() -> batchGet(tableName, keysAndAttributes), executor));
+    }
+
+    return CompletableFuture.allOf(chunks.toArray(new CompletableFuture[0])).thenApply(done -> {
+      var items = new ArrayList<Map<String, AttributeValue>>(keys.size());
+      chunks.forEach(chunk -> items.addAll(chunk.join()));
+      return items;
+    });
+  }
+
+  private List<Map<String, AttributeValue>> batchGet(String tableName, KeysAndAttributes keysAndAttributes) {
+    var items = new ArrayList<Map<String, AttributeValue>>(keysAndAttributes.getKeys().size());
+    var pending = Map.of(tableName, keysAndAttributes);
+    for (int attempt = 1; attempt <= MAX_BATCH_GET_ATTEMPTS; attempt++) {
+      var result = ddb.batchGetItem(new BatchGetItemRequest(pending));
+      items.addAll(result.getResponses().getOrDefault(tableName, List.of()));
+
+      pending = result.getUnprocessedKeys();
+      if (pending == null || pending.isEmpty()) {
+        return items;
+      }
+      log.debug("{} unprocessed keys after batch get attempt {}",
+        pending.get(tableName).getKeys().size(), attempt);
+      // no point in waiting after the last attempt
+      if (attempt < MAX_BATCH_GET_ATTEMPTS) {
+        backoff(attempt);
+      }
+    }
+    throw new ResponseStatusException(SERVICE_UNAVAILABLE, "geolocations could not be read, retry later");
+  }
+
+  private static void backoff(int attempt) {
+    var ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << (attempt - 1));
+    try {
+      // full jitter, so that throttled readers do not retry in lockstep
+      Thread.sleep((long) (Math.random() * ceiling));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ResponseStatusException(SERVICE_UNAVAILABLE, "interrupted while reading geolocations");
+    }
+  }
+}
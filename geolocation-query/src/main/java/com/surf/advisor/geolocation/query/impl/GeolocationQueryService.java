@@ -2,37 +2,75 @@ package com.surf.advisor.geolocation.query.impl;
 
 import static com.google.common.base.Optional.absent;
 import static com.surf.advisor.geolocation.query.clustering.ClusteringStrategy.getAvgRectangleQuerySize;
+import static com.surf.advisor.geolocation.query.util.ProjectionProfile.CLUSTER;
+import static com.surf.advisor.geolocation.query.util.ProjectionProfile.COUNT;
+import static com.surf.advisor.geolocation.query.util.ProjectionProfile.GEOLOCATION;
 import static com.surf.advisor.geolocation.query.util.RectangleQueryUtils.adjustRectangleQuery;
 import static java.lang.Thread.currentThread;
 import static java.util.Collections.emptyList;
 import static java.util.Optional.of;
+import static java.util.function.Function.identity;
 import static java.util.Optional.ofNullable;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.failedFuture;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+import static org.springframework.http.HttpStatus.GATEWAY_TIMEOUT;
+import static org.springframework.http.HttpStatus.INTERNAL_SERVER_ERROR;
 import static org.springframework.http.HttpStatus.NOT_FOUND;
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
 
 import com.amazonaws.geo.Geo;
-import com.amazonaws.geo.GeoConfig;
+import com.amazonaws.geo.GeoIndexRouter;
+import com.amazonaws.geo.model.GeoQueryRequest;
+import com.amazonaws.geo.model.GeoQueryResult;
 import com.amazonaws.geo.s2.internal.GeoQueryClient;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.QueryRequest;
 import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.surf.advisor.geolocation.api.exception.GeoQueryTechnicalException;
 import com.surf.advisor.geolocation.api.model.GeoCluster;
 import com.surf.advisor.geolocation.api.model.Geolocation;
+import com.surf.advisor.geolocation.api.model.GeolocationCount;
+import com.surf.advisor.geolocation.api.model.GeolocationResult;
 import com.surf.advisor.geolocation.api.model.HashGeolocation;
+import com.surf.advisor.geolocation.api.model.LocationId;
+import com.surf.advisor.geolocation.api.model.NearestGeolocationRequest;
+import com.surf.advisor.geolocation.api.model.RadiusGeolocationRequest;
 import com.surf.advisor.geolocation.api.model.RectangleGeolocationRequest;
+import com.surf.advisor.geolocation.query.cache.PointCache;
+import com.surf.advisor.geolocation.query.cache.TileCache;
 import com.surf.advisor.geolocation.query.clustering.ClusteringStrategy;
 import com.surf.advisor.geolocation.query.clustering.DBSCANClusteringStrategy;
 import com.surf.advisor.geolocation.query.clustering.GeohashClusteringStrategy;
 import com.surf.advisor.geolocation.query.clustering.KMeansClusteringStrategy;
+import com.surf.advisor.geolocation.query.feed.ChangeFeed;
+import com.surf.advisor.geolocation.query.index.ClusterPyramid;
+import com.surf.advisor.geolocation.query.index.PointIndex;
 import com.surf.advisor.geolocation.query.service.IGeolocationQueryService;
 import com.surf.advisor.geolocation.query.util.GeolocationMappingUtils;
+import com.surf.advisor.geolocation.query.util.NearestNeighbourSearch;
+import com.surf.advisor.geolocation.query.util.ProjectionProfile;
+import com.surf.advisor.geolocation.query.util.RadiusQueryUtils;
 import com.surf.advisor.geolocation.query.util.RectangleQueryUtils;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
@@ -47,46 +85,212 @@ public class GeolocationQueryService implements IGeolocationQueryService {
 
   private static final double SWITCH_CLUSTERING_QUERY_SIZE_THRESHOLD = 5.0;
   private static final int SWITCH_CLUSTERING_POINTS_COUNT_THRESHOLD = 10;
+  private static final int STREAM_MAX_PAGES_IN_FLIGHT = 4;
+  /**
+   * Cells of about 10 km, the spacing of surf spots along a coast
+   */
+  private static final int NEAREST_CELL_LEVEL = 10;
+  private static final int NEAREST_MAX_RINGS = 32;
+  private static final byte[] NEWLINE = {'\n'};
 
   private final AmazonDynamoDB dbClient;
   private final GeoQueryClient geoQueryClient;
-  private final GeoConfig geoConfig;
+  private final Geo geo;
+  private final GeoIndexRouter geoIndexRouter;
+  private final ObjectMapper objectMapper;
+  private final BatchLookup batchLookup;
+  private final PointCache pointCache;
+  private final TileCache tileCache;
+  private final PointIndex pointIndex;
+  private final ClusterPyramid clusterPyramid;
+  private final Optional<ChangeFeed> changeFeed;
 
   private final String tableName;
 
   @Override
   public Geolocation getGeolocation(String objectType, String objectId) {
 
+    return pointCache.get(LocationId.of(objectType, objectId), this::readGeolocation)
+      .orElseThrow(() -> new ResponseStatusException(NOT_FOUND, "no such geolocation"));
+  }
+
+  private Optional<Geolocation> readGeolocation(LocationId locationId) {
+
     var request = new QueryRequest()
       .withTableName(tableName)
       .withKeyConditionExpression("#objectType = :type and #objectId = :id")
       .withExpressionAttributeNames(Map.of("#objectType", "objectType", "#objectId", "objectId"))
       .withExpressionAttributeValues(Map.of(
-        ":type", new AttributeValue(objectType),
-        ":id", new AttributeValue(objectId))
+        ":type", new AttributeValue(locationId.getObjectType()),
+        ":id", new AttributeValue(locationId.getObjectId()))
       );
 
     return of(request).map(dbClient::query).map(QueryResult::getItems)
       .map(items -> !items.isEmpty() ? items.get(0) : null)
-      .map(GeolocationMappingUtils::geolocationOf)
-      .orElseThrow(() -> new ResponseStatusException(NOT_FOUND, "no such geolocation"));
+      .map(GeolocationMappingUtils::geolocationOf);
   }
 
   @Override
-  public List<Geolocation> getGeolocations(RectangleGeolocationRequest request) {
-    return performRectangleQuery(request).stream()
-      .map(GeolocationMappingUtils::geolocationOf).collect(toList());
+  public CompletableFuture<List<Geolocation>> getGeolocationsById(List<LocationId> locationIds) {
+
+    // a batch get must not hold the same key twice
+    var keys = locationIds.stream().distinct()
+      .map(locationId -> Map.of(
+        "objectType", new AttributeValue(locationId.getObjectType()),
+        "objectId", new AttributeValue(locationId.getObjectId())))
+      .collect(toList());
+
+    return batchLookup.getAll(tableName, GEOLOCATION.keysAndAttributes(), keys).handle((items, failure) -> {
+      if (failure != null) {
+        throw queryFailure("batch lookup", failure);
+      }
+      var found = items.stream().map(GeolocationMappingUtils::geolocationOf)
+        .collect(toMap(geolocation -> LocationId.of(geolocation.getObjectType(), geolocation.getObjectId()),
+          identity()));
+
+      return locationIds.stream().map(found::get).filter(Objects::nonNull).collect(toList());
+    });
   }
 
   @Override
-  public Collection<GeoCluster> getGeoClusters(RectangleGeolocationRequest request) {
+  public CompletableFuture<GeolocationResult> getGeolocations(RectangleGeolocationRequest request) {
 
-    var points = performRectangleQuery(request).stream()
-      .map(GeolocationMappingUtils::hashGeolocationOf).collect(toList());
+    if (request.getLimit() != null || request.getMaxItemsScanned() != null) {
+      return performLimitedRectangleQuery(request).thenApply(result -> new GeolocationResult(
+        result.getItems().stream().map(GeolocationMappingUtils::geolocationOf).collect(toList()),
+        result.isTruncated()));
+    }
+
+    return performRectangleQuery(request, GEOLOCATION).thenApply(items -> new GeolocationResult(items.stream()
+      .map(GeolocationMappingUtils::geolocationOf).collect(toList()), false));
+  }
+
+  @Override
+  public CompletableFuture<Collection<GeoCluster>> getGeoClusters(RectangleGeolocationRequest request) {
+
+    if (!RectangleQueryUtils.emptyRectangleQuery(request)) {
+      adjustRectangleQuery(request);
+      var clusters = clusterPyramid.clusters(request.getMinLatitude(), request.getMinLongitude(),
+        request.getMaxLatitude(), request.getMaxLongitude());
+      if (clusters.isPresent()) {
+        return completedFuture(clusters.get());
+      }
+    }
 
-    var strategy = resolveClusteringStrategy(request, points);
+    return performRectangleQuery(request, CLUSTER).thenApply(items -> {
 
-    return strategy.cluster(points);
+      var points = items.stream()
+        .map(GeolocationMappingUtils::hashGeolocationOf).collect(toList());
+
+      var strategy = resolveClusteringStrategy(request, points);
+
+      return strategy.cluster(points);
+    });
+  }
+
+  @Override
+  public CompletableFuture<GeolocationResult> getGeolocationsInRadius(RadiusGeolocationRequest request) {
+
+    int limit = ofNullable(request.getLimit()).orElse(Integer.MAX_VALUE);
+    long maxItemsScanned = ofNullable(request.getMaxItemsScanned()).map(Integer::longValue).orElse(Long.MAX_VALUE);
+
+    // the nearest ones need all geolocations of the radius, only the heap is bounded by the limit
+    int fetchLimit = request.isSortByDistance() ? Integer.MAX_VALUE : limit;
+
+    var query = pointIndex.isReady()
+      ? completedFuture(pointIndex.radiusQuery(request.getLatitude(), request.getLongitude(), request.getRadius(),
+        request.getObjectType(), fetchLimit))
+      : geoQueryClient.executeAsync(radiusGeoQueryRequest(request), fetchLimit, maxItemsScanned);
+
+    return query.handle((result, failure) -> {
+      if (failure != null) {
+        throw queryFailure("radius query", failure);
+      }
+      var items = request.isSortByDistance()
+        ? RadiusQueryUtils.nearest(result.getItems(), request.getLatitude(), request.getLongitude(), limit)
+        : result.getItems();
+
+      return new GeolocationResult(items.stream().map(GeolocationMappingUtils::geolocationOf).collect(toList()),
+        result.isTruncated() || items.size() < result.getItems().size());
+    });
+  }
+
+  @Override
+  public CompletableFuture<GeolocationResult> getNearestGeolocations(NearestGeolocationRequest request) {
+
+    var search = new NearestNeighbourSearch(request.getLatitude(), request.getLongitude(), request.getK(),
+      ofNullable(request.getMaxRadius()).orElse(Double.MAX_VALUE), NEAREST_CELL_LEVEL);
+    long maxItemsScanned = ofNullable(request.getMaxItemsScanned()).map(Integer::longValue).orElse(Long.MAX_VALUE);
+
+    // one deadline for all rings, not one per ring
+    long timeoutMillis = geoQueryClient.getTimeoutMillis();
+    long deadlineNanos = timeoutMillis > 0 ? System.nanoTime() + MILLISECONDS.toNanos(timeoutMillis) : Long.MAX_VALUE;
+
+    return searchNextRing(search, request.getObjectType(), maxItemsScanned, deadlineNanos);
+  }
+
+  /**
+   * Queries the rings one after the other until the search is complete, or truncated by the ring or scan budget.
+   * Each ring gets the time left until the deadline of the search, {@link Long#MAX_VALUE} for none.
+   */
+  private CompletableFuture<GeolocationResult> searchNextRing(NearestNeighbourSearch search, String objectType,
+                                                              long maxItemsScanned, long deadlineNanos) {
+    long remainingMillis = 0L;
+    if (deadlineNanos != Long.MAX_VALUE) {
+      remainingMillis = NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+      if (remainingMillis <= 0) {
+        return failedFuture(queryFailure("nearest query", new TimeoutException()));
+      }
+    }
+    var cells = search.ring();
+    var geoQueryRequest = geo.cellQuery(objectTypeQueryRequest(GEOLOCATION, objectType), geoIndexRouter.plan(cells),
+      absent());
+
+    return geoQueryClient.executeAsync(geoQueryRequest, Integer.MAX_VALUE, maxItemsScanned, remainingMillis)
+      .handle((result, failure) -> {
+        if (failure != null) {
+          throw queryFailure("nearest query", failure);
+        }
+        return result;
+      })
+      .thenCompose(result -> {
+        search.accept(result.getItems());
+        long remaining = maxItemsScanned - result.getScannedCount();
+
+        if (search.isComplete()) {
+          return completedFuture(nearestResultOf(search, false));
+        }
+        if (result.isTruncated() || remaining <= 0 || search.getRings() >= NEAREST_MAX_RINGS) {
+          log.debug("Nearest query truncated after {} rings", search.getRings());
+          return completedFuture(nearestResultOf(search, true));
+        }
+        return searchNextRing(search, objectType, remaining, deadlineNanos);
+      });
+  }
+
+  private static GeolocationResult nearestResultOf(NearestNeighbourSearch search, boolean truncated) {
+    return new GeolocationResult(search.nearest().stream().map(GeolocationMappingUtils::geolocationOf)
+      .collect(toList()), truncated);
+  }
+
+  @Override
+  public CompletableFuture<GeolocationCount> countGeolocations(RectangleGeolocationRequest request) {
+
+    if (RectangleQueryUtils.emptyRectangleQuery(request)) {
+      return completedFuture(new GeolocationCount(0, false));
+    }
+
+    var query = pointIndex.isReady()
+      ? completedFuture(countFromIndex(request))
+      : geoQueryClient.countAsync(rectangleGeoQueryRequest(request, COUNT), limitOf(request),
+        maxItemsScannedOf(request));
+
+    return query.handle((result, failure) -> {
+      if (failure != null) {
+        throw queryFailure("counting rectangle query", failure);
+      }
+      return new GeolocationCount(result.getCount(), result.isTruncated());
+    });
   }
 
   private ClusteringStrategy<? extends HashGeolocation> resolveClusteringStrategy(
@@ -105,34 +309,239 @@ public class GeolocationQueryService implements IGeolocationQueryService {
     }
   }
 
-  private List<Map<String, AttributeValue>> performRectangleQuery(
-    RectangleGeolocationRequest request) {
+  @Override
+  public void streamGeolocations(RectangleGeolocationRequest request, OutputStream out) throws IOException {
 
     if (RectangleQueryUtils.emptyRectangleQuery(request)) {
-      return emptyList();
+      return;
+    }
+
+    int limit = limitOf(request);
+    long maxItemsScanned = maxItemsScannedOf(request);
+    int written = 0;
+    boolean committed = false;
+
+    try (var stream = geoQueryClient.stream(rectangleGeoQueryRequest(request, GEOLOCATION), STREAM_MAX_PAGES_IN_FLIGHT)) {
+      List<Map<String, AttributeValue>> page;
+      while (written < limit && stream.getScannedCount() < maxItemsScanned && (page = stream.nextPage()) != null) {
+        for (var item : page.subList(0, Math.min(page.size(), limit - written))) {
+          // not writeValue(out, ..), which closes the response stream after the first item
+          out.write(objectMapper.writeValueAsBytes(GeolocationMappingUtils.geolocationOf(item)));
+          out.write(NEWLINE);
+          written++;
+        }
+        // flushing every page puts the socket's backpressure onto the page fetching
+        out.flush();
+        committed = true;
+      }
+    } catch (InterruptedException e) {
+      log.error("Interrupted while streaming rectangle query");
+
+      currentThread().interrupt();
+      throw streamFailure(out, committed, new GeoQueryTechnicalException());
+    } catch (ExecutionException e) {
+      throw streamFailure(out, committed, queryFailure("streaming rectangle query", e));
+    }
+  }
+
+  /**
+   * Once a page is flushed the response is committed with a 200, a failure after it would pass for the end of the
+   * geolocations. It is told by a last record instead, <code>{"error": .., "status": ..}</code>, which a client tells
+   * from a geolocation by its <code>error</code> field.
+   */
+  private RuntimeException streamFailure(OutputStream out, boolean committed, RuntimeException failure)
+    throws IOException {
+
+    if (committed) {
+      var status = INTERNAL_SERVER_ERROR;
+      var reason = status.getReasonPhrase();
+      if (failure instanceof ResponseStatusException) {
+        status = ((ResponseStatusException) failure).getStatus();
+        reason = ofNullable(((ResponseStatusException) failure).getReason()).orElse(status.getReasonPhrase());
+      }
+      var record = new LinkedHashMap<String, Object>();
+      record.put("error", reason);
+      record.put("status", status.value());
+      out.write(objectMapper.writeValueAsBytes(record));
+      out.write(NEWLINE);
+      out.flush();
     }
+    return failure;
+  }
+
+  private CompletableFuture<List<Map<String, AttributeValue>>> performRectangleQuery(
+    RectangleGeolocationRequest request, ProjectionProfile projection) {
+
+    if (RectangleQueryUtils.emptyRectangleQuery(request)) {
+      return completedFuture(emptyList());
+    }
+
     adjustRectangleQuery(request);
+    if (pointIndex.isReady()) {
+      return completedFuture(pointIndex.rectangleQuery(request.getMinLatitude(), request.getMinLongitude(),
+        request.getMaxLatitude(), request.getMaxLongitude(), Integer.MAX_VALUE).getItems());
+    }
 
-    var geoQueryRequest = new Geo().rectangleQuery(
-      new QueryRequest(tableName),
-      request.getMinLatitude(),
-      request.getMinLongitude(),
-      request.getMaxLatitude(),
-      request.getMaxLongitude(),
-      geoConfig,
-      absent());
+    var tiles = tileCache.query(request.getMinLatitude(), request.getMinLongitude(),
+      request.getMaxLatitude(), request.getMaxLongitude());
+    if (tiles.isPresent()) {
+      return tiles.get().handle((items, failure) -> {
+        if (failure != null) {
+          throw queryFailure("tile query", failure);
+        }
+        return items;
+      });
+    }
+
+    var geoQueryRequest = rectangleGeoQueryRequest(request, projection);
+
+    if (geoQueryClient.isAsync()) {
+      return geoQueryClient.executeAsync(geoQueryRequest).handle((ddbResult, failure) -> {
+        if (failure != null) {
+          throw queryFailure("rectangle query", failure);
+        }
+        return ofNullable(ddbResult).orElse(List.of());
+      });
+    }
 
     List<Map<String, AttributeValue>> ddbResult;
 
     try {
       ddbResult = geoQueryClient.execute(geoQueryRequest);
-    } catch (InterruptedException | ExecutionException e) {
+    } catch (InterruptedException e) {
       log.error("Exception while rectangle query: {}", e.getMessage());
 
       currentThread().interrupt();
       throw new GeoQueryTechnicalException();
+    } catch (ExecutionException e) {
+      throw queryFailure("rectangle query", e);
+    }
+
+    return completedFuture(ofNullable(ddbResult).orElse(List.of()));
+  }
+
+  private CompletableFuture<GeoQueryResult> performLimitedRectangleQuery(
+    RectangleGeolocationRequest request) {
+
+    if (RectangleQueryUtils.emptyRectangleQuery(request)) {
+      return completedFuture(new GeoQueryResult(List.of(), false, 0));
+    }
+
+    CompletableFuture<GeoQueryResult> query;
+    if (pointIndex.isReady()) {
+      adjustRectangleQuery(request);
+      query = completedFuture(pointIndex.rectangleQuery(request.getMinLatitude(), request.getMinLongitude(),
+        request.getMaxLatitude(), request.getMaxLongitude(), limitOf(request)));
+    } else {
+      query = geoQueryClient.executeAsync(rectangleGeoQueryRequest(request, GEOLOCATION), limitOf(request),
+        maxItemsScannedOf(request));
+    }
+
+    return query.handle((result, failure) -> {
+      if (failure != null) {
+        throw queryFailure("limited rectangle query", failure);
+      }
+      if (result.isTruncated()) {
+        log.debug("Rectangle query truncated after {} items, {} scanned",
+          result.getItems().size(), result.getScannedCount());
+      }
+      return result;
+    });
+  }
+
+  @Override
+  public Map<String, Object> getQueryMetrics() {
+    var metrics = new LinkedHashMap<>(geoQueryClient.metrics());
+    metrics.put("pointCache", pointCache.snapshot());
+    metrics.put("tileCache", tileCache.snapshot());
+    metrics.put("pointIndex", pointIndex.snapshot());
+    metrics.put("clusterPyramid", clusterPyramid.snapshot());
+    metrics.put("changeFeed", changeFeed.map(ChangeFeed::snapshot).orElse(Map.of("enabled", false)));
+    return metrics;
+  }
+
+  private GeoQueryResult countFromIndex(RectangleGeolocationRequest request) {
+
+    adjustRectangleQuery(request);
+
+    return pointIndex.countRectangle(request.getMinLatitude(), request.getMinLongitude(), request.getMaxLatitude(),
+      request.getMaxLongitude(), limitOf(request));
+  }
+
+  /**
+   * A query that ran into its deadline is a gateway timeout, one rejected by the saturated query limiter a service
+   * unavailable, any other failure a technical one unless it carries a status already.
+   */
+  private static RuntimeException queryFailure(String query, Throwable failure) {
+    var cause = failure instanceof CompletionException || failure instanceof ExecutionException
+      ? ofNullable(failure.getCause()).orElse(failure)
+      : failure;
+
+    if (cause instanceof ResponseStatusException) {
+      return (ResponseStatusException) cause;
+    }
+    if (cause instanceof TimeoutException) {
+      log.warn("Deadline exceeded while {}", query);
+      return new ResponseStatusException(GATEWAY_TIMEOUT, "geo query deadline exceeded");
+    }
+    if (cause instanceof RejectedExecutionException) {
+      log.warn("Rejected while {}: {}", query, cause.getMessage());
+      return new ResponseStatusException(SERVICE_UNAVAILABLE, "too many geo queries in flight");
+    }
+    log.error("Exception while {}: {}", query, cause.getMessage());
+    return new GeoQueryTechnicalException();
+  }
+
+  private static int limitOf(RectangleGeolocationRequest request) {
+    return ofNullable(request.getLimit()).orElse(Integer.MAX_VALUE);
+  }
+
+  private static long maxItemsScannedOf(RectangleGeolocationRequest request) {
+    return ofNullable(request.getMaxItemsScanned()).map(Integer::longValue).orElse(Long.MAX_VALUE);
+  }
+
+  private GeoQueryRequest radiusGeoQueryRequest(RadiusGeolocationRequest request) {
+
+    var plan = geoIndexRouter.planRadiusQuery(request.getLatitude(), request.getLongitude(), request.getRadius());
+
+    return geo.radiusQuery(
+      objectTypeQueryRequest(GEOLOCATION, request.getObjectType()),
+      request.getLatitude(),
+      request.getLongitude(),
+      request.getRadius(),
+      plan,
+      absent());
+  }
+
+  /**
+   * @param objectType the type to filter by, may be null
+   */
+  private QueryRequest objectTypeQueryRequest(ProjectionProfile projection, String objectType) {
+
+    var queryRequest = projection.queryRequest(tableName);
+
+    if (objectType != null) {
+      // objectType is the table's hash key, on the geo index it can only be filtered
+      var names = new HashMap<>(queryRequest.getExpressionAttributeNames());
+      names.put("#objectType", "objectType");
+      queryRequest
+        .withFilterExpression("#objectType = :objectType")
+        .withExpressionAttributeNames(names)
+        .withExpressionAttributeValues(Map.of(":objectType", new AttributeValue(objectType)));
     }
+    return queryRequest;
+  }
+
+  private GeoQueryRequest rectangleGeoQueryRequest(RectangleGeolocationRequest request, ProjectionProfile projection) {
+
+    adjustRectangleQuery(request);
+
+    var plan = geoIndexRouter.planRectangleQuery(
+      request.getMinLatitude(),
+      request.getMinLongitude(),
+      request.getMaxLatitude(),
+      request.getMaxLongitude());
 
-    return ofNullable(ddbResult).orElse(List.of());
+    return geo.rectangleQuery(projection.queryRequest(tableName), plan, absent());
   }
 }
@@ -0,0 +1,355 @@
+package com.surf.advisor.geolocation.query.index;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.google.common.geometry.S2CellId;
+import com.google.common.geometry.S2LatLng;
+import com.google.common.geometry.S2LatLngRect;
+import com.google.common.geometry.S2Projections;
+import com.google.common.geometry.S2RegionCoverer;
+import com.surf.advisor.geolocation.api.event.GeolocationChangedEvent;
+import com.surf.advisor.geolocation.api.model.GeoCluster;
+import com.surf.advisor.geolocation.api.model.Geolocation;
+import com.surf.advisor.geolocation.api.model.LocationId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+
+/**
+ * The clusters of all geolocations of the table, precomputed for every S2 cell level between the minimum and the
+ * maximum level: the number of geolocations within every non-empty cell and their centroid.
+ * <p>
+ * A viewport is answered from the level whose cells are about an {@value #CLUSTERS_ACROSS}th of its size, one lookup
+ * per covering cell, whatever the number of geolocations within. The object ids of a cluster are listed up to
+ * {@value #MAX_LISTED_IDS} geolocations, larger clusters carry their count only. Viewports too small for the finest
+ * level are not answered, they hold few enough geolocations to be clustered exactly.
+ * <p>
+ * The pyramid is built once by a parallel scan, every segment aggregating its own geolocations on all levels before
+ * the segments are merged. Writes and removals, seen as {@link GeolocationChangedEvent}s, are applied to every level
+ * of the old and the new cell of the geolocation; those during the build are applied once it is merged.
+ */
+@Slf4j
+public class ClusterPyramid {
+
+  private static final int CLUSTERS_ACROSS = 8;
+  private static final int MAX_LISTED_IDS = 32;
+
+  private final Executor executor;
+  private final int minLevel;
+  private final int maxLevel;
+
+  /**
+   * The clusters of every level, from the minimum level on, by the id of their cell
+   */
+  private final List<Map<Long, Aggregate>> levels = new ArrayList<>();
+
+  /**
+   * The geolocations of every cell of the maximum level, sorted by cell id to list those of a coarser cell
+   */
+  private final ConcurrentSkipListMap<Long, Set<LocationId>> members = new ConcurrentSkipListMap<>();
+  private final Map<LocationId, Position> positions = new ConcurrentHashMap<>();
+
+  /**
+   * Writes during the build, a removal being empty, applied after it in the order they were seen
+   */
+  private final Map<LocationId, Optional<Geolocation>> pending = new LinkedHashMap<>();
+  private volatile boolean loading;
+  private volatile boolean ready;
+
+  /**
+   * @param executor runs the scan segments
+   * @param minLevel the coarsest level, the one of viewports of a continent and larger
+   * @param maxLevel the finest level, at most 30
+   */
+  public ClusterPyramid(Executor executor, int minLevel, int maxLevel) {
+    if (minLevel < 0 || maxLevel > S2CellId.MAX_LEVEL || minLevel > maxLevel) {
+      throw new IllegalArgumentException("invalid levels " + minLevel + ".." + maxLevel);
+    }
+    this.executor = executor;
+    this.minLevel = minLevel;
+    this.maxLevel = maxLevel;
+    for (int level = minLevel; level <= maxLevel; level++) {
+      levels.add(new ConcurrentHashMap<>());
+    }
+  }
+
+  /**
+   * Scans the table into the pyramid, in <code>segments</code> parallel segments. Writes of this node during the
+   * scan are applied after it and win over the scanned geolocations.
+   */
+  public synchronized CompletableFuture<Void> load(AmazonDynamoDB ddb, String tableName, int segments) {
+    if (loading || ready) {
+      return completedFuture(null);
+    }
+    loading = true;
+    long start = System.currentTimeMillis();
+
+    return PointScan.scan(ddb, tableName, segments, executor, Partial::new,
+      (partial, objectType, objectId, latitude, longitude) -> partial.add(LocationId.of(objectType, objectId),
+        Position.of(latitude, longitude, maxLevel))
+    ).thenAccept(partials -> {
+      partials.forEach(this::merge);
+      install();
+      log.info("Cluster pyramid of levels {} to {} loaded {} geolocations in {} ms", minLevel, maxLevel,
+        positions.size(), System.currentTimeMillis() - start);
+    }).whenComplete((done, failure) -> {
+      if (failure != null) {
+        log.error("Cluster pyramid could not be loaded: {}", failure.getMessage());
+        synchronized (this) {
+          loading = false;
+          pending.clear();
+        }
+      }
+    });
+  }
+
+  public boolean isReady() {
+    return ready;
+  }
+
+  /**
+   * Adds the geolocation or moves it to its new cells. Ignored before a load started, the scan reads it anyway.
+   */
+  public void put(Geolocation geolocation) {
+    write(LocationId.of(geolocation.getObjectType(), geolocation.getObjectId()), Optional.of(geolocation));
+  }
+
+  /**
+   * Removes the geolocation, if clustered. Ignored before a load started like {@link #put(Geolocation)}.
+   */
+  public void remove(LocationId locationId) {
+    write(locationId, Optional.empty());
+  }
+
+  @EventListener
+  public void onGeolocationChanged(GeolocationChangedEvent event) {
+    if (event.isRemoval()) {
+      remove(event.getLocationId());
+    } else {
+      put(event.getCurrent());
+    }
+  }
+
+  /**
+   * @return the clusters whose centroid lies within the rectangle, none if the pyramid is not ready or the rectangle
+   * is too small for its finest level
+   */
+  public Optional<List<GeoCluster>> clusters(double minLatitude, double minLongitude, double maxLatitude,
+                                             double maxLongitude) {
+    if (!ready) {
+      return Optional.empty();
+    }
+    var viewport = new S2LatLngRect(S2LatLng.fromDegrees(minLatitude, minLongitude),
+      S2LatLng.fromDegrees(maxLatitude, maxLongitude));
+    var height = viewport.lat().getLength();
+    var width = viewport.lng().getLength() * Math.cos(viewport.getCenter().latRadians());
+    int level = S2Projections.AVG_EDGE.getClosestLevel(Math.max(height, width) / CLUSTERS_ACROSS);
+    if (level > maxLevel) {
+      return Optional.empty();
+    }
+    level = Math.max(minLevel, level);
+
+    var coverer = new S2RegionCoverer();
+    coverer.setMinLevel(level);
+    coverer.setMaxLevel(level);
+
+    // the denormalized covering, all cells on the cluster level
+    var cells = new ArrayList<S2CellId>();
+    coverer.getCovering(viewport, cells);
+
+    var clusters = levels.get(level - minLevel);
+    var result = new ArrayList<GeoCluster>();
+    for (var cell : cells) {
+      var cluster = clusters.get(cell.id());
+      if (cluster == null) {
+        continue;
+      }
+      var centroid = cluster.centroid();
+      if (viewport.contains(centroid)) {
+        result.add(new GeoCluster(cluster.count <= MAX_LISTED_IDS ? membersOf(cell) : Set.of(),
+          centroid.latDegrees(), centroid.lngDegrees(), cluster.count));
+      }
+    }
+    return Optional.of(result);
+  }
+
+  /**
+   * @return whether the pyramid is ready, its levels and the number of geolocations clustered
+   */
+  public Map<String, Object> snapshot() {
+    var snapshot = new LinkedHashMap<String, Object>();
+    snapshot.put("ready", ready);
+    snapshot.put("levels", minLevel + ".." + maxLevel);
+    snapshot.put("points", positions.size());
+    return snapshot;
+  }
+
+  private Set<LocationId> membersOf(S2CellId cell) {
+    var ids = new HashSet<LocationId>();
+    members.subMap(cell.rangeMin().id(), true, cell.rangeMax().id(), true).values().forEach(ids::addAll);
+    return ids;
+  }
+
+  private synchronized void write(LocationId locationId, Optional<Geolocation> geolocation) {
+    if (loading) {
+      pending.remove(locationId);
+      pending.put(locationId, geolocation);
+    } else if (ready) {
+      apply(locationId, geolocation);
+    }
+  }
+
+  private void apply(LocationId locationId, Optional<Geolocation> geolocation) {
+    var position = geolocation.map(current -> Position.of(current.getLatitude(), current.getLongitude(), maxLevel));
+    var previous = position.isPresent() ? positions.put(locationId, position.get()) : positions.remove(locationId);
+
+    // added before the previous position is subtracted, a concurrent query may count it twice but never miss it
+    position.ifPresent(current -> {
+      members.computeIfAbsent(current.leaf, cell -> ConcurrentHashMap.newKeySet()).add(locationId);
+      forEachLevel(current, (clusters, cell) -> clusters.merge(cell, current.point, Aggregate::plus));
+    });
+    if (previous != null) {
+      if (position.isEmpty() || position.get().leaf != previous.leaf) {
+        members.computeIfPresent(previous.leaf, (cell, ids) -> ids.remove(locationId) && ids.isEmpty() ? null : ids);
+      }
+      forEachLevel(previous, (clusters, cell) -> clusters.computeIfPresent(cell,
+        (id, cluster) -> cluster.minus(previous.point)));
+    }
+  }
+
+  private void forEachLevel(Position position, CellConsumer consumer) {
+    var leaf = new S2CellId(position.leaf);
+    for (int level = minLevel; level <= maxLevel; level++) {
+      consumer.accept(levels.get(level - minLevel), leaf.parent(level).id());
+    }
+  }
+
+  private void merge(Partial partial) {
+    positions.putAll(partial.positions);
+    partial.members.forEach((cell, ids) ->
+      members.computeIfAbsent(cell, id -> ConcurrentHashMap.newKeySet()).addAll(ids));
+    for (int level = 0; level < levels.size(); level++) {
+      var clusters = levels.get(level);
+      partial.levels.get(level).forEach((cell, cluster) -> clusters.merge(cell, cluster, Aggregate::plus));
+    }
+  }
+
+  private synchronized void install() {
+    pending.forEach(this::apply);
+    pending.clear();
+    ready = true;
+    loading = false;
+  }
+
+  @FunctionalInterface
+  private interface CellConsumer {
+
+    void accept(Map<Long, Aggregate> clusters, long cell);
+  }
+
+  /**
+   * The geolocations of a scan segment, aggregated on every level
+   */
+  private final class Partial {
+
+    private final Map<LocationId, Position> positions = new HashMap<>();
+    private final Map<Long, Set<LocationId>> members = new HashMap<>();
+    private final List<Map<Long, Aggregate>> levels = new ArrayList<>();
+
+    private Partial() {
+      for (int level = minLevel; level <= maxLevel; level++) {
+        levels.add(new HashMap<>());
+      }
+    }
+
+    private void add(LocationId locationId, Position position) {
+      positions.put(locationId, position);
+      members.computeIfAbsent(position.leaf, cell -> new HashSet<>()).add(locationId);
+      var leaf = new S2CellId(position.leaf);
+      for (int level = minLevel; level <= maxLevel; level++) {
+        levels.get(level - minLevel).merge(leaf.parent(level).id(), position.point, Aggregate::plus);
+      }
+    }
+  }
+
+  /**
+   * The cell of the maximum level a geolocation lies in and its point on the unit sphere
+   */
+  private static final class Position {
+
+    private final long leaf;
+    private final Aggregate point;
+
+    private Position(long leaf, Aggregate point) {
+      this.leaf = leaf;
+      this.point = point;
+    }
+
+    private static Position of(double latitude, double longitude, int level) {
+      double phi = Math.toRadians(latitude);
+      double theta = Math.toRadians(longitude);
+      double cosPhi = Math.cos(phi);
+
+      return new Position(S2CellId.fromLatLng(S2LatLng.fromDegrees(latitude, longitude)).parent(level).id(),
+        new Aggregate(1, Aggregate.fixed(cosPhi * Math.cos(theta)), Aggregate.fixed(cosPhi * Math.sin(theta)),
+          Aggregate.fixed(Math.sin(phi))));
+    }
+  }
+
+  /**
+   * The number of geolocations of a cell and the sum of their points on the unit sphere, whose direction is their
+   * centroid, also of clusters across the antimeridian.
+   * <p>
+   * The coordinates are summed in fixed point, units of 2^-{@value #FRACTION_BITS}, about a millimetre on the earth's
+   * surface: subtracting a point takes back exactly what adding it added, however many geolocations moved through the
+   * cell, where floating point sums would drift. The sums of up to 2^30 points fit.
+   */
+  private static final class Aggregate {
+
+    private static final int FRACTION_BITS = 32;
+    private static final double ONE = 1L << FRACTION_BITS;
+
+    private final int count;
+    private final long x;
+    private final long y;
+    private final long z;
+
+    private Aggregate(int count, long x, long y, long z) {
+      this.count = count;
+      this.x = x;
+      this.y = y;
+      this.z = z;
+    }
+
+    private Aggregate plus(Aggregate other) {
+      return new Aggregate(count + other.count, x + other.x, y + other.y, z + other.z);
+    }
+
+    /**
+     * @return the remaining geolocations, null if none is left
+     */
+    private Aggregate minus(Aggregate other) {
+      return count == other.count ? null : new Aggregate(count - other.count, x - other.x, y - other.y, z - other.z);
+    }
+
+    private S2LatLng centroid() {
+      return S2LatLng.fromRadians(Math.atan2(z, Math.hypot(x, y)), Math.atan2(y, x));
+    }
+
+    private static long fixed(double coordinate) {
+      return Math.round(coordinate * ONE);
+    }
+  }
+}
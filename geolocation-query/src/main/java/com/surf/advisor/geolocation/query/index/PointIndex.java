@@ -0,0 +1,559 @@
+package com.surf.advisor.geolocation.query.index;
+
+import com.amazonaws.geo.model.GeoQueryResult;
+import com.amazonaws.geo.model.filters.GeoFilters;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.dashlabs.dash.geo.model.GeohashRangeList;
+import com.dashlabs.dash.geo.model.filters.ColumnarGeoFilter;
+import com.dashlabs.dash.geo.s2.internal.S2Manager;
+import com.google.common.geometry.S2LatLng;
+import com.google.common.geometry.S2LatLngRect;
+import com.surf.advisor.geolocation.api.event.GeolocationChangedEvent;
+import com.surf.advisor.geolocation.api.model.Geolocation;
+import com.surf.advisor.geolocation.api.model.LocationId;
+import com.surf.advisor.geolocation.api.model.UpdatedHourKey;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+
+/**
+ * All geolocations of the table in memory, sorted by geohash, answering rectangle and radius queries without
+ * DynamoDB.
+ * <p>
+ * The index is loaded once by a parallel scan. Queries cover their bounding box with S2 cells like the DynamoDB
+ * queries do, but every range costs two binary searches instead of a round trip, and the coordinates of the
+ * candidates are filtered column-wise before any item is materialized.
+ * <p>
+ * Writes and removals, seen as {@link GeolocationChangedEvent}s, go to a small delta that shadows the sorted points
+ * and is merged into them in the background once it outgrows the compaction threshold. Without the change feed only
+ * the writes of this node are seen as events, those of other nodes when catching up from the watermark, the start of
+ * the last scan or catch up.
+ * <p>
+ * Instead of scanning, an instance can start from the memory mapped snapshot of another one and catch up the writes
+ * since its watermark.
+ */
+@Slf4j
+public class PointIndex {
+
+  /**
+   * In memory a range is cheap, a finer covering scans fewer points outside of the box
+   */
+  private static final int COVERING_MAX_CELLS = 64;
+  private static final long CATCH_UP_MARGIN_MILLIS = 60_000L;
+
+  private final S2Manager s2Manager;
+  private final Executor executor;
+  private final int compactionThreshold;
+
+  private final AtomicBoolean compacting = new AtomicBoolean();
+  private volatile State state = stateOf(Points.EMPTY, Map.of());
+  private volatile boolean loading;
+  private volatile boolean ready;
+
+  /**
+   * The epoch millis at which the last scan or catch up started, every write of the table before is indexed
+   */
+  private volatile long watermark;
+
+  /**
+   * @param executor            runs the scan segments and the compactions
+   * @param compactionThreshold the number of written points that are merged into the sorted points at once
+   */
+  public PointIndex(S2Manager s2Manager, Executor executor, int compactionThreshold) {
+    this.s2Manager = s2Manager;
+    this.executor = executor;
+    this.compactionThreshold = compactionThreshold;
+  }
+
+  /**
+   * Scans the table into the index, in <code>segments</code> parallel segments. Writes of this node during the scan
+   * are kept and win over the scanned points.
+   */
+  public CompletableFuture<Void> load(AmazonDynamoDB ddb, String tableName, int segments) {
+    loading = true;
+    long start = System.currentTimeMillis();
+
+    return PointScan.scan(ddb, tableName, segments, executor, () -> new Points.Builder(0),
+      (segment, objectType, objectId, latitude, longitude) -> segment.add(
+        s2Manager.generateGeohash(latitude, longitude), latitude, longitude, objectType, objectId)
+    ).thenAccept(scanned -> {
+      var builder = new Points.Builder(scanned.stream().mapToInt(Points.Builder::size).sum());
+      scanned.forEach(builder::addAll);
+      install(builder.build(), start);
+      log.info("Point index loaded {} geolocations in {} ms", state.base.size, System.currentTimeMillis() - start);
+    }).whenComplete((done, failure) -> {
+      loading = false;
+      if (failure != null) {
+        log.error("Point index could not be loaded: {}", failure.getMessage());
+      }
+    });
+  }
+
+  /**
+   * Installs the points of a snapshot written by {@link #writeSnapshot(Path)}, which are served once the whole
+   * snapshot was read, see {@link PointSnapshot}. Writes since the snapshot are read by
+   * {@link #catchUp(AmazonDynamoDB, String, String)}.
+   *
+   * @param maxAgeMillis the age of the snapshot's watermark beyond which catching up would cost more than a scan
+   * @return whether the snapshot was installed, not if it is missing, too old, of another version or corrupt
+   */
+  public boolean restore(Path path, long maxAgeMillis) {
+    if (!Files.exists(path)) {
+      log.info("No point index snapshot at {}", path);
+      return false;
+    }
+    PointSnapshot snapshot;
+    long start = System.currentTimeMillis();
+    try {
+      snapshot = PointSnapshot.read(path);
+    } catch (IOException e) {
+      log.warn("Point index snapshot {} could not be read: {}", path, e.getMessage());
+      return false;
+    }
+    if (start - snapshot.watermark > maxAgeMillis) {
+      log.info("Point index snapshot {} is too old, synced at {}", path, Instant.ofEpochMilli(snapshot.watermark));
+      return false;
+    }
+    install(snapshot.points, snapshot.watermark);
+    log.info("Point index restored {} geolocations synced at {} in {} ms", snapshot.points.size,
+      Instant.ofEpochMilli(snapshot.watermark), System.currentTimeMillis() - start);
+    return true;
+  }
+
+  /**
+   * Reads the writes since the watermark from the <code>updatedHourShard</code> / <code>updatedAt</code> index, one
+   * query per shard of every hour, see {@link UpdatedHourKey}, and advances the watermark. Items written before their
+   * write time was recorded are not in the index, they are read by the scan of
+   * {@link #load(AmazonDynamoDB, String, int)} only.
+   *
+   * @param indexName the global secondary index over the write hour and time, projecting the point attributes
+   */
+  public CompletableFuture<Void> catchUp(AmazonDynamoDB ddb, String tableName, String indexName) {
+    long start = System.currentTimeMillis();
+    // the index is eventually consistent and the clocks of the writers may drift
+    long since = watermark - CATCH_UP_MARGIN_MILLIS;
+
+    return CompletableFuture.runAsync(() -> {
+      long caughtUp = 0;
+      for (long hour = UpdatedHourKey.hourOf(since); hour <= UpdatedHourKey.hourOf(start); hour++) {
+        for (int shard = 0; shard < UpdatedHourKey.SHARDS; shard++) {
+          caughtUp += catchUpShard(ddb, tableName, indexName, UpdatedHourKey.of(hour, shard), since);
+        }
+      }
+      synchronized (this) {
+        watermark = Math.max(watermark, start);
+      }
+      log.info("Point index caught up {} writes since {} in {} ms", caughtUp, Instant.ofEpochMilli(since),
+        System.currentTimeMillis() - start);
+    }, executor);
+  }
+
+  /**
+   * Writes the points with the watermark to the snapshot file, atomically replacing it. Writes of other nodes since
+   * the watermark are missing, reading the snapshot catches them up.
+   */
+  public void writeSnapshot(Path path) throws IOException {
+    long syncedAt = watermark;
+    var current = state;
+    var points = mergedPoints(current, new HashMap<>(current.delta));
+    long start = System.currentTimeMillis();
+    PointSnapshot.write(path, points, syncedAt);
+    log.info("Point index snapshot of {} geolocations written to {} in {} ms", points.size, path,
+      System.currentTimeMillis() - start);
+  }
+
+  public boolean isReady() {
+    return ready;
+  }
+
+  /**
+   * Adds the geolocation or moves it to its new position. Ignored before a load started, the scan reads it anyway.
+   */
+  public void put(Geolocation geolocation) {
+    write(new Point(s2Manager.generateGeohash(geolocation.getLatitude(), geolocation.getLongitude()),
+      geolocation.getLatitude(), geolocation.getLongitude(), geolocation.getObjectType(), geolocation.getObjectId()));
+  }
+
+  /**
+   * Removes the geolocation, if indexed. Ignored before a load started like {@link #put(Geolocation)}.
+   */
+  public void remove(LocationId locationId) {
+    write(Point.removed(locationId.getObjectType(), locationId.getObjectId()));
+  }
+
+  private synchronized void write(Point point) {
+    if (!loading && !ready) {
+      return;
+    }
+    var current = state;
+
+    // shadowed before the sorted point is hidden, a concurrent query may see both for a moment but never neither
+    current.delta.put(point.locationId(), point);
+    int position = current.base.positionOf(point.objectType, point.objectId);
+    if (position >= 0) {
+      current.supersede(position);
+    }
+
+    if (ready && current.delta.size() > compactionThreshold && compacting.compareAndSet(false, true)) {
+      CompletableFuture.runAsync(this::compact, executor).whenComplete((done, failure) -> {
+        compacting.set(false);
+        if (failure != null) {
+          log.error("Point index compaction failed: {}", failure.getMessage());
+        }
+      });
+    }
+  }
+
+  @EventListener
+  public void onGeolocationChanged(GeolocationChangedEvent event) {
+    if (event.isRemoval()) {
+      remove(event.getLocationId());
+    } else {
+      put(event.getCurrent());
+    }
+  }
+
+  /**
+   * @param limit the maximum number of items returned, the result is truncated beyond
+   * @return the items within the rectangle with the attributes of a geolocation and its geoHash
+   */
+  public GeoQueryResult rectangleQuery(double minLatitude, double minLongitude, double maxLatitude,
+                                       double maxLongitude, int limit) {
+    var box = s2Manager.getBoundingBoxForRectangleQuery(minLatitude, minLongitude, maxLatitude, maxLongitude);
+    return query(box, GeoFilters.newColumnarRectangleFilter(box), null, limit);
+  }
+
+  /**
+   * @param limit the maximum number of points counted, the count is truncated beyond
+   */
+  public GeoQueryResult countRectangle(double minLatitude, double minLongitude, double maxLatitude,
+                                       double maxLongitude, int limit) {
+    var box = s2Manager.getBoundingBoxForRectangleQuery(minLatitude, minLongitude, maxLatitude, maxLongitude);
+    var candidates = candidatesOf(state, box, null);
+    var selected = GeoFilters.newColumnarRectangleFilter(box)
+      .select(candidates.latitudes, candidates.longitudes, candidates.size, new int[candidates.size]);
+
+    return new GeoQueryResult(List.of(), Math.min(selected, limit), selected > limit, candidates.size);
+  }
+
+  /**
+   * @param objectType the type to filter by, may be null
+   * @param limit      the maximum number of items returned, the result is truncated beyond
+   */
+  public GeoQueryResult radiusQuery(double latitude, double longitude, double radius, String objectType, int limit) {
+    var box = s2Manager.getBoundingBoxForRadiusQuery(latitude, longitude, radius);
+    return query(box, GeoFilters.newColumnarRadiusFilter(S2LatLng.fromDegrees(latitude, longitude), radius),
+      objectType, limit);
+  }
+
+  /**
+   * @return whether the index is ready, the number of sorted and of written points not merged yet and the watermark
+   */
+  public Map<String, Object> snapshot() {
+    var current = state;
+    var snapshot = new LinkedHashMap<String, Object>();
+    snapshot.put("ready", ready);
+    long removed = current.delta.values().stream().filter(point -> point.removed).count();
+    snapshot.put("points", current.base.size - current.supersededCount + current.delta.size() - removed);
+    snapshot.put("delta", current.delta.size());
+    snapshot.put("syncedAt", ready ? Instant.ofEpochMilli(watermark).toString() : null);
+    return snapshot;
+  }
+
+  private GeoQueryResult query(S2LatLngRect box, ColumnarGeoFilter filter, String objectType, int limit) {
+    var candidates = candidatesOf(state, box, objectType);
+    var selection = new int[candidates.size];
+    int selected = filter.select(candidates.latitudes, candidates.longitudes, candidates.size, selection);
+
+    var items = new ArrayList<Map<String, AttributeValue>>(Math.min(selected, limit));
+    for (int i = 0; i < selected && items.size() < limit; i++) {
+      items.add(candidates.itemOf(selection[i]));
+    }
+    return new GeoQueryResult(items, selected > limit, candidates.size);
+  }
+
+  /**
+   * @param objectType the type of the candidates, null for all types
+   * @return the points of the cells covering the box, the sorted ones followed by the written ones
+   */
+  private Candidates candidatesOf(State current, S2LatLngRect box, String objectType) {
+    var ranges = GeohashRangeList.fromCells(s2Manager.findCellIds(box, 0, 30, COVERING_MAX_CELLS)).merge();
+    var base = current.base;
+    int type = objectType == null ? -1 : base.typeOf(objectType);
+    var candidates = new Candidates(base);
+    boolean anySuperseded = current.supersededCount > 0;
+
+    if (objectType == null || type >= 0) {
+      for (int r = 0; r < ranges.size(); r++) {
+        int to = base.upperBound(ranges.getRangeMax(r));
+        for (int position = base.lowerBound(ranges.getRangeMin(r)); position < to; position++) {
+          if ((type < 0 || base.types[position] == type) && !(anySuperseded && current.isSuperseded(position))) {
+            candidates.addBase(position);
+          }
+        }
+      }
+    }
+    for (var point : current.delta.values()) {
+      if (!point.removed && (objectType == null || objectType.equals(point.objectType))
+        && contains(ranges, point.cell)) {
+        candidates.addDelta(point);
+      }
+    }
+    return candidates;
+  }
+
+  private static boolean contains(GeohashRangeList ranges, long cell) {
+    int lo = 0;
+    int hi = ranges.size() - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      if (ranges.getRangeMax(mid) < cell) {
+        lo = mid + 1;
+      } else if (ranges.getRangeMin(mid) > cell) {
+        hi = mid - 1;
+      } else {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private long catchUpShard(AmazonDynamoDB ddb, String tableName, String indexName, String updatedHourKey,
+                            long since) {
+    var request = new QueryRequest()
+      .withTableName(tableName)
+      .withIndexName(indexName)
+      .withKeyConditionExpression("#updatedHourShard = :updatedHourShard and #updatedAt >= :since")
+      .withProjectionExpression(PointScan.PROJECTION)
+      .withExpressionAttributeNames(Map.of("#updatedHourShard", UpdatedHourKey.ATTRIBUTE, "#updatedAt", "updatedAt"))
+      .withExpressionAttributeValues(Map.of(
+        ":updatedHourShard", new AttributeValue(updatedHourKey),
+        ":since", new AttributeValue().withN(Long.toString(since))));
+
+    long caughtUp = 0;
+    Map<String, AttributeValue> lastKey;
+    do {
+      var result = ddb.query(request);
+      for (var item : result.getItems()) {
+        put(new Geolocation(item.get("objectId").getS(), item.get("objectType").getS(),
+          Double.valueOf(item.get("latitude").getN()), Double.valueOf(item.get("longitude").getN())));
+      }
+      caughtUp += result.getItems().size();
+      lastKey = result.getLastEvaluatedKey();
+      request.setExclusiveStartKey(lastKey);
+    } while (lastKey != null && !lastKey.isEmpty());
+
+    return caughtUp;
+  }
+
+  /**
+   * Installs loaded points, shadowed by the points written meanwhile
+   */
+  private synchronized void install(Points base, long syncedAt) {
+    state = stateOf(base, state.delta);
+    watermark = syncedAt;
+    ready = true;
+  }
+
+  /**
+   * Merges the written points into the sorted points. Points written during the merge stay in the delta.
+   */
+  private void compact() {
+    var current = state;
+    var merged = new HashMap<LocationId, Point>(current.delta);
+    var compacted = mergedPoints(current, merged);
+
+    synchronized (this) {
+      var remaining = new ConcurrentHashMap<LocationId, Point>();
+      state.delta.forEach((locationId, point) -> {
+        if (merged.get(locationId) != point) {
+          remaining.put(locationId, point);
+        }
+      });
+      state = stateOf(compacted, remaining);
+    }
+    log.debug("Point index compacted {} written points into {}", merged.size(), compacted.size);
+  }
+
+  /**
+   * @param delta the written points to merge, the ones of <code>current</code> or fewer
+   */
+  private static Points mergedPoints(State current, Map<LocationId, Point> delta) {
+    var base = current.base;
+    var builder = new Points.Builder(base.size + delta.size());
+    for (int position = 0; position < base.size; position++) {
+      if (!current.isSuperseded(position)) {
+        builder.add(base.cells[position], base.latitudes[position], base.longitudes[position],
+          base.typeNames[base.types[position]], base.objectIds[position]);
+      }
+    }
+    delta.values().stream().filter(point -> !point.removed).forEach(point -> builder.add(point.cell, point.latitude,
+      point.longitude, point.objectType, point.objectId));
+    return builder.build();
+  }
+
+  private static State stateOf(Points base, Map<LocationId, Point> delta) {
+    var state = new State(base, new ConcurrentHashMap<>(delta));
+    delta.values().forEach(point -> {
+      int position = base.positionOf(point.objectType, point.objectId);
+      if (position >= 0) {
+        state.supersede(position);
+      }
+    });
+    return state;
+  }
+
+  private static final class State {
+
+    private final Points base;
+
+    /**
+     * The points written since the sorted points were built
+     */
+    private final ConcurrentHashMap<LocationId, Point> delta;
+
+    /**
+     * The positions of the sorted points shadowed by a written point, a bit per position, set under the index's lock
+     */
+    private final AtomicLongArray superseded;
+
+    private volatile int supersededCount;
+
+    private State(Points base, ConcurrentHashMap<LocationId, Point> delta) {
+      this.base = base;
+      this.delta = delta;
+      this.superseded = new AtomicLongArray((base.size + Long.SIZE - 1) / Long.SIZE);
+    }
+
+    private boolean isSuperseded(int position) {
+      return (superseded.get(position >>> 6) & (1L << position)) != 0;
+    }
+
+    /**
+     * Called under the index's lock or before the state is published
+     */
+    private void supersede(int position) {
+      long word = superseded.get(position >>> 6);
+      long bit = 1L << position;
+      if ((word & bit) == 0) {
+        superseded.set(position >>> 6, word | bit);
+        supersededCount = supersededCount + 1;
+      }
+    }
+  }
+
+  private static final class Point {
+
+    private final long cell;
+    private final double latitude;
+    private final double longitude;
+    private final String objectType;
+    private final String objectId;
+
+    /**
+     * Whether this is the tombstone of a removed point, which hides the sorted point until the next compaction
+     */
+    private final boolean removed;
+
+    private Point(long cell, double latitude, double longitude, String objectType, String objectId) {
+      this(cell, latitude, longitude, objectType, objectId, false);
+    }
+
+    private Point(long cell, double latitude, double longitude, String objectType, String objectId,
+                  boolean removed) {
+      this.cell = cell;
+      this.latitude = latitude;
+      this.longitude = longitude;
+      this.objectType = objectType;
+      this.objectId = objectId;
+      this.removed = removed;
+    }
+
+    private static Point removed(String objectType, String objectId) {
+      return new Point(0L, Double.NaN, Double.NaN, objectType, objectId, true);
+    }
+
+    private LocationId locationId() {
+      return LocationId.of(objectType, objectId);
+    }
+  }
+
+  /**
+   * The coordinates of the candidates in columns for the filter, with where to find the rest of every candidate
+   */
+  private static final class Candidates {
+
+    private final Points base;
+    private final List<Point> delta = new ArrayList<>();
+    private int size;
+    private double[] latitudes = new double[16];
+    private double[] longitudes = new double[16];
+
+    /**
+     * The position of a sorted point, or -1 - the index of a written point in {@link #delta}
+     */
+    private int[] sources = new int[16];
+
+    private Candidates(Points base) {
+      this.base = base;
+    }
+
+    private void addBase(int position) {
+      add(base.latitudes[position], base.longitudes[position], position);
+    }
+
+    private void addDelta(Point point) {
+      delta.add(point);
+      add(point.latitude, point.longitude, -delta.size());
+    }
+
+    private void add(double latitude, double longitude, int source) {
+      if (size == latitudes.length) {
+        int capacity = size + (size >> 1) + 1;
+        latitudes = Arrays.copyOf(latitudes, capacity);
+        longitudes = Arrays.copyOf(longitudes, capacity);
+        sources = Arrays.copyOf(sources, capacity);
+      }
+      latitudes[size] = latitude;
+      longitudes[size] = longitude;
+      sources[size] = source;
+      size++;
+    }
+
+    private Map<String, AttributeValue> itemOf(int candidate) {
+      int source = sources[candidate];
+      if (source >= 0) {
+        return item(base.typeNames[base.types[source]], base.objectIds[source], base.latitudes[source],
+          base.longitudes[source], base.cells[source]);
+      }
+      var point = delta.get(-1 - source);
+      return item(point.objectType, point.objectId, point.latitude, point.longitude, point.cell);
+    }
+
+    private static Map<String, AttributeValue> item(String objectType, String objectId, double latitude,
+                                                    double longitude, long cell) {
+      return Map.of(
+        "objectType", new AttributeValue(objectType),
+        "objectId", new AttributeValue(objectId),
+        "latitude", new AttributeValue().withN(Double.toString(latitude)),
+        "longitude", new AttributeValue().withN(Double.toString(longitude)),
+        "geoHash", new AttributeValue().withN(Long.toString(cell)));
+    }
+  }
+}
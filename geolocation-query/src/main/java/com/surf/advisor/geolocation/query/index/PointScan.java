@@ -0,0 +1,71 @@
+package com.surf.advisor.geolocation.query.index;
+
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * A parallel scan of the point attributes of all geolocations, every segment collected into its own sink.
+ */
+final class PointScan {
+
+  static final String PROJECTION = "objectType, objectId, latitude, longitude";
+
+  private PointScan() {
+  }
+
+  /**
+   * @param sinks creates the sink of a segment
+   * @return the sinks of all segments, once all segments were scanned
+   */
+  static <S> CompletableFuture<List<S>> scan(AmazonDynamoDB ddb, String tableName, int segments, Executor executor,
+                                             Supplier<S> sinks, PointConsumer<S> consumer) {
+    var scans = new ArrayList<CompletableFuture<S>>(segments);
+    for (int segment = 0; segment < segments; segment++) {
+      int current = segment;
+      scans.add(supplyAsync(() -> scanSegment(ddb, tableName, current, segments, sinks.get(), consumer), executor));
+    }
+
+    return CompletableFuture.allOf(scans.toArray(new CompletableFuture[0])).thenApply(done -> {
+      var results = new ArrayList<S>(segments);
+      scans.forEach(scan -> results.add(scan.join()));
+      return results;
+    });
+  }
+
+  private static <S> S scanSegment(AmazonDynamoDB ddb, String tableName, int segment, int segments, S sink,
+                                   PointConsumer<S> consumer) {
+    var request = new ScanRequest()
+      .withTableName(tableName)
+      .withProjectionExpression(PROJECTION)
+      .withSegment(segment)
+      .withTotalSegments(segments);
+
+    Map<String, AttributeValue> lastKey;
+    do {
+      var result = ddb.scan(request);
+      for (var item : result.getItems()) {
+        consumer.accept(sink, item.get("objectType").getS(), item.get("objectId").getS(),
+          Double.parseDouble(item.get("latitude").getN()), Double.parseDouble(item.get("longitude").getN()));
+      }
+      lastKey = result.getLastEvaluatedKey();
+      request.setExclusiveStartKey(lastKey);
+    } while (lastKey != null && !lastKey.isEmpty());
+
+    return sink;
+  }
+
+  @FunctionalInterface
+  interface PointConsumer<S> {
+
+    void accept(S sink, String objectType, String objectId, double latitude, double longitude);
+  }
+}
@@ -0,0 +1,189 @@
+package com.surf.advisor.geolocation.query.index;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+/**
+ * The binary snapshot file of {@link Points}, read by memory mapping it, so that a new instance starts from the
+ * points of the last one instead of scanning the table.
+ * <p>
+ * Reading is linear in the number of points: the columns are copied out of the mapping in bulk, the object ids
+ * decoded and their lookup rebuilt. The points are served from the heap once read, not from the mapping; what a
+ * restore saves are the reads of the table, the sort and the geohashing of a load.
+ * <p>
+ * A header of {@value #HEADER_SIZE} bytes: the magic number, the format version, the number of points and of object
+ * types, the high watermark, the length of the body and its CRC32. The body holds the columns in the order of
+ * {@link Points}, the cell ids, latitudes, longitudes and type indexes, followed by the string tables: the end offset
+ * of every object id within the id bytes, the type names, each prefixed by its length, and the UTF-8 bytes of all
+ * object ids. All numbers are big-endian.
+ * <p>
+ * A snapshot is written to a temporary file in the same directory that replaces the snapshot by an atomic rename,
+ * readers see either the previous or the new snapshot.
+ */
+final class PointSnapshot {
+
+  static final int MAGIC = 0x47454F50; // "GEOP"
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 40;
+
+  final Points points;
+
+  /**
+   * The epoch millis at which the points were last synced with the table, writes since have to be caught up
+   */
+  final long watermark;
+
+  private PointSnapshot(Points points, long watermark) {
+    this.points = points;
+    this.watermark = watermark;
+  }
+
+  /**
+   * @throws IOException if the file cannot be read, is of another format version or corrupt
+   */
+  static PointSnapshot read(Path path) throws IOException {
+    try (var channel = FileChannel.open(path, READ)) {
+      if (channel.size() < HEADER_SIZE) {
+        throw new IOException("truncated snapshot header");
+      }
+      var buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+
+      if (buffer.getInt() != MAGIC) {
+        throw new IOException("not a point snapshot");
+      }
+      int version = buffer.getInt();
+      if (version != VERSION) {
+        throw new IOException("unsupported snapshot version " + version);
+      }
+      int size = buffer.getInt();
+      int typeCount = buffer.getInt();
+      long watermark = buffer.getLong();
+      long bodyLength = buffer.getLong();
+      int checksum = buffer.getInt();
+      buffer.position(HEADER_SIZE);
+      if (size < 0 || typeCount < 0 || bodyLength != channel.size() - HEADER_SIZE) {
+        throw new IOException("truncated snapshot body");
+      }
+
+      var crc = new CRC32();
+      crc.update(buffer.duplicate());
+      if ((int) crc.getValue() != checksum) {
+        throw new IOException("snapshot checksum mismatch");
+      }
+
+      var cells = new long[size];
+      var latitudes = new double[size];
+      var longitudes = new double[size];
+      var types = new int[size];
+      var idEnds = new int[size];
+      buffer.asLongBuffer().get(cells);
+      buffer.position(buffer.position() + Long.BYTES * size);
+      buffer.asDoubleBuffer().get(latitudes);
+      buffer.position(buffer.position() + Double.BYTES * size);
+      buffer.asDoubleBuffer().get(longitudes);
+      buffer.position(buffer.position() + Double.BYTES * size);
+      buffer.asIntBuffer().get(types);
+      buffer.position(buffer.position() + Integer.BYTES * size);
+      buffer.asIntBuffer().get(idEnds);
+      buffer.position(buffer.position() + Integer.BYTES * size);
+
+      var typeNames = new String[typeCount];
+      for (int type = 0; type < typeCount; type++) {
+        var bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        typeNames[type] = new String(bytes, UTF_8);
+      }
+
+      var idBytes = new byte[buffer.remaining()];
+      buffer.get(idBytes);
+      var objectIds = new String[size];
+      for (int i = 0, start = 0; i < size; start = idEnds[i++]) {
+        objectIds[i] = new String(idBytes, start, idEnds[i] - start, UTF_8);
+      }
+
+      return new PointSnapshot(Points.ofSorted(size, cells, latitudes, longitudes, types, typeNames, objectIds),
+        watermark);
+    } catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+      throw new IOException("corrupt snapshot", e);
+    }
+  }
+
+  static void write(Path path, Points points, long watermark) throws IOException {
+    int size = points.size;
+    var typeNames = new byte[points.typeNames.length][];
+    long typesLength = 0;
+    for (int type = 0; type < typeNames.length; type++) {
+      typeNames[type] = points.typeNames[type].getBytes(UTF_8);
+      typesLength += Integer.BYTES + typeNames[type].length;
+    }
+    var objectIds = new byte[size][];
+    var idEnds = new int[size];
+    int idsLength = 0;
+    for (int i = 0; i < size; i++) {
+      objectIds[i] = points.objectIds[i].getBytes(UTF_8);
+      idsLength = Math.addExact(idsLength, objectIds[i].length);
+      idEnds[i] = idsLength;
+    }
+    long bodyLength = (long) size * (Long.BYTES + 2 * Double.BYTES + 2 * Integer.BYTES) + typesLength + idsLength;
+    if (HEADER_SIZE + bodyLength > Integer.MAX_VALUE) {
+      // the most a single mapping can hold
+      throw new IOException("snapshot of " + size + " points exceeds 2 GB");
+    }
+
+    var directory = path.toAbsolutePath().getParent();
+    Files.createDirectories(directory);
+    var temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+    try {
+      try (var channel = FileChannel.open(temporary, READ, WRITE)) {
+        var buffer = channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE + bodyLength);
+
+        buffer.position(HEADER_SIZE);
+        var body = buffer.slice();
+        body.asLongBuffer().put(points.cells, 0, size);
+        body.position(body.position() + Long.BYTES * size);
+        body.asDoubleBuffer().put(points.latitudes, 0, size);
+        body.position(body.position() + Double.BYTES * size);
+        body.asDoubleBuffer().put(points.longitudes, 0, size);
+        body.position(body.position() + Double.BYTES * size);
+        body.asIntBuffer().put(points.types, 0, size);
+        body.position(body.position() + Integer.BYTES * size);
+        body.asIntBuffer().put(idEnds);
+        body.position(body.position() + Integer.BYTES * size);
+        for (var typeName : typeNames) {
+          body.putInt(typeName.length).put(typeName);
+        }
+        for (var objectId : objectIds) {
+          body.put(objectId);
+        }
+
+        var crc = new CRC32();
+        crc.update(body.flip());
+
+        buffer.position(0);
+        buffer.putInt(MAGIC)
+          .putInt(VERSION)
+          .putInt(size)
+          .putInt(typeNames.length)
+          .putLong(watermark)
+          .putLong(bodyLength)
+          .putInt((int) crc.getValue())
+          .putInt(0);
+        buffer.force();
+      }
+      Files.move(temporary, path, ATOMIC_MOVE, REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+}
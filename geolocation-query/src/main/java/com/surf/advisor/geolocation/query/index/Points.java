@@ -0,0 +1,256 @@
+package com.surf.advisor.geolocation.query.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Points sorted by the S2 cell id of their position, i.e. their geohash, in primitive columns. Object types are held
+ * in a dictionary, object ids are found by an open addressing table of positions. Immutable once built.
+ */
+final class Points {
+
+  static final Points EMPTY = new Builder(0).build();
+
+  final int size;
+  final long[] cells;
+  final double[] latitudes;
+  final double[] longitudes;
+
+  /**
+   * The index of every point's type in {@link #typeNames}
+   */
+  final int[] types;
+  final String[] typeNames;
+  final String[] objectIds;
+
+  /**
+   * Position + 1 of a point by the hash of its type and id, 0 for a free slot
+   */
+  private final int[] slots;
+
+  private Points(int size, long[] cells, double[] latitudes, double[] longitudes, int[] types, String[] typeNames,
+                 String[] objectIds) {
+    this.size = size;
+    this.cells = cells;
+    this.latitudes = latitudes;
+    this.longitudes = longitudes;
+    this.types = types;
+    this.typeNames = typeNames;
+    this.objectIds = objectIds;
+    this.slots = new int[Math.max(2, Integer.highestOneBit(Math.max(1, size) * 2) * 2)];
+    for (int i = 0; i < size; i++) {
+      int slot = slotOf(typeNames[types[i]], objectIds[i]);
+      while (slots[slot] != 0) {
+        slot = (slot + 1) & (slots.length - 1);
+      }
+      slots[slot] = i + 1;
+    }
+  }
+
+  /**
+   * @return the points of columns that are sorted by cell id already, e.g. read from a {@link PointSnapshot}
+   */
+  static Points ofSorted(int size, long[] cells, double[] latitudes, double[] longitudes, int[] types,
+                         String[] typeNames, String[] objectIds) {
+    return new Points(size, cells, latitudes, longitudes, types, typeNames, objectIds);
+  }
+
+  /**
+   * @return the position of the point, -1 if there is none
+   */
+  int positionOf(String objectType, String objectId) {
+    int slot = slotOf(objectType, objectId);
+    for (int position; (position = slots[slot] - 1) >= 0; slot = (slot + 1) & (slots.length - 1)) {
+      if (objectIds[position].equals(objectId) && typeNames[types[position]].equals(objectType)) {
+        return position;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the index of the type in {@link #typeNames}, -1 if no point is of the type
+   */
+  int typeOf(String objectType) {
+    for (int type = 0; type < typeNames.length; type++) {
+      if (typeNames[type].equals(objectType)) {
+        return type;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the position of the first point with a cell id not less than <code>cell</code>
+   */
+  int lowerBound(long cell) {
+    int lo = 0;
+    int hi = size;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (cells[mid] < cell) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * @return the position of the first point with a cell id greater than <code>cell</code>
+   */
+  int upperBound(long cell) {
+    int lo = 0;
+    int hi = size;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (cells[mid] <= cell) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  private int slotOf(String objectType, String objectId) {
+    int hash = 31 * objectType.hashCode() + objectId.hashCode();
+    // spread the high bits, the table is indexed by the low ones
+    hash ^= hash >>> 16;
+    return hash & (slots.length - 1);
+  }
+
+  /**
+   * Collects points in any order, not thread safe
+   */
+  static final class Builder {
+
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private int size;
+    private long[] cells;
+    private double[] latitudes;
+    private double[] longitudes;
+    private int[] types;
+    private String[] objectIds;
+    private final Map<String, Integer> typeIndexes = new HashMap<>();
+    private final List<String> typeNames = new ArrayList<>();
+
+    Builder(int capacity) {
+      int initialCapacity = Math.max(16, capacity);
+      this.cells = new long[initialCapacity];
+      this.latitudes = new double[initialCapacity];
+      this.longitudes = new double[initialCapacity];
+      this.types = new int[initialCapacity];
+      this.objectIds = new String[initialCapacity];
+    }
+
+    Builder add(long cell, double latitude, double longitude, String objectType, String objectId) {
+      if (size == cells.length) {
+        int capacity = size + (size >> 1) + 1;
+        cells = Arrays.copyOf(cells, capacity);
+        latitudes = Arrays.copyOf(latitudes, capacity);
+        longitudes = Arrays.copyOf(longitudes, capacity);
+        types = Arrays.copyOf(types, capacity);
+        objectIds = Arrays.copyOf(objectIds, capacity);
+      }
+      cells[size] = cell;
+      latitudes[size] = latitude;
+      longitudes[size] = longitude;
+      types[size] = typeIndexes.computeIfAbsent(objectType, type -> {
+        typeNames.add(type);
+        return typeNames.size() - 1;
+      });
+      objectIds[size] = objectId;
+      size++;
+      return this;
+    }
+
+    Builder addAll(Builder other) {
+      for (int i = 0; i < other.size; i++) {
+        add(other.cells[i], other.latitudes[i], other.longitudes[i], other.typeNames.get(other.types[i]),
+          other.objectIds[i]);
+      }
+      return this;
+    }
+
+    int size() {
+      return size;
+    }
+
+    Points build() {
+      var order = new int[size];
+      for (int i = 0; i < size; i++) {
+        order[i] = i;
+      }
+      sort(order, 0, size);
+
+      var sortedCells = new long[size];
+      var sortedLatitudes = new double[size];
+      var sortedLongitudes = new double[size];
+      var sortedTypes = new int[size];
+      var sortedObjectIds = new String[size];
+      for (int i = 0; i < size; i++) {
+        int from = order[i];
+        sortedCells[i] = cells[from];
+        sortedLatitudes[i] = latitudes[from];
+        sortedLongitudes[i] = longitudes[from];
+        sortedTypes[i] = types[from];
+        sortedObjectIds[i] = objectIds[from];
+      }
+
+      return new Points(size, sortedCells, sortedLatitudes, sortedLongitudes, sortedTypes,
+        typeNames.toArray(new String[0]), sortedObjectIds);
+    }
+
+    /**
+     * Sorts the positions in [from, to) of <code>order</code> by cell id, a quicksort recursing into the smaller
+     * partition only
+     */
+    private void sort(int[] order, int from, int to) {
+      while (to - from > INSERTION_SORT_THRESHOLD) {
+        int mid = (from + to) >>> 1;
+        long pivot = median(cells[order[from]], cells[order[mid]], cells[order[to - 1]]);
+        int i = from;
+        int j = to - 1;
+        while (i <= j) {
+          while (cells[order[i]] < pivot) {
+            i++;
+          }
+          while (cells[order[j]] > pivot) {
+            j--;
+          }
+          if (i <= j) {
+            int swap = order[i];
+            order[i++] = order[j];
+            order[j--] = swap;
+          }
+        }
+        if (j + 1 - from < to - i) {
+          sort(order, from, j + 1);
+          from = i;
+        } else {
+          sort(order, i, to);
+          to = j + 1;
+        }
+      }
+      for (int i = from + 1; i < to; i++) {
+        int position = order[i];
+        int j = i - 1;
+        while (j >= from && cells[order[j]] > cells[position]) {
+          order[j + 1] = order[j];
+          j--;
+        }
+        order[j + 1] = position;
+      }
+    }
+
+    private static long median(long a, long b, long c) {
+      return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+  }
+}
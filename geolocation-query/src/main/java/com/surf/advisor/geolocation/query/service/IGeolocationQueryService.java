@@ -2,15 +2,62 @@ package com.surf.advisor.geolocation.query.service;
 
 import com.surf.advisor.geolocation.api.model.GeoCluster;
 import com.surf.advisor.geolocation.api.model.Geolocation;
+import com.surf.advisor.geolocation.api.model.GeolocationCount;
+import com.surf.advisor.geolocation.api.model.GeolocationResult;
+import com.surf.advisor.geolocation.api.model.LocationId;
+import com.surf.advisor.geolocation.api.model.NearestGeolocationRequest;
+import com.surf.advisor.geolocation.api.model.RadiusGeolocationRequest;
 import com.surf.advisor.geolocation.api.model.RectangleGeolocationRequest;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public interface IGeolocationQueryService {
 
-  List<Geolocation> getGeolocations(RectangleGeolocationRequest request);
+  CompletableFuture<GeolocationResult> getGeolocations(RectangleGeolocationRequest request);
 
-  Collection<GeoCluster> getGeoClusters(RectangleGeolocationRequest request);
+  /**
+   * Writes the geolocations of the rectangle as newline delimited JSON, page by page while they are fetched. A query
+   * failing after the first page ends the stream with an <code>{"error": .., "status": ..}</code> record.
+   */
+  void streamGeolocations(RectangleGeolocationRequest request, OutputStream out) throws IOException;
+
+  /**
+   * Clusters the geolocations of the rectangle, from the precomputed cluster pyramid when it is ready and the
+   * rectangle is large enough for its levels, by clustering the geolocations of the rectangle otherwise.
+   */
+  CompletableFuture<Collection<GeoCluster>> getGeoClusters(RectangleGeolocationRequest request);
+
+  /**
+   * The geolocations within the radius around the centre, optionally of one type and nearest first.
+   */
+  CompletableFuture<GeolocationResult> getGeolocationsInRadius(RadiusGeolocationRequest request);
+
+  /**
+   * The k geolocations nearest to the point, optionally of one type and within a maximum distance, nearest first.
+   */
+  CompletableFuture<GeolocationResult> getNearestGeolocations(NearestGeolocationRequest request);
+
+  /**
+   * Counts the geolocations of the rectangle, up to the request's limit, without transferring more than their
+   * coordinates.
+   */
+  CompletableFuture<GeolocationCount> countGeolocations(RectangleGeolocationRequest request);
 
   Geolocation getGeolocation(String objectType, String objectId);
+
+  /**
+   * The geolocations of the ids that exist, in the order of the ids.
+   */
+  CompletableFuture<List<Geolocation>> getGeolocationsById(List<LocationId> locationIds);
+
+  /**
+   * Latency percentiles of the DynamoDB page requests, counts of hedged and timed out requests, the hit rates of
+   * the point and tile caches, the state of the in-memory point index, of the cluster pyramid and of the change
+   * feed.
+   */
+  Map<String, Object> getQueryMetrics();
 }
@@ -0,0 +1,173 @@
+package com.surf.advisor.geolocation.query.util;
+
+import static com.dashlabs.dash.geo.model.filters.GeoFilter.LATITUDE_FIELD;
+import static com.dashlabs.dash.geo.model.filters.GeoFilter.LONGITUDE_FIELD;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.google.common.geometry.S1Angle;
+import com.google.common.geometry.S2Cell;
+import com.google.common.geometry.S2CellId;
+import com.google.common.geometry.S2CellUnion;
+import com.google.common.geometry.S2LatLng;
+import com.google.common.geometry.S2Point;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * The state of a k-nearest-neighbour search that grows outward from the S2 cell of the query point, ring of
+ * neighbouring cells by ring.
+ * <p>
+ * Every unvisited cell lies beyond the ring of cells bordering the visited ones, so the distance to the nearest cell
+ * of that ring bounds the distance to any unvisited geolocation from below. Once the k-th nearest candidate is no
+ * farther than that bound, no unvisited geolocation can be nearer and the search is complete. The candidates are kept
+ * in a max-heap of k entries.
+ * <p>
+ * A search is not thread safe, the rings are queried one after the other.
+ */
+public class NearestNeighbourSearch {
+
+  private final S2LatLng centre;
+  private final S2Point centrePoint;
+  private final int k;
+  private final double maxRadius;
+  private final int level;
+
+  private final Set<S2CellId> visited = new HashSet<>();
+
+  /**
+   * The cells to query next, bordering the visited ones
+   */
+  private List<S2CellId> ring;
+
+  /**
+   * The lower bound of the distance to any cell of the ring, in metres
+   */
+  private double ringDistance;
+
+  private int rings;
+
+  /**
+   * The farthest of the nearest candidates on top
+   */
+  private final PriorityQueue<Candidate> candidates;
+
+  /**
+   * @param level     the level of the ring cells, the one of the query point's cell
+   * @param maxRadius the distance in metres beyond which geolocations are ignored
+   */
+  public NearestNeighbourSearch(double latitude, double longitude, int k, double maxRadius, int level) {
+    this.centre = S2LatLng.fromDegrees(latitude, longitude);
+    this.centrePoint = centre.toPoint();
+    this.k = k;
+    this.maxRadius = maxRadius;
+    this.level = level;
+    this.ring = List.of(S2CellId.fromLatLng(centre).parent(level));
+    this.ringDistance = 0.0d;
+    this.candidates = new PriorityQueue<>(k, (a, b) -> Double.compare(b.distance, a.distance));
+  }
+
+  /**
+   * @return the cells of the ring to query next
+   */
+  public S2CellUnion ring() {
+    var cells = new S2CellUnion();
+    cells.initFromCellIds(new ArrayList<>(ring));
+    return cells;
+  }
+
+  /**
+   * Takes the items read for the current ring and moves on to the next ring.
+   */
+  public void accept(List<Map<String, AttributeValue>> items) {
+    for (var item : items) {
+      double distance = centre.getEarthDistance(S2LatLng.fromDegrees(
+        Double.parseDouble(item.get(LATITUDE_FIELD).getN()),
+        Double.parseDouble(item.get(LONGITUDE_FIELD).getN())));
+      if (distance > maxRadius) {
+        continue;
+      }
+      if (candidates.size() < k) {
+        candidates.add(new Candidate(item, distance));
+      } else if (distance < candidates.peek().distance) {
+        candidates.poll();
+        candidates.add(new Candidate(item, distance));
+      }
+    }
+
+    visited.addAll(ring);
+    rings++;
+
+    var next = new LinkedHashSet<S2CellId>();
+    var neighbours = new ArrayList<S2CellId>(8);
+    for (var cell : ring) {
+      neighbours.clear();
+      cell.getAllNeighbors(level, neighbours);
+      for (var neighbour : neighbours) {
+        if (!visited.contains(neighbour)) {
+          next.add(neighbour);
+        }
+      }
+    }
+    ring = new ArrayList<>(next);
+    ringDistance = Double.POSITIVE_INFINITY;
+    for (var cell : ring) {
+      ringDistance = Math.min(ringDistance, distanceTo(cell));
+    }
+  }
+
+  /**
+   * @return whether no unvisited geolocation can be nearer than the k nearest candidates, or within the max radius
+   */
+  public boolean isComplete() {
+    return ring.isEmpty() || ringDistance > maxRadius
+      || (candidates.size() == k && candidates.peek().distance <= ringDistance);
+  }
+
+  /**
+   * @return the number of rings visited so far
+   */
+  public int getRings() {
+    return rings;
+  }
+
+  /**
+   * @return the nearest candidates, nearest first
+   */
+  public List<Map<String, AttributeValue>> nearest() {
+    var heap = new PriorityQueue<>(candidates);
+    var nearest = new ArrayList<Map<String, AttributeValue>>(heap.size());
+    while (!heap.isEmpty()) {
+      nearest.add(heap.poll().item);
+    }
+    // polled farthest first
+    Collections.reverse(nearest);
+    return nearest;
+  }
+
+  /**
+   * A lower bound of the distance to any point of the cell: the distance to the centre of the cell's bounding cap
+   * less the cap's radius.
+   */
+  private double distanceTo(S2CellId cellId) {
+    var cap = new S2Cell(cellId).getCapBound();
+    double radians = new S1Angle(cap.axis(), centrePoint).radians() - cap.angle().radians();
+    return Math.max(0.0d, radians) * S2LatLng.EARTH_RADIUS_METERS;
+  }
+
+  private static final class Candidate {
+
+    private final Map<String, AttributeValue> item;
+    private final double distance;
+
+    private Candidate(Map<String, AttributeValue> item, double distance) {
+      this.item = item;
+      this.distance = distance;
+    }
+  }
+}
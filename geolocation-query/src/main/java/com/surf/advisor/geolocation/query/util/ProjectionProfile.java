@@ -0,0 +1,60 @@
+package com.surf.advisor.geolocation.query.util;
+
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toMap;
+
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import lombok.Getter;
+
+/**
+ * The attributes an endpoint reads of the queried items, pushed down to every range query as its projection.
+ * Every profile holds latitude and longitude, which the geo filter needs. A geo index projecting no more than a
+ * profile's attributes serves its queries from the index alone.
+ */
+@Getter
+public enum ProjectionProfile {
+
+  GEOLOCATION("objectType", "objectId", "latitude", "longitude"),
+  CLUSTER("objectType", "objectId", "latitude", "longitude", "geoHash"),
+  COUNT("latitude", "longitude");
+
+  private final List<String> attributes;
+
+  ProjectionProfile(String... attributes) {
+    this.attributes = List.of(attributes);
+  }
+
+  /**
+   * @return a query of the table projecting the profile's attributes, to be decorated with the geo conditions
+   */
+  public QueryRequest queryRequest(String tableName) {
+    return new QueryRequest(tableName)
+      .withProjectionExpression(projectionExpression())
+      .withExpressionAttributeNames(expressionAttributeNames());
+  }
+
+  /**
+   * @return the keys and attributes of a batch get projecting the profile's attributes, to be completed with keys
+   */
+  public KeysAndAttributes keysAndAttributes() {
+    return new KeysAndAttributes()
+      .withProjectionExpression(projectionExpression())
+      .withExpressionAttributeNames(expressionAttributeNames());
+  }
+
+  private String projectionExpression() {
+    return IntStream.range(0, attributes.size()).mapToObj(ProjectionProfile::placeholder).collect(joining(", "));
+  }
+
+  private Map<String, String> expressionAttributeNames() {
+    return IntStream.range(0, attributes.size()).boxed().collect(toMap(ProjectionProfile::placeholder, attributes::get));
+  }
+
+  private static String placeholder(int index) {
+    return "#p" + index;
+  }
+}
@@ -0,0 +1,55 @@
+package com.surf.advisor.geolocation.query.util;
+
+import static com.dashlabs.dash.geo.model.filters.GeoFilter.LATITUDE_FIELD;
+import static com.dashlabs.dash.geo.model.filters.GeoFilter.LONGITUDE_FIELD;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.google.common.geometry.S2LatLng;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import lombok.experimental.UtilityClass;
+
+@UtilityClass
+public class RadiusQueryUtils {
+
+  /**
+   * Selects the <code>limit</code> items nearest to the centre with a max-heap of <code>limit</code> entries,
+   * in O(n log limit) instead of sorting all items.
+   *
+   * @return the nearest items, nearest first
+   */
+  public static List<Map<String, AttributeValue>> nearest(List<Map<String, AttributeValue>> items,
+                                                          double latitude, double longitude, int limit) {
+    var centre = S2LatLng.fromDegrees(latitude, longitude);
+    var distances = new double[items.size()];
+    for (int i = 0; i < items.size(); i++) {
+      var item = items.get(i);
+      distances[i] = centre.getEarthDistance(S2LatLng.fromDegrees(
+        Double.parseDouble(item.get(LATITUDE_FIELD).getN()),
+        Double.parseDouble(item.get(LONGITUDE_FIELD).getN())));
+    }
+
+    // the farthest of the nearest items seen so far on top
+    var heap = new PriorityQueue<Integer>(Math.max(1, Math.min(limit, items.size())),
+      (a, b) -> Double.compare(distances[b], distances[a]));
+    for (int i = 0; i < items.size(); i++) {
+      if (heap.size() < limit) {
+        heap.add(i);
+      } else if (distances[i] < distances[heap.peek()]) {
+        heap.poll();
+        heap.add(i);
+      }
+    }
+
+    var nearest = new ArrayList<Map<String, AttributeValue>>(heap.size());
+    while (!heap.isEmpty()) {
+      nearest.add(items.get(heap.poll()));
+    }
+    // polled farthest first
+    Collections.reverse(nearest);
+    return nearest;
+  }
+}
@@ -0,0 +1,139 @@
+package com.surf.advisor.geolocation.query.feed;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.surf.advisor.geolocation.api.event.GeolocationChangedEvent;
+import com.surf.advisor.geolocation.api.model.Geolocation;
+import com.surf.advisor.geolocation.api.model.LocationId;
+import com.surf.advisor.geolocation.query.cache.PointCache;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Drives a point cache with the changes of an {@link InMemoryChangeFeed} through a {@link StaleChangeFilter}, the
+ * way the stream's changes reach the caches of a node that publishes its own writes as well.
+ */
+public class StaleChangeFilterTest {
+
+  private static final LocationId SPOT = LocationId.of("spot", "pipeline");
+
+  private final PointCache pointCache = new PointCache(100, 10, 10, MINUTES);
+
+  private final List<GeolocationChangedEvent> delivered = new ArrayList<>();
+
+  private StaleChangeFilter filter;
+  private InMemoryChangeFeed feed;
+
+  @Before
+  public void setUp() {
+    // the changes are published as application events, to the filter as well
+    filter = new StaleChangeFilter(change -> {
+      delivered.add(change);
+      pointCache.onGeolocationChanged(change);
+      filter.onGeolocationChanged(change);
+    });
+    feed = new InMemoryChangeFeed(filter);
+    feed.start();
+  }
+
+  @Test
+  public void feedChangesReachTheCacheInWriteOrder() {
+    feed.append(GeolocationChangedEvent.of(null, spotAt(21.66d), 1000L));
+    feed.append(GeolocationChangedEvent.of(spotAt(21.66d), spotAt(21.67d), 2000L));
+
+    assertEquals(2, delivered.size());
+    assertEquals(21.67d, cached().getLatitude(), 0.0d);
+  }
+
+  @Test
+  public void olderFeedChangesThanALocalWriteAreDiscarded() {
+    // the writing node published its latest write right away, the feed delivers it and an older one later
+    publishLocally(GeolocationChangedEvent.of(spotAt(21.66d), spotAt(21.68d), 3000L));
+
+    feed.append(GeolocationChangedEvent.of(null, spotAt(21.66d), 2000L));
+    assertEquals(21.68d, cached().getLatitude(), 0.0d);
+
+    feed.append(GeolocationChangedEvent.of(spotAt(21.66d), spotAt(21.68d), 3000L));
+    assertEquals(1, delivered.size());
+    assertEquals(21.68d, cached().getLatitude(), 0.0d);
+
+    feed.append(GeolocationChangedEvent.of(spotAt(21.68d), spotAt(21.69d), 4000L));
+    assertEquals(21.69d, cached().getLatitude(), 0.0d);
+  }
+
+  @Test
+  public void changesBeforeTheOwnWriteAreDiscardedWhateverTheirUpdatedAt() {
+    publishLocally(GeolocationChangedEvent.of(null, spotAt(21.66d), 3000L));
+
+    feed.append(GeolocationChangedEvent.of(null, spotAt(21.65d), 0L));
+    feed.append(GeolocationChangedEvent.of(spotAt(21.65d), spotAt(21.64d), 5000L));
+    assertEquals(0, delivered.size());
+    assertEquals(21.66d, cached().getLatitude(), 0.0d);
+
+    feed.append(GeolocationChangedEvent.of(spotAt(21.64d), spotAt(21.66d), 3000L));
+    feed.append(GeolocationChangedEvent.removed(spotAt(21.66d)));
+    assertFalse(pointCache.get(SPOT, id -> Optional.empty()).isPresent());
+  }
+
+  @Test
+  public void newerWritesOfOtherNodesPassDespiteSkewedClocks() {
+    // this node's clock runs a minute ahead of the other writer's
+    publishLocally(GeolocationChangedEvent.of(spotAt(21.66d), spotAt(21.67d), 60_000L));
+    feed.append(GeolocationChangedEvent.of(spotAt(21.66d), spotAt(21.67d), 60_000L));
+
+    // written by the other node afterwards, with an older updatedAt
+    feed.append(GeolocationChangedEvent.of(spotAt(21.67d), spotAt(21.68d), 1_000L));
+    assertEquals(21.68d, cached().getLatitude(), 0.0d);
+
+    feed.append(GeolocationChangedEvent.of(spotAt(21.68d), spotAt(21.69d), 2_000L));
+    assertEquals(21.69d, cached().getLatitude(), 0.0d);
+    assertEquals(3, delivered.size());
+  }
+
+  @Test
+  public void ownWritesDeliveredBeforeTheyWerePublishedAreNotWaitedFor() {
+    feed.append(GeolocationChangedEvent.of(spotAt(21.66d), spotAt(21.67d), 3000L));
+    publishLocally(GeolocationChangedEvent.of(spotAt(21.66d), spotAt(21.67d), 3000L));
+
+    feed.append(GeolocationChangedEvent.of(spotAt(21.67d), spotAt(21.68d), 2000L));
+    assertEquals(21.68d, cached().getLatitude(), 0.0d);
+  }
+
+  @Test
+  public void changesAppendedWhileStoppedAreFilteredOnStart() {
+    feed.stop();
+    feed.append(GeolocationChangedEvent.of(null, spotAt(21.66d), 1000L));
+    feed.append(GeolocationChangedEvent.of(spotAt(21.66d), spotAt(21.67d), 2000L));
+    publishLocally(GeolocationChangedEvent.of(spotAt(21.67d), spotAt(21.68d), 3000L));
+
+    assertEquals(0, delivered.size());
+    feed.start();
+
+    assertEquals(0, delivered.size());
+    assertEquals(21.68d, cached().getLatitude(), 0.0d);
+    assertEquals(0, feed.snapshot().get("pending"));
+  }
+
+  /**
+   * A write of this node, published to all listeners, the filter among them
+   */
+  private void publishLocally(GeolocationChangedEvent change) {
+    filter.onGeolocationChanged(change);
+    pointCache.onGeolocationChanged(change);
+  }
+
+  private Geolocation cached() {
+    return pointCache.get(SPOT, id -> {
+      throw new AssertionError("not cached: " + id);
+    }).orElseThrow();
+  }
+
+  private static Geolocation spotAt(double latitude) {
+    return new Geolocation(SPOT.getObjectId(), SPOT.getObjectType(), latitude, -158.05d);
+  }
+}
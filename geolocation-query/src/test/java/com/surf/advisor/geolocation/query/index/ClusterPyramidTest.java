@@ -0,0 +1,268 @@
+package com.surf.advisor.geolocation.query.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.amazonaws.services.dynamodbv2.AbstractAmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.surf.advisor.geolocation.api.model.GeoCluster;
+import com.surf.advisor.geolocation.api.model.Geolocation;
+import com.surf.advisor.geolocation.api.model.LocationId;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Moves, adds and removes geolocations of a loaded pyramid, also while it is being loaded, and compares its clusters
+ * with those of a pyramid loaded from the resulting geolocations, which have to be the same to the last bit.
+ */
+public class ClusterPyramidTest {
+
+  private static final String TABLE_NAME = "geolocation";
+  private static final int SEGMENTS = 4;
+  private static final int MIN_LEVEL = 2;
+  private static final int MAX_LEVEL = 16;
+
+  private static final double MIN_LATITUDE = -33.95d;
+  private static final double MIN_LONGITUDE = 151.15d;
+  private static final double SPREAD = 0.2d;
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(SEGMENTS);
+  private final Random random = new Random(20191221L);
+
+  /**
+   * The geolocations the pyramid should hold
+   */
+  private final Map<LocationId, Geolocation> geolocations = new LinkedHashMap<>();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void movesAndRemovalsLeaveTheClustersOfALoad() throws Exception {
+    addRandomly(3_000);
+    var pyramid = loaded(new TableStub(geolocations.values()));
+
+    writeRandomly(pyramid, 5_000);
+
+    assertClusters(pyramid);
+  }
+
+  @Test
+  public void removingEverythingLeavesNoCluster() throws Exception {
+    addRandomly(500);
+    var pyramid = loaded(new TableStub(geolocations.values()));
+    // every geolocation moves through several cells before it is removed
+    for (int round = 0; round < 5; round++) {
+      for (var id : geolocations.keySet()) {
+        pyramid.put(randomGeolocation(id.getObjectType(), id.getObjectId()));
+      }
+    }
+
+    geolocations.keySet().forEach(pyramid::remove);
+
+    assertTrue(pyramid.clusters(MIN_LATITUDE - 1, MIN_LONGITUDE - 1, MIN_LATITUDE + 1, MIN_LONGITUDE + 1).get()
+      .isEmpty());
+    assertEquals(0, pyramid.snapshot().get("points"));
+  }
+
+  @Test
+  public void writesDuringTheLoadWinOverTheScan() throws Exception {
+    addRandomly(3_000);
+    var table = new TableStub(geolocations.values());
+    table.blocked = new CountDownLatch(1);
+    var pyramid = new ClusterPyramid(executor, MIN_LEVEL, MAX_LEVEL);
+
+    var load = pyramid.load(table, TABLE_NAME, SEGMENTS);
+    assertTrue(table.scanning.await(5, TimeUnit.SECONDS));
+    writeRandomly(pyramid, 2_000);
+    assertFalse(pyramid.isReady());
+    table.blocked.countDown();
+    load.get(10, TimeUnit.SECONDS);
+
+    assertTrue(pyramid.isReady());
+    assertClusters(pyramid);
+  }
+
+  @Test
+  public void clustersAcrossTheAntimeridianHaveTheirCentroidOnIt() throws Exception {
+    for (int i = 0; i < 1_000; i++) {
+      double longitude = 179.95d + random.nextDouble() * 0.1d;
+      var geolocation = new Geolocation("point-" + i, "spot", -17.75d + random.nextDouble() * 0.1d,
+        longitude > 180.0d ? longitude - 360.0d : longitude);
+      geolocations.put(LocationId.of("spot", geolocation.getObjectId()), geolocation);
+    }
+    var pyramid = loaded(new TableStub(geolocations.values()));
+
+    // the antimeridian halves the cells of face 3, the clusters on either side lie on it, not around longitude 0
+    for (double size : new double[]{0.2d, 1.0d, 5.0d, 20.0d, 60.0d}) {
+      var clusters = pyramid.clusters(-17.7d - size, 180.0d - size, -17.7d + size, -180.0d + size).get();
+
+      assertEquals(geolocations.size(), clusters.stream().mapToInt(GeoCluster::getCount).sum());
+      for (var cluster : clusters) {
+        assertTrue(cluster.toString(), Math.abs(cluster.getLongitude()) >= 179.95d);
+      }
+    }
+  }
+
+  @Test
+  public void smallClustersListTheirMembers() throws Exception {
+    addRandomly(2_000);
+    var pyramid = loaded(new TableStub(geolocations.values()));
+    writeRandomly(pyramid, 1_000);
+
+    for (double size : new double[]{0.01d, 0.05d, SPREAD * 2}) {
+      var margin = size / 2;
+      var clusters = pyramid.clusters(MIN_LATITUDE - margin, MIN_LONGITUDE - margin,
+        MIN_LATITUDE + SPREAD + margin, MIN_LONGITUDE + SPREAD + margin).get();
+
+      assertEquals(geolocations.size(), clusters.stream().mapToInt(GeoCluster::getCount).sum());
+      var listed = new HashSet<LocationId>();
+      for (var cluster : clusters) {
+        if (cluster.getCount() <= 32) {
+          assertEquals(cluster.getCount().intValue(), cluster.getObjectIds().size());
+          for (var id : cluster.getObjectIds()) {
+            assertTrue(geolocations.containsKey(id));
+            assertTrue("listed twice " + id, listed.add(id));
+          }
+        } else {
+          assertTrue(cluster.getObjectIds().isEmpty());
+        }
+      }
+    }
+  }
+
+  private ClusterPyramid loaded(TableStub table) throws Exception {
+    var pyramid = new ClusterPyramid(executor, MIN_LEVEL, MAX_LEVEL);
+    pyramid.load(table, TABLE_NAME, SEGMENTS).get(10, TimeUnit.SECONDS);
+    assertTrue(pyramid.isReady());
+    return pyramid;
+  }
+
+  /**
+   * Compares the clusters of viewports of all sizes with those of a pyramid loaded from the expected geolocations
+   */
+  private void assertClusters(ClusterPyramid pyramid) throws Exception {
+    var expected = loaded(new TableStub(geolocations.values()));
+    assertEquals(geolocations.size(), pyramid.snapshot().get("points"));
+    for (double size : new double[]{0.005d, 0.02d, 0.05d, SPREAD, 1.0d, 10.0d}) {
+      for (int i = 0; i < 10; i++) {
+        double latitude = MIN_LATITUDE - size / 2 + random.nextDouble() * SPREAD;
+        double longitude = MIN_LONGITUDE - size / 2 + random.nextDouble() * SPREAD;
+        assertEquals(size + " at " + latitude + ", " + longitude,
+          expected.clusters(latitude, longitude, latitude + size, longitude + size),
+          pyramid.clusters(latitude, longitude, latitude + size, longitude + size));
+      }
+    }
+  }
+
+  private void addRandomly(int count) {
+    for (int i = 0; i < count; i++) {
+      var geolocation = randomGeolocation(i % 3 == 0 ? "shop" : "spot", "point-" + i);
+      geolocations.put(LocationId.of(geolocation.getObjectType(), geolocation.getObjectId()), geolocation);
+    }
+  }
+
+  /**
+   * Moves, adds and removes geolocations, in the pyramid and in the expected geolocations
+   */
+  private void writeRandomly(ClusterPyramid pyramid, int writes) {
+    for (int i = 0; i < writes; i++) {
+      var ids = new ArrayList<>(geolocations.keySet());
+      var id = ids.get(random.nextInt(ids.size()));
+      switch (i % 4) {
+        case 0:
+          var added = randomGeolocation("spot", "added-" + i);
+          geolocations.put(LocationId.of("spot", added.getObjectId()), added);
+          pyramid.put(added);
+          break;
+        case 1:
+          geolocations.remove(id);
+          pyramid.remove(id);
+          break;
+        case 2:
+          // a few metres only, mostly within the same cell of the finest level
+          var current = geolocations.get(id);
+          var nudged = new Geolocation(id.getObjectId(), id.getObjectType(),
+            current.getLatitude() + random.nextDouble() * 1e-5d, current.getLongitude());
+          geolocations.put(id, nudged);
+          pyramid.put(nudged);
+          break;
+        default:
+          var moved = randomGeolocation(id.getObjectType(), id.getObjectId());
+          geolocations.put(id, moved);
+          pyramid.put(moved);
+          break;
+      }
+    }
+  }
+
+  private Geolocation randomGeolocation(String objectType, String objectId) {
+    return new Geolocation(objectId, objectType, MIN_LATITUDE + random.nextDouble() * SPREAD,
+      MIN_LONGITUDE + random.nextDouble() * SPREAD);
+  }
+
+  /**
+   * A table scanned in pages, the segment of an item told by its position; the scan can be held up
+   */
+  private static final class TableStub extends AbstractAmazonDynamoDB {
+
+    private static final int PAGE_SIZE = 100;
+
+    private final List<Map<String, AttributeValue>> items = new ArrayList<>();
+
+    private final CountDownLatch scanning = new CountDownLatch(1);
+
+    private volatile CountDownLatch blocked = new CountDownLatch(0);
+
+    private TableStub(Iterable<Geolocation> geolocations) {
+      for (var geolocation : geolocations) {
+        items.add(Map.of(
+          "objectType", new AttributeValue(geolocation.getObjectType()),
+          "objectId", new AttributeValue(geolocation.getObjectId()),
+          "latitude", new AttributeValue().withN(geolocation.getLatitude().toString()),
+          "longitude", new AttributeValue().withN(geolocation.getLongitude().toString())));
+      }
+    }
+
+    @Override
+    public ScanResult scan(ScanRequest request) {
+      scanning.countDown();
+      try {
+        blocked.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException(e);
+      }
+      int from = request.getExclusiveStartKey() == null
+        ? 0
+        : Integer.parseInt(request.getExclusiveStartKey().get("position").getN()) + 1;
+      var page = new ArrayList<Map<String, AttributeValue>>();
+      int position = from;
+      for (; position < items.size() && page.size() < PAGE_SIZE; position++) {
+        if (position % request.getTotalSegments() == request.getSegment()) {
+          page.add(items.get(position));
+        }
+      }
+      var result = new ScanResult().withItems(page);
+      if (position < items.size()) {
+        result.setLastEvaluatedKey(Map.of("position", new AttributeValue().withN(String.valueOf(position - 1))));
+      }
+      return result;
+    }
+  }
+}
@@ -0,0 +1,229 @@
+package com.surf.advisor.geolocation.query.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.amazonaws.geo.model.filters.GeoFilters;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.dashlabs.dash.geo.s2.internal.S2Manager;
+import com.google.common.geometry.S2LatLng;
+import com.surf.advisor.geolocation.api.model.Geolocation;
+import com.surf.advisor.geolocation.api.model.LocationId;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Compares the answers of a point index, restored from a snapshot and written to, with what the DynamoDB geo filters
+ * keep of the same geolocations, before, after and during the compaction of the writes.
+ */
+public class PointIndexTest {
+
+  private static final int POINTS = 5_000;
+  private static final String[] TYPES = {"spot", "shop", "school"};
+
+  private static final double MIN_LATITUDE = -33.95d;
+  private static final double MIN_LONGITUDE = 151.15d;
+  private static final double SPREAD = 0.2d;
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private final S2Manager s2Manager = new S2Manager();
+  private final Random random = new Random(20191216L);
+
+  /**
+   * The geolocations the index should hold
+   */
+  private final Map<LocationId, Geolocation> geolocations = new HashMap<>();
+
+  private final List<Thread> compactions = new ArrayList<>();
+
+  @Before
+  public void setUp() {
+    for (int i = 0; i < POINTS; i++) {
+      var geolocation = randomGeolocation(TYPES[i % TYPES.length], "point-" + i);
+      geolocations.put(idOf(geolocation), geolocation);
+    }
+  }
+
+  @Test
+  public void queriesKeepWhatTheDynamoDbFiltersKeep() throws IOException {
+    var index = restoredIndex(Runnable::run, Integer.MAX_VALUE);
+
+    assertQueriesMatch(index);
+  }
+
+  @Test
+  public void writesShadowTheSortedPoints() throws IOException {
+    var index = restoredIndex(Runnable::run, Integer.MAX_VALUE);
+
+    int writtenIds = writeRandomly(index, 500).size();
+
+    // one written point per geolocation, all of them waiting for a compaction
+    assertEquals(writtenIds, ((Number) index.snapshot().get("delta")).intValue());
+    assertQueriesMatch(index);
+  }
+
+  @Test
+  public void writesAreMergedByCompactions() throws IOException {
+    var index = restoredIndex(Runnable::run, 64);
+
+    writeRandomly(index, 1_000);
+
+    assertTrue(((Number) index.snapshot().get("delta")).intValue() <= 64);
+    assertQueriesMatch(index);
+  }
+
+  @Test
+  public void writesDuringACompactionAreKept() throws Exception {
+    var index = restoredIndex(command -> {
+      var thread = new Thread(command, "compaction");
+      compactions.add(thread);
+      thread.start();
+    }, 64);
+
+    Set<LocationId> written;
+    synchronized (index) {
+      // the compaction merges these, then waits for the lock to install the merged points
+      writeRandomly(index, 65);
+      assertEquals(1, compactions.size());
+      var compaction = compactions.get(0);
+      while (compaction.getState() != Thread.State.BLOCKED && compaction.isAlive()) {
+        Thread.sleep(1);
+      }
+      assertTrue(compaction.isAlive());
+
+      // moves and removals of merged points and of sorted ones
+      written = writeRandomly(index, 40);
+    }
+    compactions.get(0).join();
+
+    // the writes during the merge stay written
+    assertEquals(written.size(), ((Number) index.snapshot().get("delta")).intValue());
+    assertQueriesMatch(index);
+  }
+
+  @Test
+  public void unknownObjectTypesSelectNothing() throws IOException {
+    var index = restoredIndex(Runnable::run, Integer.MAX_VALUE);
+
+    var result = index.radiusQuery(MIN_LATITUDE + SPREAD / 2, MIN_LONGITUDE + SPREAD / 2, 50_000.0d, "harbour",
+      Integer.MAX_VALUE);
+
+    assertTrue(result.getItems().isEmpty());
+    assertFalse(result.isTruncated());
+  }
+
+  private PointIndex restoredIndex(Executor executor, int compactionThreshold) throws IOException {
+    var builder = new Points.Builder(0);
+    geolocations.values().forEach(geolocation -> builder.add(
+      s2Manager.generateGeohash(geolocation.getLatitude(), geolocation.getLongitude()), geolocation.getLatitude(),
+      geolocation.getLongitude(), geolocation.getObjectType(), geolocation.getObjectId()));
+    var path = folder.getRoot().toPath().resolve("points.snapshot");
+    PointSnapshot.write(path, builder.build(), System.currentTimeMillis());
+
+    var index = new PointIndex(s2Manager, executor, compactionThreshold);
+    assertTrue(index.restore(path, 60_000L));
+    return index;
+  }
+
+  /**
+   * Puts new geolocations, moves and removes existing ones, in the index and in the expected geolocations
+   */
+  private Set<LocationId> writeRandomly(PointIndex index, int writes) {
+    var ids = new ArrayList<>(geolocations.keySet());
+    var written = new HashSet<LocationId>();
+    for (int i = 0; i < writes; i++) {
+      var id = ids.get(random.nextInt(ids.size()));
+      switch (i % 3) {
+        case 0:
+          var added = randomGeolocation(TYPES[random.nextInt(TYPES.length)], "added-" + i + "-" + random.nextInt());
+          geolocations.put(idOf(added), added);
+          written.add(idOf(added));
+          index.put(added);
+          break;
+        case 1:
+          var moved = randomGeolocation(id.getObjectType(), id.getObjectId());
+          geolocations.put(id, moved);
+          written.add(id);
+          index.put(moved);
+          break;
+        default:
+          geolocations.remove(id);
+          written.add(id);
+          index.remove(id);
+          break;
+      }
+    }
+    return written;
+  }
+
+  private void assertQueriesMatch(PointIndex index) {
+    for (int i = 0; i < 50; i++) {
+      double latitude = MIN_LATITUDE + random.nextDouble() * SPREAD;
+      double longitude = MIN_LONGITUDE + random.nextDouble() * SPREAD;
+      double radius = 500.0d + random.nextDouble() * 5_000.0d;
+      var type = i % 2 == 0 ? null : TYPES[i % TYPES.length];
+
+      var radiusFilter = GeoFilters.newRadiusFilter(S2LatLng.fromDegrees(latitude, longitude), radius);
+      assertEquals(idsOf(radiusFilter.filter(itemsOf(type))),
+        idsOf(index.radiusQuery(latitude, longitude, radius, type, Integer.MAX_VALUE).getItems()));
+
+      double maxLatitude = latitude + random.nextDouble() * SPREAD / 4;
+      double maxLongitude = longitude + random.nextDouble() * SPREAD / 4;
+      var box = s2Manager.getBoundingBoxForRectangleQuery(latitude, longitude, maxLatitude, maxLongitude);
+      var expected = idsOf(GeoFilters.newRectangleFilter(box).filter(itemsOf(null)));
+      assertEquals(expected,
+        idsOf(index.rectangleQuery(latitude, longitude, maxLatitude, maxLongitude, Integer.MAX_VALUE).getItems()));
+      assertEquals(expected.size(),
+        index.countRectangle(latitude, longitude, maxLatitude, maxLongitude, Integer.MAX_VALUE).getCount());
+    }
+    assertEquals(geolocations.size(), ((Number) index.snapshot().get("points")).intValue());
+  }
+
+  /**
+   * The expected geolocations as DynamoDB items
+   */
+  private List<Map<String, AttributeValue>> itemsOf(String objectType) {
+    var items = new ArrayList<Map<String, AttributeValue>>();
+    for (var geolocation : geolocations.values()) {
+      if (objectType == null || objectType.equals(geolocation.getObjectType())) {
+        items.add(Map.of(
+          "objectType", new AttributeValue(geolocation.getObjectType()),
+          "objectId", new AttributeValue(geolocation.getObjectId()),
+          "latitude", new AttributeValue().withN(geolocation.getLatitude().toString()),
+          "longitude", new AttributeValue().withN(geolocation.getLongitude().toString())));
+      }
+    }
+    return items;
+  }
+
+  private static Set<String> idsOf(List<Map<String, AttributeValue>> items) {
+    var ids = new HashSet<String>();
+    for (var item : items) {
+      assertTrue("duplicate " + item, ids.add(item.get("objectType").getS() + "#" + item.get("objectId").getS()));
+    }
+    return ids;
+  }
+
+  private Geolocation randomGeolocation(String objectType, String objectId) {
+    return new Geolocation(objectId, objectType, MIN_LATITUDE + random.nextDouble() * SPREAD,
+      MIN_LONGITUDE + random.nextDouble() * SPREAD);
+  }
+
+  private static LocationId idOf(Geolocation geolocation) {
+    return LocationId.of(geolocation.getObjectType(), geolocation.getObjectId());
+  }
+}
@@ -0,0 +1,127 @@
+package com.surf.advisor.geolocation.query.index;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Writes points to a snapshot file and reads them back, intact and broken in the ways a crash or a copy breaks them.
+ */
+public class PointSnapshotTest {
+
+  private static final long WATERMARK = 1_576_000_000_000L;
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private Path path;
+  private Points points;
+
+  @Before
+  public void setUp() {
+    path = folder.getRoot().toPath().resolve("points.snapshot");
+
+    var random = new Random(20191215L);
+    var builder = new Points.Builder(0);
+    for (int i = 0; i < 1000; i++) {
+      builder.add(random.nextLong(), random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180,
+        i % 3 == 0 ? "shop" : "spot", i % 7 == 0 ? "plage-" + i + "-été" : "spot-" + i);
+    }
+    points = builder.build();
+  }
+
+  @Test
+  public void pointsAreReadAsWritten() throws IOException {
+    PointSnapshot.write(path, points, WATERMARK);
+
+    var snapshot = PointSnapshot.read(path);
+
+    assertEquals(WATERMARK, snapshot.watermark);
+    var read = snapshot.points;
+    assertEquals(points.size, read.size);
+    assertArrayEquals(Arrays.copyOf(points.cells, points.size), Arrays.copyOf(read.cells, read.size));
+    assertArrayEquals(Arrays.copyOf(points.latitudes, points.size), Arrays.copyOf(read.latitudes, read.size), 0.0d);
+    assertArrayEquals(Arrays.copyOf(points.longitudes, points.size), Arrays.copyOf(read.longitudes, read.size), 0.0d);
+    assertArrayEquals(Arrays.copyOf(points.types, points.size), Arrays.copyOf(read.types, read.size));
+    assertArrayEquals(points.typeNames, read.typeNames);
+    assertArrayEquals(Arrays.copyOf(points.objectIds, points.size), Arrays.copyOf(read.objectIds, read.size));
+    // the lookup by id is rebuilt
+    for (int i = 0; i < read.size; i++) {
+      assertEquals(i, read.positionOf(read.typeNames[read.types[i]], read.objectIds[i]));
+    }
+  }
+
+  @Test
+  public void emptyPointsAreReadAsWritten() throws IOException {
+    PointSnapshot.write(path, Points.EMPTY, WATERMARK);
+
+    var snapshot = PointSnapshot.read(path);
+
+    assertEquals(0, snapshot.points.size);
+    assertEquals(WATERMARK, snapshot.watermark);
+  }
+
+  @Test
+  public void aFlippedByteFailsTheChecksum() throws IOException {
+    PointSnapshot.write(path, points, WATERMARK);
+    var bytes = Files.readAllBytes(path);
+    bytes[PointSnapshot.HEADER_SIZE + bytes.length / 2] ^= 0x10;
+    Files.write(path, bytes);
+
+    assertUnreadable("snapshot checksum mismatch");
+  }
+
+  @Test
+  public void anotherVersionIsNotRead() throws IOException {
+    PointSnapshot.write(path, points, WATERMARK);
+    var bytes = Files.readAllBytes(path);
+    ByteBuffer.wrap(bytes).putInt(Integer.BYTES, PointSnapshot.VERSION + 1);
+    Files.write(path, bytes);
+
+    assertUnreadable("unsupported snapshot version " + (PointSnapshot.VERSION + 1));
+  }
+
+  @Test
+  public void aTruncatedFileIsNotRead() throws IOException {
+    PointSnapshot.write(path, points, WATERMARK);
+    var bytes = Files.readAllBytes(path);
+
+    Files.write(path, Arrays.copyOf(bytes, bytes.length - 1));
+    assertUnreadable("truncated snapshot body");
+
+    Files.write(path, Arrays.copyOf(bytes, PointSnapshot.HEADER_SIZE - 1));
+    assertUnreadable("truncated snapshot header");
+  }
+
+  @Test
+  public void writingReplacesTheSnapshotWithoutLeavingTemporaryFiles() throws IOException {
+    PointSnapshot.write(path, points, WATERMARK);
+    PointSnapshot.write(path, Points.EMPTY, WATERMARK + 1);
+
+    assertEquals(WATERMARK + 1, PointSnapshot.read(path).watermark);
+    try (var files = Files.list(folder.getRoot().toPath())) {
+      assertEquals(1, files.count());
+    }
+  }
+
+  private void assertUnreadable(String message) {
+    try {
+      PointSnapshot.read(path);
+      fail("read a broken snapshot");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+    }
+  }
+}
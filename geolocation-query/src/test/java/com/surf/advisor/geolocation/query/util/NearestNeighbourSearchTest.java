@@ -0,0 +1,121 @@
+package com.surf.advisor.geolocation.query.util;
+
+import static com.dashlabs.dash.geo.model.filters.GeoFilter.LATITUDE_FIELD;
+import static com.dashlabs.dash.geo.model.filters.GeoFilter.LONGITUDE_FIELD;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.google.common.geometry.S2Cell;
+import com.google.common.geometry.S2CellId;
+import com.google.common.geometry.S2LatLng;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import org.junit.Test;
+
+/**
+ * Runs searches ring by ring over random points, each ring reading the points of its cells the way the cell queries
+ * do, and compares the result with the k nearest points found by brute force.
+ */
+public class NearestNeighbourSearchTest {
+
+  /**
+   * The ring cell level of the service, cells of about 10 km
+   */
+  private static final int LEVEL = 10;
+
+  private static final int POINTS = 2_000;
+  private static final int SEARCHES = 50;
+
+  private final Random random = new Random(20191220L);
+
+  @Test
+  public void searchesFindTheBruteForceNearest() {
+    assertSearchesMatch(-33.9d, 151.2d, 0.3d, Double.MAX_VALUE);
+  }
+
+  @Test
+  public void searchesFromACellCornerFindTheBruteForceNearest() {
+    // a corner of four cells of the ring level
+    var cell = new S2Cell(S2CellId.fromLatLng(S2LatLng.fromDegrees(48.85d, 2.35d)).parent(LEVEL));
+    var corner = new S2LatLng(cell.getVertex(0));
+    assertSearchesMatch(corner.latDegrees(), corner.lngDegrees(), 0.3d, Double.MAX_VALUE);
+  }
+
+  @Test
+  public void searchesFromACubeCornerFindTheBruteForceNearest() {
+    // where three faces meet and cells have seven neighbours only
+    var corner = new S2LatLng(new S2Cell(S2CellId.fromFacePosLevel(0, 0L, 0)).getVertex(0));
+    assertSearchesMatch(corner.latDegrees(), corner.lngDegrees(), 0.3d, Double.MAX_VALUE);
+  }
+
+  @Test
+  public void searchesAcrossTheAntimeridianFindTheBruteForceNearest() {
+    assertSearchesMatch(-17.7d, 180.0d, 0.3d, Double.MAX_VALUE);
+  }
+
+  @Test
+  public void searchesKeepWithinTheMaxRadius() {
+    // mostly fewer points than k within the radius, the search ends by the radius
+    assertSearchesMatch(-33.9d, 151.2d, 0.3d, 3_000.0d);
+    assertSearchesMatch(-17.7d, 180.0d, 0.3d, 8_000.0d);
+  }
+
+  /**
+   * Searches from random centres around the given one, among random points within <code>spread</code> degrees of it
+   */
+  private void assertSearchesMatch(double latitude, double longitude, double spread, double maxRadius) {
+    var points = new ArrayList<Map<String, AttributeValue>>();
+    for (int i = 0; i < POINTS; i++) {
+      points.add(point("point-" + i, latitude + (random.nextDouble() - 0.5d) * 2 * spread,
+        longitude + (random.nextDouble() - 0.5d) * 2 * spread));
+    }
+    for (int s = 0; s < SEARCHES; s++) {
+      var centre = S2LatLng.fromDegrees(latitude + (random.nextDouble() - 0.5d) * spread / 10,
+        longitude + (random.nextDouble() - 0.5d) * spread / 10).normalized();
+      int k = 1 + random.nextInt(50);
+
+      var search = new NearestNeighbourSearch(centre.latDegrees(), centre.lngDegrees(), k, maxRadius, LEVEL);
+      var read = new HashSet<Map<String, AttributeValue>>();
+      while (!search.isComplete()) {
+        var ring = search.ring();
+        var items = points.stream().filter(point -> ring.contains(S2CellId.fromLatLng(latLngOf(point))))
+          .collect(Collectors.toList());
+        for (var item : items) {
+          assertTrue("read twice " + item, read.add(item));
+        }
+        search.accept(items);
+        assertTrue("rings " + search.getRings(), search.getRings() <= 32);
+      }
+
+      var expected = points.stream()
+        .filter(point -> centre.getEarthDistance(latLngOf(point)) <= maxRadius)
+        .sorted(Comparator.comparingDouble(point -> centre.getEarthDistance(latLngOf(point))))
+        .limit(k)
+        .collect(Collectors.toList());
+      assertEquals(centre + " / " + k, distancesOf(centre, expected), distancesOf(centre, search.nearest()));
+    }
+  }
+
+  private static List<Double> distancesOf(S2LatLng centre, List<Map<String, AttributeValue>> points) {
+    return points.stream().map(point -> centre.getEarthDistance(latLngOf(point))).collect(Collectors.toList());
+  }
+
+  private static Map<String, AttributeValue> point(String objectId, double latitude, double longitude) {
+    var latLng = S2LatLng.fromDegrees(latitude, longitude).normalized();
+    return Map.of(
+      "objectId", new AttributeValue(objectId),
+      LATITUDE_FIELD, new AttributeValue().withN(Double.toString(latLng.latDegrees())),
+      LONGITUDE_FIELD, new AttributeValue().withN(Double.toString(latLng.lngDegrees())));
+  }
+
+  private static S2LatLng latLngOf(Map<String, AttributeValue> point) {
+    return S2LatLng.fromDegrees(Double.parseDouble(point.get(LATITUDE_FIELD).getN()),
+      Double.parseDouble(point.get(LONGITUDE_FIELD).getN()));
+  }
+}